@@ -0,0 +1,121 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.benchmark;
+
+import com.ning.http.client.AsyncHttpClient;
+import java.io.IOException;
+import net.tirasa.wink.client.asynchttpclient.ApacheHttpAsyncClientConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.wink.client.AsyncHttpClientConfiguration;
+import org.apache.wink.client.RestClient;
+import org.apache.wink.client.httpclient.ApacheHttpClientConfig;
+
+/**
+ * The three client backends exercised by {@link net.tirasa.wink.App}, configured to be comparable: same pool size,
+ * no limit per route.
+ */
+public enum Backend {
+
+    /**
+     * Apache Commons HttpClient (sync).
+     */
+    APACHE_HTTP_CLIENT {
+
+        @Override
+        public Client open(final boolean chunked) {
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(MAX_CONNECTIONS);
+            connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+            final CloseableHttpClient httpClient =
+                    HttpClientBuilder.create().setConnectionManager(connectionManager).build();
+
+            ApacheHttpClientConfig config = new ApacheHttpClientConfig(httpClient);
+            config.setChunked(chunked);
+            return new Client(new RestClient(config)) {
+
+                @Override
+                public void close() throws IOException {
+                    httpClient.close();
+                }
+            };
+        }
+    },
+    /**
+     * Ning AsyncHttpClient; request entities are always buffered, hence <tt>chunked</tt> is ignored.
+     */
+    NING_ASYNC_HTTP_CLIENT {
+
+        @Override
+        public Client open(final boolean chunked) {
+            final AsyncHttpClient asyncHttpClient = new AsyncHttpClient();
+            return new Client(new RestClient(new AsyncHttpClientConfiguration(asyncHttpClient))) {
+
+                @Override
+                public void close() throws IOException {
+                    asyncHttpClient.close();
+                }
+            };
+        }
+    },
+    /**
+     * Apache Commons HttpAsyncClient, via {@link ApacheHttpAsyncClientConfig}.
+     */
+    APACHE_HTTP_ASYNC_CLIENT {
+
+        @Override
+        public Client open(final boolean chunked) {
+            final ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+            config.setMaxPooledConnections(MAX_CONNECTIONS);
+            config.setChunked(chunked);
+            config.setCloseOnShutdown(false);
+            return new Client(new RestClient(config)) {
+
+                @Override
+                public void close() throws IOException {
+                    config.close();
+                }
+            };
+        }
+    };
+
+    private static final int MAX_CONNECTIONS = 256;
+
+    public abstract Client open(boolean chunked);
+
+    /**
+     * A RestClient together with the resources to release once done.
+     */
+    public abstract static class Client {
+
+        private final RestClient restClient;
+
+        protected Client(final RestClient restClient) {
+            this.restClient = restClient;
+        }
+
+        public RestClient getRestClient() {
+            return restClient;
+        }
+
+        public abstract void close() throws IOException;
+    }
+}
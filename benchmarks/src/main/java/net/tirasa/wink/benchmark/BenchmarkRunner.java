@@ -0,0 +1,78 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.benchmark;
+
+import java.util.Locale;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link ClientBenchmark} - or the benchmarks matching the given JMH include patterns - once per concurrency
+ * level, with the GC profiler enabled so that allocation rate is reported next to throughput and latency percentiles.
+ * <p>
+ * Usage: <tt>java -jar target/benchmarks.jar [concurrency levels, comma separated] [JMH options]</tt>, e.g.
+ * <tt>java -jar target/benchmarks.jar 1,16,64 -p payloadSize=16384 -rf json</tt> or
+ * <tt>java -jar target/benchmarks.jar 1 HeaderBenchmark</tt>.
+ */
+public final class BenchmarkRunner {
+
+    private static final String DEFAULT_CONCURRENCY = "1,16,64";
+
+    public static void main(final String[] args) throws RunnerException, CommandLineOptionException {
+        String concurrency = DEFAULT_CONCURRENCY;
+        String[] jmhArgs = args;
+        if (args.length > 0 && args[0].matches("\\d+(,\\d+)*")) {
+            concurrency = args[0];
+            jmhArgs = new String[args.length - 1];
+            System.arraycopy(args, 1, jmhArgs, 0, jmhArgs.length);
+        }
+
+        CommandLineOptions commandLineOptions = new CommandLineOptions(jmhArgs);
+        for (String threads : concurrency.split(",")) {
+            ChainedOptionsBuilder options = new OptionsBuilder().
+                    parent(commandLineOptions).
+                    addProfiler(GCProfiler.class).
+                    threads(Integer.parseInt(threads));
+            if (commandLineOptions.getIncludes().isEmpty()) {
+                options.include(ClientBenchmark.class.getSimpleName());
+            }
+            if (commandLineOptions.getResult().hasValue() || commandLineOptions.getResultFormat().hasValue()) {
+                // keep one result file per concurrency level
+                String result = commandLineOptions.getResult().hasValue()
+                        ? commandLineOptions.getResult().get()
+                        : "jmh-result." + commandLineOptions.getResultFormat().get().name().toLowerCase(Locale.ROOT);
+                int dot = result.lastIndexOf('.');
+                options.result(dot == -1
+                        ? result + "-t" + threads
+                        : result.substring(0, dot) + "-t" + threads + result.substring(dot));
+            }
+            new Runner(options.build()).run();
+        }
+    }
+
+    private BenchmarkRunner() {
+        // private constructor for static utility class
+    }
+}
@@ -0,0 +1,122 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.MediaType;
+import org.apache.wink.client.ClientResponse;
+import org.apache.wink.client.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the client backends on a full Wink request / response cycle against {@link StubServer}.
+ * Concurrency is given by the number of JMH threads sharing the same client (see {@link BenchmarkRunner}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientBenchmark {
+
+    @Param({ "APACHE_HTTP_CLIENT", "NING_ASYNC_HTTP_CLIENT", "APACHE_HTTP_ASYNC_CLIENT" })
+    public Backend backend;
+
+    @Param({ "128", "16384", "1048576" })
+    public int payloadSize;
+
+    /**
+     * Only relevant for {@link #post()}.
+     */
+    @Param({ "true", "false" })
+    public boolean chunked;
+
+    @Param({ "true", "false" })
+    public boolean keepAlive;
+
+    private StubServer server;
+
+    private Backend.Client client;
+
+    private String getURI;
+
+    private String postURI;
+
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new StubServer();
+        server.start();
+
+        client = backend.open(chunked);
+        getURI = server.getBaseURI() + "/bytes/" + payloadSize;
+        postURI = server.getBaseURI() + "/sink";
+        payload = server.payload(payloadSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop();
+    }
+
+    private Resource resource(final String uri) {
+        Resource resource = client.getRestClient().resource(uri);
+        if (!keepAlive) {
+            resource.header("Connection", "close");
+        }
+        return resource;
+    }
+
+    /**
+     * Downloads <tt>payloadSize</tt> bytes.
+     */
+    @Benchmark
+    public byte[] get() {
+        return resource(getURI).accept(MediaType.APPLICATION_OCTET_STREAM_TYPE).get(byte[].class);
+    }
+
+    /**
+     * Uploads <tt>payloadSize</tt> bytes; the body is given as stream so that it goes through the chunked or buffered
+     * entity path of each backend.
+     */
+    @Benchmark
+    public int post() {
+        ClientResponse response = resource(postURI).contentType(MediaType.APPLICATION_OCTET_STREAM_TYPE).
+                post(new ByteArrayInputStream(payload));
+        return response.getStatusCode();
+    }
+}
@@ -0,0 +1,130 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP stub bound to the loopback interface, so that benchmarks do not depend on network conditions.
+ * <ul>
+ * <li><tt>GET /bytes/{size}</tt> returns <tt>size</tt> random bytes;</li>
+ * <li><tt>POST /sink</tt> (or <tt>PUT</tt>) discards the request body and returns <tt>204 No Content</tt>.</li>
+ * </ul>
+ */
+public class StubServer {
+
+    private final ConcurrentMap<Integer, byte[]> payloads = new ConcurrentHashMap<Integer, byte[]>();
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+
+        server.createContext("/bytes/", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    drain(exchange.getRequestBody());
+
+                    byte[] payload = payload(Integer.parseInt(
+                            exchange.getRequestURI().getPath().substring("/bytes/".length())));
+                    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                    exchange.sendResponseHeaders(200, payload.length == 0 ? -1 : payload.length);
+                    if (payload.length > 0) {
+                        OutputStream out = exchange.getResponseBody();
+                        out.write(payload);
+                        out.close();
+                    }
+                } catch (NumberFormatException e) {
+                    exchange.sendResponseHeaders(400, -1);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext("/sink", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    drain(exchange.getRequestBody());
+                    exchange.sendResponseHeaders(204, -1);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    public String getBaseURI() {
+        return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort();
+    }
+
+    public byte[] payload(final int size) {
+        byte[] payload = payloads.get(size);
+        if (payload == null) {
+            payload = new byte[size];
+            new Random(size).nextBytes(payload);
+            byte[] previous = payloads.putIfAbsent(size, payload);
+            if (previous != null) {
+                payload = previous;
+            }
+        }
+        return payload;
+    }
+
+    private static void drain(final InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+        in.close();
+    }
+}
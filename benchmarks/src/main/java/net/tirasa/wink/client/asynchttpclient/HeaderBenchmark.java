@@ -0,0 +1,130 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.HttpHeaders;
+import org.apache.http.Header;
+import org.apache.http.message.BasicLineParser;
+import org.apache.http.message.LineParser;
+import org.apache.http.util.CharArrayBuffer;
+import org.apache.wink.client.internal.handlers.ClientResponseImpl;
+import org.apache.wink.common.internal.WinkConfiguration;
+import org.apache.wink.common.internal.registry.ProvidersRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares, for a received response, the former eager header pipeline - buffered headers copied one by one into the
+ * response header map, request attributes copied into the response - with the current one: headers parsed with
+ * canonical names, exposed as a view, attributes read in place.
+ * Each invocation parses the header lines, builds the response and performs the lookups done while reading a response
+ * entity; run with the GC profiler (see {@link net.tirasa.wink.benchmark.BenchmarkRunner}) to compare
+ * <tt>gc.alloc.rate.norm</tt>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeaderBenchmark {
+
+    private static final String[] COMMON_LINES = {
+        "Date: Sat, 17 Oct 2026 10:00:00 GMT",
+        "Server: stub",
+        "Content-Type: application/json",
+        "Content-Length: 128",
+        "Cache-Control: no-cache",
+        "ETag: \"0123456789\"",
+        "Vary: Accept-Encoding",
+        "Connection: keep-alive"
+    };
+
+    /**
+     * Number of response headers: the common ones first, then custom ones.
+     */
+    @Param({ "4", "8", "16" })
+    public int headerCount;
+
+    private CharArrayBuffer[] lines;
+
+    private Map<String, Object> requestAttributes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        lines = new CharArrayBuffer[headerCount];
+        for (int i = 0; i < headerCount; i++) {
+            String line = i < COMMON_LINES.length ? COMMON_LINES[i] : "X-Custom-" + i + ": value-" + i;
+            lines[i] = new CharArrayBuffer(line.length());
+            lines[i].append(line);
+        }
+
+        requestAttributes = new HashMap<String, Object>();
+        requestAttributes.put(WinkConfiguration.class.getName(), new Object());
+        requestAttributes.put(ProvidersRegistry.class.getName(), new Object());
+        requestAttributes.put(ApacheHttpAsyncClientConfig.REQUEST_TIMEOUT, 1000L);
+    }
+
+    private Header[] parse(final LineParser parser) {
+        Header[] headers = new Header[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            headers[i] = parser.parseHeader(lines[i]);
+        }
+        return headers;
+    }
+
+    private static void read(final ClientResponseImpl response, final Blackhole blackhole) {
+        blackhole.consume(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        blackhole.consume(response.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE));
+        blackhole.consume(response.getAttribute(WinkConfiguration.class));
+        blackhole.consume(response.getAttribute(ProvidersRegistry.class));
+    }
+
+    @Benchmark
+    public void eager(final Blackhole blackhole) {
+        Header[] headers = parse(BasicLineParser.INSTANCE);
+
+        ClientResponseImpl response = new ClientResponseImpl();
+        response.getAttributes().putAll(requestAttributes);
+        for (Header header : headers) {
+            response.getHeaders().add(header.getName(), header.getValue());
+        }
+        read(response, blackhole);
+    }
+
+    @Benchmark
+    public void lazy(final Blackhole blackhole) {
+        read(new ReceivedClientResponse(parse(InterningLineParser.INSTANCE), requestAttributes), blackhole);
+    }
+}
@@ -0,0 +1,95 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.wink.client.internal.handlers.ClientRequestImpl;
+import org.apache.wink.common.internal.WinkConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares, once the client is built, the lock-free lookup done by
+ * {@link ApacheHttpAsyncClientConnectionHandler#openConnection(org.apache.wink.client.ClientRequest)} on every request
+ * with the former one, synchronized on the handler.
+ * All JMH threads share the same handler: run once per concurrency level (see
+ * {@link net.tirasa.wink.benchmark.BenchmarkRunner}) for seeing how throughput scales with the number of threads, e.g.
+ * <tt>java -jar target/benchmarks.jar 1,4,16 OpenConnectionBenchmark</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpenConnectionBenchmark {
+
+    private ApacheHttpAsyncClientConfig config;
+
+    private ApacheHttpAsyncClientConnectionHandler handler;
+
+    private ClientRequestImpl request;
+
+    @Setup(Level.Trial)
+    public void setup() throws NoSuchAlgorithmException, KeyManagementException, IOException {
+        config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        config.setSharedClient(false);
+
+        request = new ClientRequestImpl();
+        request.setAttribute(WinkConfiguration.class, config);
+
+        handler = new ApacheHttpAsyncClientConnectionHandler();
+        handler.openConnection(request);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        handler.close();
+    }
+
+    @Benchmark
+    public CloseableHttpAsyncClient lockFree() throws NoSuchAlgorithmException, KeyManagementException, IOException {
+        return handler.openConnection(request);
+    }
+
+    @Benchmark
+    public CloseableHttpAsyncClient synchronizedOnHandler()
+            throws NoSuchAlgorithmException, KeyManagementException, IOException {
+
+        synchronized (handler) {
+            return handler.openConnection(request);
+        }
+    }
+}
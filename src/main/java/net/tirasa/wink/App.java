@@ -1,11 +1,20 @@
 package net.tirasa.wink;
 
 import net.tirasa.wink.client.asynchttpclient.ApacheHttpAsyncClientConfig;
+import net.tirasa.wink.client.asynchttpclient.ElementDecoders;
 import net.tirasa.wink.client.asynchttpclient.FutureClientResponse;
+import net.tirasa.wink.client.asynchttpclient.ResultTransformer;
+import net.tirasa.wink.client.asynchttpclient.Subscriber;
+import net.tirasa.wink.client.asynchttpclient.Subscription;
 import com.ning.http.client.AsyncHttpClient;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.ws.rs.core.MediaType;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.wink.client.AsyncHttpClientConfiguration;
+import org.apache.wink.client.ClientResponse;
 import org.apache.wink.client.httpclient.ApacheHttpClientConfig;
 import org.apache.wink.client.Resource;
 import org.apache.wink.client.RestClient;
@@ -56,20 +65,100 @@ public class App {
      * @see http://hc.apache.org/httpcomponents-asyncclient-dev/
      */
     public static void asyncApacheHttpClientGet() throws Exception {
-        RestClient client = new RestClient(new ApacheHttpAsyncClientConfig());
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        RestClient client = new RestClient(config);
+        // the feed is deserialized here, rather than on the I/O dispatcher thread completing the response
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Resource resource =
+                    client.resource("http://services.odata.org/v3/(S(sn4zeecdefwvblk2xxlk425x))/OData/OData.svc/Products");
+            FutureClientResponse response =
+                    (FutureClientResponse) resource.accept(MediaType.APPLICATION_ATOM_XML).get();
+
+            final CountDownLatch latch = new CountDownLatch(1);
+            response.then(new ResultTransformer<ClientResponse, AtomFeed>() {
+
+                @Override
+                public AtomFeed transform(final ClientResponse source) {
+                    return source.getEntity(AtomFeed.class);
+                }
+            }, executor).addListener(new FutureCallback<AtomFeed>() {
+
+                @Override
+                public void completed(final AtomFeed feed) {
+                    for (AtomEntry entry : feed.getEntries()) {
+                        System.out.println(entry.getTitle().getValue());
+                    }
+                    latch.countDown();
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    ex.printStackTrace();
+                    latch.countDown();
+                }
+
+                @Override
+                public void cancelled() {
+                    latch.countDown();
+                }
+            });
 
-        Resource resource =
-                client.resource("http://services.odata.org/v3/(S(sn4zeecdefwvblk2xxlk425x))/OData/OData.svc/Products");
-        FutureClientResponse response = (FutureClientResponse) resource.accept(MediaType.APPLICATION_ATOM_XML).get();
-
-        while (!response.isDone()) {
             System.out.println("Not yet done.");
+            latch.await();
+        } finally {
+            executor.shutdown();
+            config.close();
         }
+    }
 
-        AtomFeed feed = response.get().getEntity(AtomFeed.class);
-
-        for (AtomEntry entry : feed.getEntries()) {
-            System.out.println(entry.getTitle().getValue());
+    /**
+     * Use Apache Commons HttpAsyncClient, processing feed entries as they are received, rather than after the whole
+     * feed was read.
+     */
+    public static void asyncApacheHttpClientPublish() throws Exception {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        RestClient client = new RestClient(config);
+
+        try {
+            Resource resource =
+                    client.resource("http://services.odata.org/v3/(S(sn4zeecdefwvblk2xxlk425x))/OData/OData.svc/Products");
+            FutureClientResponse response = (FutureClientResponse) resource.accept(MediaType.APPLICATION_ATOM_XML).
+                    attribute(ApacheHttpAsyncClientConfig.STREAMING, true).get();
+
+            final CountDownLatch latch = new CountDownLatch(1);
+            response.getEntityPublisher(ElementDecoders.atomEntries()).subscribe(new Subscriber<AtomEntry>() {
+
+                private Subscription subscription;
+
+                @Override
+                public void onSubscribe(final Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(final AtomEntry entry) {
+                    System.out.println(entry.getTitle().getValue());
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                    throwable.printStackTrace();
+                    latch.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    latch.countDown();
+                }
+            });
+
+            latch.await();
+        } finally {
+            config.close();
         }
     }
 
@@ -82,5 +171,8 @@ public class App {
 
         System.out.println("\n*********** Async get via Apache Commons AsyncHttpClient");
         asyncApacheHttpClientGet();
+
+        System.out.println("\n*********** Async entries via Apache Commons AsyncHttpClient");
+        asyncApacheHttpClientPublish();
     }
 }
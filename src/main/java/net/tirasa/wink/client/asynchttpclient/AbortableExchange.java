@@ -0,0 +1,241 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allows aborting a request exchange at any stage.
+ * <p>
+ * With HttpAsyncClient 4.0, cancelling the future returned by <tt>execute()</tt> only affects the future itself:
+ * the exchange goes on, holding its pooled connection until the response is fully received. Here, the connection
+ * is tracked by wrapping producer and consumer; upon abort, any further content makes the exchange fail, and
+ * the connection socket timeout is lowered to a minimum, so that the I/O reactor fails the exchange and closes
+ * the connection upon its next timeout check (see <tt>IOReactorConfig.getSelectInterval()</tt>) even if nothing
+ * else is received. The connection cannot be simply shut down, since httpcore-nio 4.3 does not fail exchanges on
+ * connections closed locally, leaving them leased forever.
+ * If the connection is not leased yet, the exchange fails as soon as it is, before sending anything.
+ * As the connection is tracked anyway, requests sent over a connection which already served others are counted
+ * as well, if so requested.
+ */
+class AbortableExchange {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AbortableExchange.class);
+
+    /**
+     * Counter of requests sent over kept-alive connections, or null.
+     */
+    private final AtomicLong reusedConnections;
+
+    private volatile boolean aborted;
+
+    /**
+     * Connection the exchange is running on, until finished.
+     */
+    private IOControl connection;
+
+    private boolean finished;
+
+    AbortableExchange() {
+        this(null);
+    }
+
+    /**
+     * @param reusedConnections incremented if the request is sent over a connection which already served others
+     */
+    AbortableExchange(final AtomicLong reusedConnections) {
+        this.reusedConnections = reusedConnections;
+    }
+
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Aborts the exchange, unless the response was already received: in such case the connection might be already
+     * back in the pool, serving another request.
+     */
+    synchronized void abort() {
+        if (!finished) {
+            aborted = true;
+            expire(connection);
+        }
+    }
+
+    private synchronized void attach(final IOControl ioControl) {
+        if (ioControl != null && connection == null && !finished) {
+            connection = ioControl;
+            if (aborted) {
+                expire(ioControl);
+            }
+        }
+    }
+
+    /**
+     * Invoked before the connection is released.
+     */
+    private synchronized void finished() {
+        finished = true;
+        connection = null;
+    }
+
+    private void check() throws IOException {
+        if (aborted) {
+            throw new IOException("Request aborted");
+        }
+    }
+
+    private static void expire(final IOControl ioControl) {
+        if (ioControl instanceof HttpConnection) {
+            ((HttpConnection) ioControl).setSocketTimeout(1);
+        } else if (ioControl != null) {
+            try {
+                ioControl.shutdown();
+            } catch (IOException e) {
+                LOG.debug("While shutting down connection of aborted request", e);
+            }
+        }
+    }
+
+    HttpAsyncRequestProducer wrap(final HttpAsyncRequestProducer delegate) {
+        return new HttpAsyncRequestProducer() {
+
+            @Override
+            public HttpHost getTarget() {
+                return delegate.getTarget();
+            }
+
+            @Override
+            public HttpRequest generateRequest() throws IOException, HttpException {
+                check();
+                return delegate.generateRequest();
+            }
+
+            @Override
+            public void produceContent(final ContentEncoder encoder, final IOControl ioctrl) throws IOException {
+                attach(ioctrl);
+                check();
+                delegate.produceContent(encoder, ioctrl);
+            }
+
+            @Override
+            public void requestCompleted(final HttpContext context) {
+                Object ioctrl = context.getAttribute(HttpCoreContext.HTTP_CONNECTION);
+                attach(ioctrl instanceof IOControl ? (IOControl) ioctrl : null);
+                if (reusedConnections != null && ioctrl instanceof HttpConnection
+                        && ((HttpConnection) ioctrl).getMetrics().getRequestCount() > 1) {
+
+                    reusedConnections.incrementAndGet();
+                }
+                delegate.requestCompleted(context);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                delegate.failed(ex);
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return delegate.isRepeatable();
+            }
+
+            @Override
+            public void resetRequest() throws IOException {
+                delegate.resetRequest();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+        };
+    }
+
+    <T> HttpAsyncResponseConsumer<T> wrap(final HttpAsyncResponseConsumer<T> delegate) {
+        return new HttpAsyncResponseConsumer<T>() {
+
+            @Override
+            public void responseReceived(final HttpResponse response) throws IOException, HttpException {
+                check();
+                delegate.responseReceived(response);
+            }
+
+            @Override
+            public void consumeContent(final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+                attach(ioctrl);
+                check();
+                delegate.consumeContent(decoder, ioctrl);
+            }
+
+            @Override
+            public void responseCompleted(final HttpContext context) {
+                finished();
+                delegate.responseCompleted(context);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                finished();
+                delegate.failed(ex);
+            }
+
+            @Override
+            public Exception getException() {
+                return delegate.getException();
+            }
+
+            @Override
+            public T getResult() {
+                return delegate.getResult();
+            }
+
+            @Override
+            public boolean isDone() {
+                return delegate.isDone();
+            }
+
+            @Override
+            public boolean cancel() {
+                return delegate.cancel();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+        };
+    }
+}
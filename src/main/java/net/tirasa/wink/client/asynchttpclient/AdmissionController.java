@@ -0,0 +1,420 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+
+/**
+ * Caps the number of requests in flight, globally and per route: requests exceeding the caps wait in a bounded FIFO
+ * queue - without blocking the calling thread - until a request in flight is done, or get rejected right away with
+ * {@link RequestRejectedException} when the queue is full, or later when waiting longer than the queue timeout.
+ */
+class AdmissionController {
+
+    /**
+     * A request to be sent once admitted.
+     */
+    interface Request {
+
+        /**
+         * Sends the request; invoked on the submitting thread, or on the thread releasing a slot when queued.
+         *
+         * @return future of the response
+         */
+        Future<HttpResponse> execute();
+
+        /**
+         * Invoked in place of {@link #execute()} when the request is rejected.
+         *
+         * @param exception rejection cause
+         */
+        void rejected(RequestRejectedException exception);
+
+        /**
+         * Invoked in place of {@link #execute()} when the request is cancelled while queued.
+         */
+        void cancelled();
+    }
+
+    private final int maxInFlight;
+
+    private final int maxInFlightPerRoute;
+
+    private final int maxQueued;
+
+    private final long queueTimeout;
+
+    private final Map<HttpHost, Integer> inFlightPerRoute = new HashMap<HttpHost, Integer>();
+
+    private final LinkedList<QueuedRequest> queue = new LinkedList<QueuedRequest>();
+
+    private int inFlight;
+
+    private boolean shutdown;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private ScheduledExecutorService timer;
+
+    public AdmissionController(final int maxInFlight, final int maxInFlightPerRoute, final int maxQueued,
+            final long queueTimeout) {
+
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightPerRoute = maxInFlightPerRoute;
+        this.maxQueued = maxQueued;
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * Sends the given request if caps allow, otherwise queues or rejects it.
+     * The caller must invoke {@link #release(HttpHost)} once the request is done, unless rejected or execute()
+     * threw an exception.
+     *
+     * @param route target host
+     * @param request request
+     * @return future of the response, to be used for cancelling the request while queued as well
+     */
+    public Future<HttpResponse> submit(final HttpHost route, final Request request) {
+        QueuedRequest queued = null;
+        String rejection = null;
+        synchronized (this) {
+            if (shutdown) {
+                rejection = "Connection handler was closed";
+            } else if (admits(route)) {
+                // queued requests are dispatched as soon as admissible, hence do not take precedence here
+                acquire(route);
+            } else if (queue.size() < maxQueued) {
+                queued = new QueuedRequest(route, request);
+                queue.add(queued);
+                if (queueTimeout > 0) {
+                    queued.expiry = timer().schedule(new Expiry(queued), queueTimeout, TimeUnit.MILLISECONDS);
+                }
+            } else {
+                rejection = "Too many requests in flight towards " + route + " (" + inFlight + " total, "
+                        + maxQueued + " waiting)";
+            }
+        }
+
+        if (queued != null) {
+            return queued;
+        }
+        if (rejection != null) {
+            RequestRejectedException exception = new RequestRejectedException(rejection);
+            rejected.incrementAndGet();
+            request.rejected(exception);
+            return new RejectedRequest(exception);
+        }
+        return execute(route, request);
+    }
+
+    /**
+     * Frees the slot taken by a request which is now done, and sends the first queued requests which can be admitted.
+     *
+     * @param route target host
+     */
+    public void release(final HttpHost route) {
+        List<QueuedRequest> admitted = new LinkedList<QueuedRequest>();
+        synchronized (this) {
+            inFlight--;
+            Integer count = inFlightPerRoute.get(route);
+            if (count == null || count <= 1) {
+                inFlightPerRoute.remove(route);
+            } else {
+                inFlightPerRoute.put(route, count - 1);
+            }
+
+            for (Iterator<QueuedRequest> itor = queue.iterator(); itor.hasNext() && admitsAny();) {
+                QueuedRequest queued = itor.next();
+                if (admits(queued.route)) {
+                    itor.remove();
+                    acquire(queued.route);
+                    admitted.add(queued);
+                }
+            }
+        }
+
+        for (QueuedRequest queued : admitted) {
+            queued.dispatch();
+        }
+    }
+
+    /**
+     * Rejects all queued requests and any further submission.
+     */
+    public void shutdown() {
+        List<QueuedRequest> pending;
+        synchronized (this) {
+            shutdown = true;
+            pending = new LinkedList<QueuedRequest>(queue);
+            queue.clear();
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+        }
+
+        for (QueuedRequest queued : pending) {
+            queued.reject(new RequestRejectedException("Connection handler was closed"));
+        }
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private boolean admitsAny() {
+        return maxInFlight <= 0 || inFlight < maxInFlight;
+    }
+
+    private boolean admits(final HttpHost route) {
+        if (!admitsAny()) {
+            return false;
+        }
+        if (maxInFlightPerRoute > 0) {
+            Integer count = inFlightPerRoute.get(route);
+            return count == null || count < maxInFlightPerRoute;
+        }
+        return true;
+    }
+
+    private void acquire(final HttpHost route) {
+        inFlight++;
+        Integer count = inFlightPerRoute.get(route);
+        inFlightPerRoute.put(route, count == null ? 1 : count + 1);
+    }
+
+    private Future<HttpResponse> execute(final HttpHost route, final Request request) {
+        try {
+            return request.execute();
+        } catch (RuntimeException e) {
+            release(route);
+            throw e;
+        }
+    }
+
+    private ScheduledExecutorService timer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ApacheHttpAsyncClient-admission");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return timer;
+    }
+
+    private boolean dequeue(final QueuedRequest queued) {
+        synchronized (this) {
+            return queue.remove(queued);
+        }
+    }
+
+    private class Expiry implements Runnable {
+
+        private final QueuedRequest queued;
+
+        Expiry(final QueuedRequest queued) {
+            this.queued = queued;
+        }
+
+        @Override
+        public void run() {
+            if (dequeue(queued)) {
+                rejected.incrementAndGet();
+                queued.reject(new RequestRejectedException("Request to " + queued.route
+                        + " was not admitted within " + queueTimeout + " ms"));
+            }
+        }
+    }
+
+    /**
+     * Future of a request waiting for being admitted; once sent, delegates to the actual response future.
+     */
+    private class QueuedRequest implements Future<HttpResponse> {
+
+        private final HttpHost route;
+
+        private final Request request;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private ScheduledFuture<?> expiry;
+
+        private volatile Future<HttpResponse> delegate;
+
+        private volatile Exception failure;
+
+        private volatile boolean cancelled;
+
+        QueuedRequest(final HttpHost route, final Request request) {
+            this.route = route;
+            this.request = request;
+        }
+
+        void dispatch() {
+            if (expiry != null) {
+                expiry.cancel(false);
+            }
+            try {
+                delegate = execute(route, request);
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * Notifies the request before waking up any waiter, so that whatever the request holds is released first.
+         */
+        void reject(final RequestRejectedException exception) {
+            failure = exception;
+            try {
+                request.rejected(exception);
+            } finally {
+                done.countDown();
+            }
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            if (dequeue(this)) {
+                if (expiry != null) {
+                    expiry.cancel(false);
+                }
+                cancelled = true;
+                try {
+                    request.cancelled();
+                } finally {
+                    done.countDown();
+                }
+                return true;
+            }
+
+            Future<HttpResponse> future = delegate;
+            return future != null && future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            Future<HttpResponse> future = delegate;
+            return cancelled || (future != null && future.isCancelled());
+        }
+
+        @Override
+        public boolean isDone() {
+            Future<HttpResponse> future = delegate;
+            return done.getCount() == 0 && (future == null || future.isDone());
+        }
+
+        @Override
+        public HttpResponse get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result().get();
+        }
+
+        @Override
+        public HttpResponse get(final long timeout, final TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return result().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        private Future<HttpResponse> result() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return delegate;
+        }
+    }
+
+    /**
+     * Future of a request rejected right away.
+     */
+    private static class RejectedRequest implements Future<HttpResponse> {
+
+        private final RequestRejectedException exception;
+
+        RejectedRequest(final RequestRejectedException exception) {
+            this.exception = exception;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public HttpResponse get() throws ExecutionException {
+            throw new ExecutionException(exception);
+        }
+
+        @Override
+        public HttpResponse get(final long timeout, final TimeUnit unit) throws ExecutionException {
+            throw new ExecutionException(exception);
+        }
+    }
+}
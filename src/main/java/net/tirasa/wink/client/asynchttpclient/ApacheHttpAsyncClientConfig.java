@@ -19,18 +19,148 @@
  ****************************************************************************** */
 package net.tirasa.wink.client.asynchttpclient;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import javax.net.ssl.SSLContext;
+import org.apache.http.HttpHost;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.wink.client.ClientConfig;
+import org.apache.wink.client.ClientConfigException;
 import org.apache.wink.client.handlers.ConnectionHandler;
 
-public class ApacheHttpAsyncClientConfig extends ClientConfig {
+public class ApacheHttpAsyncClientConfig extends ClientConfig implements Closeable {
+
+    /**
+     * Request attribute overriding {@link #setRequestTimeout(long)} for a single request, as number of milliseconds:
+     * <tt>resource.attribute(ApacheHttpAsyncClientConfig.REQUEST_TIMEOUT, 500)</tt>.
+     */
+    public static final String REQUEST_TIMEOUT = ApacheHttpAsyncClientConfig.class.getName() + ".requestTimeout";
+
+    /**
+     * Request attribute overriding {@link #setStreaming(boolean)} for a single request, e.g. one whose entity is to be
+     * published via {@link FutureClientResponse#getEntityPublisher(ElementDecoder)}:
+     * <tt>resource.attribute(ApacheHttpAsyncClientConfig.STREAMING, true)</tt>.
+     * Streamed requests bypass response cache and coalescing, and are never retried.
+     */
+    public static final String STREAMING = ApacheHttpAsyncClientConfig.class.getName() + ".streaming";
 
     protected CloseableHttpAsyncClient client;
 
     protected int maxPooledConnections;
 
+    protected int maxConnectionsPerRoute;
+
+    protected Map<HttpHost, Integer> maxConnectionsPerHost = new HashMap<HttpHost, Integer>();
+
+    protected Map<String, EndpointGroup> endpointGroups = new LinkedHashMap<String, EndpointGroup>();
+
+    protected long connectionTimeToLive;
+
+    protected long idleConnectionTimeout;
+
+    protected int connectionRequestTimeout;
+
+    protected int ioThreadCount;
+
+    protected long selectInterval;
+
+    protected boolean tcpNoDelay = true;
+
+    protected boolean soKeepAlive;
+
+    protected int sndBufSize;
+
+    protected int rcvBufSize;
+
+    protected SSLContext sslContext;
+
+    protected KeyStore keyStore;
+
+    protected String keyStorePassword;
+
+    protected KeyStore trustStore;
+
+    protected String[] tlsProtocols;
+
+    protected String[] cipherSuites;
+
+    protected int sslSessionCacheSize;
+
+    protected int sslSessionTimeout;
+
+    protected int maxInFlight;
+
+    protected int maxInFlightPerRoute;
+
+    protected int maxQueuedRequests;
+
+    protected long queueTimeout;
+
+    protected final List<MetricsListener> metricsListeners = new CopyOnWriteArrayList<MetricsListener>();
+
+    protected boolean jmxEnabled;
+
+    protected HttpResponseCache responseCache;
+
+    protected boolean coalescing;
+
+    protected boolean compressionEnabled;
+
+    protected int requestCompressionThreshold;
+
+    protected Executor entityExecutor;
+
+    protected long requestTimeout;
+
+    protected RetryPolicy retryPolicy;
+
+    protected CircuitBreakerPolicy circuitBreakerPolicy;
+
+    protected final List<CircuitBreakerListener> circuitBreakerListeners =
+            new CopyOnWriteArrayList<CircuitBreakerListener>();
+
+    protected boolean directBuffers = true;
+
+    protected long maxPooledBufferBytes = 8 * 1024 * 1024;
+
+    protected boolean sharedClient;
+
     protected boolean chunked = true;
 
+    protected boolean closeOnShutdown = true;
+
+    protected boolean streaming;
+
+    protected int streamingBufferSize = 64 * 1024;
+
+    protected boolean virtualThreads = true;
+
+    protected int maxBlockingCallThreads = BlockingCallExecutor.DEFAULT_MAX_PLATFORM_THREADS;
+
+    protected BlockingCallExecutor blockingCallExecutor;
+
+    /**
+     * Whether blockingCallExecutor was built by this configuration, hence must be closed by this configuration.
+     */
+    protected boolean ownedBlockingCallExecutor;
+
+    /**
+     * Connection handlers built so far; since the list instance is shared among clones, this includes the handlers
+     * built for each RestClient created with this configuration.
+     */
+    protected final List<ApacheHttpAsyncClientConnectionHandler> connectionHandlers =
+            new CopyOnWriteArrayList<ApacheHttpAsyncClientConnectionHandler>();
+
     public ApacheHttpAsyncClientConfig() {
         this.client = null;
     }
@@ -41,7 +171,185 @@ public class ApacheHttpAsyncClientConfig extends ClientConfig {
 
     @Override
     protected ConnectionHandler getConnectionHandler() {
-        return new ApacheHttpAsyncClientConnectionHandler(client);
+        validate();
+
+        ApacheHttpAsyncClientConnectionHandler connectionHandler = new ApacheHttpAsyncClientConnectionHandler(client);
+        connectionHandler.setBufferPool(directBuffers, maxPooledBufferBytes);
+        if (maxInFlight > 0 || maxInFlightPerRoute > 0) {
+            connectionHandler.setAdmissionController(
+                    new AdmissionController(maxInFlight, maxInFlightPerRoute, maxQueuedRequests, queueTimeout));
+        }
+        if (coalescing) {
+            connectionHandler.setCoalescer(new RequestCoalescer());
+        }
+        if (retryPolicy != null) {
+            connectionHandler.setRetryController(new RetryController(retryPolicy));
+        }
+        if (circuitBreakerPolicy != null) {
+            connectionHandler.setCircuitBreaker(new CircuitBreaker(circuitBreakerPolicy,
+                    new ArrayList<CircuitBreakerListener>(circuitBreakerListeners)));
+        }
+        if (!endpointGroups.isEmpty()) {
+            connectionHandler.setLoadBalancer(new LoadBalancer(endpointGroups.values()));
+        }
+        if (entityExecutor != null) {
+            connectionHandler.setEntityExecutor(entityExecutor);
+        }
+        if (jmxEnabled || !metricsListeners.isEmpty()) {
+            List<MetricsListener> listeners = new ArrayList<MetricsListener>(metricsListeners);
+            PhaseStatistics phaseStatistics = null;
+            if (jmxEnabled) {
+                phaseStatistics = new PhaseStatistics();
+                listeners.add(phaseStatistics);
+            }
+            connectionHandler.setMetrics(new MetricsRecorder(listeners), phaseStatistics);
+        }
+        connectionHandlers.add(connectionHandler);
+        return connectionHandler;
+    }
+
+    /**
+     * Closes all connection handlers built from this configuration, releasing their connection pools and I/O
+     * reactors, as well as the blocking call executor - if built by this configuration.
+     *
+     * @throws IOException if any connection handler cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (ownedBlockingCallExecutor) {
+                blockingCallExecutor.close();
+                blockingCallExecutor = null;
+                ownedBlockingCallExecutor = false;
+            }
+        }
+
+        IOException failure = null;
+        for (ApacheHttpAsyncClientConnectionHandler connectionHandler : connectionHandlers) {
+            try {
+                connectionHandler.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        connectionHandlers.clear();
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Checks that the current settings can be used for building a client; this happens when a RestClient is created
+     * with this configuration, hence before any request is made.
+     *
+     * @throws ClientConfigException if any setting is invalid, or conflicting with others
+     */
+    public void validate() {
+        if (maxPooledConnections < 0) {
+            throw new ClientConfigException("maxPooledConnections must not be negative");
+        }
+        if (maxConnectionsPerRoute < 0) {
+            throw new ClientConfigException("maxConnectionsPerRoute must not be negative");
+        }
+        if (maxPooledConnections > 0 && maxConnectionsPerRoute > maxPooledConnections) {
+            throw new ClientConfigException("maxConnectionsPerRoute (" + maxConnectionsPerRoute
+                    + ") exceeds maxPooledConnections (" + maxPooledConnections + ")");
+        }
+        for (Map.Entry<HttpHost, Integer> entry : maxConnectionsPerHost.entrySet()) {
+            if (entry.getValue() == null || entry.getValue() <= 0) {
+                throw new ClientConfigException("Max connections for " + entry.getKey() + " must be positive");
+            }
+            if (maxPooledConnections > 0 && entry.getValue() > maxPooledConnections) {
+                throw new ClientConfigException("Max connections for " + entry.getKey() + " (" + entry.getValue()
+                        + ") exceeds maxPooledConnections (" + maxPooledConnections + ")");
+            }
+        }
+        for (EndpointGroup endpointGroup : endpointGroups.values()) {
+            endpointGroup.validate();
+        }
+        if (connectionTimeToLive < 0) {
+            throw new ClientConfigException("connectionTimeToLive must not be negative");
+        }
+        if (idleConnectionTimeout < 0) {
+            throw new ClientConfigException("idleConnectionTimeout must not be negative");
+        }
+        if (connectionRequestTimeout < 0) {
+            throw new ClientConfigException("connectionRequestTimeout must not be negative");
+        }
+        if (ioThreadCount < 0) {
+            throw new ClientConfigException("ioThreadCount must not be negative");
+        }
+        if (selectInterval < 0) {
+            throw new ClientConfigException("selectInterval must not be negative");
+        }
+        if (sndBufSize < 0 || rcvBufSize < 0) {
+            throw new ClientConfigException("Socket buffer sizes must not be negative");
+        }
+        if (sslContext != null && (keyStore != null || trustStore != null)) {
+            throw new ClientConfigException("Key and trust stores cannot be used with a provided SSL context");
+        }
+        if (tlsProtocols != null && tlsProtocols.length == 0 || cipherSuites != null && cipherSuites.length == 0) {
+            throw new ClientConfigException("TLS protocols and cipher suites must not be empty, if set");
+        }
+        if (sslSessionCacheSize < 0 || sslSessionTimeout < 0) {
+            throw new ClientConfigException("sslSessionCacheSize and sslSessionTimeout must not be negative");
+        }
+        if (maxInFlight < 0 || maxInFlightPerRoute < 0 || maxQueuedRequests < 0 || queueTimeout < 0) {
+            throw new ClientConfigException("In-flight caps, queue size and queue timeout must not be negative");
+        }
+        if (maxInFlight > 0 && maxInFlightPerRoute > maxInFlight) {
+            throw new ClientConfigException("maxInFlightPerRoute (" + maxInFlightPerRoute
+                    + ") exceeds maxInFlight (" + maxInFlight + ")");
+        }
+        if ((maxQueuedRequests > 0 || queueTimeout > 0) && maxInFlight == 0 && maxInFlightPerRoute == 0) {
+            throw new ClientConfigException("maxQueuedRequests and queueTimeout require maxInFlight or "
+                    + "maxInFlightPerRoute to be set");
+        }
+        if (queueTimeout > 0 && maxQueuedRequests == 0) {
+            throw new ClientConfigException("queueTimeout requires maxQueuedRequests to be set");
+        }
+        if (requestTimeout < 0) {
+            throw new ClientConfigException("requestTimeout must not be negative");
+        }
+        if (maxBlockingCallThreads <= 0) {
+            throw new ClientConfigException("maxBlockingCallThreads must be positive");
+        }
+        if (maxPooledBufferBytes < 0) {
+            throw new ClientConfigException("maxPooledBufferBytes must not be negative");
+        }
+        if (requestCompressionThreshold < 0) {
+            throw new ClientConfigException("requestCompressionThreshold must not be negative");
+        }
+        if (responseCache != null && streaming) {
+            throw new ClientConfigException("Response cache cannot be used with streaming responses");
+        }
+        if (coalescing && streaming) {
+            throw new ClientConfigException("Request coalescing cannot be used with streaming responses");
+        }
+        if (retryPolicy != null) {
+            retryPolicy.validate();
+            if (streaming) {
+                throw new ClientConfigException("Retry policy cannot be used with streaming responses");
+            }
+        }
+        if (circuitBreakerPolicy != null) {
+            circuitBreakerPolicy.validate();
+        }
+        if (client != null && (maxConnectionsPerRoute > 0 || !maxConnectionsPerHost.isEmpty()
+                || connectionTimeToLive > 0 || idleConnectionTimeout > 0 || ioThreadCount > 0
+                || selectInterval > 0 || sndBufSize > 0 || rcvBufSize > 0)) {
+
+            throw new ClientConfigException("Pool and I/O reactor settings cannot be applied to a provided client");
+        }
+        if (client != null && sharedClient) {
+            throw new ClientConfigException("A provided client cannot be shared");
+        }
+        if (client != null && (sslContext != null || keyStore != null || trustStore != null || tlsProtocols != null
+                || cipherSuites != null || sslSessionCacheSize > 0 || sslSessionTimeout > 0)) {
+
+            throw new ClientConfigException("TLS settings cannot be applied to a provided client");
+        }
     }
 
     public int getMaxPooledConnections() {
@@ -52,6 +360,24 @@ public class ApacheHttpAsyncClientConfig extends ClientConfig {
         this.maxPooledConnections = maxPooledConnections;
     }
 
+    public boolean isSharedClient() {
+        return sharedClient;
+    }
+
+    /**
+     * Sets whether the client - with its I/O reactor, dispatcher threads and connection pool - shall be shared with
+     * other connection handlers, built from this or other configurations, whose pool, I/O reactor and TLS settings
+     * are the same, including connect and read timeouts; the client is closed when the last handler sharing it is.
+     * Redirects, proxy and connection request timeout are still applied to each request as configured, as well as
+     * the settings of connection handlers, as in-flight caps, retries or caches.
+     * Clients of handlers with metrics or JMX enabled are not shared, as connection metrics are per handler.
+     *
+     * @param sharedClient whether the client shall be shared
+     */
+    public void setSharedClient(boolean sharedClient) {
+        this.sharedClient = sharedClient;
+    }
+
     public boolean isChunked() {
         return chunked;
     }
@@ -59,4 +385,572 @@ public class ApacheHttpAsyncClientConfig extends ClientConfig {
     public void setChunked(boolean chunked) {
         this.chunked = chunked;
     }
+
+    public boolean isCloseOnShutdown() {
+        return closeOnShutdown;
+    }
+
+    /**
+     * Whether the client built by connection handlers shall be closed via JVM shutdown hook, if not closed
+     * explicitly before.
+     *
+     * @param closeOnShutdown whether to register a JVM shutdown hook
+     */
+    public void setCloseOnShutdown(boolean closeOnShutdown) {
+        this.closeOnShutdown = closeOnShutdown;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Whether responses shall be made available as soon as headers are received, with entity streamed through a
+     * bounded buffer of {@link #getStreamingBufferSize()} bytes, rather than after fully buffering the body in
+     * memory.
+     * Streamed responses are handed over - and FutureClientResponse listeners notified - on the executor configured
+     * via {@link #setEntityExecutor(java.util.concurrent.Executor)}, as entities cannot be read on the I/O dispatcher
+     * thread; moreover, streamed entities must always be read to the end (or consumed) for connections to be
+     * released.
+     *
+     * @param streaming whether responses shall be streamed
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public int getStreamingBufferSize() {
+        return streamingBufferSize;
+    }
+
+    public void setStreamingBufferSize(int streamingBufferSize) {
+        this.streamingBufferSize = streamingBufferSize;
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Sets the SSL context for secure connections, e.g. to share its session cache - hence resume TLS sessions -
+     * across clients; if not set, one is built from the key and trust stores, if any, or with JSSE defaults.
+     * Session cache settings, if any, are applied to the given context.
+     *
+     * @param sslContext SSL context
+     */
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    public KeyStore getKeyStore() {
+        return keyStore;
+    }
+
+    /**
+     * @param keyStore key store holding the client certificate and key, for mutual TLS authentication
+     */
+    public void setKeyStore(KeyStore keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    public String getKeyStorePassword() {
+        return keyStorePassword;
+    }
+
+    /**
+     * @param keyStorePassword password of the keys in the key store
+     */
+    public void setKeyStorePassword(String keyStorePassword) {
+        this.keyStorePassword = keyStorePassword;
+    }
+
+    public KeyStore getTrustStore() {
+        return trustStore;
+    }
+
+    /**
+     * @param trustStore key store holding the trusted certificates, replacing the JSSE default trust store
+     */
+    public void setTrustStore(KeyStore trustStore) {
+        this.trustStore = trustStore;
+    }
+
+    public String[] getTlsProtocols() {
+        return tlsProtocols;
+    }
+
+    /**
+     * @param tlsProtocols protocols enabled for secure connections, e.g. <tt>TLSv1.2</tt>; if not set, the SSL context
+     * defaults are used
+     */
+    public void setTlsProtocols(String... tlsProtocols) {
+        this.tlsProtocols = tlsProtocols;
+    }
+
+    public String[] getCipherSuites() {
+        return cipherSuites;
+    }
+
+    /**
+     * @param cipherSuites cipher suites enabled for secure connections; if not set, the SSL context defaults are used
+     */
+    public void setCipherSuites(String... cipherSuites) {
+        this.cipherSuites = cipherSuites;
+    }
+
+    public int getSslSessionCacheSize() {
+        return sslSessionCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of TLS sessions cached for being resumed - saving a full handshake - when opening new
+     * connections towards the same host and port.
+     *
+     * @param sslSessionCacheSize maximum number of cached TLS sessions; 0 keeps the SSL context default
+     */
+    public void setSslSessionCacheSize(int sslSessionCacheSize) {
+        this.sslSessionCacheSize = sslSessionCacheSize;
+    }
+
+    public int getSslSessionTimeout() {
+        return sslSessionTimeout;
+    }
+
+    /**
+     * @param sslSessionTimeout lifetime of cached TLS sessions, in seconds; 0 keeps the SSL context default
+     */
+    public void setSslSessionTimeout(int sslSessionTimeout) {
+        this.sslSessionTimeout = sslSessionTimeout;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * Sets the default maximum number of connections per route; if not set, maxPooledConnections is used.
+     *
+     * @param maxConnectionsPerRoute default maximum number of connections per route
+     */
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public Map<HttpHost, Integer> getMaxConnectionsPerHost() {
+        return Collections.unmodifiableMap(maxConnectionsPerHost);
+    }
+
+    /**
+     * Overrides the maximum number of connections per route towards the given host.
+     *
+     * @param host target host, e.g. new HttpHost("api.example.com", 443, "https")
+     * @param maxConnections maximum number of connections towards the given host
+     */
+    public void setMaxConnectionsPerHost(HttpHost host, int maxConnections) {
+        this.maxConnectionsPerHost.put(host, maxConnections);
+    }
+
+    public Map<String, EndpointGroup> getEndpointGroups() {
+        return Collections.unmodifiableMap(endpointGroups);
+    }
+
+    /**
+     * Adds a logical host, whose requests are spread over the endpoints of the given group; all endpoints share the
+     * connection pool, with their own routes. Any previous group with the same name is replaced.
+     *
+     * @param endpointGroup endpoint group
+     */
+    public void addEndpointGroup(EndpointGroup endpointGroup) {
+        this.endpointGroups.put(endpointGroup.getName().toLowerCase(Locale.ROOT), endpointGroup);
+    }
+
+    public long getConnectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    /**
+     * @param connectionTimeToLive maximum lifetime of pooled connections, in milliseconds; 0 means no limit
+     */
+    public void setConnectionTimeToLive(long connectionTimeToLive) {
+        this.connectionTimeToLive = connectionTimeToLive;
+    }
+
+    public long getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    /**
+     * @param idleConnectionTimeout time after which idle pooled connections are evicted, in milliseconds; 0 means no
+     * eviction
+     */
+    public void setIdleConnectionTimeout(long idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    public int getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    /**
+     * @param connectionRequestTimeout maximum time to wait for leasing a connection from the pool, in milliseconds;
+     * 0 means no limit
+     */
+    public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    public int getIoThreadCount() {
+        return ioThreadCount;
+    }
+
+    /**
+     * @param ioThreadCount number of I/O dispatcher threads; 0 means one per available processor
+     */
+    public void setIoThreadCount(int ioThreadCount) {
+        this.ioThreadCount = ioThreadCount;
+    }
+
+    public long getSelectInterval() {
+        return selectInterval;
+    }
+
+    /**
+     * @param selectInterval time interval, in milliseconds, at which the I/O reactor wakes up to check for timed out
+     * sessions and session requests; 0 means HttpCore's default
+     */
+    public void setSelectInterval(long selectInterval) {
+        this.selectInterval = selectInterval;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isSoKeepAlive() {
+        return soKeepAlive;
+    }
+
+    public void setSoKeepAlive(boolean soKeepAlive) {
+        this.soKeepAlive = soKeepAlive;
+    }
+
+    public int getSndBufSize() {
+        return sndBufSize;
+    }
+
+    /**
+     * @param sndBufSize socket send buffer size (SO_SNDBUF), in bytes; 0 means system default
+     */
+    public void setSndBufSize(int sndBufSize) {
+        this.sndBufSize = sndBufSize;
+    }
+
+    public int getRcvBufSize() {
+        return rcvBufSize;
+    }
+
+    /**
+     * @param rcvBufSize socket receive buffer size (SO_RCVBUF), in bytes; 0 means system default
+     */
+    public void setRcvBufSize(int rcvBufSize) {
+        this.rcvBufSize = rcvBufSize;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Caps the number of requests in flight per RestClient; further requests wait in a queue (see
+     * {@link #setMaxQueuedRequests(int)}) or are rejected right away, by failing with {@link RequestRejectedException}.
+     *
+     * @param maxInFlight maximum number of requests in flight; 0 means no limit
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxInFlightPerRoute() {
+        return maxInFlightPerRoute;
+    }
+
+    /**
+     * @param maxInFlightPerRoute maximum number of requests in flight towards the same host; 0 means no limit
+     * @see #setMaxInFlight(int)
+     */
+    public void setMaxInFlightPerRoute(int maxInFlightPerRoute) {
+        this.maxInFlightPerRoute = maxInFlightPerRoute;
+    }
+
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    /**
+     * @param maxQueuedRequests maximum number of requests waiting for being admitted when in-flight caps are reached;
+     * 0 means that such requests are rejected right away
+     */
+    public void setMaxQueuedRequests(int maxQueuedRequests) {
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     * @param queueTimeout maximum time a request can wait for being admitted, in milliseconds; 0 means no limit
+     */
+    public void setQueueTimeout(long queueTimeout) {
+        this.queueTimeout = queueTimeout;
+    }
+
+    public List<MetricsListener> getMetricsListeners() {
+        return Collections.unmodifiableList(metricsListeners);
+    }
+
+    /**
+     * Registers a listener for timings of each request phase; takes effect on RestClients created afterwards.
+     * When neither listeners are registered nor JMX is enabled, no timing is taken at all.
+     *
+     * @param listener metrics listener
+     */
+    public void addMetricsListener(MetricsListener listener) {
+        this.metricsListeners.add(listener);
+    }
+
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * @param jmxEnabled whether each connection handler should register a {@link ConnectionHandlerStatsMBean} in the
+     * platform MBean server, until closed
+     */
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    public HttpResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets the cache for GET responses; the same instance may be shared among configurations.
+     * Not compatible with streaming, as cached response entities are buffered.
+     *
+     * @param responseCache response cache, or null to disable caching
+     */
+    public void setResponseCache(HttpResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Enables single-flight execution of GET and HEAD requests without entity: while a request is in flight,
+     * further requests for the same URI and with same headers, issued via the same RestClient, wait for its response
+     * instead of being sent. Each caller still gets its own response, with independently readable entity.
+     * Not compatible with streaming, as shared response entities are buffered.
+     *
+     * @param coalescing whether identical in-flight requests shall be coalesced
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * Enables content coding for responses: Accept-Encoding is added to requests not already having it, and gzip or
+     * deflate response entities are decoded while read.
+     *
+     * @param compressionEnabled whether compressed responses shall be requested and decoded
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * Enables gzip compression of request entities whose size reaches the given threshold; entities already having
+     * Content-Encoding are sent as they are. Servers must support gzip request entities.
+     *
+     * @param requestCompressionThreshold minimum request entity size, in bytes, for compression; 0 disables
+     */
+    public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    public Executor getEntityExecutor() {
+        return entityExecutor;
+    }
+
+    /**
+     * Sets the executor deserializing response entities for {@link FutureClientResponse#getEntityAsync(Class)} and
+     * {@link AsyncResources}; its lifecycle is up to the caller. When not set, each connection handler builds its
+     * own pool, shut down when closed.
+     *
+     * @param entityExecutor executor for response entity deserialization
+     */
+    public void setEntityExecutor(Executor entityExecutor) {
+        this.entityExecutor = entityExecutor;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Sets whether the blocking call executor runs calls on virtual threads, when the JDK provides them (21+);
+     * otherwise, or if disabled, calls run on up to {@link #getMaxBlockingCallThreads()} platform threads.
+     *
+     * @param virtualThreads whether blocking calls shall run on virtual threads, if available
+     * @see #getBlockingCallExecutor()
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public int getMaxBlockingCallThreads() {
+        return maxBlockingCallThreads;
+    }
+
+    /**
+     * @param maxBlockingCallThreads maximum number of platform threads running blocking calls, when virtual threads
+     * are not used
+     * @see #getBlockingCallExecutor()
+     */
+    public void setMaxBlockingCallThreads(int maxBlockingCallThreads) {
+        this.maxBlockingCallThreads = maxBlockingCallThreads;
+    }
+
+    /**
+     * Returns the executor for running blocking Wink calls - as <tt>resource.get(String.class)</tt> - at high
+     * concurrency; unless set, it is built upon first invocation as per {@link #isVirtualThreads()} and
+     * {@link #getMaxBlockingCallThreads()}, and closed along with this configuration.
+     *
+     * @return executor for blocking calls
+     */
+    public synchronized BlockingCallExecutor getBlockingCallExecutor() {
+        if (blockingCallExecutor == null) {
+            validate();
+            blockingCallExecutor = new BlockingCallExecutor(
+                    virtualThreads, maxBlockingCallThreads, BlockingCallExecutor.DEFAULT_PLATFORM_STACK_SIZE);
+            ownedBlockingCallExecutor = true;
+        }
+        return blockingCallExecutor;
+    }
+
+    /**
+     * Sets the executor for running blocking calls; its lifecycle is up to the caller.
+     *
+     * @param blockingCallExecutor executor for blocking calls, or null for building one upon first request
+     */
+    public synchronized void setBlockingCallExecutor(BlockingCallExecutor blockingCallExecutor) {
+        if (ownedBlockingCallExecutor) {
+            this.blockingCallExecutor.close();
+        }
+        this.blockingCallExecutor = blockingCallExecutor;
+        this.ownedBlockingCallExecutor = false;
+    }
+
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Sets the deadline for each request, covering admission, connection lease, connect, and response - until fully
+     * received, or until headers are received when streaming. Upon expiration, the response fails with
+     * {@link RequestTimeoutException} and the request is aborted, discarding its connection.
+     *
+     * @param requestTimeout request timeout, in milliseconds; 0 means no timeout
+     * @see #REQUEST_TIMEOUT
+     */
+    public void setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Enables retries - and optionally hedged requests - for idempotent requests which can be sent again, that is
+     * with no entity, or with byte array or file entity and no output stream adapters. Attempts are invisible to the
+     * caller, which gets the response of the winning one; the request timeout, if any, covers all attempts.
+     * Not compatible with streaming, as the response of an attempt might be discarded after being read.
+     *
+     * @param retryPolicy retry policy, or null to disable retries
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    /**
+     * Enables a circuit breaker for each route - each endpoint, for endpoint groups: while a route is failing or
+     * slow, requests towards it fail straight away with {@link CircuitOpenException}, sparing connections and
+     * in-flight slots. Such failures are not retried.
+     *
+     * @param circuitBreakerPolicy circuit breaker policy, or null to disable circuit breaking
+     */
+    public void setCircuitBreakerPolicy(CircuitBreakerPolicy circuitBreakerPolicy) {
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+    }
+
+    public List<CircuitBreakerListener> getCircuitBreakerListeners() {
+        return Collections.unmodifiableList(circuitBreakerListeners);
+    }
+
+    /**
+     * Registers a listener for circuit state changes; takes effect on RestClients created afterwards.
+     *
+     * @param listener circuit breaker listener
+     */
+    public void addCircuitBreakerListener(CircuitBreakerListener listener) {
+        this.circuitBreakerListeners.add(listener);
+    }
+
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    /**
+     * Sets whether pooled buffers for request and response entities are direct - saving a copy when reading from or
+     * writing to the socket - or heap buffers.
+     *
+     * @param directBuffers whether entity buffers are direct
+     */
+    public void setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+    }
+
+    public long getMaxPooledBufferBytes() {
+        return maxPooledBufferBytes;
+    }
+
+    /**
+     * Sets the upper bound of the memory held by each connection handler for reusing request and response entity
+     * buffers; buffers released beyond it are left to the garbage collector.
+     *
+     * @param maxPooledBufferBytes maximum size of pooled buffers, in bytes; 0 disables pooling - and direct buffers
+     */
+    public void setMaxPooledBufferBytes(long maxPooledBufferBytes) {
+        this.maxPooledBufferBytes = maxPooledBufferBytes;
+    }
 }
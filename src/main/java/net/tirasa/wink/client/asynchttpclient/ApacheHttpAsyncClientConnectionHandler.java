@@ -19,61 +19,186 @@
  ****************************************************************************** */
 package net.tirasa.wink.client.asynchttpclient;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.UnsupportedCharsetException;
 import java.security.KeyManagementException;
+import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
-import javax.ws.rs.WebApplicationException;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
 
-import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.ParseException;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.BasicFuture;
 import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.ConnectionConfig;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.ssl.BrowserCompatHostnameVerifier;
+import org.apache.http.conn.ssl.SSLContexts;
 import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.codecs.DefaultHttpResponseParserFactory;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
 import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
 import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
 import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.conn.ManagedNHttpClientConnection;
+import org.apache.http.nio.conn.NHttpConnectionFactory;
 import org.apache.http.nio.conn.PlainIOSessionFactory;
 import org.apache.http.nio.conn.SchemeIOSessionFactory;
-import org.apache.http.nio.conn.ssl.SSLIOSessionFactory;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.entity.NFileEntity;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.pool.PoolStats;
 import org.apache.wink.client.ClientRequest;
 import org.apache.wink.client.ClientResponse;
 import org.apache.wink.client.handlers.HandlerContext;
-import org.apache.wink.client.httpclient.ApacheHttpClientConfig;
+import org.apache.wink.client.handlers.OutputStreamAdapter;
 import org.apache.wink.client.internal.handlers.AbstractConnectionHandler;
 import org.apache.wink.common.internal.WinkConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Extends AbstractConnectionHandler and uses Apache HttpClient to perform HTTP
- * request execution. Each outgoing http request is wrapped by EntityWriter.
+ * Extends AbstractConnectionHandler and uses Apache HttpAsyncClient to perform HTTP
+ * request execution. Each outgoing http request entity is produced by the I/O reactor, with no blocking writes: see
+ * BufferedEntityProducer and PipedEntityProducer.
+ * The underlying client (with its connection pool and I/O reactor) is built once and shared by all requests, until
+ * {@link #close()} is invoked.
  */
-public class ApacheHttpAsyncClientConnectionHandler extends AbstractConnectionHandler {
+public class ApacheHttpAsyncClientConnectionHandler extends AbstractConnectionHandler implements Closeable {
 
     private static final Logger LOG = LoggerFactory.getLogger(ApacheHttpAsyncClientConnectionHandler.class);
 
-    private CloseableHttpAsyncClient httpclient;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    private static final long MAX_POOLED_BUFFER_BYTES = 8 * 1024 * 1024;
+
+    private static final int MAX_QUEUED_REQUEST_BUFFERS = 4;
+
+    private static final int MAX_POOLED_INFLATERS = 64;
+
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    /**
+     * Connection factory parsing response headers with canonical names.
+     */
+    private static final ManagedNHttpClientConnectionFactory CONNECTION_FACTORY =
+            new ManagedNHttpClientConnectionFactory(
+                    null, new DefaultHttpResponseParserFactory(InterningLineParser.INSTANCE, null), null);
+
+    private volatile CloseableHttpAsyncClient httpclient;
+
+    /**
+     * Client built - or acquired, if shared - by this handler, hence to be closed by this handler; null if httpclient
+     * was provided externally.
+     */
+    private volatile SharedClient builtClient;
+
+    /**
+     * Per-request settings, when the client is shared; null otherwise.
+     */
+    private volatile RequestConfig requestConfig;
+
+    private volatile boolean closed;
+
+    private Thread shutdownHook;
+
+    private volatile AdmissionController admissionController;
+
+    private volatile RequestCoalescer coalescer;
+
+    private volatile RetryController retryController;
+
+    private volatile LoadBalancer loadBalancer;
+
+    private volatile CircuitBreaker circuitBreaker;
+
+    private volatile MetricsRecorder metrics;
+
+    private volatile Executor entityExecutor;
+
+    /**
+     * Whether entityExecutor was built by this handler, hence must be shut down by this handler.
+     */
+    private boolean ownedEntityExecutor;
+
+    private ScheduledExecutorService timer;
+
+    /**
+     * Executions with retries pending, to be given up once the timer is shut down.
+     */
+    private final Set<RetryingExecution> retrying =
+            Collections.newSetFromMap(new ConcurrentHashMap<RetryingExecution, Boolean>());
+
+    private ObjectName mbeanName;
+
+    private final AtomicLong executedRequests = new AtomicLong();
+
+    private final AtomicLong reusedConnections = new AtomicLong();
+
+    private volatile ByteBufferPool bufferPool =
+            new ByteBufferPool(BUFFER_SIZE, MIN_BUFFER_SIZE, MAX_BUFFER_SIZE, true, MAX_POOLED_BUFFER_BYTES);
+
+    private final InflaterPool inflaterPool = new InflaterPool(MAX_POOLED_INFLATERS);
 
     public ApacheHttpAsyncClientConnectionHandler() {
         httpclient = null;
@@ -86,142 +211,1107 @@ public class ApacheHttpAsyncClientConnectionHandler extends AbstractConnectionHa
     @Override
     public FutureClientResponse handle(ClientRequest request, HandlerContext context) throws Exception {
         try {
-            Future<HttpResponse> response = processRequest(request, context);
-            return new FutureClientResponse(this, request, response, context);
+            FutureClientResponse response = new FutureClientResponse(this, request, context);
+
+            ApacheHttpAsyncClientConfig config =
+                    (ApacheHttpAsyncClientConfig) request.getAttribute(WinkConfiguration.class);
+            if (config.isCompressionEnabled() && !request.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+                request.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING);
+            }
+
+            // streamed responses are neither cached nor shared, as their entities are not buffered
+            boolean streaming = isStreaming(request, config);
+
+            // fresh cached responses are returned straight away, without even opening the connection
+            HttpResponseCache cache = config.getResponseCache();
+            CacheExchange cacheExchange = cache == null || streaming ? null : cache.exchange(request);
+            if (cacheExchange != null && cacheExchange.getFreshResponse() != null) {
+                response.completed(cacheExchange.getFreshResponse());
+                return response;
+            }
+
+            long timeout = requestTimeout(request, config);
+            if (timeout > 0) {
+                scheduleDeadline(response, timeout);
+            }
+
+            RequestCoalescer requestCoalescer = this.coalescer;
+            String key = requestCoalescer == null || streaming ? null : RequestCoalescer.key(request);
+            if (key == null) {
+                response.setFutureResponse(processRequest(request, context, response, cacheExchange));
+                return response;
+            }
+
+            RequestCoalescer.Flight flight = requestCoalescer.join(key, response, this, request, context);
+            if (flight != null) {
+                try {
+                    flight.setFutureResponse(processRequest(request, context, flight, cacheExchange));
+                } catch (Exception e) {
+                    flight.failed(e);
+                    throw e;
+                }
+            }
+            return response;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Closes the underlying client, if built by this handler; the pooled connections and the I/O reactor are
+     * released, and any further request will be rejected.
+     * Clients provided externally are left untouched, as their lifecycle is up to the caller.
+     *
+     * @throws IOException if the client cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // JVM shutdown already in progress: this is likely the hook itself
+            }
+            shutdownHook = null;
+        }
+
+        if (admissionController != null) {
+            admissionController.shutdown();
+        }
+
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        // retries scheduled on the timer will never be sent: complete their requests with the last outcome, while
+        // the entity executor is still available
+        for (RetryingExecution execution : new ArrayList<RetryingExecution>(retrying)) {
+            execution.timerShutdown();
+        }
+
+        if (ownedEntityExecutor) {
+            ((ExecutorService) entityExecutor).shutdown();
+        }
+
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException e) {
+                LOG.warn("While unregistering {}", mbeanName, e);
+            }
+            mbeanName = null;
+        }
+
+        if (builtClient != null) {
+            LOG.debug("Closing client after {} requests over {} connections",
+                    executedRequests.get(), builtClient.getOpenedConnections());
+            try {
+                builtClient.close();
+            } finally {
+                httpclient = null;
+                builtClient = null;
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return number of requests submitted via this handler
+     */
+    public long getExecutedRequests() {
+        return executedRequests.get();
+    }
+
+    /**
+     * @return number of physical connections opened by this handler's connection pool - shared with other handlers,
+     * if so configured
+     */
+    public long getOpenedConnections() {
+        SharedClient built = builtClient;
+        return built == null ? 0 : built.getOpenedConnections();
+    }
+
+    /**
+     * @return number of requests submitted via this handler that were sent over an already open (kept-alive)
+     * connection; counted upon each connection lease, hence not affected by other handlers sharing the same client
+     */
+    public long getReusedConnections() {
+        return reusedConnections.get();
+    }
+
+    /**
+     * @return whether this handler's client is shared with other handlers
+     * @see ApacheHttpAsyncClientConfig#setSharedClient(boolean)
+     */
+    public boolean isSharedClient() {
+        return requestConfig != null;
+    }
+
+    /**
+     * @return current connection pool statistics, or null if no pool was built by this handler (yet)
+     */
+    public PoolStats getPoolStats() {
+        SharedClient built = builtClient;
+        return built == null ? null : built.getConnectionManager().getTotalStats();
+    }
+
+    /**
+     * @return number of requests currently in flight, or 0 if no in-flight cap was configured
+     */
+    public int getInFlightRequests() {
+        AdmissionController admission = admissionController;
+        return admission == null ? 0 : admission.getInFlight();
+    }
+
+    /**
+     * @return number of requests currently waiting for being admitted
+     */
+    public int getQueuedRequests() {
+        AdmissionController admission = admissionController;
+        return admission == null ? 0 : admission.getQueued();
+    }
+
+    /**
+     * @return number of requests which joined an identical in-flight request, instead of being sent
+     */
+    public long getCoalescedRequests() {
+        RequestCoalescer requestCoalescer = coalescer;
+        return requestCoalescer == null ? 0 : requestCoalescer.getCoalesced();
+    }
+
+    /**
+     * @return number of retries sent, hedged requests excluded
+     */
+    public long getRetriedRequests() {
+        RetryController retry = retryController;
+        return retry == null ? 0 : retry.getRetried();
+    }
+
+    /**
+     * @return number of hedged requests sent
+     */
+    public long getHedgedRequests() {
+        RetryController retry = retryController;
+        return retry == null ? 0 : retry.getHedged();
+    }
+
+    /**
+     * @return number of retries or hedged requests not sent because the retry budget was exhausted
+     */
+    public long getRetryBudgetExhausted() {
+        RetryController retry = retryController;
+        return retry == null ? 0 : retry.getBudgetExhausted();
+    }
+
+    /**
+     * @return state, requests in flight, requests, failures and ejections of each endpoint of the configured endpoint
+     * groups
+     */
+    public String[] getEndpointStats() {
+        LoadBalancer balancer = loadBalancer;
+        return balancer == null ? new String[0] : balancer.describe();
+    }
+
+    /**
+     * @return number of requests failed straight away because the circuit of their route was open
+     */
+    public long getCircuitBreakerRejections() {
+        CircuitBreaker breaker = circuitBreaker;
+        return breaker == null ? 0 : breaker.getRejected();
+    }
+
+    /**
+     * @return number of routes whose circuit is currently open or half-open
+     */
+    public int getOpenCircuits() {
+        CircuitBreaker breaker = circuitBreaker;
+        return breaker == null ? 0 : breaker.getOpen();
+    }
+
+    /**
+     * @param route target host, with explicit port
+     * @return current state of the circuit of the given route; always closed if no circuit breaker was configured
+     */
+    public CircuitBreakerPolicy.State getCircuitState(final HttpHost route) {
+        CircuitBreaker breaker = circuitBreaker;
+        return breaker == null ? CircuitBreakerPolicy.State.CLOSED : breaker.getState(route);
+    }
+
+    /**
+     * @return state, window content and counters of the circuit of each route seen so far
+     */
+    public String[] getCircuitStats() {
+        CircuitBreaker breaker = circuitBreaker;
+        return breaker == null ? new String[0] : breaker.describe();
+    }
+
+    /**
+     * @return number of completed TLS handshakes, resumed sessions included
+     */
+    public long getTlsHandshakes() {
+        SharedClient built = builtClient;
+        return built == null ? 0 : built.getTlsSessionFactory().getHandshakes();
+    }
+
+    /**
+     * @return number of TLS handshakes which resumed a cached session; compared to {@link #getTlsHandshakes()},
+     * this gives the resumption rate
+     */
+    public long getResumedTlsSessions() {
+        SharedClient built = builtClient;
+        return built == null ? 0 : built.getTlsSessionFactory().getResumedSessions();
+    }
+
+    /**
+     * @return number of entity buffers served by the buffer pool
+     */
+    public long getBufferPoolHits() {
+        return bufferPool.getHits();
+    }
+
+    /**
+     * @return number of entity buffers newly allocated, because none was available in the buffer pool
+     */
+    public long getBufferPoolMisses() {
+        return bufferPool.getMisses();
+    }
+
+    /**
+     * @return number of entity buffers in use, not yet given back to the buffer pool
+     */
+    public long getOutstandingBuffers() {
+        return bufferPool.getOutstanding();
+    }
+
+    /**
+     * @return number of entity buffers held by the buffer pool for reuse
+     */
+    public int getPooledBuffers() {
+        return bufferPool.getPooled();
+    }
+
+    /**
+     * @return number of requests rejected because of overload
+     */
+    public long getRejectedRequests() {
+        AdmissionController admission = admissionController;
+        return admission == null ? 0 : admission.getRejected();
+    }
+
+    /**
+     * @param route route
+     * @return current connection pool statistics for the given route, or null if no pool was built by this handler
+     * (yet)
+     */
+    public PoolStats getPoolStats(final HttpRoute route) {
+        SharedClient built = builtClient;
+        return built == null ? null : built.getConnectionManager().getStats(route);
+    }
+
+    /**
+     * @return client built - or acquired, if shared - by this handler, or null if not built yet or provided externally
+     */
+    SharedClient getBuiltClient() {
+        return builtClient;
+    }
+
+    void setAdmissionController(final AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Replaces the pool of buffers for request and response entities; to be invoked before any request is made.
+     *
+     * @param direct whether buffers are direct, rather than heap
+     * @param maxPooledBytes upper bound of the memory held by pooled buffers; 0 disables pooling, with heap buffers
+     */
+    void setBufferPool(final boolean direct, final long maxPooledBytes) {
+        this.bufferPool = new ByteBufferPool(BUFFER_SIZE, MIN_BUFFER_SIZE, MAX_BUFFER_SIZE, direct, maxPooledBytes);
+    }
+
+    /**
+     * Tracks the given execution while it has retries pending.
+     */
+    void retryPending(final RetryingExecution execution, final boolean pending) {
+        if (pending) {
+            retrying.add(execution);
+        } else {
+            retrying.remove(execution);
+        }
+    }
+
+    void setRetryController(final RetryController retryController) {
+        this.retryController = retryController;
+    }
+
+    void setLoadBalancer(final LoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+
+    void setCircuitBreaker(final CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    void setEntityExecutor(final Executor entityExecutor) {
+        this.entityExecutor = entityExecutor;
+    }
+
+    /**
+     * Returns the executor for deserializing response entities asynchronously; unless configured, a pool of daemon
+     * threads - as many as available processors - is built upon first invocation.
+     */
+    Executor getEntityExecutor() {
+        Executor executor = this.entityExecutor;
+        if (executor != null) {
+            return executor;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Connection handler was closed");
+            }
+            if (this.entityExecutor == null) {
+                final AtomicInteger threadNumber = new AtomicInteger();
+                this.entityExecutor = Executors.newFixedThreadPool(
+                        Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+
+                            @Override
+                            public Thread newThread(final Runnable runnable) {
+                                Thread thread = new Thread(
+                                        runnable, "ApacheHttpAsyncClient-entity-" + threadNumber.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+                this.ownedEntityExecutor = true;
+            }
+            return this.entityExecutor;
+        }
+    }
+
+    /**
+     * @return timeout set on the given request via {@link ApacheHttpAsyncClientConfig#REQUEST_TIMEOUT}, if any,
+     * otherwise configured timeout
+     */
+    private static long requestTimeout(final ClientRequest request, final ApacheHttpAsyncClientConfig config) {
+        Object timeout = request.getAttributes().get(ApacheHttpAsyncClientConfig.REQUEST_TIMEOUT);
+        return timeout instanceof Number ? ((Number) timeout).longValue() : config.getRequestTimeout();
+    }
+
+    /**
+     * @return content type set on the given request, or null if missing or invalid
+     */
+    private static ContentType contentType(final ClientRequest request) {
+        String value = request.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return ContentType.parse(value);
+        } catch (ParseException e) {
+            return null;
+        } catch (UnsupportedCharsetException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the given request was set to be streamed via {@link ApacheHttpAsyncClientConfig#STREAMING}, if
+     * set, otherwise whether streaming is configured
+     */
+    private static boolean isStreaming(final ClientRequest request, final ApacheHttpAsyncClientConfig config) {
+        Object streaming = request.getAttributes().get(ApacheHttpAsyncClientConfig.STREAMING);
+        return streaming instanceof Boolean ? (Boolean) streaming : config.isStreaming();
+    }
+
+    /**
+     * Returns the timer for request deadlines, retries, health checks and scatter-gather timeouts, building it upon
+     * first invocation.
+     */
+    synchronized ScheduledExecutorService timer() {
+        if (closed) {
+            throw new IllegalStateException("Connection handler was closed");
+        }
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ApacheHttpAsyncClient-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return timer;
+    }
+
+    /**
+     * Aborts the request behind the given response, unless completed within the given timeout.
+     */
+    private void scheduleDeadline(final FutureClientResponse response, final long timeout) {
+        final ScheduledFuture<?> expiration = timer().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                LOG.debug("Aborting request not completed within {} ms", timeout);
+                response.abort(new RequestTimeoutException("Request not completed within " + timeout + " ms"));
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        response.addListener(new FutureCallback<ClientResponse>() {
+
+            @Override
+            public void completed(final ClientResponse result) {
+                expiration.cancel(false);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                expiration.cancel(false);
+            }
+
+            @Override
+            public void cancelled() {
+                expiration.cancel(false);
+            }
+        });
+    }
+
+    void setCoalescer(final RequestCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * Enables metrics, and optionally registers this handler as MBean.
+     * Connect, TLS handshake and lease phases are only measured when the client is built by this handler.
+     *
+     * @param recorder metrics recorder
+     * @param phaseStatistics phase statistics to expose via JMX, or null to skip JMX registration
+     */
+    synchronized void setMetrics(final MetricsRecorder recorder, final PhaseStatistics phaseStatistics) {
+        this.metrics = recorder;
+
+        if (phaseStatistics != null && mbeanName == null) {
+            try {
+                ObjectName name = new ObjectName(getClass().getPackage().getName()
+                        + ":type=ConnectionHandler,name=" + Integer.toHexString(System.identityHashCode(this)));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new ConnectionHandlerStats(this, recorder, phaseStatistics), name);
+                mbeanName = name;
+            } catch (JMException e) {
+                LOG.warn("While registering connection handler MBean", e);
+            }
+        }
+    }
+
     public InputStream adaptInputStream(InputStream is, ClientResponse response, HandlerContext context)
             throws IOException {
 
         return adaptInputStream(is, response, context.getInputStreamAdapters());
     }
 
-    private Future<HttpResponse> processRequest(ClientRequest request, HandlerContext context)
+    /**
+     * Wraps the given response entity stream for decoding gzip or deflate content, if enabled and applicable; in
+     * such case, Content-Encoding and Content-Length are removed from the given response, as no longer matching.
+     */
+    InputStream decodeInputStream(final InputStream is, final ClientResponse response, final ClientRequest request) {
+        ApacheHttpAsyncClientConfig config =
+                (ApacheHttpAsyncClientConfig) request.getAttribute(WinkConfiguration.class);
+        String contentEncoding = response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+        if (!config.isCompressionEnabled() || contentEncoding == null) {
+            return is;
+        }
+
+        InputStream decoded = InflatingInputStream.decode(is, contentEncoding, inflaterPool);
+        if (decoded == null) {
+            return is;
+        }
+        response.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+        response.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+        return decoded;
+    }
+
+    private Future<HttpResponse> processRequest(final ClientRequest request, final HandlerContext context,
+            final FutureClientResponse response, final CacheExchange cacheExchange)
             throws IOException, KeyManagementException, NoSuchAlgorithmException {
 
         final CloseableHttpAsyncClient client = openConnection(request);
+        LoadBalancer balancer = this.loadBalancer;
+        if (balancer != null && balancer.isHealthChecking()) {
+            balancer.startHealthChecks(client, timer());
+        }
+        // cast is safe because we're on the client
+        ApacheHttpAsyncClientConfig config =
+                (ApacheHttpAsyncClientConfig) request.getAttribute(WinkConfiguration.class);
+
+        final HttpAsyncResponseConsumer<HttpResponse> consumer = isStreaming(request, config)
+                ? new StreamingResponseConsumer(config.getStreamingBufferSize(), response, getEntityExecutor())
+                : new PooledResponseConsumer(bufferPool);
+
+        Object entity = request.getEntity();
+        if (entity == null) {
+            HttpRequestBase httpRequest = setupHttpRequest(request, null);
+            if (cacheExchange != null) {
+                cacheExchange.prepare(httpRequest);
+            }
+            return execute(client, request, context, httpRequest, consumer, response, cacheExchange);
+        }
+
+        int compressionThreshold = config.getRequestCompressionThreshold() > 0
+                && !request.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)
+                ? config.getRequestCompressionThreshold()
+                : Integer.MAX_VALUE;
+
+        // entities of known length are sent as they are, unless some adapter needs to process the stream or they
+        // are to be compressed; without explicit content type, the one chosen by the entity provider is needed
+        List<OutputStreamAdapter> adapters = context.getOutputStreamAdapters();
+        ContentType contentType = adapters.isEmpty() ? contentType(request) : null;
+        if (contentType != null && entity instanceof byte[] && ((byte[]) entity).length < compressionThreshold) {
+            NByteArrayEntity byteArrayEntity = new NByteArrayEntity((byte[]) entity, contentType);
+            return execute(client, request, context, setupHttpRequest(request, byteArrayEntity), consumer, response,
+                    null);
+        }
+        if (contentType != null && entity instanceof File && ((File) entity).length() < compressionThreshold) {
+            NFileEntity fileEntity = new NFileEntity((File) entity, contentType);
+            return execute(client, request, context, setupHttpRequest(request, fileEntity), consumer, response,
+                    null);
+        }
+
         // TODO: move this functionality to the base class
         NonCloseableOutputStream ncos = new NonCloseableOutputStream();
+        OutputStream os = adaptOutputStream(compressionThreshold == Integer.MAX_VALUE
+                ? ncos
+                : new CompressingOutputStream(ncos, compressionThreshold, request), request, adapters);
+
+        if (config.isChunked()) {
+            return executeChunked(client, request, os, ncos, consumer, response);
+        }
+
+        final BufferedEntityProducer producer = new BufferedEntityProducer(bufferPool);
+        ncos.setOutputStream(producer.getOutputStream());
+        try {
+            writeEntity(request, os);
+        } catch (IOException e) {
+            producer.release();
+            throw e;
+        } catch (RuntimeException e) {
+            producer.release();
+            throw e;
+        }
+        producer.seal();
+
+        // content is kept for redirects and retries, until the whole request is over
+        response.addListener(new FutureCallback<ClientResponse>() {
+
+            @Override
+            public void completed(final ClientResponse result) {
+                producer.release();
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                producer.release();
+            }
+
+            @Override
+            public void cancelled() {
+                producer.release();
+            }
+        });
+
+        return execute(client, request, context, setupHttpRequest(request, producer), consumer, response, null);
+    }
 
-        EntityWriter entityWriter = null;
-        if (request.getEntity() != null) {
-            OutputStream os = adaptOutputStream(ncos, request, context.getOutputStreamAdapters());
-            // cast is safe because we're on the client
-            ApacheHttpClientConfig config = (ApacheHttpClientConfig) request.getAttribute(WinkConfiguration.class);
-            // prepare the entity that will write our entity
-            entityWriter = new EntityWriter(this, request, os, ncos, config.isChunked());
+    /**
+     * Serializes the request entity on the calling thread while the I/O reactor sends it: the request is submitted
+     * as soon as the first chunk is ready, when headers possibly set by entity providers are final.
+     */
+    private Future<HttpResponse> executeChunked(final CloseableHttpAsyncClient client, final ClientRequest request,
+            final OutputStream os, final NonCloseableOutputStream ncos,
+            final HttpAsyncResponseConsumer<HttpResponse> consumer, final FutureClientResponse response)
+            throws IOException {
+
+        final PipedEntityProducer producer = new PipedEntityProducer(bufferPool, MAX_QUEUED_REQUEST_BUFFERS);
+        final List<Future<HttpResponse>> submitted = new ArrayList<Future<HttpResponse>>(1);
+        producer.setStartCallback(new Runnable() {
+
+            @Override
+            public void run() {
+                submitted.add(submit(client, setupHttpRequest(request, producer), consumer, response, null));
+            }
+        });
+        ncos.setOutputStream(producer.getOutputStream());
+
+        Exception failure = null;
+        try {
+            writeEntity(request, os);
+            producer.writeCompleted();
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        if (failure != null) {
+            producer.close();
+            if (submitted.isEmpty()) {
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+
+            // the request was already submitted: unless it has already failed on its own, abort it
+            Future<HttpResponse> future = submitted.get(0);
+            if (!future.isDone()) {
+                LOG.error("While writing request entity", failure);
+                response.failed(failure);
+                future.cancel(true);
+            }
+        }
+
+        return submitted.get(0);
+    }
+
+    /**
+     * Sends the given request; when a retry policy is configured and the request can be sent again - and is not
+     * streamed - this happens through a RetryingExecution, with each attempt submitted separately.
+     */
+    private Future<HttpResponse> execute(final CloseableHttpAsyncClient client, final ClientRequest request,
+            final HandlerContext context, final HttpRequestBase httpRequest,
+            final HttpAsyncResponseConsumer<HttpResponse> consumer, final FutureClientResponse response,
+            final CacheExchange cacheExchange) {
+
+        RetryController retry = this.retryController;
+        if (retry == null || consumer instanceof StreamingResponseConsumer || !retry.isRetryable(httpRequest)) {
+            return submit(client, httpRequest, consumer, response, cacheExchange);
+        }
+
+        return new RetryingExecution(this, request, context, response, retry, timer(), new RetryingExecution.Sender() {
+
+            @Override
+            public Future<HttpResponse> send(final FutureClientResponse attempt) {
+                return submit(client, httpRequest, new PooledResponseConsumer(bufferPool), attempt, null);
+            }
+
+            @Override
+            public void completed(final HttpResponse httpResponse) {
+                complete(response, cacheExchange, httpResponse);
+            }
+        }, retry.isHedgeable(httpRequest)).start();
+    }
+
+    private Future<HttpResponse> submit(final CloseableHttpAsyncClient client, final HttpRequestBase httpRequest,
+            final HttpAsyncResponseConsumer<HttpResponse> consumer, final FutureClientResponse response,
+            final CacheExchange cacheExchange) {
+
+        // requests for logical hosts are routed - and admitted - as requests for the chosen endpoint
+        LoadBalancer balancer = this.loadBalancer;
+        final LoadBalancer.Endpoint endpoint = balancer == null ? null : balancer.choose(target(httpRequest));
+
+        // requests towards routes with open circuit fail straight away, without taking any connection or slot
+        CircuitBreaker breaker = this.circuitBreaker;
+        final CircuitBreaker.Permit permit;
+        if (breaker == null) {
+            permit = null;
+        } else {
+            try {
+                permit = breaker.acquire(endpoint == null ? target(httpRequest) : endpoint.getHost());
+            } catch (CircuitOpenException e) {
+                LOG.debug("Request rejected: {}", e.getMessage());
+                if (endpoint != null) {
+                    endpoint.released();
+                }
+                discard(httpRequest);
+                response.failed(e);
+                BasicFuture<HttpResponse> rejected = new BasicFuture<HttpResponse>(null);
+                rejected.failed(e);
+                return rejected;
+            }
+        }
+
+        final AdmissionController admission = this.admissionController;
+        if (admission == null) {
+            return doExecute(client, httpRequest, consumer, response, cacheExchange, null,
+                    endpoint == null ? null : endpoint.getHost(), endpoint, permit);
+        }
+
+        final HttpHost route = endpoint == null ? target(httpRequest) : endpoint.getHost();
+        return admission.submit(route, new AdmissionController.Request() {
+
+            @Override
+            public Future<HttpResponse> execute() {
+                return doExecute(client, httpRequest, consumer, response, cacheExchange, admission, route, endpoint,
+                        permit);
+            }
+
+            @Override
+            public void rejected(final RequestRejectedException exception) {
+                LOG.warn("Request rejected: {}", exception.getMessage());
+                release(endpoint, permit);
+                discard(httpRequest);
+                response.failed(exception);
+            }
+
+            @Override
+            public void cancelled() {
+                LOG.debug("Request cancelled while waiting for admission");
+                release(endpoint, permit);
+                discard(httpRequest);
+                response.cancelled();
+            }
+        });
+    }
+
+    /**
+     * Gives up the given endpoint and circuit permit - if any - for a request which was not sent.
+     */
+    private static void release(final LoadBalancer.Endpoint endpoint, final CircuitBreaker.Permit permit) {
+        if (endpoint != null) {
+            endpoint.released();
         }
+        if (permit != null) {
+            permit.released();
+        }
+    }
 
-        HttpRequestBase entityRequest = setupHttpRequest(request, entityWriter);
+    private Future<HttpResponse> doExecute(final CloseableHttpAsyncClient client, final HttpRequestBase httpRequest,
+            final HttpAsyncResponseConsumer<HttpResponse> consumer, final FutureClientResponse response,
+            final CacheExchange cacheExchange, final AdmissionController admission, final HttpHost route,
+            final LoadBalancer.Endpoint endpoint, final CircuitBreaker.Permit permit) {
 
+        MetricsRecorder recorder = this.metrics;
+        final RequestMetrics requestMetrics = recorder == null
+                ? null
+                : recorder.start(route == null ? target(httpRequest) : route);
+
+        final long started = System.nanoTime();
+        final AbortableExchange exchange = new AbortableExchange(reusedConnections);
         try {
-            return client.execute(entityRequest, new FutureCallback<HttpResponse>() {
+            HttpAsyncRequestProducer producer = endpoint == null
+                    ? HttpAsyncMethods.create(httpRequest)
+                    : HttpAsyncMethods.create(rewrite(httpRequest, endpoint.getHost()));
+            HttpAsyncResponseConsumer<HttpResponse> instrumentedConsumer = consumer;
+            if (requestMetrics != null) {
+                producer = recorder.instrument(producer, requestMetrics);
+                instrumentedConsumer = recorder.instrument(consumer, requestMetrics);
+                response.setMetrics(requestMetrics);
+            }
+            producer = exchange.wrap(producer);
+            instrumentedConsumer = exchange.wrap(instrumentedConsumer);
+            response.setExchange(exchange);
+
+            executedRequests.incrementAndGet();
+            return client.execute(producer, instrumentedConsumer, new FutureCallback<HttpResponse>() {
 
                 @Override
                 public void completed(HttpResponse t) {
                     LOG.debug("Client completed with response {}", t);
-                    try {
-                        client.close();
-                    } catch (IOException e) {
-                        LOG.error("While closing", e);
+                    release();
+                    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                    if (endpoint != null) {
+                        endpoint.completed(t.getStatusLine().getStatusCode(), elapsed);
+                    }
+                    if (permit != null) {
+                        permit.completed(t.getStatusLine().getStatusCode(), elapsed);
                     }
+                    if (requestMetrics != null) {
+                        requestMetrics.completed(t);
+                    }
+                    complete(response, cacheExchange, t);
                 }
 
                 @Override
                 public void failed(Exception excptn) {
-                    LOG.error("Client failed with exception", excptn);
-                    try {
-                        client.close();
-                    } catch (IOException e) {
-                        LOG.error("While closing", e);
+                    if (exchange.isAborted()) {
+                        LOG.debug("Client execution aborted", excptn);
+                    } else {
+                        LOG.error("Client failed with exception", excptn);
                     }
+                    release();
+                    if (endpoint != null) {
+                        if (exchange.isAborted()) {
+                            endpoint.released();
+                        } else {
+                            endpoint.failed();
+                        }
+                    }
+                    if (permit != null) {
+                        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                        if (exchange.isAborted()) {
+                            permit.aborted(elapsed);
+                        } else {
+                            permit.failed(elapsed);
+                        }
+                    }
+                    if (requestMetrics != null) {
+                        requestMetrics.failed(excptn);
+                    }
+                    response.failed(excptn);
                 }
 
                 @Override
                 public void cancelled() {
                     LOG.debug("Client execution cancelled");
-                    try {
-                        client.close();
-                    } catch (IOException e) {
-                        LOG.error("While closing", e);
+                    release();
+                    if (endpoint != null) {
+                        endpoint.released();
+                    }
+                    if (permit != null) {
+                        permit.aborted(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                    }
+                    if (requestMetrics != null) {
+                        requestMetrics.failed(new CancellationException());
+                    }
+                    response.cancelled();
+                }
+
+                private void release() {
+                    if (admission != null) {
+                        admission.release(route);
                     }
                 }
             });
         } catch (Exception ex) {
-            entityRequest.abort();
+            release(endpoint, permit);
+            discard(httpRequest);
             throw new RuntimeException(ex);
         }
     }
 
-    private HttpRequestBase setupHttpRequest(ClientRequest request,
-            ApacheHttpAsyncClientConnectionHandler.EntityWriter entityWriter) {
+    /**
+     * Copies the given request - sharing its entity - for being sent to the given endpoint, leaving the request itself
+     * untouched: the same request can be sent to other endpoints as well, by retries or hedged requests.
+     */
+    private static HttpRequestBase rewrite(final HttpRequestBase httpRequest, final HttpHost endpoint)
+            throws URISyntaxException {
+
+        HttpRequestBase rewritten;
+        if (httpRequest instanceof HttpEntityEnclosingRequestBase) {
+            HttpEntityEnclosingRequestBase entityRequest =
+                    new GenericHttpEntityEnclosingRequestBase(httpRequest.getMethod());
+            entityRequest.setEntity(((HttpEntityEnclosingRequestBase) httpRequest).getEntity());
+            rewritten = entityRequest;
+        } else {
+            rewritten = new GenericHttpRequestBase(httpRequest.getMethod());
+        }
+        rewritten.setURI(URIUtils.rewriteURI(httpRequest.getURI(), endpoint));
+        rewritten.setHeaders(httpRequest.getAllHeaders());
+        rewritten.setConfig(httpRequest.getConfig());
+        return rewritten;
+    }
+
+    /**
+     * Completes the given response, after updating the cache - if needed.
+     */
+    private static void complete(final FutureClientResponse response, final CacheExchange cacheExchange,
+            final HttpResponse httpResponse) {
+
+        HttpResponse result = httpResponse;
+        if (cacheExchange != null) {
+            try {
+                result = cacheExchange.completed(httpResponse);
+            } catch (IOException e) {
+                LOG.error("While caching response", e);
+                response.failed(e);
+                return;
+            }
+        }
+        response.completed(result);
+    }
+
+    /**
+     * Aborts the given request, and releases its entity - if any.
+     */
+    private void discard(final HttpRequestBase httpRequest) {
+        httpRequest.abort();
+        if (httpRequest instanceof HttpEntityEnclosingRequestBase) {
+            HttpEntity entity = ((HttpEntityEnclosingRequestBase) httpRequest).getEntity();
+            if (entity instanceof Closeable) {
+                try {
+                    ((Closeable) entity).close();
+                } catch (IOException e) {
+                    LOG.error("While releasing request entity", e);
+                }
+            }
+        }
+    }
 
+    /**
+     * @return target host of the given request, with explicit port
+     */
+    private static HttpHost target(final HttpRequestBase httpRequest) {
+        HttpHost target = URIUtils.extractHost(httpRequest.getURI());
+        if (target != null && target.getPort() <= 0) {
+            target = new HttpHost(target.getHostName(),
+                    "https".equalsIgnoreCase(target.getSchemeName()) ? 443 : 80, target.getSchemeName());
+        }
+        return target;
+    }
+
+    private HttpRequestBase setupHttpRequest(ClientRequest request, HttpEntity entity) {
         URI uri = request.getURI();
         String method = request.getMethod();
         HttpRequestBase httpRequest;
-        if (entityWriter == null) {
+        if (entity == null) {
             GenericHttpRequestBase entityRequest = new GenericHttpRequestBase(method);
             httpRequest = entityRequest;
         } else {
             // create a new request with the specified method
             HttpEntityEnclosingRequestBase entityRequest =
                     new ApacheHttpAsyncClientConnectionHandler.GenericHttpEntityEnclosingRequestBase(method);
-            entityRequest.setEntity(entityWriter);
+            entityRequest.setEntity(entity);
             httpRequest = entityRequest;
         }
         // set the uri
         httpRequest.setURI(uri);
+        if (requestConfig != null) {
+            httpRequest.setConfig(requestConfig);
+        }
         // add all headers
         MultivaluedMap<String, String> headers = request.getHeaders();
-        for (String header : headers.keySet()) {
-            List<String> values = headers.get(header);
-            for (String value : values) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
                 if (value != null) {
-                    httpRequest.addHeader(header, value);
+                    httpRequest.addHeader(header.getKey(), value);
                 }
             }
         }
         return httpRequest;
     }
 
-    private synchronized CloseableHttpAsyncClient openConnection(ClientRequest request)
+    /**
+     * Returns the client, building it upon first invocation: once built, no lock is taken.
+     */
+    CloseableHttpAsyncClient openConnection(ClientRequest request)
             throws NoSuchAlgorithmException, KeyManagementException, IOException {
 
+        CloseableHttpAsyncClient client = this.httpclient;
+        if (client != null && !closed) {
+            return client;
+        }
+        return initClient(request);
+    }
+
+    private synchronized CloseableHttpAsyncClient initClient(ClientRequest request)
+            throws NoSuchAlgorithmException, KeyManagementException, IOException {
+
+        if (closed) {
+            throw new IllegalStateException("Connection handler was closed");
+        }
         if (this.httpclient != null) {
             return this.httpclient;
         }
 
-        HttpAsyncClientBuilder clientBuilder = HttpAsyncClientBuilder.create();
-
         // cast is safe because we're on the client
-        ApacheHttpAsyncClientConfig config =
+        final ApacheHttpAsyncClientConfig config =
                 (ApacheHttpAsyncClientConfig) request.getAttribute(WinkConfiguration.class);
 
+        final RequestConfig defaultRequestConfig = requestConfig(config);
+
+        // instrumented clients are not shared, as connection metrics are reported to the handler's listeners only
+        MetricsRecorder recorder = this.metrics;
+        if (config.isSharedClient() && recorder == null) {
+            this.builtClient = SharedClient.acquire(sharingKey(config), new SharedClient.Builder() {
+
+                @Override
+                public SharedClient build() throws NoSuchAlgorithmException, KeyManagementException, IOException {
+                    return buildClient(config, defaultRequestConfig, null);
+                }
+            });
+            // the shared client's defaults come from the configuration which built it: own settings go with each
+            // request
+            this.requestConfig = defaultRequestConfig;
+        } else {
+            this.builtClient = buildClient(config, defaultRequestConfig, recorder);
+        }
+
+        if (config.isCloseOnShutdown()) {
+            this.shutdownHook = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        LOG.error("While closing on shutdown", e);
+                    }
+                }
+            }, "ApacheHttpAsyncClient-shutdown");
+            Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+        }
+
+        // publish only when fully started
+        this.httpclient = this.builtClient.getClient();
+        return this.httpclient;
+    }
+
+    /**
+     * @return per-request settings: timeouts, redirects and proxy
+     */
+    private static RequestConfig requestConfig(final ApacheHttpAsyncClientConfig config) {
         RequestConfig.Builder requestConfigBuilder = RequestConfig.custom().
                 setConnectTimeout(config.getConnectTimeout()).
-                setSocketTimeout(config.getReadTimeout());
+                setSocketTimeout(config.getReadTimeout()).
+                setConnectionRequestTimeout(config.getConnectionRequestTimeout()).
+                setRedirectsEnabled(config.isFollowRedirects());
         if (config.isFollowRedirects()) {
-            requestConfigBuilder.setRedirectsEnabled(true).setCircularRedirectsAllowed(true);
+            requestConfigBuilder.setCircularRedirectsAllowed(true);
         }
 
         // setup proxy
         if (config.getProxyHost() != null) {
             requestConfigBuilder.setProxy(new HttpHost(config.getProxyHost(), config.getProxyPort()));
         }
+        return requestConfigBuilder.build();
+    }
 
-        clientBuilder.setDefaultRequestConfig(requestConfigBuilder.build());
+    /**
+     * Lists the settings a client is built with, except those applied to each request; configurations with equal
+     * lists can share the same client.
+     * Connect and socket timeouts are included, as they are set on the I/O reactor; the proxy is included only when
+     * connection caps for given hosts are set, since the capped routes depend on it.
+     */
+    private static List<Object> sharingKey(final ApacheHttpAsyncClientConfig config) {
+        return Arrays.asList(
+                config.getConnectTimeout(), config.getReadTimeout(),
+                config.getMaxPooledConnections(), config.getMaxConnectionsPerRoute(),
+                new HashMap<HttpHost, Integer>(config.getMaxConnectionsPerHost()),
+                config.getMaxConnectionsPerHost().isEmpty() ? null : config.getProxyHost(),
+                config.getMaxConnectionsPerHost().isEmpty() ? null : config.getProxyPort(),
+                config.getConnectionTimeToLive(), config.getIdleConnectionTimeout(),
+                config.getIoThreadCount(), config.getSelectInterval(), config.isTcpNoDelay(), config.isSoKeepAlive(),
+                config.getSndBufSize(), config.getRcvBufSize(),
+                config.getBypassHostnameVerification(), config.getSslContext(), config.getKeyStore(),
+                config.getKeyStorePassword(), config.getTrustStore(),
+                config.getTlsProtocols() == null ? null : Arrays.asList(config.getTlsProtocols()),
+                config.getCipherSuites() == null ? null : Arrays.asList(config.getCipherSuites()),
+                config.getSslSessionCacheSize(), config.getSslSessionTimeout());
+    }
 
-        Registry<SchemeIOSessionFactory> connManagerRegistry;
-        if (config.getBypassHostnameVerification()) {
-            SSLContext sslcontext = SSLContext.getInstance("TLS");
-            sslcontext.init(null, null, null);
+    /**
+     * Builds and starts a client - with its connection pool and I/O reactor - according to the given configuration.
+     */
+    private SharedClient buildClient(final ApacheHttpAsyncClientConfig config,
+            final RequestConfig defaultRequestConfig, final MetricsRecorder recorder)
+            throws NoSuchAlgorithmException, KeyManagementException, IOException {
+
+        HttpAsyncClientBuilder clientBuilder = HttpAsyncClientBuilder.create();
+        clientBuilder.setDefaultRequestConfig(defaultRequestConfig);
+        HttpHost proxy = defaultRequestConfig.getProxy();
 
-            connManagerRegistry = RegistryBuilder.<SchemeIOSessionFactory>create()
-                    .register("http", PlainIOSessionFactory.INSTANCE)
-                    .register("https", new SSLIOSessionFactory(sslcontext, new X509HostnameVerifier() {
+        X509HostnameVerifier hostnameVerifier;
+        if (config.getBypassHostnameVerification()) {
+            hostnameVerifier = new X509HostnameVerifier() {
 
                 @Override
                 public boolean verify(String hostname, SSLSession session) {
@@ -240,28 +1330,172 @@ public class ApacheHttpAsyncClientConnectionHandler extends AbstractConnectionHa
                 @Override
                 public void verify(String host, SSLSocket ssl) throws IOException {
                 }
-            }))
-                    .build();
+            };
         } else {
-            connManagerRegistry = RegistryBuilder.<SchemeIOSessionFactory>create()
-                    .register("http", PlainIOSessionFactory.INSTANCE)
-                    .register("https", SSLIOSessionFactory.getDefaultStrategy())
-                    .build();
+            hostnameVerifier = new BrowserCompatHostnameVerifier();
+        }
+        TlsSessionFactory tlsSessionFactory =
+                sslIOSessionFactory(config, sslContext(config), hostnameVerifier, recorder);
+        Registry<SchemeIOSessionFactory> connManagerRegistry = RegistryBuilder.<SchemeIOSessionFactory>create()
+                .register("http", PlainIOSessionFactory.INSTANCE)
+                .register("https", tlsSessionFactory)
+                .build();
+
+        IOReactorConfig.Builder ioReactorConfigBuilder = IOReactorConfig.custom().
+                setConnectTimeout(config.getConnectTimeout()).
+                setSoTimeout(config.getReadTimeout()).
+                setTcpNoDelay(config.isTcpNoDelay()).
+                setSoKeepAlive(config.isSoKeepAlive()).
+                setSndBufSize(config.getSndBufSize()).
+                setRcvBufSize(config.getRcvBufSize());
+        if (config.getIoThreadCount() > 0) {
+            ioReactorConfigBuilder.setIoThreadCount(config.getIoThreadCount());
+        }
+        if (config.getSelectInterval() > 0) {
+            ioReactorConfigBuilder.setSelectInterval(config.getSelectInterval());
         }
 
+        IOReactorConfig ioReactorConfig = ioReactorConfigBuilder.build();
+        ConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(ioReactorConfig);
+        if (recorder != null) {
+            ioReactor = recorder.instrument(ioReactor, ioReactorConfig.getIoThreadCount());
+        }
+
+        AtomicLong openedConnections = new AtomicLong();
         PoolingNHttpClientConnectionManager httpConnectionManager = new PoolingNHttpClientConnectionManager(
-                new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT), connManagerRegistry);
+                ioReactor,
+                new CountingConnectionFactory(CONNECTION_FACTORY, openedConnections),
+                connManagerRegistry,
+                null,
+                null,
+                config.getConnectionTimeToLive() > 0 ? config.getConnectionTimeToLive() : -1,
+                TimeUnit.MILLISECONDS);
         if (config.getMaxPooledConnections() > 0) {
             httpConnectionManager.setMaxTotal(config.getMaxPooledConnections());
             httpConnectionManager.setDefaultMaxPerRoute(config.getMaxPooledConnections());
-
+        }
+        if (config.getMaxConnectionsPerRoute() > 0) {
+            httpConnectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        }
+        for (Map.Entry<HttpHost, Integer> entry : config.getMaxConnectionsPerHost().entrySet()) {
+            httpConnectionManager.setMaxPerRoute(route(entry.getKey(), proxy), entry.getValue());
         }
         clientBuilder.setConnectionManager(httpConnectionManager);
 
-        this.httpclient = clientBuilder.build();
-        this.httpclient.start();
+        CloseableHttpAsyncClient built = clientBuilder.build();
+        built.start();
 
-        return this.httpclient;
+        IdleConnectionEvictor idleConnectionEvictor = null;
+        if (config.getIdleConnectionTimeout() > 0 || config.getConnectionTimeToLive() > 0) {
+            long interval = config.getIdleConnectionTimeout() > 0
+                    ? config.getIdleConnectionTimeout()
+                    : config.getConnectionTimeToLive();
+            idleConnectionEvictor = new IdleConnectionEvictor(
+                    httpConnectionManager, config.getIdleConnectionTimeout(), Math.max(interval / 2, 100));
+        }
+
+        return new SharedClient(
+                built, httpConnectionManager, idleConnectionEvictor, tlsSessionFactory, openedConnections);
+    }
+
+    /**
+     * Returns the configured SSL context - or builds it from the configured key and trust stores, or with JSSE
+     * defaults - after applying the configured session cache settings.
+     */
+    private static SSLContext sslContext(final ApacheHttpAsyncClientConfig config)
+            throws NoSuchAlgorithmException, KeyManagementException {
+
+        SSLContext sslContext = config.getSslContext();
+        if (sslContext == null) {
+            if (config.getKeyStore() == null && config.getTrustStore() == null) {
+                sslContext = SSLContexts.createDefault();
+            } else {
+                KeyManager[] keyManagers = null;
+                TrustManager[] trustManagers = null;
+                try {
+                    if (config.getKeyStore() != null) {
+                        KeyManagerFactory keyManagerFactory =
+                                KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                        keyManagerFactory.init(config.getKeyStore(), config.getKeyStorePassword() == null
+                                ? null
+                                : config.getKeyStorePassword().toCharArray());
+                        keyManagers = keyManagerFactory.getKeyManagers();
+                    }
+                    if (config.getTrustStore() != null) {
+                        TrustManagerFactory trustManagerFactory =
+                                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                        trustManagerFactory.init(config.getTrustStore());
+                        trustManagers = trustManagerFactory.getTrustManagers();
+                    }
+                } catch (KeyStoreException e) {
+                    throw new KeyManagementException("While reading key or trust store", e);
+                } catch (UnrecoverableKeyException e) {
+                    throw new KeyManagementException("While reading key store", e);
+                }
+
+                sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(keyManagers, trustManagers, null);
+            }
+        }
+
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext != null) {
+            if (config.getSslSessionCacheSize() > 0) {
+                sessionContext.setSessionCacheSize(config.getSslSessionCacheSize());
+            }
+            if (config.getSslSessionTimeout() > 0) {
+                sessionContext.setSessionTimeout(config.getSslSessionTimeout());
+            }
+        }
+        return sslContext;
+    }
+
+    private static TlsSessionFactory sslIOSessionFactory(final ApacheHttpAsyncClientConfig config,
+            final SSLContext sslContext, final X509HostnameVerifier hostnameVerifier, final MetricsRecorder recorder) {
+
+        String[] protocols = config.getTlsProtocols();
+        String[] cipherSuites = config.getCipherSuites();
+        TlsSessionFactory factory = recorder == null
+                ? new TlsSessionFactory(sslContext, hostnameVerifier, protocols, cipherSuites)
+                : recorder.sslIOSessionFactory(sslContext, hostnameVerifier, protocols, cipherSuites);
+        return factory;
+    }
+
+    /**
+     * Builds the same route as the one planned by HttpAsyncClient for the given target host.
+     */
+    private static HttpRoute route(final HttpHost host, final HttpHost proxy) {
+        boolean secure = "https".equalsIgnoreCase(host.getSchemeName());
+        HttpHost target = host;
+        if (target.getPort() <= 0) {
+            target = new HttpHost(host.getHostName(), secure ? 443 : 80, host.getSchemeName());
+        }
+        return proxy == null
+                ? new HttpRoute(target, null, secure)
+                : new HttpRoute(target, null, proxy, secure);
+    }
+
+    /**
+     * Keeps track of the physical connections opened by the pool, for telling fresh connections from reused ones.
+     */
+    private static class CountingConnectionFactory implements NHttpConnectionFactory<ManagedNHttpClientConnection> {
+
+        private final NHttpConnectionFactory<ManagedNHttpClientConnection> delegate;
+
+        private final AtomicLong counter;
+
+        public CountingConnectionFactory(final NHttpConnectionFactory<ManagedNHttpClientConnection> delegate,
+                final AtomicLong counter) {
+
+            this.delegate = delegate;
+            this.counter = counter;
+        }
+
+        @Override
+        public ManagedNHttpClientConnection create(final IOSession iosession, final ConnectionConfig config) {
+            counter.incrementAndGet();
+            return delegate.create(iosession, config);
+        }
     }
 
     private static class GenericHttpRequestBase extends HttpRequestBase {
@@ -329,93 +1563,4 @@ public class ApacheHttpAsyncClientConnectionHandler extends AbstractConnectionHa
             os.write(b);
         }
     }
-
-    private class EntityWriter implements HttpEntity {
-
-        private ClientRequest request;
-
-        private OutputStream adaptedOutputStream;
-
-        private NonCloseableOutputStream ncos;
-
-        private boolean chunked;
-
-        private long length = -1l;
-
-        private byte[] content;
-
-        public EntityWriter(ApacheHttpAsyncClientConnectionHandler apacheHttpClientHandler,
-                ClientRequest request,
-                OutputStream adaptedOutputStream,
-                NonCloseableOutputStream ncos,
-                boolean chunked) {
-
-            this.request = request;
-            this.adaptedOutputStream = adaptedOutputStream;
-            this.ncos = ncos;
-            this.chunked = chunked;
-
-            if (!chunked) {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try {
-                    apacheHttpClientHandler.writeEntity(request, bos);
-                    content = bos.toByteArray();
-                    length = content.length;
-                } catch (IOException e) {
-                    throw new WebApplicationException(e);
-                }
-            }
-        }
-
-        @Deprecated
-        @Override
-        public void consumeContent() throws IOException {
-        }
-
-        @Override
-        public InputStream getContent() throws IOException, IllegalStateException {
-            return null;
-        }
-
-        @Override
-        public Header getContentEncoding() {
-            return null;
-        }
-
-        @Override
-        public long getContentLength() {
-            return length;
-        }
-
-        @Override
-        public Header getContentType() {
-            return null;
-        }
-
-        @Override
-        public boolean isChunked() {
-            return chunked;
-        }
-
-        @Override
-        public boolean isRepeatable() {
-            return true;
-        }
-
-        @Override
-        public boolean isStreaming() {
-            return content == null;
-        }
-
-        @Override
-        public void writeTo(OutputStream os) throws IOException {
-            if (!chunked && length > 0 && content != null) {
-                os.write(content);
-                os.flush();
-            } else {
-                ncos.setOutputStream(os);
-                ApacheHttpAsyncClientConnectionHandler.this.writeEntity(request, adaptedOutputStream);
-            }
-        }
-    }
 }
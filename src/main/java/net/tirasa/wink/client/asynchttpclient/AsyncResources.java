@@ -0,0 +1,111 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import org.apache.wink.client.ClientResponse;
+import org.apache.wink.client.EntityType;
+import org.apache.wink.client.Resource;
+
+/**
+ * Invokes Wink resources returning futures of deserialized response entities: unlike
+ * <tt>Resource.get(Class)</tt> and alike, the calling thread neither waits for the response nor deserializes it, as
+ * this happens on the executor configured via
+ * {@link ApacheHttpAsyncClientConfig#setEntityExecutor(java.util.concurrent.Executor)} as soon as the response
+ * arrives.
+ * <p>
+ * Returned futures fail with ClientWebException for error status codes, as <tt>Resource</tt> methods would throw.
+ * <p>
+ * Example:
+ * <pre>
+ * ListenableFuture&lt;AtomFeed&gt; feed = AsyncResources.get(client.resource(uri), AtomFeed.class);
+ * ...
+ * process(feed.get());
+ * </pre>
+ */
+public final class AsyncResources {
+
+    public static <T> ListenableFuture<T> get(final Resource resource, final Class<T> responseEntity) {
+        return invoke(resource, "GET", responseEntity, null);
+    }
+
+    public static <T> ListenableFuture<T> get(final Resource resource, final EntityType<T> responseEntity) {
+        return invoke(resource, "GET", responseEntity, null);
+    }
+
+    public static <T> ListenableFuture<T> post(final Resource resource, final Class<T> responseEntity,
+            final Object requestEntity) {
+
+        return invoke(resource, "POST", responseEntity, requestEntity);
+    }
+
+    public static <T> ListenableFuture<T> put(final Resource resource, final Class<T> responseEntity,
+            final Object requestEntity) {
+
+        return invoke(resource, "PUT", responseEntity, requestEntity);
+    }
+
+    /**
+     * Sends a request with given method and entity on the given resource.
+     *
+     * @param <T> response entity type
+     * @param resource resource, with any header already set
+     * @param method HTTP method
+     * @param responseEntity response entity class
+     * @param requestEntity request entity, can be null
+     * @return future of the response entity
+     * @throws IllegalArgumentException if the resource does not belong to a RestClient configured with
+     * ApacheHttpAsyncClientConfig
+     */
+    public static <T> ListenableFuture<T> invoke(final Resource resource, final String method,
+            final Class<T> responseEntity, final Object requestEntity) {
+
+        return send(resource, method, requestEntity).getEntityAsync(responseEntity);
+    }
+
+    /**
+     * Same as {@link #invoke(Resource, String, Class, Object)}, for generic entity types.
+     *
+     * @param <T> response entity type
+     * @param resource resource, with any header already set
+     * @param method HTTP method
+     * @param responseEntity response entity type
+     * @param requestEntity request entity, can be null
+     * @return future of the response entity
+     */
+    public static <T> ListenableFuture<T> invoke(final Resource resource, final String method,
+            final EntityType<T> responseEntity, final Object requestEntity) {
+
+        return send(resource, method, requestEntity).getEntityAsync(responseEntity);
+    }
+
+    static FutureClientResponse send(final Resource resource, final String method, final Object requestEntity) {
+        ClientResponse response = ResourceInvoker.invoke(resource, method, requestEntity);
+        if (!(response instanceof FutureClientResponse)) {
+            throw new IllegalArgumentException("Resource " + resource.getUriBuilder().build()
+                    + " does not belong to a RestClient configured with "
+                    + ApacheHttpAsyncClientConfig.class.getSimpleName());
+        }
+        return (FutureClientResponse) response;
+    }
+
+    private AsyncResources() {
+        // private constructor for static utility class
+    }
+}
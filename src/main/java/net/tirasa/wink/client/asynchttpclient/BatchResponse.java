@@ -0,0 +1,102 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.wink.client.ClientResponse;
+
+/**
+ * Future of a set of responses, done once every response is done - whether completed, failed or cancelled: check
+ * each FutureClientResponse for its own outcome. Cancelling this future cancels all responses not yet done.
+ *
+ * @see RequestBatch
+ */
+public class BatchResponse extends ListenableFuture<List<FutureClientResponse>> {
+
+    private final List<FutureClientResponse> responses;
+
+    private final AtomicInteger pending;
+
+    public BatchResponse(final List<FutureClientResponse> responses) {
+        super();
+
+        this.responses = Collections.unmodifiableList(responses);
+        this.pending = new AtomicInteger(responses.size());
+
+        if (responses.isEmpty()) {
+            completed(this.responses);
+            return;
+        }
+
+        FutureCallback<ClientResponse> countdown = new FutureCallback<ClientResponse>() {
+
+            @Override
+            public void completed(final ClientResponse result) {
+                countDown();
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                countDown();
+            }
+
+            @Override
+            public void cancelled() {
+                countDown();
+            }
+        };
+        for (FutureClientResponse response : responses) {
+            response.addListener(countdown);
+        }
+    }
+
+    private void countDown() {
+        if (pending.decrementAndGet() == 0) {
+            completed(responses);
+        }
+    }
+
+    /**
+     * @return all responses, regardless of whether they are done
+     */
+    public List<FutureClientResponse> getResponses() {
+        return responses;
+    }
+
+    /**
+     * @return number of responses not yet done
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        // cancelled first, otherwise the last response cancelled below would complete this future
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        for (FutureClientResponse response : responses) {
+            response.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+}
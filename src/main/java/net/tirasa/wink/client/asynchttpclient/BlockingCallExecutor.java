@@ -0,0 +1,264 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs blocking Wink call sites - as <tt>resource.get(String.class)</tt> - as tasks, cheaply at high concurrency.
+ * On JDKs providing virtual threads (21+), each task runs on its own virtual thread: as
+ * {@link FutureClientResponse#get()} parks via java.util.concurrent, a virtual thread waiting for its response is
+ * unmounted and only costs some heap, allowing tens of thousands of concurrent blocking-style calls over the few
+ * I/O reactor threads. On older JDKs, tasks run on a bounded pool of daemon platform threads with small stacks.
+ * <p>
+ * An instance configured via {@link ApacheHttpAsyncClientConfig#setVirtualThreads(boolean)} and
+ * {@link ApacheHttpAsyncClientConfig#setMaxBlockingCallThreads(int)} is available from the client configuration.
+ * <p>
+ * Example:
+ * <pre>
+ * BlockingCallExecutor calls = config.getBlockingCallExecutor();
+ * ListenableFuture&lt;String&gt; body = calls.submit(new Callable&lt;String&gt;() {
+ *
+ *     public String call() {
+ *         return client.resource(uri).get(String.class);
+ *     }
+ * });
+ * </pre>
+ */
+public class BlockingCallExecutor implements Executor, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockingCallExecutor.class);
+
+    public static final int DEFAULT_MAX_PLATFORM_THREADS = 256;
+
+    public static final long DEFAULT_PLATFORM_STACK_SIZE = 256 * 1024;
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method method = null;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            // virtual threads not available
+        }
+        NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = method;
+    }
+
+    private final ExecutorService executor;
+
+    private final boolean virtual;
+
+    /**
+     * Whether executor was built by this instance, hence must be shut down by this instance.
+     */
+    private final boolean ownedExecutor;
+
+    /**
+     * @return whether the running JDK provides virtual threads
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Uses virtual threads if available, otherwise up to {@link #DEFAULT_MAX_PLATFORM_THREADS} platform threads.
+     */
+    public BlockingCallExecutor() {
+        this(DEFAULT_MAX_PLATFORM_THREADS, DEFAULT_PLATFORM_STACK_SIZE);
+    }
+
+    /**
+     * Uses virtual threads if available, otherwise the given number of platform threads; tasks exceeding it wait
+     * in an unbounded queue.
+     *
+     * @param maxPlatformThreads maximum number of platform threads, when virtual threads are not available
+     * @param platformStackSize stack size of platform threads, in bytes, or 0 for the JVM default
+     */
+    public BlockingCallExecutor(final int maxPlatformThreads, final long platformStackSize) {
+        this(true, maxPlatformThreads, platformStackSize);
+    }
+
+    /**
+     * Uses virtual threads if available and allowed, otherwise the given number of platform threads; tasks
+     * exceeding it wait in an unbounded queue.
+     *
+     * @param virtualThreads whether virtual threads shall be used, if available
+     * @param maxPlatformThreads maximum number of platform threads, when virtual threads are not used
+     * @param platformStackSize stack size of platform threads, in bytes, or 0 for the JVM default
+     */
+    public BlockingCallExecutor(
+            final boolean virtualThreads, final int maxPlatformThreads, final long platformStackSize) {
+
+        if (maxPlatformThreads <= 0 || platformStackSize < 0) {
+            throw new IllegalArgumentException("maxPlatformThreads must be positive, platformStackSize not negative");
+        }
+
+        ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+        this.virtual = virtualExecutor != null;
+        this.executor = virtualExecutor == null
+                ? newPlatformThreadPool(maxPlatformThreads, platformStackSize)
+                : virtualExecutor;
+        this.ownedExecutor = true;
+    }
+
+    /**
+     * Runs tasks on the given executor, whose lifecycle is up to the caller.
+     *
+     * @param executor executor
+     */
+    public BlockingCallExecutor(final ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        this.executor = executor;
+        this.virtual = false;
+        this.ownedExecutor = false;
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (Exception e) {
+            LOG.warn("Could not create virtual thread executor, falling back to platform threads", e);
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformThreadPool(final int maxThreads, final long stackSize) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(null, runnable,
+                                "ApacheHttpAsyncClient-call-" + threadNumber.incrementAndGet(), stackSize);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * @return whether tasks run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Runs the given blocking call.
+     *
+     * @param <T> result type
+     * @param call blocking call
+     * @return future of the call result; cancelling it interrupts the call, if running
+     */
+    public <T> ListenableFuture<T> submit(final Callable<T> call) {
+        BlockingCall<T> future = new BlockingCall<T>(call);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            future.failed(e);
+        }
+        return future;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        executor.execute(command);
+    }
+
+    /**
+     * Shuts down the underlying executor, if built by this instance: running calls are completed, no further calls
+     * are accepted.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private static class BlockingCall<T> extends ListenableFuture<T> implements Runnable {
+
+        private final Callable<T> call;
+
+        private Thread runner;
+
+        public BlockingCall(final Callable<T> call) {
+            super();
+            this.call = call;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (isDone()) {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+
+            try {
+                completed(call.call());
+            } catch (Exception e) {
+                failed(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                // clears any interrupt meant for this call, before the thread runs further tasks
+                Thread.interrupted();
+            }
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mayInterruptIfRunning) {
+                synchronized (this) {
+                    if (runner != null) {
+                        runner.interrupt();
+                    }
+                }
+            }
+            return cancelled;
+        }
+    }
+}
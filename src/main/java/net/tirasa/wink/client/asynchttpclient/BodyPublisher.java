@@ -0,0 +1,248 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.wink.client.ClientRequest;
+import org.apache.wink.client.ClientResponse;
+import org.apache.wink.client.ClientWebException;
+import org.apache.wink.client.internal.ClientUtils;
+
+/**
+ * Publisher of the elements decoded from a response entity: elements are read and decoded on the given executor, only
+ * as long as the subscriber has outstanding demand; with streamed responses, the I/O reactor stops reading from the
+ * connection as soon as the streaming buffer is full, hence it is the demand that drives input.
+ * As the entity can be read only once, a single subscriber is accepted; upon cancellation or failure the request is
+ * aborted, discarding the connection, rather than reading the rest of the entity.
+ *
+ * @param <T> element type
+ */
+class BodyPublisher<T> implements Publisher<T> {
+
+    private static final Subscription NO_SUBSCRIPTION = new Subscription() {
+
+        @Override
+        public void request(final long n) {
+            // nothing to do
+        }
+
+        @Override
+        public void cancel() {
+            // nothing to do
+        }
+    };
+
+    private final FutureClientResponse source;
+
+    private final ClientRequest request;
+
+    private final ElementDecoder<T> decoder;
+
+    private final Executor executor;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    public BodyPublisher(final FutureClientResponse source, final ClientRequest request,
+            final ElementDecoder<T> decoder, final Executor executor) {
+
+        this.source = source;
+        this.request = request;
+        this.decoder = decoder;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber must not be null");
+        }
+
+        if (subscribed.compareAndSet(false, true)) {
+            new BodySubscription(subscriber).start();
+        } else {
+            subscriber.onSubscribe(NO_SUBSCRIPTION);
+            subscriber.onError(new IllegalStateException("Response entity can be published to one subscriber only"));
+        }
+    }
+
+    private class BodySubscription implements Subscription, FutureCallback<ClientResponse>, Runnable {
+
+        private final Subscriber<? super T> subscriber;
+
+        private final AtomicLong demand = new AtomicLong();
+
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        private volatile ClientResponse response;
+
+        private volatile boolean cancelled;
+
+        // only accessed by the drain loop, which runs on one thread at a time
+        private ElementDecoder.Reader<T> reader;
+
+        private boolean terminated;
+
+        public BodySubscription(final Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void start() {
+            subscriber.onSubscribe(this);
+            source.addListener(this);
+        }
+
+        @Override
+        public void completed(final ClientResponse result) {
+            response = result;
+            drain();
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            error.compareAndSet(null, ex);
+            drain();
+        }
+
+        @Override
+        public void cancelled() {
+            error.compareAndSet(null, new CancellationException("Request was cancelled"));
+            drain();
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                error.compareAndSet(null, new IllegalArgumentException("Requested elements must be positive: " + n));
+            } else {
+                long current;
+                long updated;
+                do {
+                    current = demand.get();
+                    updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, updated));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        /**
+         * Schedules the drain loop unless already scheduled; signals coming in meanwhile make it loop once more.
+         */
+        private void drain() {
+            if (pending.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // handler was closed: fail on the calling thread, without reading
+                    error.compareAndSet(null, e);
+                    run();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                emit();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            if (terminated) {
+                return;
+            }
+            if (cancelled) {
+                abort();
+                return;
+            }
+            if (error.get() != null) {
+                abort();
+                subscriber.onError(error.get());
+                return;
+            }
+            ClientResponse current = response;
+            if (current == null) {
+                return;
+            }
+
+            try {
+                if (reader == null) {
+                    if (ClientUtils.isErrorCode(current.getStatusCode())) {
+                        throw new ClientWebException(request, current);
+                    }
+                    reader = decoder.open(current.getEntity(InputStream.class));
+                }
+
+                while (demand.get() > 0 && !cancelled && error.get() == null) {
+                    T element = reader.read();
+                    if (element == null) {
+                        terminated = true;
+                        closeReader();
+                        subscriber.onComplete();
+                        return;
+                    }
+
+                    subscriber.onNext(element);
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                }
+            } catch (Exception e) {
+                abort();
+                subscriber.onError(e);
+            }
+        }
+
+        private void abort() {
+            terminated = true;
+            // a no-op if the response is complete, otherwise releases the connection without reading any further
+            source.cancel(true);
+            closeReader();
+        }
+
+        private void closeReader() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
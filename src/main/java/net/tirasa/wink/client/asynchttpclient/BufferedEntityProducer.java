@@ -0,0 +1,261 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * Request entity of known length, fully serialized upfront into pooled direct buffers, then drained by the I/O
+ * reactor with no further copy. Content is kept across {@link #close()} - invoked by HttpAsyncClient whenever an
+ * exchange is over or reset - so that the same entity can be sent again by redirects and retries; buffers go back to
+ * the pool only upon {@link #release()}, once the whole request is over.
+ */
+class BufferedEntityProducer extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+    private final ByteBufferPool pool;
+
+    private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+
+    private final OutputStream outputStream = new BufferOutputStream();
+
+    private long length;
+
+    private boolean sealed;
+
+    private boolean released;
+
+    private int current;
+
+    public BufferedEntityProducer(final ByteBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return stream to serialize the entity to; once done, {@link #seal()} must be invoked
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Makes the serialized content ready for being produced: no more writes are allowed afterwards.
+     */
+    public synchronized void seal() {
+        if (!sealed) {
+            for (ByteBuffer buffer : buffers) {
+                buffer.flip();
+            }
+            sealed = true;
+        }
+    }
+
+    @Override
+    public synchronized void produceContent(final ContentEncoder encoder, final IOControl ioctrl)
+            throws IOException {
+
+        if (released) {
+            throw new IOException("Request entity already released");
+        }
+        while (current < buffers.size()) {
+            ByteBuffer buffer = buffers.get(current);
+            encoder.write(buffer);
+            if (buffer.hasRemaining()) {
+                // channel cannot take more for now: wait for the next output event
+                return;
+            }
+            current++;
+        }
+        encoder.complete();
+    }
+
+    /**
+     * Rewinds the content, for being produced again.
+     */
+    @Override
+    public synchronized void close() {
+        if (sealed) {
+            for (ByteBuffer buffer : buffers) {
+                buffer.rewind();
+            }
+        }
+        current = 0;
+    }
+
+    /**
+     * Gives buffers back to the pool: content is no longer available afterwards.
+     */
+    public synchronized void release() {
+        released = true;
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        buffers.clear();
+        current = 0;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * @return content as sealed, regardless of what was already produced
+     * @throws IOException if not sealed yet, or already released
+     */
+    private synchronized List<ByteBuffer> content() throws IOException {
+        if (!sealed) {
+            throw new IOException("Request entity not serialized yet");
+        }
+        if (released) {
+            throw new IOException("Request entity already released");
+        }
+        List<ByteBuffer> content = new ArrayList<ByteBuffer>(buffers.size());
+        for (ByteBuffer buffer : buffers) {
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.rewind();
+            content.add(duplicate);
+        }
+        return content;
+    }
+
+    /**
+     * @return stream over the content, to be read before the entity is released
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        return new BufferInputStream(content());
+    }
+
+    @Override
+    public void writeTo(final OutputStream os) throws IOException {
+        byte[] chunk = new byte[pool.getBufferSize()];
+        for (ByteBuffer content : content()) {
+            while (content.hasRemaining()) {
+                int size = Math.min(chunk.length, content.remaining());
+                content.get(chunk, 0, size);
+                os.write(chunk, 0, size);
+            }
+        }
+        os.flush();
+    }
+
+    private static class BufferInputStream extends InputStream {
+
+        private final List<ByteBuffer> content;
+
+        private int current;
+
+        BufferInputStream(final List<ByteBuffer> content) {
+            this.content = content;
+        }
+
+        private ByteBuffer current() {
+            while (current < content.size() && !content.get(current).hasRemaining()) {
+                current++;
+            }
+            return current < content.size() ? content.get(current) : null;
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer buffer = current();
+            return buffer == null ? -1 : buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            ByteBuffer buffer = current();
+            if (buffer == null) {
+                return -1;
+            }
+            int size = Math.min(len, buffer.remaining());
+            buffer.get(b, off, size);
+            return size;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer buffer = current();
+            return buffer == null ? 0 : buffer.remaining();
+        }
+    }
+
+    private class BufferOutputStream extends OutputStream {
+
+        private ByteBuffer tail;
+
+        private ByteBuffer tail() throws IOException {
+            if (sealed) {
+                throw new IOException("Entity already serialized");
+            }
+            if (tail == null || !tail.hasRemaining()) {
+                tail = pool.acquire();
+                buffers.add(tail);
+            }
+            return tail;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            synchronized (BufferedEntityProducer.this) {
+                tail().put((byte) b);
+                length++;
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            synchronized (BufferedEntityProducer.this) {
+                int offset = off;
+                int remaining = len;
+                while (remaining > 0) {
+                    ByteBuffer buffer = tail();
+                    int size = Math.min(remaining, buffer.remaining());
+                    buffer.put(b, offset, size);
+                    offset += size;
+                    remaining -= size;
+                }
+                length += len;
+            }
+        }
+    }
+}
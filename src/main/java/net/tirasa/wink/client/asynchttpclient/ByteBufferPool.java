@@ -0,0 +1,215 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe pool of ByteBuffers - either heap or direct - in power-of-two size classes, from minimum to maximum
+ * buffer size; each class keeps a bounded number of buffers for reuse, while any further released buffer is left to
+ * the garbage collector. Requests larger than the maximum size are served by unpooled buffers.
+ * With pooling disabled, heap buffers are used anyway: allocating a direct buffer for each request costs more than
+ * the copy it saves.
+ */
+class ByteBufferPool {
+
+    private final int defaultSize;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final boolean direct;
+
+    private final SizeClass[] sizeClasses;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong outstanding = new AtomicLong();
+
+    /**
+     * @param defaultSize size of buffers returned by {@link #acquire()}, rounded up to a size class
+     * @param minSize smallest size class, rounded up to a power of two
+     * @param maxSize largest size class, rounded up to a power of two
+     * @param direct whether buffers are direct, rather than heap; ignored if maxPooledBytes is 0
+     * @param maxPooledBytes upper bound of the memory held by pooled buffers, evenly split among size classes
+     */
+    public ByteBufferPool(final int defaultSize, final int minSize, final int maxSize, final boolean direct,
+            final long maxPooledBytes) {
+
+        if (minSize <= 0 || maxSize < minSize || defaultSize < minSize || defaultSize > maxSize) {
+            throw new IllegalArgumentException("Invalid buffer sizes: " + minSize + " <= " + defaultSize
+                    + " <= " + maxSize + " is required");
+        }
+
+        this.minSize = roundUp(minSize);
+        this.maxSize = roundUp(maxSize);
+        this.direct = direct && maxPooledBytes > 0;
+
+        int classes = Integer.numberOfTrailingZeros(this.maxSize) - Integer.numberOfTrailingZeros(this.minSize) + 1;
+        this.sizeClasses = new SizeClass[classes];
+        for (int i = 0; i < classes; i++) {
+            int size = this.minSize << i;
+            sizeClasses[i] = new SizeClass(size, (int) Math.min(Integer.MAX_VALUE, maxPooledBytes / classes / size));
+        }
+        this.defaultSize = roundUp(defaultSize);
+    }
+
+    private static int roundUp(final int size) {
+        int highest = Integer.highestOneBit(size);
+        return highest == size ? size : highest << 1;
+    }
+
+    /**
+     * @return size class serving the given size, or null if larger than the maximum size
+     */
+    private SizeClass sizeClass(final int size) {
+        if (size > maxSize) {
+            return null;
+        }
+        int rounded = roundUp(Math.max(size, minSize));
+        return sizeClasses[Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(minSize)];
+    }
+
+    public int getBufferSize() {
+        return defaultSize;
+    }
+
+    public int getMaxBufferSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return cleared buffer of default size
+     */
+    public ByteBuffer acquire() {
+        return acquire(defaultSize);
+    }
+
+    /**
+     * @param size minimum capacity
+     * @return cleared buffer from the smallest size class fitting the given size, or an unpooled buffer of the
+     * given size if larger than the maximum size
+     */
+    public ByteBuffer acquire(final int size) {
+        outstanding.incrementAndGet();
+
+        SizeClass sizeClass = sizeClass(size);
+        ByteBuffer buffer = sizeClass == null ? null : sizeClass.poll();
+        if (buffer == null) {
+            misses.incrementAndGet();
+            int capacity = sizeClass == null ? size : sizeClass.size;
+            return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        hits.incrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives back a buffer obtained via {@link #acquire(int)}; buffers not matching any size class are discarded.
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        outstanding.decrementAndGet();
+
+        if (buffer.isDirect() != direct || buffer.capacity() > maxSize) {
+            return;
+        }
+        SizeClass sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass.size == buffer.capacity()) {
+            sizeClass.offer(buffer);
+        }
+    }
+
+    /**
+     * @return number of acquisitions served by a pooled buffer
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of acquisitions requiring a new buffer to be allocated
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of buffers acquired and not released yet
+     */
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return number of buffers currently available for reuse
+     */
+    public int getPooled() {
+        int pooled = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            pooled += sizeClass.pooled.get();
+        }
+        return pooled;
+    }
+
+    private static class SizeClass {
+
+        private final int size;
+
+        private final int maxPooled;
+
+        private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+        private final AtomicInteger pooled = new AtomicInteger();
+
+        public SizeClass(final int size, final int maxPooled) {
+            this.size = size;
+            this.maxPooled = maxPooled;
+        }
+
+        public ByteBuffer poll() {
+            ByteBuffer buffer = pool.poll();
+            if (buffer != null) {
+                pooled.decrementAndGet();
+            }
+            return buffer;
+        }
+
+        public void offer(final ByteBuffer buffer) {
+            if (pooled.incrementAndGet() <= maxPooled) {
+                buffer.clear();
+                pool.offer(buffer);
+            } else {
+                pooled.decrementAndGet();
+            }
+        }
+    }
+}
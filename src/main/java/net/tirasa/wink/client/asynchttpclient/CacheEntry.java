@@ -0,0 +1,339 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * A cached response, with freshness computed as per RFC 2616, section 13, for a private cache.
+ */
+class CacheEntry implements Serializable {
+
+    private static final long serialVersionUID = 3284619482738455123L;
+
+    private final int statusCode;
+
+    private final String reasonPhrase;
+
+    private final String[] headerNames;
+
+    private final String[] headerValues;
+
+    private final byte[] body;
+
+    private final Map<String, String> varyValues;
+
+    private final long requestTime;
+
+    private final long responseTime;
+
+    CacheEntry(final HttpResponse response, final byte[] body, final Map<String, String> varyValues,
+            final long requestTime, final long responseTime) {
+
+        this(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(),
+                response.getAllHeaders(), body, varyValues, requestTime, responseTime);
+    }
+
+    private CacheEntry(final int statusCode, final String reasonPhrase, final Header[] headers, final byte[] body,
+            final Map<String, String> varyValues, final long requestTime, final long responseTime) {
+
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.headerNames = new String[headers.length];
+        this.headerValues = new String[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            this.headerNames[i] = headers[i].getName();
+            this.headerValues[i] = headers[i].getValue();
+        }
+        this.body = body;
+        this.varyValues = varyValues;
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+    }
+
+    /**
+     * @return whether the given response can be stored, and later either served or revalidated
+     */
+    static boolean isCacheable(final HttpResponse response) {
+        switch (response.getStatusLine().getStatusCode()) {
+            case HttpStatus.SC_OK:
+            case HttpStatus.SC_NON_AUTHORITATIVE_INFORMATION:
+            case HttpStatus.SC_MULTIPLE_CHOICES:
+            case HttpStatus.SC_MOVED_PERMANENTLY:
+            case HttpStatus.SC_GONE:
+                break;
+
+            default:
+                return false;
+        }
+
+        Map<String, String> cacheControl = directives(response.getHeaders("Cache-Control"));
+        if (cacheControl.containsKey("no-store")) {
+            return false;
+        }
+        for (Header vary : response.getHeaders("Vary")) {
+            if (vary.getValue().trim().equals("*")) {
+                return false;
+            }
+        }
+
+        return cacheControl.containsKey("max-age")
+                || response.getFirstHeader("Expires") != null
+                || response.getFirstHeader("ETag") != null
+                || response.getFirstHeader("Last-Modified") != null;
+    }
+
+    /**
+     * Parses Cache-Control (or Pragma) directives.
+     */
+    static Map<String, String> directives(final Header[] headers) {
+        Map<String, String> directives = new HashMap<String, String>();
+        for (Header header : headers) {
+            for (HeaderElement element : header.getElements()) {
+                directives.put(element.getName().toLowerCase(Locale.ROOT), element.getValue());
+            }
+        }
+        return directives;
+    }
+
+    /**
+     * @return seconds value of the given directive, or -1 if missing or invalid
+     */
+    static long seconds(final Map<String, String> directives, final String name) {
+        String value = directives.get(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    String getFirstHeader(final String name) {
+        for (int i = 0; i < headerNames.length; i++) {
+            if (headerNames[i].equalsIgnoreCase(name)) {
+                return headerValues[i];
+            }
+        }
+        return null;
+    }
+
+    private List<String> getHeaders(final String name) {
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < headerNames.length; i++) {
+            if (headerNames[i].equalsIgnoreCase(name)) {
+                values.add(headerValues[i]);
+            }
+        }
+        return values;
+    }
+
+    private long dateHeader(final String name) {
+        String value = getFirstHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        Date date = DateUtils.parseDate(value);
+        return date == null ? -1 : date.getTime();
+    }
+
+    private Map<String, String> cacheControl() {
+        Map<String, String> directives = new HashMap<String, String>();
+        for (String value : getHeaders("Cache-Control")) {
+            for (HeaderElement element : new BasicHeader("Cache-Control", value).getElements()) {
+                directives.put(element.getName().toLowerCase(Locale.ROOT), element.getValue());
+            }
+        }
+        return directives;
+    }
+
+    /**
+     * @return freshness lifetime, in milliseconds
+     */
+    long freshnessLifetime() {
+        Map<String, String> cacheControl = cacheControl();
+        if (cacheControl.containsKey("no-cache")) {
+            return 0;
+        }
+        long maxAge = seconds(cacheControl, "max-age");
+        if (maxAge >= 0) {
+            return maxAge * 1000;
+        }
+
+        long expires = dateHeader("Expires");
+        if (expires == -1) {
+            return 0;
+        }
+        long date = dateHeader("Date");
+        return Math.max(0, expires - (date == -1 ? responseTime : date));
+    }
+
+    /**
+     * @return current age, in milliseconds
+     */
+    long currentAge(final long now) {
+        long date = dateHeader("Date");
+        long apparentAge = date == -1 ? 0 : Math.max(0, responseTime - date);
+
+        long ageValue = 0;
+        String age = getFirstHeader("Age");
+        if (age != null) {
+            try {
+                ageValue = Long.parseLong(age.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                ageValue = 0;
+            }
+        }
+
+        long correctedInitialAge = Math.max(apparentAge, ageValue) + (responseTime - requestTime);
+        return correctedInitialAge + (now - responseTime);
+    }
+
+    boolean isFresh(final long now) {
+        return isFresh(now, 0);
+    }
+
+    /**
+     * @param maxStale staleness accepted, in milliseconds
+     * @return whether this entry is fresh, or stale by no more than the given time
+     */
+    boolean isFresh(final long now, final long maxStale) {
+        long lifetime = freshnessLifetime();
+        return currentAge(now) < (maxStale > Long.MAX_VALUE - lifetime ? Long.MAX_VALUE : lifetime + maxStale);
+    }
+
+    /**
+     * @return whether this entry must not be served once stale, even if the request accepts stale responses
+     */
+    boolean mustRevalidate() {
+        return cacheControl().containsKey("must-revalidate");
+    }
+
+    boolean hasValidators() {
+        return getFirstHeader("ETag") != null || getFirstHeader("Last-Modified") != null;
+    }
+
+    /**
+     * @return request header values selected by the Vary response header, when the response was cached
+     */
+    Map<String, String> getVaryValues() {
+        return varyValues;
+    }
+
+    List<String> getVaryHeaders() {
+        List<String> names = new ArrayList<String>();
+        for (String vary : getHeaders("Vary")) {
+            for (String name : vary.split(",")) {
+                if (name.trim().length() > 0) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return approximate memory footprint, in bytes
+     */
+    long size() {
+        long size = body.length + 64;
+        for (int i = 0; i < headerNames.length; i++) {
+            size += 2 * (headerNames[i].length() + headerValues[i].length()) + 32;
+        }
+        return size;
+    }
+
+    /**
+     * Builds a new entry by merging headers of the given 304 (Not Modified) response into this entry's, as per
+     * RFC 2616, section 10.3.5.
+     */
+    CacheEntry update(final HttpResponse notModified, final long newRequestTime, final long newResponseTime) {
+        List<Header> headers = new ArrayList<Header>();
+        for (int i = 0; i < headerNames.length; i++) {
+            if (notModified.getFirstHeader(headerNames[i]) == null
+                    || "Content-Length".equalsIgnoreCase(headerNames[i])
+                    || "Content-Encoding".equalsIgnoreCase(headerNames[i])) {
+
+                headers.add(new BasicHeader(headerNames[i], headerValues[i]));
+            }
+        }
+        for (Header header : notModified.getAllHeaders()) {
+            if (!"Content-Length".equalsIgnoreCase(header.getName())
+                    && !"Content-Encoding".equalsIgnoreCase(header.getName())
+                    && !"Transfer-Encoding".equalsIgnoreCase(header.getName())) {
+
+                headers.add(header);
+            }
+        }
+
+        return new CacheEntry(statusCode, reasonPhrase, headers.toArray(new Header[headers.size()]), body,
+                varyValues, newRequestTime, newResponseTime);
+    }
+
+    /**
+     * @return a response built from this entry, with Age header reflecting the current age
+     */
+    HttpResponse toResponse(final long now) {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, reasonPhrase);
+        for (int i = 0; i < headerNames.length; i++) {
+            if (!"Age".equalsIgnoreCase(headerNames[i])) {
+                response.addHeader(headerNames[i], headerValues[i]);
+            }
+        }
+        response.addHeader("Age", String.valueOf(currentAge(now) / 1000));
+        response.setEntity(entity());
+        return response;
+    }
+
+    ByteArrayEntity entity() {
+        String contentType = getFirstHeader("Content-Type");
+        ByteArrayEntity entity;
+        try {
+            entity = contentType == null
+                    ? new ByteArrayEntity(body)
+                    : new ByteArrayEntity(body, ContentType.parse(contentType));
+        } catch (RuntimeException e) {
+            entity = new ByteArrayEntity(body);
+        }
+        String contentEncoding = getFirstHeader("Content-Encoding");
+        if (contentEncoding != null) {
+            entity.setContentEncoding(contentEncoding);
+        }
+        return entity;
+    }
+}
@@ -0,0 +1,127 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.util.EntityUtils;
+import org.apache.wink.client.ClientRequest;
+
+/**
+ * Interaction of a single request with {@link HttpResponseCache}.
+ */
+class CacheExchange {
+
+    private final HttpResponseCache cache;
+
+    private final String key;
+
+    private final ClientRequest request;
+
+    private final CacheEntry stale;
+
+    private final HttpResponse fresh;
+
+    private final long requestTime = System.currentTimeMillis();
+
+    CacheExchange(final HttpResponseCache cache, final String key, final ClientRequest request,
+            final HttpResponse fresh) {
+        this.cache = cache;
+        this.key = key;
+        this.request = request;
+        this.stale = null;
+        this.fresh = fresh;
+    }
+
+    CacheExchange(final HttpResponseCache cache, final String key, final ClientRequest request,
+            final CacheEntry stale) {
+        this.cache = cache;
+        this.key = key;
+        this.request = request;
+        this.stale = stale;
+        this.fresh = null;
+    }
+
+    /**
+     * @return cached response, if fresh: no request needs to be sent
+     */
+    HttpResponse getFreshResponse() {
+        return fresh;
+    }
+
+    /**
+     * Adds conditional headers for revalidating the stale entry, if any.
+     */
+    void prepare(final HttpRequestBase httpRequest) {
+        if (stale == null) {
+            return;
+        }
+        String etag = stale.getFirstHeader("ETag");
+        if (etag != null) {
+            httpRequest.setHeader("If-None-Match", etag);
+        }
+        String lastModified = stale.getFirstHeader("Last-Modified");
+        if (lastModified != null && DateUtils.parseDate(lastModified) != null) {
+            httpRequest.setHeader("If-Modified-Since", lastModified);
+        }
+    }
+
+    /**
+     * Stores or refreshes the cache entry according to the given response.
+     *
+     * @return response to be returned: the stale entry if confirmed via 304 (Not Modified), otherwise the given
+     * response, with entity buffered if stored
+     */
+    HttpResponse completed(final HttpResponse response) throws IOException {
+        long responseTime = System.currentTimeMillis();
+
+        if (stale != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            EntityUtils.consume(response.getEntity());
+            CacheEntry updated = stale.update(response, requestTime, responseTime);
+            cache.put(key, updated);
+            cache.revalidated();
+            return updated.toResponse(responseTime);
+        }
+
+        if (CacheEntry.isCacheable(response)) {
+            byte[] body = response.getEntity() == null ? new byte[0] : EntityUtils.toByteArray(response.getEntity());
+            List<String> vary = new ArrayList<String>();
+            for (Header header : response.getHeaders("Vary")) {
+                for (HeaderElement element : header.getElements()) {
+                    vary.add(element.getName());
+                }
+            }
+            CacheEntry entry = new CacheEntry(
+                    response, body, HttpResponseCache.varyValues(request, vary), requestTime, responseTime);
+            cache.put(key, entry);
+            response.setEntity(entry.entity());
+        } else {
+            cache.remove(key);
+        }
+        return response;
+    }
+}
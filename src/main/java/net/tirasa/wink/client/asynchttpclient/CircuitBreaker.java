@@ -0,0 +1,386 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpHost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a circuit for each route, tracking the outcomes of requests in a sliding window and rejecting requests
+ * while open, see {@link CircuitBreakerPolicy}.
+ */
+class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final byte SUCCEEDED = 0;
+
+    private static final byte FAILED = 1;
+
+    private static final byte SLOW = 2;
+
+    private final CircuitBreakerPolicy policy;
+
+    private final CircuitBreakerListener[] listeners;
+
+    private final ConcurrentMap<HttpHost, Circuit> circuits = new ConcurrentHashMap<HttpHost, Circuit>();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    CircuitBreaker(final CircuitBreakerPolicy policy, final List<CircuitBreakerListener> listeners) {
+        this.policy = policy;
+        this.listeners = listeners.toArray(new CircuitBreakerListener[listeners.size()]);
+    }
+
+    /**
+     * Lets a request towards the given route through, unless the circuit is open.
+     *
+     * @param route target host, with explicit port
+     * @return permit to be notified of the request outcome
+     * @throws CircuitOpenException if the request must not be sent
+     */
+    Permit acquire(final HttpHost route) throws CircuitOpenException {
+        Circuit circuit = circuits.get(route);
+        if (circuit == null) {
+            circuit = new Circuit(route);
+            Circuit existing = circuits.putIfAbsent(route, circuit);
+            if (existing != null) {
+                circuit = existing;
+            }
+        }
+        return circuit.acquire();
+    }
+
+    /**
+     * @param route target host, with explicit port
+     * @return current state of the circuit of the given route
+     */
+    CircuitBreakerPolicy.State getState(final HttpHost route) {
+        Circuit circuit = circuits.get(route);
+        if (circuit == null) {
+            return CircuitBreakerPolicy.State.CLOSED;
+        }
+        synchronized (circuit) {
+            return circuit.state;
+        }
+    }
+
+    /**
+     * @return number of requests rejected because of open circuits
+     */
+    long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return number of circuits currently open or half-open
+     */
+    int getOpen() {
+        int open = 0;
+        for (Circuit circuit : circuits.values()) {
+            if (getState(circuit.route) != CircuitBreakerPolicy.State.CLOSED) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * @return a description of the state of each circuit
+     */
+    String[] describe() {
+        List<String> description = new ArrayList<String>();
+        for (Circuit circuit : circuits.values()) {
+            description.add(circuit.describe());
+        }
+        return description.toArray(new String[description.size()]);
+    }
+
+    private void notify(final HttpHost route, final CircuitBreakerPolicy.State from,
+            final CircuitBreakerPolicy.State to) {
+
+        for (CircuitBreakerListener listener : listeners) {
+            try {
+                listener.stateChanged(route, from, to);
+            } catch (RuntimeException e) {
+                LOG.error("Circuit breaker listener {} threw exception", listener, e);
+            }
+        }
+    }
+
+    private final class Circuit {
+
+        private final HttpHost route;
+
+        /**
+         * Outcomes of the last requests, as ring buffer; guarded by this.
+         */
+        private final byte[] window = new byte[policy.getWindowSize()];
+
+        private int recorded;
+
+        private int next;
+
+        private int failures;
+
+        private int slowCalls;
+
+        private CircuitBreakerPolicy.State state = CircuitBreakerPolicy.State.CLOSED;
+
+        /**
+         * Incremented at each state change, for telling apart outcomes of requests let through in a previous state.
+         */
+        private int generation;
+
+        private long openedAt;
+
+        private int probesSent;
+
+        private int probesSucceeded;
+
+        private final AtomicLong requests = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+
+        private final AtomicLong slow = new AtomicLong();
+
+        private final AtomicLong opened = new AtomicLong();
+
+        private final AtomicLong rejectedHere = new AtomicLong();
+
+        Circuit(final HttpHost route) {
+            this.route = route;
+        }
+
+        Permit acquire() throws CircuitOpenException {
+            CircuitBreakerPolicy.State from = null;
+            Permit permit = null;
+            synchronized (this) {
+                if (state == CircuitBreakerPolicy.State.OPEN
+                        && System.nanoTime() - openedAt >= TimeUnit.MILLISECONDS.toNanos(policy.getOpenDuration())) {
+
+                    from = transition(CircuitBreakerPolicy.State.HALF_OPEN);
+                }
+                if (state == CircuitBreakerPolicy.State.CLOSED) {
+                    permit = new Permit(this, generation);
+                } else if (state == CircuitBreakerPolicy.State.HALF_OPEN && probesSent < policy.getHalfOpenProbes()) {
+                    probesSent++;
+                    permit = new Permit(this, generation);
+                }
+            }
+
+            if (from != null) {
+                LOG.info("Circuit of {} is half-open, probing", route);
+                CircuitBreaker.this.notify(route, from, CircuitBreakerPolicy.State.HALF_OPEN);
+            }
+            if (permit == null) {
+                rejected.incrementAndGet();
+                rejectedHere.incrementAndGet();
+                throw new CircuitOpenException(route, "Circuit of " + route + " is open");
+            }
+            return permit;
+        }
+
+        void record(final int permitGeneration, final byte outcome) {
+            requests.incrementAndGet();
+            if ((outcome & FAILED) != 0) {
+                failed.incrementAndGet();
+            }
+            if ((outcome & SLOW) != 0) {
+                slow.incrementAndGet();
+            }
+
+            CircuitBreakerPolicy.State from = null;
+            CircuitBreakerPolicy.State to = null;
+            double failureRate = 0;
+            double slowCallRate = 0;
+            synchronized (this) {
+                if (permitGeneration != generation) {
+                    return;
+                }
+
+                if (state == CircuitBreakerPolicy.State.CLOSED) {
+                    if (recorded == window.length) {
+                        count(window[next], -1);
+                    } else {
+                        recorded++;
+                    }
+                    window[next] = outcome;
+                    next = (next + 1) % window.length;
+                    count(outcome, 1);
+
+                    if (recorded >= policy.getMinimumRequests()) {
+                        failureRate = failures * 100.0 / recorded;
+                        slowCallRate = slowCalls * 100.0 / recorded;
+                        if (failureRate >= policy.getFailureRateThreshold()
+                                || policy.getSlowCallDuration() > 0
+                                && slowCallRate >= policy.getSlowCallRateThreshold()) {
+
+                            to = CircuitBreakerPolicy.State.OPEN;
+                        }
+                    }
+                } else if (state == CircuitBreakerPolicy.State.HALF_OPEN) {
+                    if (outcome != SUCCEEDED) {
+                        to = CircuitBreakerPolicy.State.OPEN;
+                    } else if (++probesSucceeded >= policy.getHalfOpenProbes()) {
+                        to = CircuitBreakerPolicy.State.CLOSED;
+                    }
+                }
+                if (to != null) {
+                    from = transition(to);
+                }
+            }
+
+            if (to == null) {
+                return;
+            }
+            if (to == CircuitBreakerPolicy.State.CLOSED) {
+                LOG.info("Circuit of {} is closed, after successful probes", route);
+            } else if (from == CircuitBreakerPolicy.State.HALF_OPEN) {
+                LOG.warn("Circuit of {} is open again for {} ms, after failed probe", route, policy.getOpenDuration());
+            } else {
+                LOG.warn("Circuit of {} is open for {} ms, with failure rate {}% and slow call rate {}%",
+                        new Object[] { route, policy.getOpenDuration(), failureRate, slowCallRate });
+            }
+            CircuitBreaker.this.notify(route, from, to);
+        }
+
+        synchronized void release(final int permitGeneration) {
+            // a probe given up tells nothing: let another one through
+            if (permitGeneration == generation && state == CircuitBreakerPolicy.State.HALF_OPEN) {
+                probesSent--;
+            }
+        }
+
+        private void count(final byte outcome, final int delta) {
+            if ((outcome & FAILED) != 0) {
+                failures += delta;
+            }
+            if ((outcome & SLOW) != 0) {
+                slowCalls += delta;
+            }
+        }
+
+        /**
+         * Moves to the given state, starting afresh; to be invoked while holding this.
+         *
+         * @return previous state
+         */
+        private CircuitBreakerPolicy.State transition(final CircuitBreakerPolicy.State to) {
+            CircuitBreakerPolicy.State from = state;
+            state = to;
+            generation++;
+            recorded = 0;
+            next = 0;
+            failures = 0;
+            slowCalls = 0;
+            probesSent = 0;
+            probesSucceeded = 0;
+            if (to == CircuitBreakerPolicy.State.OPEN) {
+                openedAt = System.nanoTime();
+                opened.incrementAndGet();
+            }
+            return from;
+        }
+
+        private String describe() {
+            CircuitBreakerPolicy.State current;
+            int inWindow;
+            int failuresInWindow;
+            int slowCallsInWindow;
+            synchronized (this) {
+                current = state;
+                inWindow = recorded;
+                failuresInWindow = failures;
+                slowCallsInWindow = slowCalls;
+            }
+            return route.toURI() + " " + current + " [window: " + failuresInWindow + " failed, " + slowCallsInWindow
+                    + " slow of " + inWindow + "; requests: " + requests.get() + "; failures: " + failed.get()
+                    + "; slow: " + slow.get() + "; openings: " + opened.get() + "; rejected: " + rejectedHere.get()
+                    + "]";
+        }
+    }
+
+    /**
+     * Permission to send a request, to be notified exactly once of its outcome.
+     */
+    final class Permit {
+
+        private final Circuit circuit;
+
+        private final int generation;
+
+        private Permit(final Circuit circuit, final int generation) {
+            this.circuit = circuit;
+            this.generation = generation;
+        }
+
+        /**
+         * Notifies that the request got a response; 5xx responses count as failures.
+         *
+         * @param status response status code
+         * @param elapsed response time, in milliseconds
+         */
+        void completed(final int status, final long elapsed) {
+            circuit.record(generation, (byte) ((status >= 500 ? FAILED : SUCCEEDED) | slow(elapsed)));
+        }
+
+        /**
+         * Notifies that the request failed with I/O error.
+         *
+         * @param elapsed time to failure, in milliseconds
+         */
+        void failed(final long elapsed) {
+            circuit.record(generation, (byte) (FAILED | slow(elapsed)));
+        }
+
+        /**
+         * Notifies that the request was aborted - because cancelled, or because its deadline expired: this only counts
+         * as slow call if it was running for long enough.
+         *
+         * @param elapsed time to abort, in milliseconds
+         */
+        void aborted(final long elapsed) {
+            if (slow(elapsed) == SLOW) {
+                circuit.record(generation, SLOW);
+            } else {
+                circuit.release(generation);
+            }
+        }
+
+        /**
+         * Notifies that the request was given up before being sent.
+         */
+        void released() {
+            circuit.release(generation);
+        }
+
+        private byte slow(final long elapsed) {
+            return policy.getSlowCallDuration() > 0 && elapsed > policy.getSlowCallDuration() ? SLOW : SUCCEEDED;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import org.apache.http.HttpHost;
+
+/**
+ * Notified of state changes of the circuit breakers of {@link ApacheHttpAsyncClientConnectionHandler}.
+ * Methods are invoked on the thread reporting the request outcome - usually an I/O dispatcher thread - or submitting
+ * the request, hence implementations must be thread-safe and must return quickly.
+ *
+ * @see ApacheHttpAsyncClientConfig#addCircuitBreakerListener(CircuitBreakerListener)
+ */
+public interface CircuitBreakerListener {
+
+    /**
+     * @param route route whose circuit changed state
+     * @param from previous state
+     * @param to new state
+     */
+    void stateChanged(HttpHost route, CircuitBreakerPolicy.State from, CircuitBreakerPolicy.State to);
+}
@@ -0,0 +1,174 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import org.apache.wink.client.ClientConfigException;
+
+/**
+ * Circuit breaker settings, see {@link ApacheHttpAsyncClientConfig#setCircuitBreakerPolicy(CircuitBreakerPolicy)}.
+ * Outcomes of the last requests towards each route are recorded in a sliding window: I/O errors and 5xx responses
+ * count as failures, responses - and aborted requests - taking longer than the slow call duration, if set, count as
+ * slow calls.
+ * <p>
+ * When either rate reaches its threshold, the circuit of the route opens: further requests fail straight away with
+ * {@link CircuitOpenException}, without taking any connection. After the open duration, the circuit is half-open: a
+ * few requests are let through as probes; if all of them succeed the circuit closes, otherwise it opens again.
+ */
+public class CircuitBreakerPolicy {
+
+    /**
+     * State of the circuit of a route.
+     */
+    public enum State {
+
+        /**
+         * Requests are sent, and their outcomes recorded.
+         */
+        CLOSED,
+        /**
+         * Requests fail without being sent.
+         */
+        OPEN,
+        /**
+         * A limited number of requests is sent as probe, further requests fail without being sent.
+         */
+        HALF_OPEN
+
+    }
+
+    protected int windowSize = 100;
+
+    protected int minimumRequests = 20;
+
+    protected double failureRateThreshold = 50;
+
+    protected long slowCallDuration;
+
+    protected double slowCallRateThreshold = 100;
+
+    protected long openDuration = 30000;
+
+    protected int halfOpenProbes = 5;
+
+    /**
+     * @throws ClientConfigException if any setting is invalid
+     */
+    public void validate() {
+        if (windowSize <= 0) {
+            throw new ClientConfigException("windowSize must be positive");
+        }
+        if (minimumRequests <= 0 || minimumRequests > windowSize) {
+            throw new ClientConfigException("minimumRequests must be positive, and not exceed windowSize");
+        }
+        if (failureRateThreshold <= 0 || failureRateThreshold > 100
+                || slowCallRateThreshold <= 0 || slowCallRateThreshold > 100) {
+
+            throw new ClientConfigException("Rate thresholds must be greater than 0 and at most 100");
+        }
+        if (slowCallDuration < 0) {
+            throw new ClientConfigException("slowCallDuration must not be negative");
+        }
+        if (openDuration <= 0) {
+            throw new ClientConfigException("openDuration must be positive");
+        }
+        if (halfOpenProbes <= 0) {
+            throw new ClientConfigException("halfOpenProbes must be positive");
+        }
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param windowSize number of most recent requests whose outcome is considered, for each route
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getMinimumRequests() {
+        return minimumRequests;
+    }
+
+    /**
+     * @param minimumRequests number of outcomes to be recorded before rates are evaluated
+     */
+    public void setMinimumRequests(int minimumRequests) {
+        this.minimumRequests = minimumRequests;
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @param failureRateThreshold percentage of failures, within the window, opening the circuit
+     */
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * @param slowCallDuration response time, in milliseconds, beyond which a request counts as slow; 0 disables slow
+     * call detection
+     */
+    public void setSlowCallDuration(long slowCallDuration) {
+        this.slowCallDuration = slowCallDuration;
+    }
+
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * @param slowCallRateThreshold percentage of slow calls, within the window, opening the circuit
+     */
+    public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * @param openDuration time, in milliseconds, during which an open circuit rejects requests before probing
+     */
+    public void setOpenDuration(long openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    public int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+
+    /**
+     * @param halfOpenProbes number of requests sent while half-open, all of which must succeed for closing the
+     * circuit
+     */
+    public void setHalfOpenProbes(int halfOpenProbes) {
+        this.halfOpenProbes = halfOpenProbes;
+    }
+}
@@ -0,0 +1,47 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import org.apache.http.HttpHost;
+
+/**
+ * Signals that a request was not sent because the circuit of its route is open, or half-open with all probes already
+ * in flight.
+ *
+ * @see ApacheHttpAsyncClientConfig#setCircuitBreakerPolicy(CircuitBreakerPolicy)
+ */
+public class CircuitOpenException extends RequestRejectedException {
+
+    private static final long serialVersionUID = 3619427170521587713L;
+
+    private final transient HttpHost route;
+
+    public CircuitOpenException(final HttpHost route, final String message) {
+        super(message);
+        this.route = route;
+    }
+
+    /**
+     * @return route whose circuit is open
+     */
+    public HttpHost getRoute() {
+        return route;
+    }
+}
@@ -0,0 +1,104 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.ws.rs.core.HttpHeaders;
+import org.apache.wink.client.ClientRequest;
+
+/**
+ * Gzips the request entity written through it, but only once its size reaches the given threshold: up to then, bytes
+ * are held in memory and, if the entity turns out to be smaller, sent as they are upon close.
+ * Content-Encoding is set on the request when compression starts, hence before any byte reaches the underlying stream.
+ */
+class CompressingOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final OutputStream out;
+
+    private final int threshold;
+
+    private final ClientRequest request;
+
+    private ByteArrayOutputStream pending;
+
+    private GZIPOutputStream gzip;
+
+    private boolean closed;
+
+    CompressingOutputStream(final OutputStream out, final int threshold, final ClientRequest request) {
+        this.out = out;
+        this.threshold = threshold;
+        this.request = request;
+        this.pending = new ByteArrayOutputStream(Math.min(threshold, BUFFER_SIZE));
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (gzip != null) {
+            gzip.write(b, off, len);
+            return;
+        }
+
+        pending.write(b, off, len);
+        if (pending.size() >= threshold) {
+            request.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, "gzip");
+            gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+            pending.writeTo(gzip);
+            pending = null;
+        }
+    }
+
+    /**
+     * Flushes only once compression has started, as the decision to compress must be taken before any byte is sent.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (gzip != null) {
+            gzip.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (gzip == null) {
+            pending.writeTo(out);
+            pending = null;
+            out.close();
+        } else {
+            // also ends the Deflater and closes the underlying stream
+            gzip.close();
+        }
+    }
+}
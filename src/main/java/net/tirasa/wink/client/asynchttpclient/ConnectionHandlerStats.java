@@ -0,0 +1,229 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.reactor.AbstractMultiworkerIOReactor;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.pool.PoolStats;
+
+class ConnectionHandlerStats implements ConnectionHandlerStatsMBean {
+
+    private final ApacheHttpAsyncClientConnectionHandler handler;
+
+    private final MetricsRecorder recorder;
+
+    private final PhaseStatistics phaseStatistics;
+
+    ConnectionHandlerStats(final ApacheHttpAsyncClientConnectionHandler handler, final MetricsRecorder recorder,
+            final PhaseStatistics phaseStatistics) {
+
+        this.handler = handler;
+        this.recorder = recorder;
+        this.phaseStatistics = phaseStatistics;
+    }
+
+    @Override
+    public long getExecutedRequests() {
+        return handler.getExecutedRequests();
+    }
+
+    @Override
+    public long getCompletedRequests() {
+        return phaseStatistics.getCompleted();
+    }
+
+    @Override
+    public long getFailedRequests() {
+        return phaseStatistics.getFailed();
+    }
+
+    @Override
+    public long getOpenedConnections() {
+        return handler.getOpenedConnections();
+    }
+
+    @Override
+    public long getReusedConnections() {
+        return handler.getReusedConnections();
+    }
+
+    @Override
+    public int getInFlightRequests() {
+        return handler.getInFlightRequests();
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        return handler.getQueuedRequests();
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return handler.getRejectedRequests();
+    }
+
+    @Override
+    public long getRetriedRequests() {
+        return handler.getRetriedRequests();
+    }
+
+    @Override
+    public long getHedgedRequests() {
+        return handler.getHedgedRequests();
+    }
+
+    @Override
+    public long getRetryBudgetExhausted() {
+        return handler.getRetryBudgetExhausted();
+    }
+
+    @Override
+    public long getCircuitBreakerRejections() {
+        return handler.getCircuitBreakerRejections();
+    }
+
+    @Override
+    public int getOpenCircuits() {
+        return handler.getOpenCircuits();
+    }
+
+    @Override
+    public String[] getCircuitStats() {
+        return handler.getCircuitStats();
+    }
+
+    @Override
+    public long getTlsHandshakes() {
+        return handler.getTlsHandshakes();
+    }
+
+    @Override
+    public long getResumedTlsSessions() {
+        return handler.getResumedTlsSessions();
+    }
+
+    @Override
+    public long getBufferPoolHits() {
+        return handler.getBufferPoolHits();
+    }
+
+    @Override
+    public long getBufferPoolMisses() {
+        return handler.getBufferPoolMisses();
+    }
+
+    @Override
+    public long getOutstandingBuffers() {
+        return handler.getOutstandingBuffers();
+    }
+
+    @Override
+    public int getPooledBuffers() {
+        return handler.getPooledBuffers();
+    }
+
+    @Override
+    public int getLeasedConnections() {
+        PoolStats stats = handler.getPoolStats();
+        return stats == null ? 0 : stats.getLeased();
+    }
+
+    @Override
+    public int getAvailableConnections() {
+        PoolStats stats = handler.getPoolStats();
+        return stats == null ? 0 : stats.getAvailable();
+    }
+
+    @Override
+    public int getPendingConnections() {
+        PoolStats stats = handler.getPoolStats();
+        return stats == null ? 0 : stats.getPending();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        PoolStats stats = handler.getPoolStats();
+        return stats == null ? 0 : stats.getMax();
+    }
+
+    @Override
+    public String[] getRouteStats() {
+        List<String> routeStats = new ArrayList<String>();
+        for (HttpRoute route : recorder.getRoutes()) {
+            PoolStats stats = handler.getPoolStats(route);
+            if (stats != null) {
+                routeStats.add(route + " " + stats);
+            }
+        }
+        return routeStats.toArray(new String[routeStats.size()]);
+    }
+
+    @Override
+    public String[] getEndpointStats() {
+        return handler.getEndpointStats();
+    }
+
+    @Override
+    public String[] getPhaseStats() {
+        return phaseStatistics.describe();
+    }
+
+    @Override
+    public void resetPhaseStats() {
+        phaseStatistics.reset();
+    }
+
+    @Override
+    public String getIOReactorStatus() {
+        ConnectingIOReactor ioReactor = recorder.getIOReactor();
+        return ioReactor == null ? null : ioReactor.getStatus().name();
+    }
+
+    @Override
+    public int getIOThreadCount() {
+        return recorder.getIOThreadCount();
+    }
+
+    @Override
+    public long getConnectRequests() {
+        return recorder.getConnectRequests();
+    }
+
+    @Override
+    public long getConnectFailures() {
+        return recorder.getConnectFailures();
+    }
+
+    @Override
+    public long getConnectTimeouts() {
+        return recorder.getConnectTimeouts();
+    }
+
+    @Override
+    public int getIOReactorExceptions() {
+        ConnectingIOReactor ioReactor = recorder.getIOReactor();
+        return ioReactor instanceof AbstractMultiworkerIOReactor
+                ? ((AbstractMultiworkerIOReactor) ioReactor).getAuditLog().size()
+                : 0;
+    }
+}
@@ -0,0 +1,111 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+/**
+ * JMX view of an {@link ApacheHttpAsyncClientConnectionHandler}.
+ *
+ * @see ApacheHttpAsyncClientConfig#setJmxEnabled(boolean)
+ */
+public interface ConnectionHandlerStatsMBean {
+
+    long getExecutedRequests();
+
+    long getCompletedRequests();
+
+    long getFailedRequests();
+
+    long getOpenedConnections();
+
+    long getReusedConnections();
+
+    int getInFlightRequests();
+
+    int getQueuedRequests();
+
+    long getRejectedRequests();
+
+    long getRetriedRequests();
+
+    long getHedgedRequests();
+
+    long getRetryBudgetExhausted();
+
+    long getCircuitBreakerRejections();
+
+    int getOpenCircuits();
+
+    /**
+     * @return state and counters of the circuit of each route seen so far
+     */
+    String[] getCircuitStats();
+
+    long getTlsHandshakes();
+
+    long getResumedTlsSessions();
+
+    long getBufferPoolHits();
+
+    long getBufferPoolMisses();
+
+    long getOutstandingBuffers();
+
+    int getPooledBuffers();
+
+    int getLeasedConnections();
+
+    int getAvailableConnections();
+
+    int getPendingConnections();
+
+    int getMaxConnections();
+
+    /**
+     * @return pool statistics of each route seen so far
+     */
+    String[] getRouteStats();
+
+    /**
+     * @return state and counters of each endpoint of the configured endpoint groups
+     */
+    String[] getEndpointStats();
+
+    /**
+     * @return count, mean and max duration of each request phase
+     */
+    String[] getPhaseStats();
+
+    void resetPhaseStats();
+
+    String getIOReactorStatus();
+
+    int getIOThreadCount();
+
+    long getConnectRequests();
+
+    long getConnectFailures();
+
+    long getConnectTimeouts();
+
+    /**
+     * @return number of exceptions logged by the I/O reactor
+     */
+    int getIOReactorExceptions();
+}
@@ -0,0 +1,233 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Second cache tier, holding entries evicted from memory as files in a directory, with LRU eviction.
+ * Files are written and deleted by a background thread, so that I/O dispatcher threads evicting from memory never
+ * block on disk; the index is kept in memory, hence files left by previous runs are deleted upon creation.
+ */
+class DiskCacheTier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiskCacheTier.class);
+
+    private static final String SUFFIX = ".entry";
+
+    private final File directory;
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    private long size;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "ApacheHttpAsyncClient-cache");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    DiskCacheTier(final File directory, final long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create cache directory " + directory);
+        }
+        File[] stale = directory.listFiles(new FilenameFilter() {
+
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (stale != null) {
+            for (File file : stale) {
+                if (!file.delete()) {
+                    LOG.warn("Could not delete stale cache file {}", file);
+                }
+            }
+        }
+    }
+
+    void put(final String key, final CacheEntry entry) {
+        final byte[] serialized;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(key);
+            out.writeObject(entry);
+            out.close();
+            serialized = bytes.toByteArray();
+        } catch (IOException e) {
+            LOG.error("While serializing cache entry for {}", key, e);
+            return;
+        }
+        if (serialized.length > maxBytes) {
+            return;
+        }
+
+        synchronized (this) {
+            Long previous = index.put(key, (long) serialized.length);
+            if (previous != null) {
+                size -= previous;
+            }
+            size += serialized.length;
+
+            for (Iterator<Map.Entry<String, Long>> itor = index.entrySet().iterator();
+                    size > maxBytes && itor.hasNext();) {
+
+                Map.Entry<String, Long> eldest = itor.next();
+                itor.remove();
+                size -= eldest.getValue();
+                delete(eldest.getKey());
+            }
+        }
+
+        writer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(file(key)));
+                    try {
+                        out.write(serialized);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    LOG.error("While writing cache entry for {}", key, e);
+                    remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return entry for the given key, or null if not found (or not yet written)
+     */
+    CacheEntry get(final String key) {
+        synchronized (this) {
+            if (!index.containsKey(key)) {
+                return null;
+            }
+        }
+
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return key.equals(in.readObject()) ? (CacheEntry) in.readObject() : null;
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            LOG.warn("While reading cache entry for {}", key, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * @return whether an entry for the given key was found
+     */
+    synchronized boolean remove(final String key) {
+        Long previous = index.remove(key);
+        if (previous == null) {
+            return false;
+        }
+        size -= previous;
+        delete(key);
+        return true;
+    }
+
+    synchronized void clear() {
+        for (String key : index.keySet()) {
+            delete(key);
+        }
+        index.clear();
+        size = 0;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    void shutdown() {
+        writer.shutdown();
+    }
+
+    private void delete(final String key) {
+        writer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                File file = file(key);
+                if (file.exists() && !file.delete()) {
+                    LOG.warn("Could not delete cache file {}", file);
+                }
+            }
+        });
+    }
+
+    private File file(final String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return new File(directory, name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
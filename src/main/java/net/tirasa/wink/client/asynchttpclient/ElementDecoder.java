@@ -0,0 +1,57 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decoder of the elements of a response entity, to be published one at a time (see
+ * {@link FutureClientResponse#getEntityPublisher(ElementDecoder)}); {@link ElementDecoders} provides decoders for
+ * common formats.
+ *
+ * @param <T> element type
+ */
+public interface ElementDecoder<T> {
+
+    /**
+     * @param entity response entity stream
+     * @return reader of the elements in the given stream, owning it from then on
+     * @throws IOException if the stream cannot be read
+     */
+    Reader<T> open(InputStream entity) throws IOException;
+
+    /**
+     * Pull-based reader of decoded elements, used by one thread at a time; closing it closes the entity stream.
+     *
+     * @param <T> element type
+     */
+    interface Reader<T> extends Closeable {
+
+        /**
+         * Reads the next element, blocking until enough data is available.
+         *
+         * @return next element, or null if no more elements are available
+         * @throws IOException if the stream cannot be read or decoded
+         */
+        T read() throws IOException;
+    }
+}
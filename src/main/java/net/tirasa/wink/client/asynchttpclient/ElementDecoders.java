@@ -0,0 +1,211 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.wink.common.RestConstants;
+import org.apache.wink.common.model.atom.AtomEntry;
+
+/**
+ * {@link ElementDecoder}s for common formats: raw byte chunks, XML elements bound via JAXB - such as Atom entries -
+ * and JSON array items bound via Jackson.
+ */
+public final class ElementDecoders {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    /**
+     * Returns a decoder of the entity as chunks of at most the given size, as read from the entity stream; each chunk
+     * is a new buffer, ready to be read.
+     *
+     * @param chunkSize maximum chunk size, in bytes
+     * @return decoder of byte chunks
+     */
+    public static ElementDecoder<ByteBuffer> chunks(final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+
+        return new ElementDecoder<ByteBuffer>() {
+
+            @Override
+            public Reader<ByteBuffer> open(final InputStream entity) {
+                return new Reader<ByteBuffer>() {
+
+                    @Override
+                    public ByteBuffer read() throws IOException {
+                        byte[] chunk = new byte[chunkSize];
+                        int read = entity.read(chunk);
+                        return read == -1 ? null : ByteBuffer.wrap(chunk, 0, read);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        entity.close();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns a decoder of all XML elements with the given name, at any depth, each bound to the given JAXB type;
+     * the document is parsed with StAX, so that only the element being bound is held in memory.
+     *
+     * @param <T> element type
+     * @param element element name; any namespace matches if none is given
+     * @param type JAXB type bound to the element
+     * @return decoder of XML elements
+     */
+    public static <T> ElementDecoder<T> xml(final QName element, final Class<T> type) {
+        final JAXBContext context;
+        try {
+            context = JAXBContext.newInstance(type);
+        } catch (JAXBException e) {
+            throw new IllegalArgumentException("Cannot bind " + type.getName(), e);
+        }
+
+        return new ElementDecoder<T>() {
+
+            @Override
+            public Reader<T> open(final InputStream entity) throws IOException {
+                try {
+                    return new XmlReader<T>(entity, XML_INPUT_FACTORY.createXMLStreamReader(entity),
+                            context.createUnmarshaller(), element, type);
+                } catch (XMLStreamException e) {
+                    entity.close();
+                    throw new IOException(e);
+                } catch (JAXBException e) {
+                    entity.close();
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a decoder of the entries of an Atom feed, such as an OData collection.
+     *
+     * @return decoder of Atom entries
+     */
+    public static ElementDecoder<AtomEntry> atomEntries() {
+        return xml(new QName(RestConstants.NAMESPACE_ATOM, "entry"), AtomEntry.class);
+    }
+
+    /**
+     * Returns a decoder of the items of the first JSON array in the entity - either the entity itself or the value of
+     * the first array field at any depth - each bound to the given type via Jackson.
+     *
+     * @param <T> item type
+     * @param type type bound to array items
+     * @return decoder of JSON array items
+     */
+    public static <T> ElementDecoder<T> json(final Class<T> type) {
+        return new JsonElementDecoder<T>(null, type);
+    }
+
+    /**
+     * Returns a decoder of the items of the first JSON array value of the given field, at any depth (e.g.
+     * <tt>results</tt> or <tt>value</tt> for OData collections), each bound to the given type via Jackson.
+     *
+     * @param <T> item type
+     * @param field name of the array field
+     * @param type type bound to array items
+     * @return decoder of JSON array items
+     */
+    public static <T> ElementDecoder<T> json(final String field, final Class<T> type) {
+        return new JsonElementDecoder<T>(field, type);
+    }
+
+    private static class XmlReader<T> implements ElementDecoder.Reader<T> {
+
+        private final InputStream entity;
+
+        private final XMLStreamReader reader;
+
+        private final Unmarshaller unmarshaller;
+
+        private final QName element;
+
+        private final Class<T> type;
+
+        public XmlReader(final InputStream entity, final XMLStreamReader reader, final Unmarshaller unmarshaller,
+                final QName element, final Class<T> type) {
+
+            this.entity = entity;
+            this.reader = reader;
+            this.unmarshaller = unmarshaller;
+            this.element = element;
+            this.type = type;
+        }
+
+        private boolean matches(final QName name) {
+            return element.getLocalPart().equals(name.getLocalPart())
+                    && (element.getNamespaceURI().length() == 0
+                    || element.getNamespaceURI().equals(name.getNamespaceURI()));
+        }
+
+        @Override
+        public T read() throws IOException {
+            try {
+                // once bound, the reader is positioned right after the end of the element
+                while (reader.hasNext()) {
+                    if (reader.isStartElement() && matches(reader.getName())) {
+                        return unmarshaller.unmarshal(reader, type).getValue();
+                    }
+                    reader.next();
+                }
+                return null;
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            } catch (JAXBException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // ignore
+            }
+            entity.close();
+        }
+    }
+
+    private ElementDecoders() {
+        // private constructor for static utility class
+    }
+}
@@ -0,0 +1,218 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.http.HttpHost;
+import org.apache.wink.client.ClientConfigException;
+
+/**
+ * Logical host backed by several endpoints, see {@link ApacheHttpAsyncClientConfig#addEndpointGroup(EndpointGroup)}:
+ * requests whose URI host is the group name are sent to one of the endpoints, keeping path and query.
+ * <p>
+ * Endpoints failing - or responding slower than the latency threshold, if set - several times in a row are ejected
+ * for a while, longer at each ejection; at most the given percentage of endpoints is ejected at the same time.
+ * Optionally, endpoints are probed periodically: those whose probe fails are not chosen until a probe succeeds.
+ * When no endpoint is available, requests are spread over all endpoints anyway.
+ * <p>
+ * Example:
+ * <pre>
+ * config.addEndpointGroup(new EndpointGroup("orders",
+ *         new HttpHost("10.0.0.1", 8080), new HttpHost("10.0.0.2", 8080)));
+ * client.resource("http://orders/api/orders/42").get(Order.class);
+ * </pre>
+ */
+public class EndpointGroup {
+
+    /**
+     * How an endpoint is chosen for each request, among the available ones.
+     */
+    public enum Strategy {
+
+        /**
+         * Endpoint with fewest requests in flight.
+         */
+        LEAST_IN_FLIGHT,
+        /**
+         * Endpoint with fewer requests in flight, among two picked at random: nearly as effective as
+         * LEAST_IN_FLIGHT, while avoiding that several clients pile onto the same endpoint.
+         */
+        POWER_OF_TWO_CHOICES
+
+    }
+
+    protected final String name;
+
+    protected final List<HttpHost> endpoints;
+
+    protected Strategy strategy = Strategy.POWER_OF_TWO_CHOICES;
+
+    protected int consecutiveFailures = 5;
+
+    protected long latencyThreshold;
+
+    protected long ejectionTime = 30000;
+
+    protected int maxEjectionPercent = 50;
+
+    protected String healthCheckPath;
+
+    protected long healthCheckInterval = 10000;
+
+    protected long healthCheckTimeout = 2000;
+
+    public EndpointGroup(final String name, final HttpHost... endpoints) {
+        this(name, Arrays.asList(endpoints));
+    }
+
+    public EndpointGroup(final String name, final List<HttpHost> endpoints) {
+        this.name = name;
+        this.endpoints = Collections.unmodifiableList(new ArrayList<HttpHost>(endpoints));
+    }
+
+    /**
+     * @throws ClientConfigException if any setting is invalid
+     */
+    public void validate() {
+        if (name == null || name.length() == 0) {
+            throw new ClientConfigException("Endpoint group name must be set");
+        }
+        if (endpoints.isEmpty()) {
+            throw new ClientConfigException("Endpoint group " + name + " has no endpoints");
+        }
+        if (strategy == null) {
+            throw new ClientConfigException("Endpoint group " + name + " has no strategy");
+        }
+        if (consecutiveFailures <= 0) {
+            throw new ClientConfigException("consecutiveFailures must be positive");
+        }
+        if (latencyThreshold < 0 || ejectionTime < 0) {
+            throw new ClientConfigException("latencyThreshold and ejectionTime must not be negative");
+        }
+        if (maxEjectionPercent < 0 || maxEjectionPercent > 100) {
+            throw new ClientConfigException("maxEjectionPercent must be between 0 and 100");
+        }
+        if (healthCheckPath != null && (healthCheckInterval <= 0 || healthCheckTimeout <= 0)) {
+            throw new ClientConfigException("healthCheckInterval and healthCheckTimeout must be positive");
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<HttpHost> getEndpoints() {
+        return endpoints;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @param consecutiveFailures number of failures in a row - I/O errors, 5xx responses, or responses slower than
+     * the latency threshold - causing an endpoint to be ejected
+     */
+    public void setConsecutiveFailures(int consecutiveFailures) {
+        this.consecutiveFailures = consecutiveFailures;
+    }
+
+    public long getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    /**
+     * @param latencyThreshold response time, in milliseconds, beyond which a response counts as failure; 0 disables
+     */
+    public void setLatencyThreshold(long latencyThreshold) {
+        this.latencyThreshold = latencyThreshold;
+    }
+
+    public long getEjectionTime() {
+        return ejectionTime;
+    }
+
+    /**
+     * @param ejectionTime duration of the first ejection of an endpoint, in milliseconds; each further ejection
+     * lasts longer, up to ten times as long
+     */
+    public void setEjectionTime(long ejectionTime) {
+        this.ejectionTime = ejectionTime;
+    }
+
+    public int getMaxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    /**
+     * @param maxEjectionPercent maximum percentage of endpoints ejected at the same time, rounded down - but at
+     * least one endpoint can be ejected, unless 0
+     */
+    public void setMaxEjectionPercent(int maxEjectionPercent) {
+        this.maxEjectionPercent = maxEjectionPercent;
+    }
+
+    public String getHealthCheckPath() {
+        return healthCheckPath;
+    }
+
+    /**
+     * Enables active health checks: a GET request for the given path is sent to each endpoint periodically, via the
+     * shared client; endpoints not answering with 2xx are not chosen until a later probe succeeds.
+     *
+     * @param healthCheckPath path to probe, e.g. <tt>/health</tt>; null disables active health checks
+     */
+    public void setHealthCheckPath(String healthCheckPath) {
+        this.healthCheckPath = healthCheckPath;
+    }
+
+    public long getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    /**
+     * @param healthCheckInterval delay between health probes, in milliseconds
+     */
+    public void setHealthCheckInterval(long healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    public long getHealthCheckTimeout() {
+        return healthCheckTimeout;
+    }
+
+    /**
+     * @param healthCheckTimeout timeout of each health probe, in milliseconds
+     */
+    public void setHealthCheckTimeout(long healthCheckTimeout) {
+        this.healthCheckTimeout = healthCheckTimeout;
+    }
+}
@@ -22,69 +22,320 @@ package net.tirasa.wink.client.asynchttpclient;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
-import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.util.EntityUtils;
 import org.apache.wink.client.ClientRequest;
 
 import org.apache.wink.client.ClientResponse;
+import org.apache.wink.client.ClientWebException;
 import org.apache.wink.client.EntityType;
 import org.apache.wink.client.handlers.HandlerContext;
+import org.apache.wink.client.internal.ClientUtils;
 import org.apache.wink.client.internal.handlers.ClientResponseImpl;
 
+/**
+ * Future of a ClientResponse, to be completed by the FutureCallback given to HttpAsyncClient.
+ * Besides blocking on get(), listeners can be registered for being notified - without tying up any waiting thread -
+ * upon completion, failure or cancellation; transformations of the response can be chained as well.
+ */
 public class FutureClientResponse implements Future<ClientResponse>, ClientResponse {
 
     private final ApacheHttpAsyncClientConnectionHandler handler;
 
     private final ClientRequest request;
 
-    private final Future<HttpResponse> futureResponse;
-
     private final HandlerContext context;
 
+    private final ListenableFuture<ClientResponse> result = new ListenableFuture<ClientResponse>();
+
+    private volatile Future<HttpResponse> futureResponse;
+
     private ClientResponseImpl clientResponse;
 
+    private volatile RequestMetrics metrics;
+
+    private volatile AbortableExchange exchange;
+
+    /**
+     * Future whose outcome completes this response upon get(), when built via the deprecated constructor.
+     */
+    private volatile Future<HttpResponse> awaitedResponse;
+
     public FutureClientResponse(final ApacheHttpAsyncClientConnectionHandler handler, final ClientRequest request,
-            final Future<HttpResponse> futureResponse, final HandlerContext context) {
+            final HandlerContext context) {
 
         super();
 
         this.handler = handler;
         this.request = request;
-        this.futureResponse = futureResponse;
         this.context = context;
     }
 
+    /**
+     * Builds a response completed with the outcome of the given future, as soon as awaited via get(); listeners and
+     * chained transformations are notified only then, as nothing else reports completion.
+     *
+     * @param handler connection handler
+     * @param request request
+     * @param futureResponse future of the underlying HTTP response
+     * @param context handler context
+     * @deprecated responses are completed by the FutureCallback given to HttpAsyncClient: use
+     * {@link #FutureClientResponse(ApacheHttpAsyncClientConnectionHandler, ClientRequest, HandlerContext)}
+     */
+    @Deprecated
+    public FutureClientResponse(final ApacheHttpAsyncClientConnectionHandler handler, final ClientRequest request,
+            final Future<HttpResponse> futureResponse, final HandlerContext context) {
+
+        this(handler, request, context);
+
+        this.futureResponse = futureResponse;
+        this.awaitedResponse = futureResponse;
+    }
+
+    /**
+     * Sets the future of the underlying request; if this future was meanwhile cancelled or aborted, so is the given
+     * future.
+     */
+    void setFutureResponse(final Future<HttpResponse> futureResponse) {
+        this.futureResponse = futureResponse;
+        if (this.result.isDone() && !isCompletedNormally()) {
+            futureResponse.cancel(true);
+        }
+    }
+
+    ApacheHttpAsyncClientConnectionHandler getHandler() {
+        return handler;
+    }
+
+    void setMetrics(final RequestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void setExchange(final AbortableExchange exchange) {
+        this.exchange = exchange;
+        if (this.result.isDone() && !isCompletedNormally()) {
+            exchange.abort();
+        }
+    }
+
+    private boolean isCompletedNormally() {
+        if (this.result.isCancelled()) {
+            return false;
+        }
+        try {
+            this.result.get();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    void completed(final HttpResponse httpResponse) {
+        synchronized (this) {
+            if (this.clientResponse == null) {
+                try {
+                    createClientResponse(httpResponse);
+                } catch (Exception e) {
+                    this.result.failed(e);
+                    return;
+                }
+            }
+        }
+        this.result.completed(this.clientResponse);
+    }
+
+    void failed(final Exception exception) {
+        this.result.failed(exception);
+    }
+
+    void cancelled() {
+        this.result.cancel(true);
+    }
+
+    /**
+     * Fails this future with the given exception - unless already done - and aborts the request.
+     */
+    void abort(final Exception exception) {
+        if (this.result.failed(exception)) {
+            abortExchange(true);
+        }
+    }
+
+    private void abortExchange(final boolean mayInterruptIfRunning) {
+        Future<HttpResponse> future = this.futureResponse;
+        if (future != null) {
+            future.cancel(mayInterruptIfRunning);
+        }
+        AbortableExchange abortable = this.exchange;
+        if (abortable != null) {
+            abortable.abort();
+        }
+    }
+
+    /**
+     * Registers the given listener, to be notified on the I/O dispatcher thread - on the entity executor for streamed
+     * responses - as soon as the response is available (or immediately on the calling thread, if already done).
+     *
+     * @param listener listener
+     * @return this future
+     */
+    public FutureClientResponse addListener(final FutureCallback<ClientResponse> listener) {
+        this.result.addListener(listener);
+        return this;
+    }
+
+    /**
+     * Chains the given transformation (for example, reading the response entity as a given type) to this future.
+     *
+     * @param <T> transformed result type
+     * @param transformer transformation to apply to the response
+     * @return future of the transformed response
+     * @see ListenableFuture#then(ResultTransformer)
+     */
+    public <T> ListenableFuture<T> then(final ResultTransformer<? super ClientResponse, T> transformer) {
+        return this.result.then(transformer);
+    }
+
+    /**
+     * Same as {@link #then(ResultTransformer)}, but the transformation runs on the given executor.
+     *
+     * @param <T> transformed result type
+     * @param transformer transformation to apply to the response
+     * @param executor executor running the transformation
+     * @return future of the transformed response
+     * @see ListenableFuture#then(ResultTransformer, Executor)
+     */
+    public <T> ListenableFuture<T> then(final ResultTransformer<? super ClientResponse, T> transformer,
+            final Executor executor) {
+
+        return this.result.then(transformer, executor);
+    }
+
+    /**
+     * Returns a future of the response entity, deserialized as soon as the response is received, on the executor
+     * configured via {@link ApacheHttpAsyncClientConfig#setEntityExecutor(java.util.concurrent.Executor)}; the
+     * returned future fails with ClientWebException if the response has error status code.
+     * Cancelling the returned future cancels the request as well.
+     *
+     * @param <T> entity type
+     * @param cls entity class
+     * @return future of the response entity
+     */
+    public <T> ListenableFuture<T> getEntityAsync(final Class<T> cls) {
+        return entityAsync(new ResultTransformer<ClientResponse, T>() {
+
+            @Override
+            public T transform(final ClientResponse source) {
+                return getEntity(cls);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #getEntityAsync(Class)}, for generic entity types.
+     *
+     * @param <T> entity type
+     * @param entityType entity type
+     * @return future of the response entity
+     */
+    public <T> ListenableFuture<T> getEntityAsync(final EntityType<T> entityType) {
+        return entityAsync(new ResultTransformer<ClientResponse, T>() {
+
+            @Override
+            public T transform(final ClientResponse source) {
+                return getEntity(entityType);
+            }
+        });
+    }
+
+    /**
+     * Returns a publisher of the elements decoded from the response entity by the given decoder - byte chunks, Atom
+     * entries or JSON array items, for example: see {@link ElementDecoders} - as requested by its subscriber; elements
+     * are decoded on the executor configured via
+     * {@link ApacheHttpAsyncClientConfig#setEntityExecutor(java.util.concurrent.Executor)}.
+     * For streamed responses (see {@link ApacheHttpAsyncClientConfig#STREAMING}) the entity is read from the
+     * connection only as elements are requested, so that memory usage does not depend on entity size, and the first
+     * elements are available before the entity is fully received.
+     * The subscriber gets ClientWebException if the response has error status code; cancelling the subscription
+     * cancels the request as well.
+     *
+     * @param <T> element type
+     * @param decoder decoder of entity elements
+     * @return publisher of entity elements, accepting one subscriber
+     */
+    public <T> Publisher<T> getEntityPublisher(final ElementDecoder<T> decoder) {
+        return new BodyPublisher<T>(this, this.request, decoder, this.handler.getEntityExecutor());
+    }
+
+    private <T> ListenableFuture<T> entityAsync(final ResultTransformer<ClientResponse, T> deserializer) {
+        ListenableFuture<T> entity = this.result.then(new ResultTransformer<ClientResponse, T>() {
+
+            @Override
+            public T transform(final ClientResponse source) throws Exception {
+                if (ClientUtils.isErrorCode(source.getStatusCode())) {
+                    throw new ClientWebException(request, source);
+                }
+                return deserializer.transform(source);
+            }
+        }, this.handler.getEntityExecutor());
+
+        entity.addListener(new FutureCallback<T>() {
+
+            @Override
+            public void completed(final T result) {
+                // nothing to do
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                // nothing to do
+            }
+
+            @Override
+            public void cancelled() {
+                cancel(true);
+            }
+        });
+        return entity;
+    }
+
+    /**
+     * Cancels this future and aborts the request: unless already completed, its connection is discarded.
+     */
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        return futureResponse.cancel(mayInterruptIfRunning);
+        abortExchange(mayInterruptIfRunning);
+        return this.result.cancel(mayInterruptIfRunning);
     }
 
     @Override
     public boolean isCancelled() {
-        return futureResponse.isCancelled();
+        return this.result.isCancelled();
     }
 
     @Override
     public boolean isDone() {
-        return futureResponse.isDone();
+        Future<HttpResponse> awaited = this.awaitedResponse;
+        return this.result.isDone() || (awaited != null && awaited.isDone());
     }
 
     private void createClientResponse(final HttpResponse httpResponse) throws IOException {
-        this.clientResponse = new ClientResponseImpl();
+        this.clientResponse = new ReceivedClientResponse(httpResponse.getAllHeaders(), this.request.getAttributes());
         StatusLine statusLine = httpResponse.getStatusLine();
         this.clientResponse.setStatusCode(statusLine.getStatusCode());
         this.clientResponse.setMessage(statusLine.getReasonPhrase());
-        this.clientResponse.getAttributes().putAll(this.request.getAttributes());
         this.clientResponse.setContentConsumer(new Runnable() {
 
             @Override
@@ -100,17 +351,12 @@ public class FutureClientResponse implements Future<ClientResponse>, ClientRespo
             }
         });
 
-        Header[] allHeaders = httpResponse.getAllHeaders();
-        for (Header header : allHeaders) {
-            this.clientResponse.getHeaders().add(header.getName(), header.getValue());
-        }
-
         HttpEntity entity = httpResponse.getEntity();
         InputStream is;
         if (entity == null) {
             is = new EmptyInputStream();
         } else {
-            is = entity.getContent();
+            is = this.handler.decodeInputStream(entity.getContent(), this.clientResponse, this.request);
         }
         is = this.handler.adaptInputStream(is, this.clientResponse, this.context);
         this.clientResponse.setEntity(is);
@@ -118,32 +364,34 @@ public class FutureClientResponse implements Future<ClientResponse>, ClientRespo
 
     @Override
     public ClientResponse get() throws InterruptedException, ExecutionException {
-        synchronized (this) {
-            if (this.clientResponse == null) {
-                try {
-                    createClientResponse(this.futureResponse.get());
-                } catch (IOException e) {
-                    throw new ExecutionException(e);
-                }
+        Future<HttpResponse> awaited = this.awaitedResponse;
+        if (awaited != null && !this.result.isDone()) {
+            try {
+                completed(awaited.get());
+            } catch (ExecutionException e) {
+                failed(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            } catch (CancellationException e) {
+                cancelled();
             }
         }
-        return this.clientResponse;
+        return this.result.get();
     }
 
     @Override
     public ClientResponse get(long timeout, TimeUnit unit)
             throws InterruptedException, ExecutionException, TimeoutException {
 
-        synchronized (this) {
-            if (this.clientResponse == null) {
-                try {
-                    createClientResponse(this.futureResponse.get(timeout, unit));
-                } catch (IOException e) {
-                    throw new ExecutionException(e);
-                }
+        Future<HttpResponse> awaited = this.awaitedResponse;
+        if (awaited != null && !this.result.isDone()) {
+            try {
+                completed(awaited.get(timeout, unit));
+            } catch (ExecutionException e) {
+                failed(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            } catch (CancellationException e) {
+                cancelled();
             }
         }
-        return this.clientResponse;
+        return this.result.get(timeout, unit);
     }
 
     //
@@ -195,7 +443,18 @@ public class FutureClientResponse implements Future<ClientResponse>, ClientRespo
     @Override
     public <T> T getEntity(Class<T> cls) {
         try {
-            return get().getEntity(cls);
+            ClientResponse response = get();
+            RequestMetrics requestMetrics = this.metrics;
+            if (requestMetrics == null) {
+                return response.getEntity(cls);
+            }
+
+            long start = System.nanoTime();
+            try {
+                return response.getEntity(cls);
+            } finally {
+                requestMetrics.deserialized(System.nanoTime() - start);
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -204,7 +463,18 @@ public class FutureClientResponse implements Future<ClientResponse>, ClientRespo
     @Override
     public <T> T getEntity(EntityType<T> entityType) {
         try {
-            return get().getEntity(entityType);
+            ClientResponse response = get();
+            RequestMetrics requestMetrics = this.metrics;
+            if (requestMetrics == null) {
+                return response.getEntity(entityType);
+            }
+
+            long start = System.nanoTime();
+            try {
+                return response.getEntity(entityType);
+            } finally {
+                requestMetrics.deserialized(System.nanoTime() - start);
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,286 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * Future of the results gathered by {@link ScatterGather}, in the same order as calls were added - only successful
+ * calls contribute a result. It completes as soon as the required results are available, or with fewer results if
+ * partial results are accepted; otherwise it fails with the exception that made the required results unobtainable,
+ * or with RequestTimeoutException if the deadline expired first.
+ * Once the outcome is decided, calls not yet done are cancelled. Cancelling this future cancels all calls.
+ *
+ * @param <T> result type
+ */
+public class GatherResponse<T> extends ListenableFuture<List<T>> {
+
+    private final List<Call<? extends T>> calls;
+
+    private final int required;
+
+    private final boolean partialResults;
+
+    private final Object lock = new Object();
+
+    private final Object[] results;
+
+    private final boolean[] successful;
+
+    private int succeeded;
+
+    private int failed;
+
+    private boolean decided;
+
+    private final List<ScheduledFuture<?>> timeouts = new ArrayList<ScheduledFuture<?>>();
+
+    GatherResponse(final List<Call<? extends T>> calls, final int required, final boolean partialResults) {
+        super();
+
+        this.calls = calls;
+        this.required = required;
+        this.partialResults = partialResults;
+        this.results = new Object[calls.size()];
+        this.successful = new boolean[calls.size()];
+    }
+
+    GatherResponse<T> start(final long callTimeout, final long deadline) {
+        if (calls.isEmpty()) {
+            completed(Collections.<T>emptyList());
+            return this;
+        }
+
+        synchronized (lock) {
+            for (Call<? extends T> call : calls) {
+                if (callTimeout > 0) {
+                    timeouts.add(call.scheduleTimeout(callTimeout));
+                }
+            }
+            if (deadline > 0) {
+                timeouts.add(calls.get(0).response.getHandler().timer().schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        expire(deadline);
+                    }
+                }, deadline, TimeUnit.MILLISECONDS));
+            }
+        }
+
+        for (int i = 0; i < calls.size(); i++) {
+            listen(i, calls.get(i));
+        }
+        return this;
+    }
+
+    private <X extends T> void listen(final int index, final Call<X> call) {
+        call.entity.addListener(new FutureCallback<X>() {
+
+            @Override
+            public void completed(final X result) {
+                callDone(index, result, null);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                callDone(index, null, ex);
+            }
+
+            @Override
+            public void cancelled() {
+                callDone(index, null, new CancellationException("Call was cancelled"));
+            }
+        });
+    }
+
+    private void callDone(final int index, final T result, final Exception exception) {
+        Exception failure = null;
+        boolean complete;
+        synchronized (lock) {
+            if (decided) {
+                return;
+            }
+
+            if (exception == null) {
+                results[index] = result;
+                successful[index] = true;
+                succeeded++;
+            } else {
+                failed++;
+            }
+
+            if (succeeded >= required) {
+                complete = true;
+            } else if (partialResults) {
+                complete = succeeded + failed == calls.size();
+            } else {
+                complete = false;
+                if (failed > calls.size() - required) {
+                    failure = exception;
+                }
+            }
+            if (!complete && failure == null) {
+                return;
+            }
+        }
+
+        decide(complete ? null : failure);
+    }
+
+    private void expire(final long deadline) {
+        RequestTimeoutException expired;
+        synchronized (lock) {
+            if (decided) {
+                return;
+            }
+            expired = new RequestTimeoutException("Deadline of " + deadline + " ms expired with " + succeeded
+                    + " of " + required + " required results");
+        }
+
+        decide(partialResults ? null : expired);
+    }
+
+    /**
+     * Decides the outcome - unless already decided - after cancelling any call still running.
+     *
+     * @param failure exception failing the outcome, or null to complete with the results gathered so far
+     */
+    private void decide(final Exception failure) {
+        List<T> gathered;
+        synchronized (lock) {
+            if (decided) {
+                return;
+            }
+            decided = true;
+            gathered = gathered();
+
+            for (ScheduledFuture<?> timeout : timeouts) {
+                timeout.cancel(false);
+            }
+        }
+
+        for (Call<? extends T> call : calls) {
+            call.cancel();
+        }
+
+        if (failure == null) {
+            completed(gathered);
+        } else {
+            failed(failure);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> gathered() {
+        List<T> gathered = new ArrayList<T>(succeeded);
+        for (int i = 0; i < results.length; i++) {
+            if (successful[i]) {
+                gathered.add((T) results[i]);
+            }
+        }
+        return Collections.unmodifiableList(gathered);
+    }
+
+    /**
+     * @return future of each call's result, in the same order as calls were added, for checking individual outcomes
+     */
+    public List<ListenableFuture<? extends T>> getCalls() {
+        List<ListenableFuture<? extends T>> entities = new ArrayList<ListenableFuture<? extends T>>(calls.size());
+        for (Call<? extends T> call : calls) {
+            entities.add(call.entity);
+        }
+        return entities;
+    }
+
+    /**
+     * @return number of calls that succeeded so far
+     */
+    public int getSucceeded() {
+        synchronized (lock) {
+            return succeeded;
+        }
+    }
+
+    /**
+     * @return number of calls that failed - including timed out and cancelled calls - so far
+     */
+    public int getFailed() {
+        synchronized (lock) {
+            return failed;
+        }
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        synchronized (lock) {
+            decided = true;
+            for (ScheduledFuture<?> timeout : timeouts) {
+                timeout.cancel(false);
+            }
+        }
+        for (Call<? extends T> call : calls) {
+            call.cancel();
+        }
+        return super.cancel(mayInterruptIfRunning);
+    }
+
+    /**
+     * A call being gathered: the response, and the future of its deserialized entity.
+     *
+     * @param <X> entity type
+     */
+    static final class Call<X> {
+
+        private final FutureClientResponse response;
+
+        private final ListenableFuture<X> entity;
+
+        Call(final FutureClientResponse response, final ListenableFuture<X> entity) {
+            this.response = response;
+            this.entity = entity;
+        }
+
+        ScheduledFuture<?> scheduleTimeout(final long timeout) {
+            return response.getHandler().timer().schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (entity.failed(new RequestTimeoutException("Call not completed within " + timeout + " ms"))) {
+                        response.cancel(true);
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+
+        void cancel() {
+            if (!entity.isDone()) {
+                entity.cancel(true);
+                response.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.ws.rs.core.MultivaluedMap;
+import org.apache.http.Header;
+import org.apache.wink.common.internal.CaseInsensitiveMultivaluedMap;
+
+/**
+ * Case-insensitive view of response headers, backed by the received headers: single value lookups - as performed
+ * while reading the response entity - scan the headers in place, while any other access first copies them into a
+ * regular multivalued map, to which this view delegates from then on.
+ * Not thread-safe, like the map it replaces.
+ */
+class HeaderMap extends AbstractMap<String, List<String>> implements MultivaluedMap<String, String> {
+
+    private final Header[] headers;
+
+    private MultivaluedMap<String, String> copy;
+
+    public HeaderMap(final Header[] headers) {
+        super();
+        this.headers = headers;
+    }
+
+    private MultivaluedMap<String, String> copy() {
+        if (copy == null) {
+            copy = new CaseInsensitiveMultivaluedMap<String>();
+            for (Header header : headers) {
+                copy.add(HeaderNames.intern(header.getName()), header.getValue());
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public String getFirst(final String key) {
+        if (copy != null) {
+            return copy.getFirst(key);
+        }
+
+        if (key != null) {
+            for (Header header : headers) {
+                if (HeaderNames.matches(header.getName(), key)) {
+                    return header.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        if (copy != null) {
+            return copy.containsKey(key);
+        }
+
+        if (key instanceof String) {
+            for (Header header : headers) {
+                if (HeaderNames.matches(header.getName(), (String) key)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return copy == null ? headers.length == 0 : copy.isEmpty();
+    }
+
+    @Override
+    public List<String> get(final Object key) {
+        if (copy == null && !containsKey(key)) {
+            return null;
+        }
+        return copy().get(key);
+    }
+
+    @Override
+    public int size() {
+        return copy().size();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return copy().keySet();
+    }
+
+    @Override
+    public Collection<List<String>> values() {
+        return copy().values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, List<String>>> entrySet() {
+        return copy().entrySet();
+    }
+
+    @Override
+    public List<String> put(final String key, final List<String> value) {
+        return copy().put(key, value);
+    }
+
+    @Override
+    public void putSingle(final String key, final String value) {
+        copy().putSingle(key, value);
+    }
+
+    @Override
+    public void add(final String key, final String value) {
+        copy().add(key, value);
+    }
+
+    @Override
+    public List<String> remove(final Object key) {
+        if (copy == null && !containsKey(key)) {
+            return null;
+        }
+        return copy().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        copy().clear();
+    }
+}
@@ -0,0 +1,161 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.ws.rs.core.HttpHeaders;
+import org.apache.http.util.CharArrayBuffer;
+
+/**
+ * Canonical instances of common header names: parsed names and cached entries share these instead of holding their
+ * own copies, and lookups by the matching constants succeed on reference equality, without comparing characters.
+ */
+final class HeaderNames {
+
+    private static final String[] COMMON = {
+        HttpHeaders.ACCEPT,
+        HttpHeaders.ACCEPT_CHARSET,
+        HttpHeaders.ACCEPT_ENCODING,
+        HttpHeaders.ACCEPT_LANGUAGE,
+        "Accept-Ranges",
+        "Age",
+        "Allow",
+        HttpHeaders.AUTHORIZATION,
+        HttpHeaders.CACHE_CONTROL,
+        "Connection",
+        "Content-Disposition",
+        HttpHeaders.CONTENT_ENCODING,
+        HttpHeaders.CONTENT_LANGUAGE,
+        HttpHeaders.CONTENT_LENGTH,
+        HttpHeaders.CONTENT_LOCATION,
+        HttpHeaders.CONTENT_TYPE,
+        HttpHeaders.COOKIE,
+        HttpHeaders.DATE,
+        HttpHeaders.ETAG,
+        HttpHeaders.EXPIRES,
+        HttpHeaders.HOST,
+        "Keep-Alive",
+        HttpHeaders.LAST_MODIFIED,
+        "Link",
+        HttpHeaders.LOCATION,
+        "Pragma",
+        "Retry-After",
+        "Server",
+        HttpHeaders.SET_COOKIE,
+        "Strict-Transport-Security",
+        "Transfer-Encoding",
+        HttpHeaders.VARY,
+        "Via",
+        "Warning",
+        HttpHeaders.WWW_AUTHENTICATE,
+        "X-Content-Type-Options",
+        "X-Frame-Options",
+        "X-Request-Id"
+    };
+
+    /**
+     * Common names, indexed by length.
+     */
+    private static final String[][] BY_LENGTH;
+
+    static {
+        int maxLength = 0;
+        for (String name : COMMON) {
+            maxLength = Math.max(maxLength, name.length());
+        }
+
+        List<List<String>> byLength = new ArrayList<List<String>>(maxLength + 1);
+        for (int i = 0; i <= maxLength; i++) {
+            byLength.add(new ArrayList<String>());
+        }
+        for (String name : COMMON) {
+            byLength.get(name.length()).add(name);
+        }
+
+        BY_LENGTH = new String[maxLength + 1][];
+        for (int i = 0; i <= maxLength; i++) {
+            BY_LENGTH[i] = byLength.get(i).toArray(new String[byLength.get(i).size()]);
+        }
+    }
+
+    /**
+     * @return the canonical instance of the given name, if common; the given name otherwise
+     */
+    public static String intern(final String name) {
+        if (name.length() < BY_LENGTH.length) {
+            for (String common : BY_LENGTH[name.length()]) {
+                if (common == name || common.equalsIgnoreCase(name)) {
+                    return common;
+                }
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Same as {@link #intern(String)} for the trimmed name within the given range of the given buffer: no string is
+     * allocated for common names.
+     */
+    public static String intern(final CharArrayBuffer buffer, final int beginIndex, final int endIndex) {
+        int begin = beginIndex;
+        int end = endIndex;
+        while (begin < end && Character.isWhitespace(buffer.charAt(begin))) {
+            begin++;
+        }
+        while (end > begin && Character.isWhitespace(buffer.charAt(end - 1))) {
+            end--;
+        }
+
+        int length = end - begin;
+        if (length < BY_LENGTH.length) {
+            for (String common : BY_LENGTH[length]) {
+                if (regionMatches(common, buffer, begin)) {
+                    return common;
+                }
+            }
+        }
+        return buffer.substring(begin, end);
+    }
+
+    private static boolean regionMatches(final String name, final CharArrayBuffer buffer, final int offset) {
+        for (int i = 0; i < name.length(); i++) {
+            char c1 = name.charAt(i);
+            char c2 = buffer.charAt(offset + i);
+            if (c1 != c2 && Character.toUpperCase(c1) != Character.toUpperCase(c2)
+                    && Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the given header names are equal, ignoring case
+     */
+    public static boolean matches(final String name1, final String name2) {
+        return name1 == name2 || name1.equalsIgnoreCase(name2);
+    }
+
+    private HeaderNames() {
+        // private constructor for static utility class
+    }
+}
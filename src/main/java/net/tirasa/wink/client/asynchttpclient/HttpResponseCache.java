@@ -0,0 +1,293 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.message.BasicHeader;
+import org.apache.wink.client.ClientRequest;
+
+/**
+ * Private HTTP cache for GET responses, honoring Cache-Control / Expires and revalidating stale entries via
+ * ETag / Last-Modified; responses still fresh are returned without any network activity.
+ * Entries are kept in memory up to the given size, evicting least recently used; if a directory is provided, evicted
+ * entries are moved there, up to another given size.
+ * <br/>
+ * Stale entries are only served when the request allows so via <tt>max-stale</tt>, unless the entry requires
+ * revalidation (<tt>must-revalidate</tt>); only one variant per URI is kept; no heuristic freshness is applied.
+ *
+ * @see ApacheHttpAsyncClientConfig#setResponseCache(HttpResponseCache)
+ */
+public class HttpResponseCache {
+
+    private final long maxHeapBytes;
+
+    private final LinkedHashMap<String, CacheEntry> heap = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+    private long heapSize;
+
+    private final DiskCacheTier disk;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a memory-only cache.
+     *
+     * @param maxHeapBytes maximum size of cached entries in memory
+     */
+    public HttpResponseCache(final long maxHeapBytes) {
+        this(maxHeapBytes, null, 0);
+    }
+
+    /**
+     * Creates a cache with a disk tier; any existing entry file under the given directory is removed.
+     *
+     * @param maxHeapBytes maximum size of cached entries in memory
+     * @param diskDirectory directory where entries evicted from memory are stored
+     * @param maxDiskBytes maximum size of cached entries on disk
+     */
+    public HttpResponseCache(final long maxHeapBytes, final File diskDirectory, final long maxDiskBytes) {
+        if (maxHeapBytes <= 0) {
+            throw new IllegalArgumentException("maxHeapBytes must be positive");
+        }
+        this.maxHeapBytes = maxHeapBytes;
+        this.disk = diskDirectory == null || maxDiskBytes <= 0 ? null : new DiskCacheTier(diskDirectory, maxDiskBytes);
+    }
+
+    /**
+     * @return number of requests served from cache without network activity
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of cacheable requests sent to the server, including revalidations
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of stale entries confirmed by the server via 304 (Not Modified)
+     */
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    /**
+     * @return number of entries evicted from memory
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getHeapSize() {
+        return heapSize;
+    }
+
+    public long getDiskSize() {
+        return disk == null ? 0 : disk.size();
+    }
+
+    public synchronized void clear() {
+        heap.clear();
+        heapSize = 0;
+        if (disk != null) {
+            disk.clear();
+        }
+    }
+
+    /**
+     * Stops the disk tier background writer, if any.
+     */
+    public void shutdown() {
+        if (disk != null) {
+            disk.shutdown();
+        }
+    }
+
+    /**
+     * Looks up the given request.
+     *
+     * @return null if the request is not cacheable, otherwise an exchange holding either a fresh response or the
+     * stale entry to be revalidated, if any
+     */
+    CacheExchange exchange(final ClientRequest request) {
+        String key = request.getURI().toString();
+
+        if (!HttpMethod.GET.equals(request.getMethod())) {
+            if (!HttpMethod.HEAD.equals(request.getMethod()) && !HttpMethod.OPTIONS.equals(request.getMethod())) {
+                remove(key);
+            }
+            return null;
+        }
+        if (request.getEntity() != null || header(request, HttpHeaders.AUTHORIZATION) != null) {
+            return null;
+        }
+        for (String name : request.getHeaders().keySet()) {
+            if (name.toLowerCase(Locale.ROOT).startsWith("if-")) {
+                return null;
+            }
+        }
+
+        String cacheControl = header(request, HttpHeaders.CACHE_CONTROL);
+        Map<String, String> directives = cacheControl == null
+                ? new HashMap<String, String>()
+                : CacheEntry.directives(new BasicHeader[] { new BasicHeader(HttpHeaders.CACHE_CONTROL, cacheControl) });
+        if (directives.containsKey("no-store")) {
+            return null;
+        }
+        String pragma = header(request, "Pragma");
+        boolean revalidate = directives.containsKey("no-cache")
+                || CacheEntry.seconds(directives, "max-age") == 0
+                || (pragma != null && pragma.toLowerCase(Locale.ROOT).contains("no-cache"));
+        long maxStale = 0;
+        if (directives.containsKey("max-stale")) {
+            long seconds = CacheEntry.seconds(directives, "max-stale");
+            maxStale = seconds == -1 ? Long.MAX_VALUE : seconds * 1000;
+        }
+
+        CacheEntry entry = get(key);
+        if (entry != null && !varyValues(request, entry.getVaryHeaders()).equals(entry.getVaryValues())) {
+            entry = null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (entry != null && !revalidate && entry.isFresh(now, entry.mustRevalidate() ? 0 : maxStale)) {
+            hits.incrementAndGet();
+            HttpResponse response = entry.toResponse(now);
+            if (!entry.isFresh(now)) {
+                response.addHeader("Warning", "110 - \"Response is stale\"");
+            }
+            return new CacheExchange(this, key, request, response);
+        }
+
+        misses.incrementAndGet();
+        return new CacheExchange(this, key, request, entry != null && entry.hasValidators() ? entry : null);
+    }
+
+    void revalidated() {
+        revalidations.incrementAndGet();
+    }
+
+    CacheEntry get(final String key) {
+        synchronized (this) {
+            CacheEntry entry = heap.get(key);
+            if (entry != null || disk == null) {
+                return entry;
+            }
+        }
+
+        // reading and deserializing happen outside the lock, not to stall other lookups and stores meanwhile
+        CacheEntry entry = disk.get(key);
+        if (entry == null) {
+            return null;
+        }
+        synchronized (this) {
+            CacheEntry current = heap.get(key);
+            if (current != null) {
+                // stored again meanwhile
+                return current;
+            }
+            if (!disk.remove(key)) {
+                // removed meanwhile, e.g. by an unsafe request for the same URI
+                return null;
+            }
+            put(key, entry);
+            return entry;
+        }
+    }
+
+    synchronized void put(final String key, final CacheEntry entry) {
+        if (disk != null) {
+            disk.remove(key);
+        }
+        CacheEntry previous = heap.put(key, entry);
+        if (previous != null) {
+            heapSize -= previous.size();
+        }
+        heapSize += entry.size();
+
+        for (Iterator<Map.Entry<String, CacheEntry>> itor = heap.entrySet().iterator();
+                heapSize > maxHeapBytes && itor.hasNext();) {
+
+            Map.Entry<String, CacheEntry> eldest = itor.next();
+            itor.remove();
+            heapSize -= eldest.getValue().size();
+            evictions.incrementAndGet();
+            if (disk != null) {
+                disk.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    synchronized void remove(final String key) {
+        CacheEntry previous = heap.remove(key);
+        if (previous != null) {
+            heapSize -= previous.size();
+        }
+        if (disk != null) {
+            disk.remove(key);
+        }
+    }
+
+    static HashMap<String, String> varyValues(final ClientRequest request, final List<String> names) {
+        HashMap<String, String> values = new HashMap<String, String>();
+        for (String name : names) {
+            String value = header(request, name);
+            if (value != null) {
+                values.put(name.toLowerCase(Locale.ROOT), value);
+            }
+        }
+        return values;
+    }
+
+    private static String header(final ClientRequest request, final String name) {
+        for (Map.Entry<String, List<String>> header : request.getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name) && header.getValue() != null && !header.getValue().isEmpty()) {
+                StringBuilder value = new StringBuilder();
+                for (String item : header.getValue()) {
+                    if (value.length() > 0) {
+                        value.append(',');
+                    }
+                    value.append(item);
+                }
+                return value.toString();
+            }
+        }
+        return null;
+    }
+}
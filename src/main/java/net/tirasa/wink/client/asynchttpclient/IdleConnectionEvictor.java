@@ -0,0 +1,73 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.nio.conn.NHttpClientConnectionManager;
+
+/**
+ * Periodically closes pooled connections that are expired or have been idle longer than the given time, so that
+ * they are not found stale when leased.
+ */
+class IdleConnectionEvictor {
+
+    private final NHttpClientConnectionManager connectionManager;
+
+    private final long maxIdleTime;
+
+    private final ScheduledExecutorService scheduler;
+
+    public IdleConnectionEvictor(final NHttpClientConnectionManager connectionManager,
+            final long maxIdleTime, final long interval) {
+
+        this.connectionManager = connectionManager;
+        this.maxIdleTime = maxIdleTime;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "ApacheHttpAsyncClient-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                evict();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void evict() {
+        connectionManager.closeExpiredConnections();
+        if (maxIdleTime > 0) {
+            connectionManager.closeIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
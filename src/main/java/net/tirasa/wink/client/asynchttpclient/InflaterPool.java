@@ -0,0 +1,68 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * Thread-safe pool of Inflaters, for both zlib-wrapped and raw (nowrap) deflate streams, sparing the native zlib
+ * allocation for each decoded response; at most maxPooled Inflaters of each kind are kept for reuse, while any further
+ * released Inflater is ended.
+ */
+class InflaterPool {
+
+    private final int maxPooled;
+
+    private final Queue<Inflater> zlib = new ConcurrentLinkedQueue<Inflater>();
+
+    private final AtomicInteger pooledZlib = new AtomicInteger();
+
+    private final Queue<Inflater> raw = new ConcurrentLinkedQueue<Inflater>();
+
+    private final AtomicInteger pooledRaw = new AtomicInteger();
+
+    public InflaterPool(final int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    public Inflater acquire(final boolean nowrap) {
+        Inflater inflater = (nowrap ? raw : zlib).poll();
+        if (inflater == null) {
+            return new Inflater(nowrap);
+        }
+
+        (nowrap ? pooledRaw : pooledZlib).decrementAndGet();
+        return inflater;
+    }
+
+    public void release(final Inflater inflater, final boolean nowrap) {
+        AtomicInteger pooled = nowrap ? pooledRaw : pooledZlib;
+        if (pooled.incrementAndGet() <= maxPooled) {
+            inflater.reset();
+            (nowrap ? raw : zlib).offer(inflater);
+        } else {
+            pooled.decrementAndGet();
+            inflater.end();
+        }
+    }
+}
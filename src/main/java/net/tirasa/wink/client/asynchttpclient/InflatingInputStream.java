@@ -0,0 +1,206 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes gzip or deflate response entities as they are read, with Inflaters taken from an {@link InflaterPool} and
+ * given back upon close.
+ * The gzip header is parsed upon first read, rather than upon creation, so that no thread blocks until the entity is
+ * actually consumed; for deflate, both zlib-wrapped (as mandated by RFC 2616) and raw streams are accepted.
+ */
+class InflatingInputStream extends InflaterInputStream {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private static final int FHCRC = 2;
+
+    private static final int FEXTRA = 4;
+
+    private static final int FNAME = 8;
+
+    private static final int FCOMMENT = 16;
+
+    private final InflaterPool pool;
+
+    private final boolean gzip;
+
+    private boolean nowrap;
+
+    private final CRC32 crc = new CRC32();
+
+    private boolean started;
+
+    private boolean trailerChecked;
+
+    private boolean released;
+
+    /**
+     * @return decoding stream, or null if the given content coding is not supported
+     */
+    static InflatingInputStream decode(final InputStream in, final String contentEncoding, final InflaterPool pool) {
+        String coding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+            return new InflatingInputStream(in, pool, true);
+        }
+        if ("deflate".equals(coding)) {
+            return new InflatingInputStream(in, pool, false);
+        }
+        return null;
+    }
+
+    private InflatingInputStream(final InputStream in, final InflaterPool pool, final boolean gzip) {
+        super(in, pool.acquire(gzip), BUFFER_SIZE);
+        this.pool = pool;
+        this.gzip = gzip;
+        this.nowrap = gzip;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (released) {
+            throw new IOException("Stream closed");
+        }
+        if (!started) {
+            start();
+            started = true;
+        }
+
+        int read = super.read(b, off, len);
+        if (gzip) {
+            if (read == -1) {
+                checkTrailer();
+            } else {
+                crc.update(b, off, read);
+            }
+        }
+        return read;
+    }
+
+    private void start() throws IOException {
+        if (gzip) {
+            readGzipHeader();
+            return;
+        }
+
+        // zlib header: CM = 8 and (CMF * 256 + FLG) multiple of 31; otherwise assume raw deflate
+        int cmf = in.read();
+        int flg = cmf == -1 ? -1 : in.read();
+        if (flg == -1) {
+            throw new EOFException("Unexpected end of deflate stream");
+        }
+        if ((cmf & 0x0F) != 8 || ((cmf << 8) | flg) % 31 != 0) {
+            pool.release(inf, false);
+            inf = pool.acquire(true);
+            nowrap = true;
+        }
+        inf.setInput(new byte[] { (byte) cmf, (byte) flg });
+    }
+
+    private void readGzipHeader() throws IOException {
+        if (readUShort() != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (readUByte() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = readUByte();
+        skipFully(6);
+        if ((flags & FEXTRA) == FEXTRA) {
+            skipFully(readUShort());
+        }
+        if ((flags & FNAME) == FNAME) {
+            while (readUByte() != 0) {
+                // skip file name
+            }
+        }
+        if ((flags & FCOMMENT) == FCOMMENT) {
+            while (readUByte() != 0) {
+                // skip comment
+            }
+        }
+        if ((flags & FHCRC) == FHCRC) {
+            skipFully(2);
+        }
+    }
+
+    private void checkTrailer() throws IOException {
+        if (trailerChecked) {
+            return;
+        }
+        trailerChecked = true;
+
+        // trailer bytes possibly already consumed into the input buffer are read from there first
+        int remaining = inf.getRemaining();
+        int pos = len - remaining;
+        long[] trailer = new long[8];
+        for (int i = 0; i < trailer.length; i++) {
+            if (i < remaining) {
+                trailer[i] = buf[pos + i] & 0xFF;
+            } else {
+                trailer[i] = readUByte();
+            }
+        }
+        long expectedCrc = trailer[0] | (trailer[1] << 8) | (trailer[2] << 16) | (trailer[3] << 24);
+        long expectedSize = trailer[4] | (trailer[5] << 8) | (trailer[6] << 16) | (trailer[7] << 24);
+        if (expectedCrc != crc.getValue() || expectedSize != (inf.getBytesWritten() & 0xFFFFFFFFL)) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+    }
+
+    private int readUByte() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Unexpected end of gzip stream");
+        }
+        return b;
+    }
+
+    private int readUShort() throws IOException {
+        return readUByte() | (readUByte() << 8);
+    }
+
+    private void skipFully(final int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            readUByte();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!released) {
+            released = true;
+            try {
+                super.close();
+            } finally {
+                pool.release(inf, nowrap);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import org.apache.http.Header;
+import org.apache.http.ParseException;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicLineParser;
+import org.apache.http.util.CharArrayBuffer;
+
+/**
+ * Line parser building response headers with canonical names (see {@link HeaderNames}) and values extracted once,
+ * rather than buffered headers, which allocate a new name per header and a new value at each read.
+ */
+class InterningLineParser extends BasicLineParser {
+
+    public static final InterningLineParser INSTANCE = new InterningLineParser();
+
+    @Override
+    public Header parseHeader(final CharArrayBuffer buffer) throws ParseException {
+        int colon = buffer.indexOf(':');
+        String name = colon == -1 ? null : HeaderNames.intern(buffer, 0, colon);
+        if (name == null || name.length() == 0) {
+            throw new ParseException("Invalid header: " + buffer.toString());
+        }
+
+        return new BasicHeader(name, buffer.substringTrimmed(colon + 1, buffer.length()));
+    }
+}
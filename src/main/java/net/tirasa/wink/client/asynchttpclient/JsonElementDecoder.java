@@ -0,0 +1,108 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Decoder of the items of a JSON array, bound one at a time from a streaming Jackson parser; kept apart from
+ * {@link ElementDecoders} so that Jackson is only needed when decoding JSON.
+ *
+ * @param <T> item type
+ */
+class JsonElementDecoder<T> implements ElementDecoder<T> {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String field;
+
+    private final Class<T> type;
+
+    /**
+     * @param field name of the array field, or null for the first array
+     * @param type type bound to array items
+     */
+    public JsonElementDecoder(final String field, final Class<T> type) {
+        this.field = field;
+        this.type = type;
+    }
+
+    @Override
+    public Reader<T> open(final InputStream entity) throws IOException {
+        final JsonParser parser;
+        try {
+            parser = MAPPER.getJsonFactory().createJsonParser(entity);
+        } catch (IOException e) {
+            entity.close();
+            throw e;
+        }
+
+        return new Reader<T>() {
+
+            private boolean started;
+
+            private boolean done;
+
+            @Override
+            public T read() throws IOException {
+                if (!started) {
+                    started = true;
+                    done = !toArray();
+                }
+                if (done) {
+                    return null;
+                }
+
+                JsonToken token = parser.nextToken();
+                if (token == null || token == JsonToken.END_ARRAY) {
+                    done = true;
+                    return null;
+                }
+                return MAPPER.readValue(parser, type);
+            }
+
+            /**
+             * Moves the parser to the start of the array to decode.
+             */
+            private boolean toArray() throws IOException {
+                JsonToken token;
+                while ((token = parser.nextToken()) != null) {
+                    if (token == JsonToken.START_ARRAY && (field == null || field.equals(parser.getCurrentName()))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    parser.close();
+                } finally {
+                    entity.close();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,238 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BasicFuture accepting any number of listeners, notified when the result becomes available (or the computation
+ * fails or gets cancelled), either on the thread completing this future or - if already done when registering - on
+ * the calling thread.
+ * Waiting threads are parked via java.util.concurrent rather than Object.wait(), so that virtual threads waiting for
+ * the result do not pin their carrier thread.
+ *
+ * @param <T> result type
+ */
+public class ListenableFuture<T> extends BasicFuture<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ListenableFuture.class);
+
+    private final List<FutureCallback<T>> listeners = new ArrayList<FutureCallback<T>>();
+
+    private boolean notified;
+
+    private final CountDownLatch completion = new CountDownLatch(1);
+
+    public ListenableFuture() {
+        super(null);
+    }
+
+    @Override
+    public boolean completed(final T result) {
+        boolean done = super.completed(result);
+        if (done) {
+            notifyListeners();
+        }
+        return done;
+    }
+
+    @Override
+    public boolean failed(final Exception exception) {
+        boolean done = super.failed(exception);
+        if (done) {
+            notifyListeners();
+        }
+        return done;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        boolean done = super.cancel(mayInterruptIfRunning);
+        if (done) {
+            notifyListeners();
+        }
+        return done;
+    }
+
+    /**
+     * Unlike BasicFuture, throws CancellationException if this future was cancelled.
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        completion.await();
+        return result();
+    }
+
+    @Override
+    public T get(final long timeout, final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+
+        if (!completion.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private T result() throws InterruptedException, ExecutionException {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+        return super.get();
+    }
+
+    /**
+     * Registers the given listener, to be notified when this future is done.
+     *
+     * @param listener listener
+     * @return this future
+     */
+    public ListenableFuture<T> addListener(final FutureCallback<T> listener) {
+        synchronized (listeners) {
+            if (!notified) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+
+        notifyListener(listener);
+        return this;
+    }
+
+    /**
+     * Chains the given transformation to this future: the returned future completes with the transformed result
+     * as soon as this future completes, fails if either this future or the transformation fail, and is cancelled
+     * along with this future.
+     * The transformation runs on the thread completing this future.
+     *
+     * @param <R> transformed result type
+     * @param transformer transformation to apply to the result of this future
+     * @return future of the transformed result
+     */
+    public <R> ListenableFuture<R> then(final ResultTransformer<? super T, R> transformer) {
+        return then(transformer, null);
+    }
+
+    /**
+     * Same as {@link #then(ResultTransformer)}, but the transformation runs on the given executor, thus never tying
+     * up the thread completing this future.
+     *
+     * @param <R> transformed result type
+     * @param transformer transformation to apply to the result of this future
+     * @param executor executor running the transformation, or null to run it on the thread completing this future
+     * @return future of the transformed result
+     */
+    public <R> ListenableFuture<R> then(final ResultTransformer<? super T, R> transformer, final Executor executor) {
+        final ListenableFuture<R> chained = new ListenableFuture<R>();
+        addListener(new FutureCallback<T>() {
+
+            @Override
+            public void completed(final T result) {
+                Runnable transformation = new Runnable() {
+
+                    @Override
+                    public void run() {
+                        R transformed;
+                        try {
+                            transformed = transformer.transform(result);
+                        } catch (Exception e) {
+                            chained.failed(e);
+                            return;
+                        }
+                        chained.completed(transformed);
+                    }
+                };
+
+                if (executor == null) {
+                    transformation.run();
+                } else {
+                    try {
+                        executor.execute(transformation);
+                    } catch (RejectedExecutionException e) {
+                        chained.failed(e);
+                    }
+                }
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                chained.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                chained.cancel(true);
+            }
+        });
+        return chained;
+    }
+
+    private void notifyListeners() {
+        completion.countDown();
+
+        List<FutureCallback<T>> toNotify;
+        synchronized (listeners) {
+            notified = true;
+            toNotify = new ArrayList<FutureCallback<T>>(listeners);
+            listeners.clear();
+        }
+
+        for (FutureCallback<T> listener : toNotify) {
+            notifyListener(listener);
+        }
+    }
+
+    private void notifyListener(final FutureCallback<T> listener) {
+        try {
+            if (isCancelled()) {
+                listener.cancelled();
+            } else {
+                T result;
+                try {
+                    result = get();
+                } catch (ExecutionException e) {
+                    listener.failed(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                    return;
+                } catch (CancellationException e) {
+                    listener.cancelled();
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    listener.failed(e);
+                    return;
+                }
+                listener.completed(result);
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Listener {} threw exception", listener, e);
+        }
+    }
+}
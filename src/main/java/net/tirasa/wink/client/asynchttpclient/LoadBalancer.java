@@ -0,0 +1,377 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads requests for logical hosts over the endpoints of the matching {@link EndpointGroup}, keeping track of
+ * requests in flight and of failures for each endpoint; endpoints are ejected (passive health checking) and, if
+ * configured, probed periodically (active health checking).
+ */
+class LoadBalancer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadBalancer.class);
+
+    /**
+     * Upper bound of the ejection time multiplier.
+     */
+    private static final int MAX_EJECTION_MULTIPLIER = 10;
+
+    private final Map<String, Group> groups = new HashMap<String, Group>();
+
+    private final Random random = new Random();
+
+    private final boolean healthChecking;
+
+    private final AtomicBoolean healthChecksStarted = new AtomicBoolean();
+
+    LoadBalancer(final Collection<EndpointGroup> endpointGroups) {
+        boolean anyHealthCheck = false;
+        for (EndpointGroup endpointGroup : endpointGroups) {
+            groups.put(endpointGroup.getName().toLowerCase(Locale.ROOT), new Group(endpointGroup));
+            anyHealthCheck |= endpointGroup.getHealthCheckPath() != null;
+        }
+        this.healthChecking = anyHealthCheck;
+    }
+
+    /**
+     * @return whether any group has active health checks
+     */
+    boolean isHealthChecking() {
+        return healthChecking;
+    }
+
+    /**
+     * Chooses an endpoint for a request towards the given host, and counts the request as in flight there.
+     *
+     * @param target target host of the request
+     * @return chosen endpoint - to be notified when the request is over - or null if the given host is not the name
+     * of any endpoint group
+     */
+    Endpoint choose(final HttpHost target) {
+        if (target == null) {
+            return null;
+        }
+        Group group = groups.get(target.getHostName().toLowerCase(Locale.ROOT));
+        if (group == null) {
+            return null;
+        }
+
+        Endpoint endpoint = group.choose();
+        endpoint.inFlight.incrementAndGet();
+        return endpoint;
+    }
+
+    /**
+     * Starts probing the endpoints of groups with active health checks, unless already started; probes are sent via
+     * the given client, until the given timer is shut down.
+     */
+    void startHealthChecks(final CloseableHttpAsyncClient client, final ScheduledExecutorService timer) {
+        if (healthChecksStarted.get() || !healthChecksStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        for (final Group group : groups.values()) {
+            if (group.settings.getHealthCheckPath() == null) {
+                continue;
+            }
+            timer.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (Endpoint endpoint : group.endpoints) {
+                        probe(client, timer, group.settings, endpoint);
+                    }
+                }
+            }, 0, group.settings.getHealthCheckInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void probe(final CloseableHttpAsyncClient client, final ScheduledExecutorService timer,
+            final EndpointGroup settings, final Endpoint endpoint) {
+
+        try {
+            URI uri = URI.create(endpoint.host.toURI()).resolve(settings.getHealthCheckPath());
+            // cancelling the future alone would leave the probe holding its connection until a response arrives
+            final AbortableExchange exchange = new AbortableExchange();
+            final Future<HttpResponse> probe = client.execute(
+                    exchange.wrap(HttpAsyncMethods.createGet(uri)),
+                    exchange.wrap(HttpAsyncMethods.createConsumer()),
+                    new FutureCallback<HttpResponse>() {
+
+                        @Override
+                        public void completed(final HttpResponse result) {
+                            int status = result.getStatusLine().getStatusCode();
+                            endpoint.setHealthy(status >= 200 && status < 300);
+                        }
+
+                        @Override
+                        public void failed(final Exception ex) {
+                            LOG.debug("Health probe of {} failed", endpoint.host, ex);
+                            endpoint.setHealthy(false);
+                        }
+
+                        @Override
+                        public void cancelled() {
+                            LOG.debug("Health probe of {} timed out", endpoint.host);
+                            endpoint.setHealthy(false);
+                        }
+                    });
+            timer.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (probe.cancel(true)) {
+                        exchange.abort();
+                    }
+                }
+            }, settings.getHealthCheckTimeout(), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            LOG.error("While probing {}", endpoint.host, e);
+        }
+    }
+
+    /**
+     * @return a description of the state of each endpoint
+     */
+    String[] describe() {
+        long now = System.currentTimeMillis();
+        List<String> description = new ArrayList<String>();
+        for (Group group : groups.values()) {
+            for (Endpoint endpoint : group.endpoints) {
+                description.add(group.settings.getName() + " " + endpoint.describe(now));
+            }
+        }
+        return description.toArray(new String[description.size()]);
+    }
+
+    private final class Group {
+
+        private final EndpointGroup settings;
+
+        private final Endpoint[] endpoints;
+
+        private final int maxEjected;
+
+        Group(final EndpointGroup settings) {
+            this.settings = settings;
+            this.endpoints = new Endpoint[settings.getEndpoints().size()];
+            for (int i = 0; i < endpoints.length; i++) {
+                endpoints[i] = new Endpoint(this, settings.getEndpoints().get(i));
+            }
+            // small groups would otherwise never eject anything
+            this.maxEjected = settings.getMaxEjectionPercent() > 0
+                    ? Math.max(1, endpoints.length * settings.getMaxEjectionPercent() / 100)
+                    : 0;
+        }
+
+        /**
+         * Chooses among available endpoints, or among all endpoints if none is available.
+         */
+        Endpoint choose() {
+            long now = System.currentTimeMillis();
+            Endpoint[] available = new Endpoint[endpoints.length];
+            int count = 0;
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint.isAvailable(now)) {
+                    available[count++] = endpoint;
+                }
+            }
+            if (count == 0) {
+                available = endpoints;
+                count = endpoints.length;
+            }
+            if (count == 1) {
+                return available[0];
+            }
+
+            if (settings.getStrategy() == EndpointGroup.Strategy.LEAST_IN_FLIGHT) {
+                // start from a random endpoint, not to favor the first ones on ties
+                int offset = random.nextInt(count);
+                Endpoint chosen = available[offset];
+                for (int i = 1; i < count; i++) {
+                    Endpoint candidate = available[(offset + i) % count];
+                    if (candidate.inFlight.get() < chosen.inFlight.get()) {
+                        chosen = candidate;
+                    }
+                }
+                return chosen;
+            }
+
+            int first = random.nextInt(count);
+            int second = random.nextInt(count - 1);
+            if (second >= first) {
+                second++;
+            }
+            return available[second].inFlight.get() < available[first].inFlight.get()
+                    ? available[second]
+                    : available[first];
+        }
+
+        /**
+         * Ejects the given endpoint, unless too many endpoints are already ejected.
+         */
+        synchronized boolean eject(final Endpoint endpoint, final long now) {
+            int ejected = 0;
+            for (Endpoint other : endpoints) {
+                if (other.ejectedUntil > now) {
+                    ejected++;
+                }
+            }
+            if (ejected >= maxEjected) {
+                return false;
+            }
+
+            endpoint.ejections = Math.min(endpoint.ejections + 1, MAX_EJECTION_MULTIPLIER);
+            endpoint.ejectedUntil = now + settings.getEjectionTime() * endpoint.ejections;
+            endpoint.ejected.incrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Endpoint of a group, as chosen for a request.
+     */
+    static final class Endpoint {
+
+        private final Group group;
+
+        private final HttpHost host;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final AtomicLong requests = new AtomicLong();
+
+        private final AtomicLong failures = new AtomicLong();
+
+        private final AtomicLong ejected = new AtomicLong();
+
+        private int consecutiveFailures;
+
+        /**
+         * Multiplier of the ejection time for the next ejection; guarded by the group.
+         */
+        private int ejections;
+
+        private volatile long ejectedUntil;
+
+        private volatile boolean healthy = true;
+
+        private Endpoint(final Group group, final HttpHost host) {
+            this.group = group;
+            this.host = host.getPort() > 0
+                    ? host
+                    : new HttpHost(host.getHostName(),
+                            "https".equalsIgnoreCase(host.getSchemeName()) ? 443 : 80, host.getSchemeName());
+        }
+
+        HttpHost getHost() {
+            return host;
+        }
+
+        private boolean isAvailable(final long now) {
+            return healthy && ejectedUntil <= now;
+        }
+
+        private void setHealthy(final boolean healthy) {
+            if (this.healthy != healthy) {
+                LOG.info("Endpoint {} of {} is " + (healthy ? "healthy" : "unhealthy"), host, group.settings.getName());
+            }
+            this.healthy = healthy;
+        }
+
+        /**
+         * Notifies that the request sent to this endpoint got a response, after the given time.
+         *
+         * @param status response status code
+         * @param elapsed response time, in milliseconds
+         */
+        void completed(final int status, final long elapsed) {
+            long threshold = group.settings.getLatencyThreshold();
+            outcome(status < 500 && (threshold == 0 || elapsed <= threshold));
+        }
+
+        /**
+         * Notifies that the request sent to this endpoint failed with I/O error.
+         */
+        void failed() {
+            outcome(false);
+        }
+
+        /**
+         * Notifies that the request sent to this endpoint was given up, with no evidence about the endpoint state.
+         */
+        void released() {
+            inFlight.decrementAndGet();
+        }
+
+        private void outcome(final boolean success) {
+            inFlight.decrementAndGet();
+            requests.incrementAndGet();
+            if (!success) {
+                failures.incrementAndGet();
+            }
+
+            long now = System.currentTimeMillis();
+            synchronized (group) {
+                if (success) {
+                    consecutiveFailures = 0;
+                    // behaving well since long enough after the last ejection: the next one will be short again
+                    if (ejections > 0 && now - ejectedUntil >= group.settings.getEjectionTime()) {
+                        ejections = 0;
+                    }
+                } else if (++consecutiveFailures >= group.settings.getConsecutiveFailures() && ejectedUntil <= now) {
+                    if (group.eject(this, now)) {
+                        LOG.warn("Ejecting endpoint {} of {} for {} ms after {} consecutive failures", new Object[] {
+                            host, group.settings.getName(), ejectedUntil - now, consecutiveFailures });
+                    }
+                    consecutiveFailures = 0;
+                }
+            }
+        }
+
+        private String describe(final long now) {
+            String state = ejectedUntil > now ? "EJECTED" : healthy ? "UP" : "UNHEALTHY";
+            return host.toURI() + " " + state + " [inFlight: " + inFlight.get() + "; requests: " + requests.get()
+                    + "; failures: " + failures.get() + "; ejections: " + ejected.get() + "]";
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import org.apache.http.HttpHost;
+
+/**
+ * Receives timings of requests sent via {@link ApacheHttpAsyncClientConnectionHandler}.
+ * Methods are invoked on I/O dispatcher threads (except for {@link RequestPhase#DESERIALIZATION}, reported on the
+ * thread reading the entity), hence implementations must be thread-safe and must return quickly.
+ *
+ * @see ApacheHttpAsyncClientConfig#addMetricsListener(MetricsListener)
+ */
+public interface MetricsListener {
+
+    /**
+     * @param target target host
+     * @param phase request phase
+     * @param nanos phase duration, in nanoseconds
+     */
+    void phaseCompleted(HttpHost target, RequestPhase phase, long nanos);
+
+    /**
+     * @param target target host
+     * @param statusCode response status code
+     * @param nanos time from submission to when the response was fully read, in nanoseconds
+     */
+    void requestCompleted(HttpHost target, int statusCode, long nanos);
+
+    /**
+     * @param target target host
+     * @param exception failure cause; CancellationException if the request was cancelled
+     * @param nanos time from submission to failure, in nanoseconds
+     */
+    void requestFailed(HttpHost target, Exception exception, long nanos);
+}
@@ -0,0 +1,373 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.conn.ManagedNHttpClientConnection;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.IOReactorStatus;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.nio.reactor.SessionRequest;
+import org.apache.http.nio.reactor.SessionRequestCallback;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects request timings and I/O reactor counters for a connection handler, and forwards timings to the configured
+ * {@link MetricsListener}s.
+ * Instances only exist when metrics are enabled, so that nothing is allocated or measured otherwise.
+ */
+class MetricsRecorder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsRecorder.class);
+
+    /**
+     * IOSession attribute holding the TCP connect duration.
+     */
+    static final String CONNECT_NANOS = MetricsRecorder.class.getName() + ".connect";
+
+    /**
+     * IOSession attribute holding the TLS handshake duration.
+     */
+    static final String HANDSHAKE_NANOS = MetricsRecorder.class.getName() + ".handshake";
+
+    /**
+     * IOSession attribute set once connect and handshake durations were charged to a request.
+     */
+    static final String CLAIMED = MetricsRecorder.class.getName() + ".claimed";
+
+    private final MetricsListener[] listeners;
+
+    private final Set<HttpRoute> routes = Collections.newSetFromMap(new ConcurrentHashMap<HttpRoute, Boolean>());
+
+    private final AtomicLong connectRequests = new AtomicLong();
+
+    private final AtomicLong connectFailures = new AtomicLong();
+
+    private final AtomicLong connectTimeouts = new AtomicLong();
+
+    private volatile ConnectingIOReactor ioReactor;
+
+    private volatile int ioThreadCount;
+
+    MetricsRecorder(final List<MetricsListener> listeners) {
+        this.listeners = listeners.toArray(new MetricsListener[listeners.size()]);
+    }
+
+    RequestMetrics start(final HttpHost target) {
+        return new RequestMetrics(this, target);
+    }
+
+    void phaseCompleted(final HttpHost target, final RequestPhase phase, final long nanos) {
+        for (MetricsListener listener : listeners) {
+            try {
+                listener.phaseCompleted(target, phase, nanos);
+            } catch (RuntimeException e) {
+                LOG.error("Metrics listener {} threw exception", listener, e);
+            }
+        }
+    }
+
+    void requestCompleted(final HttpHost target, final int statusCode, final long nanos) {
+        for (MetricsListener listener : listeners) {
+            try {
+                listener.requestCompleted(target, statusCode, nanos);
+            } catch (RuntimeException e) {
+                LOG.error("Metrics listener {} threw exception", listener, e);
+            }
+        }
+    }
+
+    void requestFailed(final HttpHost target, final Exception exception, final long nanos) {
+        for (MetricsListener listener : listeners) {
+            try {
+                listener.requestFailed(target, exception, nanos);
+            } catch (RuntimeException e) {
+                LOG.error("Metrics listener {} threw exception", listener, e);
+            }
+        }
+    }
+
+    /**
+     * @return routes seen so far
+     */
+    Set<HttpRoute> getRoutes() {
+        return Collections.unmodifiableSet(routes);
+    }
+
+    long getConnectRequests() {
+        return connectRequests.get();
+    }
+
+    long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    long getConnectTimeouts() {
+        return connectTimeouts.get();
+    }
+
+    /**
+     * @return I/O reactor, or null if none was instrumented (yet)
+     */
+    ConnectingIOReactor getIOReactor() {
+        return ioReactor;
+    }
+
+    int getIOThreadCount() {
+        return ioThreadCount;
+    }
+
+    /**
+     * Measures TCP connect duration of new sessions.
+     */
+    ConnectingIOReactor instrument(final ConnectingIOReactor delegate, final int ioThreadCount) {
+        this.ioReactor = delegate;
+        this.ioThreadCount = ioThreadCount;
+        return new ConnectingIOReactor() {
+
+            @Override
+            public SessionRequest connect(final SocketAddress remoteAddress, final SocketAddress localAddress,
+                    final Object attachment, final SessionRequestCallback callback) {
+
+                connectRequests.incrementAndGet();
+                final long started = System.nanoTime();
+                return delegate.connect(remoteAddress, localAddress, attachment, new SessionRequestCallback() {
+
+                    @Override
+                    public void completed(final SessionRequest request) {
+                        request.getSession().setAttribute(CONNECT_NANOS, System.nanoTime() - started);
+                        if (callback != null) {
+                            callback.completed(request);
+                        }
+                    }
+
+                    @Override
+                    public void failed(final SessionRequest request) {
+                        connectFailures.incrementAndGet();
+                        if (callback != null) {
+                            callback.failed(request);
+                        }
+                    }
+
+                    @Override
+                    public void timeout(final SessionRequest request) {
+                        connectTimeouts.incrementAndGet();
+                        if (callback != null) {
+                            callback.timeout(request);
+                        }
+                    }
+
+                    @Override
+                    public void cancelled(final SessionRequest request) {
+                        if (callback != null) {
+                            callback.cancelled(request);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public IOReactorStatus getStatus() {
+                return delegate.getStatus();
+            }
+
+            @Override
+            public void execute(final IOEventDispatch eventDispatch) throws IOException {
+                delegate.execute(eventDispatch);
+            }
+
+            @Override
+            public void shutdown(final long waitMs) throws IOException {
+                delegate.shutdown(waitMs);
+            }
+
+            @Override
+            public void shutdown() throws IOException {
+                delegate.shutdown();
+            }
+        };
+    }
+
+    /**
+     * Builds a TlsSessionFactory which measures TLS handshakes: the handshake duration is charged to the first
+     * request on the session if known by the time such request is sent, and reported as soon as the handshake
+     * completes otherwise.
+     */
+    TlsSessionFactory sslIOSessionFactory(final SSLContext sslContext, final X509HostnameVerifier hostnameVerifier,
+            final String[] protocols, final String[] cipherSuites) {
+
+        return new TlsSessionFactory(sslContext, hostnameVerifier, protocols, cipherSuites) {
+
+            @Override
+            protected void handshakeCompleted(final HttpHost host, final IOSession session, final long nanos) {
+                session.setAttribute(HANDSHAKE_NANOS, nanos);
+                phaseCompleted(host, RequestPhase.TLS_HANDSHAKE, nanos);
+            }
+        };
+    }
+
+    /**
+     * Tracks when the connection is ready for sending the request, and when the request was sent.
+     */
+    HttpAsyncRequestProducer instrument(final HttpAsyncRequestProducer delegate, final RequestMetrics metrics) {
+        return new HttpAsyncRequestProducer() {
+
+            private boolean ready;
+
+            private void ready(final Object connection) {
+                if (!ready) {
+                    ready = true;
+                    metrics.ready(connection instanceof ManagedNHttpClientConnection
+                            ? ((ManagedNHttpClientConnection) connection).getIOSession()
+                            : null);
+                }
+            }
+
+            @Override
+            public HttpHost getTarget() {
+                return delegate.getTarget();
+            }
+
+            @Override
+            public HttpRequest generateRequest() throws IOException, HttpException {
+                return delegate.generateRequest();
+            }
+
+            @Override
+            public void produceContent(final ContentEncoder encoder, final IOControl ioctrl) throws IOException {
+                ready(ioctrl);
+                delegate.produceContent(encoder, ioctrl);
+            }
+
+            @Override
+            public void requestCompleted(final HttpContext context) {
+                Object connection = context.getAttribute(HttpCoreContext.HTTP_CONNECTION);
+                ready(connection);
+                metrics.sent();
+
+                Object route = context.getAttribute(HttpClientContext.HTTP_ROUTE);
+                if (route instanceof HttpRoute) {
+                    routes.add((HttpRoute) route);
+                }
+
+                delegate.requestCompleted(context);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                delegate.failed(ex);
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return delegate.isRepeatable();
+            }
+
+            @Override
+            public void resetRequest() throws IOException {
+                delegate.resetRequest();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+        };
+    }
+
+    /**
+     * Tracks when response headers are received.
+     */
+    <T> HttpAsyncResponseConsumer<T> instrument(final HttpAsyncResponseConsumer<T> delegate,
+            final RequestMetrics metrics) {
+
+        return new HttpAsyncResponseConsumer<T>() {
+
+            @Override
+            public void responseReceived(final HttpResponse response) throws IOException, HttpException {
+                metrics.headersReceived();
+                delegate.responseReceived(response);
+            }
+
+            @Override
+            public void consumeContent(final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+                delegate.consumeContent(decoder, ioctrl);
+            }
+
+            @Override
+            public void responseCompleted(final HttpContext context) {
+                delegate.responseCompleted(context);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                delegate.failed(ex);
+            }
+
+            @Override
+            public Exception getException() {
+                return delegate.getException();
+            }
+
+            @Override
+            public T getResult() {
+                return delegate.getResult();
+            }
+
+            @Override
+            public boolean isDone() {
+                return delegate.isDone();
+            }
+
+            @Override
+            public boolean cancel() {
+                return delegate.cancel();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+        };
+    }
+}
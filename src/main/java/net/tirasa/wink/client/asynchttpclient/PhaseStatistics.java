@@ -0,0 +1,95 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.http.HttpHost;
+
+/**
+ * Aggregates count, mean and max duration of each request phase, for JMX.
+ */
+class PhaseStatistics implements MetricsListener {
+
+    private static final RequestPhase[] PHASES = RequestPhase.values();
+
+    private final AtomicLongArray counts = new AtomicLongArray(PHASES.length);
+
+    private final AtomicLongArray totals = new AtomicLongArray(PHASES.length);
+
+    private final AtomicLongArray maxs = new AtomicLongArray(PHASES.length);
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    @Override
+    public void phaseCompleted(final HttpHost target, final RequestPhase phase, final long nanos) {
+        int index = phase.ordinal();
+        counts.incrementAndGet(index);
+        totals.addAndGet(index, nanos);
+
+        long max = maxs.get(index);
+        while (nanos > max && !maxs.compareAndSet(index, max, nanos)) {
+            max = maxs.get(index);
+        }
+    }
+
+    @Override
+    public void requestCompleted(final HttpHost target, final int statusCode, final long nanos) {
+        completed.incrementAndGet();
+    }
+
+    @Override
+    public void requestFailed(final HttpHost target, final Exception exception, final long nanos) {
+        failed.incrementAndGet();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return one line per phase, with count, mean and max duration in milliseconds
+     */
+    public String[] describe() {
+        String[] lines = new String[PHASES.length];
+        for (int i = 0; i < PHASES.length; i++) {
+            long count = counts.get(i);
+            lines[i] = String.format("%s [count: %d; mean: %.3f ms; max: %.3f ms]",
+                    PHASES[i], count, count == 0 ? 0.0 : totals.get(i) / (count * 1e6), maxs.get(i) / 1e6);
+        }
+        return lines;
+    }
+
+    public void reset() {
+        for (int i = 0; i < PHASES.length; i++) {
+            counts.set(i, 0);
+            totals.set(i, 0);
+            maxs.set(i, 0);
+        }
+        completed.set(0);
+        failed.set(0);
+    }
+}
@@ -0,0 +1,292 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * Chunked request entity, serialized by the calling thread into a bounded queue of pooled direct buffers while the
+ * I/O reactor drains them: the serializing thread blocks whenever maxQueued buffers are waiting to be sent, while the
+ * reactor suspends output whenever the queue is empty, hence memory usage is bounded and reactor threads never block.
+ * The given start callback is invoked as soon as the first buffer is ready - i.e. when request headers are final -
+ * and is expected to submit the request. Content is sent once: after {@link #close()} - i.e. once the exchange is over
+ * or reset, as for redirects - any further attempt to produce it fails, rather than sending a truncated body.
+ */
+class PipedEntityProducer extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+    private final ByteBufferPool pool;
+
+    private final int maxQueued;
+
+    private final LinkedList<ByteBuffer> queue = new LinkedList<ByteBuffer>();
+
+    private final OutputStream outputStream = new PipeOutputStream();
+
+    private Runnable startCallback;
+
+    private boolean started;
+
+    private IOControl ioctrl;
+
+    private boolean writeCompleted;
+
+    private boolean shutdown;
+
+    public PipedEntityProducer(final ByteBufferPool pool, final int maxQueued) {
+        this.pool = pool;
+        this.maxQueued = maxQueued;
+        setChunked(true);
+    }
+
+    public void setStartCallback(final Runnable startCallback) {
+        this.startCallback = startCallback;
+    }
+
+    /**
+     * @return stream to serialize the entity to; once done, {@link #writeCompleted()} must be invoked
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Signals that the entity was completely serialized.
+     *
+     * @throws IOException if the request was aborted in the meanwhile
+     */
+    public void writeCompleted() throws IOException {
+        ((PipeOutputStream) outputStream).flushTail();
+        start();
+        synchronized (this) {
+            if (shutdown) {
+                throw new IOException("Request aborted");
+            }
+            writeCompleted = true;
+            notifyAll();
+            if (ioctrl != null) {
+                ioctrl.requestOutput();
+            }
+        }
+    }
+
+    private void start() {
+        Runnable callback = null;
+        synchronized (this) {
+            if (!started) {
+                started = true;
+                callback = startCallback;
+            }
+        }
+        // outside the lock, as the callback submits the request to the I/O reactor
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    private void enqueue(final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        start();
+        synchronized (this) {
+            try {
+                while (queue.size() >= maxQueued && !shutdown) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                pool.release(buffer);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing request entity");
+            }
+            if (shutdown) {
+                pool.release(buffer);
+                throw new IOException("Request aborted");
+            }
+
+            queue.add(buffer);
+            notifyAll();
+            if (ioctrl != null) {
+                ioctrl.requestOutput();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void produceContent(final ContentEncoder encoder, final IOControl ioctrl)
+            throws IOException {
+
+        if (shutdown) {
+            throw new IOException("Request entity cannot be sent again");
+        }
+        this.ioctrl = ioctrl;
+
+        while (!queue.isEmpty()) {
+            ByteBuffer buffer = queue.getFirst();
+            encoder.write(buffer);
+            if (buffer.hasRemaining()) {
+                // channel cannot take more for now: wait for the next output event
+                return;
+            }
+            pool.release(queue.removeFirst());
+            notifyAll();
+        }
+
+        if (writeCompleted) {
+            encoder.complete();
+        } else {
+            // wait for the serializing thread to fill some more
+            ioctrl.suspendOutput();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        shutdown = true;
+        for (ByteBuffer buffer : queue) {
+            pool.release(buffer);
+        }
+        queue.clear();
+        notifyAll();
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public InputStream getContent() {
+        throw new UnsupportedOperationException("Content is only available via produceContent()");
+    }
+
+    /**
+     * Drains the content to the given stream, as an alternative to {@link #produceContent(ContentEncoder, IOControl)},
+     * blocking until the entity is completely serialized by another thread.
+     */
+    @Override
+    public void writeTo(final OutputStream os) throws IOException {
+        byte[] chunk = new byte[pool.getBufferSize()];
+        ByteBuffer buffer;
+        while ((buffer = take()) != null) {
+            try {
+                while (buffer.hasRemaining()) {
+                    int size = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, size);
+                    os.write(chunk, 0, size);
+                }
+            } finally {
+                pool.release(buffer);
+            }
+        }
+        os.flush();
+    }
+
+    /**
+     * @return next buffer to be sent, or null if the entity was completely serialized
+     */
+    private synchronized ByteBuffer take() throws IOException {
+        try {
+            while (queue.isEmpty() && !writeCompleted && !shutdown) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading request entity");
+        }
+        if (shutdown) {
+            throw new IOException("Request entity cannot be sent again");
+        }
+        if (queue.isEmpty()) {
+            return null;
+        }
+        ByteBuffer buffer = queue.removeFirst();
+        notifyAll();
+        return buffer;
+    }
+
+    private class PipeOutputStream extends OutputStream {
+
+        private ByteBuffer tail;
+
+        private ByteBuffer tail() throws IOException {
+            if (tail != null && !tail.hasRemaining()) {
+                ByteBuffer full = tail;
+                tail = null;
+                enqueue(full);
+            }
+            if (tail == null) {
+                tail = pool.acquire();
+            }
+            return tail;
+        }
+
+        private void flushTail() throws IOException {
+            if (tail != null) {
+                ByteBuffer last = tail;
+                tail = null;
+                if (last.position() > 0) {
+                    enqueue(last);
+                } else {
+                    pool.release(last);
+                }
+            }
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            tail().put((byte) b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                ByteBuffer buffer = tail();
+                int size = Math.min(remaining, buffer.remaining());
+                buffer.put(b, offset, size);
+                offset += size;
+                remaining -= size;
+            }
+        }
+
+        @Override
+        public void flush() {
+            // buffers are handed over to the I/O reactor as soon as full, or upon writeCompleted()
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Response consumer buffering the response entity into pooled buffers, rather than into a newly allocated array for
+ * each response: entities of known length up to the maximum pooled buffer size fit in a single buffer, others span
+ * several buffers. Each buffer goes back to the pool as soon as it is read through, or when the entity stream gets
+ * closed.
+ */
+class PooledResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final ByteBufferPool pool;
+
+    private volatile HttpResponse response;
+
+    private volatile HttpEntity entity;
+
+    private List<ByteBuffer> buffers;
+
+    /**
+     * Content still expected, or -1 if unknown.
+     */
+    private long expected;
+
+    private boolean handedOver;
+
+    public PooledResponseConsumer(final ByteBufferPool pool) {
+        super();
+        this.pool = pool;
+    }
+
+    @Override
+    protected void onResponseReceived(final HttpResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    protected void onEntityEnclosed(final HttpEntity entity, final ContentType contentType) throws IOException {
+        long length = entity.getContentLength();
+        if (length > Integer.MAX_VALUE) {
+            throw new ContentTooLongException("Entity content is too long: " + length);
+        }
+        this.entity = entity;
+        this.expected = length;
+        this.buffers = new ArrayList<ByteBuffer>();
+    }
+
+    @Override
+    protected void onContentReceived(final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+        while (!decoder.isCompleted()) {
+            ByteBuffer tail = buffers.isEmpty() ? null : buffers.get(buffers.size() - 1);
+            if (expected == 0) {
+                // nothing left, yet the decoder must be read for completing
+                tail = EMPTY;
+            } else if (tail == null || !tail.hasRemaining()) {
+                tail = pool.acquire(expected > 0
+                        ? (int) Math.min(expected, pool.getMaxBufferSize())
+                        : pool.getBufferSize());
+                buffers.add(tail);
+            }
+
+            int read = decoder.read(tail);
+            if (read <= 0) {
+                return;
+            }
+            if (expected > 0) {
+                expected -= read;
+            }
+        }
+    }
+
+    @Override
+    protected HttpResponse buildResult(final HttpContext context) {
+        if (buffers != null) {
+            for (ByteBuffer buffer : buffers) {
+                buffer.flip();
+            }
+            PooledEntity pooled = new PooledEntity(buffers);
+            pooled.setContentType(entity.getContentType());
+            pooled.setContentEncoding(entity.getContentEncoding());
+            pooled.setChunked(entity.isChunked());
+            response.setEntity(pooled);
+            handedOver = true;
+        }
+        return response;
+    }
+
+    @Override
+    protected void releaseResources() {
+        if (buffers != null && !handedOver) {
+            for (ByteBuffer buffer : buffers) {
+                pool.release(buffer);
+            }
+            buffers.clear();
+        }
+    }
+
+    /**
+     * Response entity backed by pooled buffers, readable once.
+     */
+    private class PooledEntity extends AbstractHttpEntity {
+
+        private final long length;
+
+        private final InputStream content;
+
+        public PooledEntity(final List<ByteBuffer> buffers) {
+            long total = 0;
+            for (ByteBuffer buffer : buffers) {
+                total += buffer.remaining();
+            }
+            this.length = total;
+            this.content = new BufferInputStream(buffers);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public InputStream getContent() {
+            return content;
+        }
+
+        @Override
+        public void writeTo(final OutputStream os) throws IOException {
+            try {
+                byte[] chunk = new byte[4096];
+                int read;
+                while ((read = content.read(chunk)) != -1) {
+                    os.write(chunk, 0, read);
+                }
+            } finally {
+                content.close();
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return true;
+        }
+    }
+
+    private class BufferInputStream extends InputStream {
+
+        private final List<ByteBuffer> buffers;
+
+        private int current;
+
+        public BufferInputStream(final List<ByteBuffer> buffers) {
+            this.buffers = buffers;
+        }
+
+        /**
+         * @return buffer with remaining content, or null at end of stream; buffers read through go back to the pool
+         */
+        private ByteBuffer buffer() {
+            while (current < buffers.size()) {
+                ByteBuffer buffer = buffers.get(current);
+                if (buffer.hasRemaining()) {
+                    return buffer;
+                }
+                pool.release(buffer);
+                buffers.set(current++, null);
+            }
+            return null;
+        }
+
+        @Override
+        public synchronized int read() {
+            ByteBuffer buffer = buffer();
+            return buffer == null ? -1 : buffer.get() & 0xff;
+        }
+
+        @Override
+        public synchronized int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            int total = 0;
+            while (total < len) {
+                ByteBuffer buffer = buffer();
+                if (buffer == null) {
+                    break;
+                }
+                int size = Math.min(len - total, buffer.remaining());
+                buffer.get(b, off + total, size);
+                total += size;
+            }
+            // releases the last buffer as soon as read through
+            buffer();
+            return total == 0 ? -1 : total;
+        }
+
+        @Override
+        public synchronized long skip(final long n) {
+            long skipped = 0;
+            while (skipped < n) {
+                ByteBuffer buffer = buffer();
+                if (buffer == null) {
+                    break;
+                }
+                int size = (int) Math.min(n - skipped, buffer.remaining());
+                buffer.position(buffer.position() + size);
+                skipped += size;
+            }
+            return skipped;
+        }
+
+        @Override
+        public synchronized int available() {
+            ByteBuffer buffer = buffer();
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        @Override
+        public synchronized void close() {
+            for (; current < buffers.size(); current++) {
+                pool.release(buffers.get(current));
+                buffers.set(current, null);
+            }
+        }
+    }
+}
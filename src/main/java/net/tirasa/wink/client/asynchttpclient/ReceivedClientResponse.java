@@ -0,0 +1,65 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.ws.rs.core.MultivaluedMap;
+import org.apache.http.Header;
+import org.apache.wink.client.internal.handlers.ClientResponseImpl;
+
+/**
+ * ClientResponse of a received HTTP response, with headers exposed as a view of the received ones (see
+ * {@link HeaderMap}) and attributes inherited from the request: these are read in place, and only copied upon the
+ * first access to the attribute map itself.
+ */
+class ReceivedClientResponse extends ClientResponseImpl {
+
+    private final HeaderMap headers;
+
+    private final Map<String, Object> requestAttributes;
+
+    private Map<String, Object> attributes;
+
+    public ReceivedClientResponse(final Header[] headers, final Map<String, Object> requestAttributes) {
+        super();
+        this.headers = new HeaderMap(headers);
+        this.requestAttributes = requestAttributes;
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        if (attributes == null) {
+            attributes = new HashMap<String, Object>(requestAttributes);
+        }
+        return attributes;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttribute(final Class<T> key) {
+        return (T) (attributes == null ? requestAttributes : attributes).get(key.getName());
+    }
+}
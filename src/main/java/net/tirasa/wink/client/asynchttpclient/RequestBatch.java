@@ -0,0 +1,126 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.wink.client.ClientResponse;
+import org.apache.wink.client.Resource;
+
+/**
+ * Collects a burst of requests to be sent together and awaited as a whole.
+ * <p>
+ * Unlike <tt>Resource.invoke()</tt>, submitting does not wait for response headers, nor throws ClientWebException for
+ * error status codes: check each response instead.
+ * <p>
+ * HttpAsyncClient 4.0 has no support for HTTP pipelining, hence requests are spread over the connection pool: all
+ * requests are handed to the I/O reactor before waiting for any response, so that they proceed in parallel over up to
+ * <tt>maxConnectionsPerRoute</tt> connections towards the same host, which are kept alive for following batches (see
+ * {@link ApacheHttpAsyncClientConfig#setMaxConnectionsPerRoute(int)}).
+ * <p>
+ * Example:
+ * <pre>
+ * BatchResponse responses = new RequestBatch().
+ *         get(client.resource(uri1)).
+ *         get(client.resource(uri2)).
+ *         invoke(client.resource(uri3), "PUT", entity).
+ *         submit();
+ * for (FutureClientResponse response : responses.get()) {
+ *     ...
+ * }
+ * </pre>
+ */
+public class RequestBatch {
+
+    private final List<Invocation> invocations = new ArrayList<Invocation>();
+
+    /**
+     * Adds a GET request on the given resource.
+     *
+     * @param resource resource, with any header already set
+     * @return this batch
+     */
+    public RequestBatch get(final Resource resource) {
+        return invoke(resource, "GET", null);
+    }
+
+    /**
+     * Adds a request with given method and entity on the given resource.
+     *
+     * @param resource resource, with any header already set
+     * @param method HTTP method
+     * @param requestEntity request entity, can be null
+     * @return this batch
+     */
+    public RequestBatch invoke(final Resource resource, final String method, final Object requestEntity) {
+        invocations.add(new Invocation(resource, method, requestEntity));
+        return this;
+    }
+
+    public int size() {
+        return invocations.size();
+    }
+
+    /**
+     * Sends all requests of this batch, without waiting for any response.
+     * Resources must belong to a RestClient configured with {@link ApacheHttpAsyncClientConfig}.
+     *
+     * @return future of all responses, in the same order as requests were added
+     * @throws IllegalArgumentException if any resource does not belong to a RestClient configured with
+     * ApacheHttpAsyncClientConfig
+     */
+    public BatchResponse submit() {
+        List<FutureClientResponse> responses = new ArrayList<FutureClientResponse>(invocations.size());
+        try {
+            for (Invocation invocation : invocations) {
+                ClientResponse response = ResourceInvoker.invoke(
+                        invocation.resource, invocation.method, invocation.requestEntity);
+                if (!(response instanceof FutureClientResponse)) {
+                    throw new IllegalArgumentException("Resource " + invocation.resource.getUriBuilder().build()
+                            + " does not belong to a RestClient configured with "
+                            + ApacheHttpAsyncClientConfig.class.getSimpleName());
+                }
+                responses.add((FutureClientResponse) response);
+            }
+        } catch (RuntimeException e) {
+            for (FutureClientResponse response : responses) {
+                response.cancel(true);
+            }
+            throw e;
+        }
+
+        return new BatchResponse(responses);
+    }
+
+    private static final class Invocation {
+
+        private final Resource resource;
+
+        private final String method;
+
+        private final Object requestEntity;
+
+        Invocation(final Resource resource, final String method, final Object requestEntity) {
+            this.resource = resource;
+            this.method = method;
+            this.requestEntity = requestEntity;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.HttpMethod;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.apache.wink.client.ClientRequest;
+import org.apache.wink.client.handlers.HandlerContext;
+
+/**
+ * Single-flight execution of identical GET / HEAD requests: while a request is in flight, further requests with same
+ * method, URI and headers join it instead of being sent.
+ * The response entity is buffered once, then each participant gets its own copy of the response, with independently
+ * readable entity.
+ */
+class RequestCoalescer {
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @return key identifying identical requests, or null if the given request cannot be coalesced
+     */
+    static String key(final ClientRequest request) {
+        if ((!HttpMethod.GET.equals(request.getMethod()) && !HttpMethod.HEAD.equals(request.getMethod()))
+                || request.getEntity() != null) {
+
+            return null;
+        }
+
+        Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(request.getHeaders());
+        StringBuilder key = new StringBuilder(request.getMethod()).append(' ').append(request.getURI());
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            key.append('\n').append(header.getKey().toLowerCase(Locale.ROOT)).append(':').append(header.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Joins the given response to the in-flight request with the given key, if any; otherwise creates a new flight.
+     *
+     * @return new flight, whose request is to be executed by the caller, or null if an in-flight request was joined
+     */
+    Flight join(final String key, final FutureClientResponse response,
+            final ApacheHttpAsyncClientConnectionHandler handler, final ClientRequest request,
+            final HandlerContext context) {
+
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight == null) {
+                Flight created = new Flight(key, handler, request, context);
+                created.join(response);
+                if (flights.putIfAbsent(key, created) == null) {
+                    return created;
+                }
+            } else if (flight.join(response)) {
+                coalesced.incrementAndGet();
+                return null;
+            } else {
+                // just completed, not yet removed
+                flights.remove(key, flight);
+            }
+        }
+    }
+
+    /**
+     * @return number of requests served by joining an in-flight request
+     */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Request shared among participants; receives completion from HttpAsyncClient as any other response, and
+     * dispatches it to participants.
+     */
+    final class Flight extends FutureClientResponse {
+
+        private final String key;
+
+        private final Map<FutureClientResponse, BasicFuture<HttpResponse>> participants =
+                new LinkedHashMap<FutureClientResponse, BasicFuture<HttpResponse>>();
+
+        private boolean done;
+
+        private Flight(final String key, final ApacheHttpAsyncClientConnectionHandler handler,
+                final ClientRequest request, final HandlerContext context) {
+
+            super(handler, request, context);
+            this.key = key;
+        }
+
+        private synchronized boolean join(final FutureClientResponse response) {
+            if (done) {
+                return false;
+            }
+
+            BasicFuture<HttpResponse> participation = new BasicFuture<HttpResponse>(new FutureCallback<HttpResponse>() {
+
+                @Override
+                public void completed(final HttpResponse result) {
+                    // nothing to do
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    // nothing to do
+                }
+
+                @Override
+                public void cancelled() {
+                    leave(response);
+                }
+            });
+            participants.put(response, participation);
+            response.setFutureResponse(participation);
+            return true;
+        }
+
+        /**
+         * The shared request is cancelled once all participants have left.
+         */
+        private void leave(final FutureClientResponse response) {
+            synchronized (this) {
+                if (participants.remove(response) == null || !participants.isEmpty() || done) {
+                    return;
+                }
+                done = true;
+            }
+            flights.remove(key, this);
+            super.cancel(true);
+        }
+
+        @Override
+        void setFutureResponse(final Future<HttpResponse> futureResponse) {
+            super.setFutureResponse(futureResponse);
+
+            boolean abandoned;
+            synchronized (this) {
+                abandoned = done && participants.isEmpty();
+            }
+            if (abandoned) {
+                futureResponse.cancel(true);
+            }
+        }
+
+        private List<Map.Entry<FutureClientResponse, BasicFuture<HttpResponse>>> land() {
+            flights.remove(key, this);
+            synchronized (this) {
+                done = true;
+                return new ArrayList<Map.Entry<FutureClientResponse, BasicFuture<HttpResponse>>>(
+                        participants.entrySet());
+            }
+        }
+
+        @Override
+        void completed(final HttpResponse httpResponse) {
+            byte[] body = null;
+            HttpEntity entity = httpResponse.getEntity();
+            if (entity != null) {
+                try {
+                    body = EntityUtils.toByteArray(entity);
+                } catch (IOException e) {
+                    failed(e);
+                    return;
+                }
+            }
+
+            for (Map.Entry<FutureClientResponse, BasicFuture<HttpResponse>> participant : land()) {
+                BasicHttpResponse copy = new BasicHttpResponse(httpResponse.getStatusLine());
+                copy.setHeaders(httpResponse.getAllHeaders());
+                if (entity != null) {
+                    ByteArrayEntity entityCopy = new ByteArrayEntity(body);
+                    entityCopy.setContentType(entity.getContentType());
+                    entityCopy.setContentEncoding(entity.getContentEncoding());
+                    copy.setEntity(entityCopy);
+                }
+
+                participant.getValue().completed(copy);
+                participant.getKey().completed(copy);
+            }
+        }
+
+        @Override
+        void failed(final Exception exception) {
+            for (Map.Entry<FutureClientResponse, BasicFuture<HttpResponse>> participant : land()) {
+                participant.getValue().failed(exception);
+                participant.getKey().failed(exception);
+            }
+        }
+
+        @Override
+        void cancelled() {
+            for (Map.Entry<FutureClientResponse, BasicFuture<HttpResponse>> participant : land()) {
+                participant.getKey().cancelled();
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.reactor.IOSession;
+
+/**
+ * Timestamps of a single request, turned into phase durations for {@link MetricsRecorder}.
+ */
+class RequestMetrics {
+
+    private final MetricsRecorder recorder;
+
+    private final HttpHost target;
+
+    private final long started;
+
+    private volatile long sent;
+
+    private volatile long headersReceived;
+
+    RequestMetrics(final MetricsRecorder recorder, final HttpHost target) {
+        this.recorder = recorder;
+        this.target = target;
+        this.started = System.nanoTime();
+    }
+
+    /**
+     * Invoked when the request is about to be written on the given session: connect and TLS handshake are charged to
+     * the first request on each new session.
+     */
+    void ready(final IOSession session) {
+        long now = System.nanoTime();
+
+        long connect = 0;
+        long handshake = 0;
+        if (session != null && session.getAttribute(MetricsRecorder.CLAIMED) == null) {
+            session.setAttribute(MetricsRecorder.CLAIMED, Boolean.TRUE);
+
+            Long connectNanos = (Long) session.getAttribute(MetricsRecorder.CONNECT_NANOS);
+            if (connectNanos != null) {
+                connect = connectNanos;
+                recorder.phaseCompleted(target, RequestPhase.CONNECT, connect);
+            }
+            // TLS_HANDSHAKE is reported by the session factory, when the handshake completes
+            Long handshakeNanos = (Long) session.getAttribute(MetricsRecorder.HANDSHAKE_NANOS);
+            if (handshakeNanos != null) {
+                handshake = handshakeNanos;
+            }
+        }
+
+        recorder.phaseCompleted(target, RequestPhase.LEASE, Math.max(0, now - started - connect - handshake));
+    }
+
+    /**
+     * Invoked when the request was fully written.
+     */
+    void sent() {
+        sent = System.nanoTime();
+    }
+
+    void headersReceived() {
+        long now = System.nanoTime();
+        headersReceived = now;
+        if (sent != 0) {
+            recorder.phaseCompleted(target, RequestPhase.TIME_TO_FIRST_BYTE, now - sent);
+        }
+    }
+
+    void completed(final HttpResponse response) {
+        long now = System.nanoTime();
+        if (headersReceived != 0) {
+            recorder.phaseCompleted(target, RequestPhase.BODY, now - headersReceived);
+        }
+        recorder.requestCompleted(target, response.getStatusLine().getStatusCode(), now - started);
+    }
+
+    void failed(final Exception exception) {
+        recorder.requestFailed(target, exception, System.nanoTime() - started);
+    }
+
+    void deserialized(final long nanos) {
+        recorder.phaseCompleted(target, RequestPhase.DESERIALIZATION, nanos);
+    }
+}
@@ -0,0 +1,53 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+/**
+ * Phases of a request, as reported to {@link MetricsListener}s.
+ */
+public enum RequestPhase {
+
+    /**
+     * From submission to when a pooled connection is leased, excluding connect and TLS handshake; includes any wait
+     * for admission (see {@link ApacheHttpAsyncClientConfig#setMaxInFlight(int)}).
+     */
+    LEASE,
+    /**
+     * TCP connect, for requests which opened a new connection.
+     */
+    CONNECT,
+    /**
+     * TLS handshake, for requests which opened a new secure connection.
+     */
+    TLS_HANDSHAKE,
+    /**
+     * From when the request is sent to when response headers are received.
+     */
+    TIME_TO_FIRST_BYTE,
+    /**
+     * From when response headers are received to when the response body is fully read.
+     */
+    BODY,
+    /**
+     * Entity deserialization in ClientResponse#getEntity().
+     */
+    DESERIALIZATION
+
+}
@@ -0,0 +1,122 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import org.apache.wink.client.ClientRequest;
+import org.apache.wink.client.ClientResponse;
+import org.apache.wink.client.ClientRuntimeException;
+import org.apache.wink.client.Resource;
+import org.apache.wink.client.handlers.HandlerContext;
+import org.apache.wink.client.internal.ClientRuntimeContext;
+import org.apache.wink.client.internal.ResourceImpl;
+import org.apache.wink.common.RuntimeContext;
+import org.apache.wink.common.internal.registry.ProvidersRegistry;
+import org.apache.wink.common.internal.runtime.RuntimeContextTLS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Invokes Wink resources without waiting for the response.
+ * <p>
+ * <tt>Resource.invoke()</tt> checks the response status before returning, thus blocking until response headers are
+ * received even if the connection handler is asynchronous; this class replicates what Wink 1.3.0's ResourceImpl does,
+ * except for such check: no ClientWebException is thrown for error status codes.
+ */
+final class ResourceInvoker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceInvoker.class);
+
+    private static final Method CREATE_CLIENT_REQUEST;
+
+    private static final Method CREATE_HANDLER_CONTEXT;
+
+    static {
+        Method createClientRequest = null;
+        Method createHandlerContext = null;
+        try {
+            createClientRequest = ResourceImpl.class.getDeclaredMethod(
+                    "createClientRequest", String.class, Class.class, Type.class, Object.class);
+            createClientRequest.setAccessible(true);
+            createHandlerContext = ResourceImpl.class.getDeclaredMethod("createHandlerContext");
+            createHandlerContext.setAccessible(true);
+        } catch (Exception e) {
+            LOG.warn("Unsupported Wink version: requests will block until response headers are received", e);
+            createClientRequest = null;
+            createHandlerContext = null;
+        }
+        CREATE_CLIENT_REQUEST = createClientRequest;
+        CREATE_HANDLER_CONTEXT = createHandlerContext;
+    }
+
+    /**
+     * @return whether requests are sent without waiting for the response, as the Wink version in use is supported
+     */
+    static boolean isNonBlocking() {
+        return CREATE_CLIENT_REQUEST != null;
+    }
+
+    /**
+     * Sends a request with given method and entity on the given resource.
+     *
+     * @param resource resource, with any header already set
+     * @param method HTTP method
+     * @param requestEntity request entity, can be null
+     * @return response, as soon as the request was handed to the connection handler
+     */
+    public static ClientResponse invoke(final Resource resource, final String method, final Object requestEntity) {
+        if (!(resource instanceof ResourceImpl) || CREATE_CLIENT_REQUEST == null) {
+            return resource.invoke(method, ClientResponse.class, requestEntity);
+        }
+
+        ClientRequest request;
+        HandlerContext context;
+        try {
+            request = (ClientRequest) CREATE_CLIENT_REQUEST.invoke(
+                    resource, method, ClientResponse.class, ClientResponse.class, requestEntity);
+            context = (HandlerContext) CREATE_HANDLER_CONTEXT.invoke(resource);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause()
+                    : new ClientRuntimeException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new ClientRuntimeException(e);
+        }
+
+        RuntimeContext previous = RuntimeContextTLS.getRuntimeContext();
+        RuntimeContextTLS.setRuntimeContext(
+                new ClientRuntimeContext(request.getAttribute(ProvidersRegistry.class)));
+        try {
+            return context.doChain(request);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ClientRuntimeException(e);
+        } finally {
+            RuntimeContextTLS.setRuntimeContext(previous);
+        }
+    }
+
+    private ResourceInvoker() {
+        // private constructor for static utility class
+    }
+}
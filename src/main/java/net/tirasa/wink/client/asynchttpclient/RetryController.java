@@ -0,0 +1,193 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Shared state of retries and hedged requests for a connection handler: retry budget, counters, and recent response
+ * times for computing the hedging delay.
+ */
+class RetryController {
+
+    private static final int LATENCY_SAMPLES = 1024;
+
+    private static final int HEDGE_DELAY_REFRESH = 64;
+
+    /**
+     * Budget is kept in thousandths of retry, for earning fractions of retry with each request.
+     */
+    private static final long RETRY_COST = 1000;
+
+    private final RetryPolicy policy;
+
+    private final long budgetDeposit;
+
+    private final long budgetCap;
+
+    private final AtomicLong budget;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+
+    private long recordedLatencies;
+
+    private volatile long hedgeDelay = -1;
+
+    private final AtomicLong retried = new AtomicLong();
+
+    private final AtomicLong hedged = new AtomicLong();
+
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    RetryController(final RetryPolicy policy) {
+        this.policy = policy;
+        this.budgetDeposit = Math.round(policy.getBudgetPercent() * RETRY_COST / 100);
+        this.budgetCap = Math.max(1, policy.getBudgetReserve()) * RETRY_COST;
+        this.budget = new AtomicLong(policy.getBudgetReserve() * RETRY_COST);
+    }
+
+    RetryPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return whether the given request can be sent again: idempotent method, and no entity or repeatable entity
+     */
+    boolean isRetryable(final HttpRequestBase httpRequest) {
+        if (!policy.getMethods().contains(httpRequest.getMethod())) {
+            return false;
+        }
+        HttpEntity entity = httpRequest instanceof HttpEntityEnclosingRequestBase
+                ? ((HttpEntityEnclosingRequestBase) httpRequest).getEntity()
+                : null;
+        return entity == null || entity.isRepeatable();
+    }
+
+    /**
+     * @return whether the given request can be sent twice at the same time
+     */
+    boolean isHedgeable(final HttpRequestBase httpRequest) {
+        return policy.getHedgePercentile() > 0 && !(httpRequest instanceof HttpEntityEnclosingRequestBase
+                && ((HttpEntityEnclosingRequestBase) httpRequest).getEntity() != null);
+    }
+
+    /**
+     * Retries on I/O errors, except for requests rejected because of overload, timed out or aborted.
+     */
+    boolean isRetryable(final Exception exception) {
+        return exception instanceof IOException
+                && !(exception instanceof RequestRejectedException)
+                && !(exception instanceof RequestTimeoutException);
+    }
+
+    boolean isRetryable(final HttpResponse httpResponse) {
+        return policy.getRetryStatusCodes().contains(httpResponse.getStatusLine().getStatusCode());
+    }
+
+    /**
+     * Earns the retry budget share of a new request.
+     */
+    void requestStarted() {
+        while (true) {
+            long current = budget.get();
+            long next = Math.min(budgetCap, current + budgetDeposit);
+            if (next == current || budget.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Spends one retry from the budget, if available.
+     *
+     * @param hedge whether the retry is a hedged request
+     * @return whether the retry can be sent
+     */
+    boolean acquire(final boolean hedge) {
+        while (true) {
+            long current = budget.get();
+            if (current < RETRY_COST) {
+                budgetExhausted.incrementAndGet();
+                return false;
+            }
+            if (budget.compareAndSet(current, current - RETRY_COST)) {
+                (hedge ? hedged : retried).incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param retry retry number, starting from 1
+     * @return delay before the given retry, in milliseconds, jitter included
+     */
+    long backoff(final int retry) {
+        double backoff = Math.min(policy.getMaxBackoff(),
+                policy.getInitialBackoff() * Math.pow(policy.getBackoffMultiplier(), retry - 1));
+        return Math.round(backoff * (1 - policy.getJitter() * Math.random()));
+    }
+
+    /**
+     * @return delay before sending a hedged request, in milliseconds, or -1 if not enough response times were
+     * recorded yet
+     */
+    long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * Records the response time of a completed attempt; the hedging delay is refreshed every few samples.
+     */
+    void recordLatency(final long millis) {
+        if (policy.getHedgePercentile() <= 0) {
+            return;
+        }
+
+        synchronized (latencies) {
+            latencies[(int) (recordedLatencies++ % LATENCY_SAMPLES)] = millis;
+            if (recordedLatencies >= policy.getHedgeMinSamples()
+                    && (hedgeDelay < 0 || recordedLatencies % HEDGE_DELAY_REFRESH == 0)) {
+
+                long[] sorted = Arrays.copyOf(latencies, (int) Math.min(recordedLatencies, LATENCY_SAMPLES));
+                Arrays.sort(sorted);
+                hedgeDelay = sorted[Math.max(0,
+                        (int) Math.ceil(sorted.length * policy.getHedgePercentile() / 100) - 1)];
+            }
+        }
+    }
+
+    long getRetried() {
+        return retried.get();
+    }
+
+    long getHedged() {
+        return hedged.get();
+    }
+
+    long getBudgetExhausted() {
+        return budgetExhausted.get();
+    }
+}
@@ -0,0 +1,215 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import javax.ws.rs.HttpMethod;
+import org.apache.wink.client.ClientConfigException;
+
+/**
+ * Retry and hedging settings for idempotent requests, see
+ * {@link ApacheHttpAsyncClientConfig#setRetryPolicy(RetryPolicy)}.
+ * Failed attempts are retried after an exponential backoff with jitter; retries are further capped by a budget: each
+ * request earns a fraction of a retry, so that - beyond a small reserve for bursts - retries and hedged requests
+ * never exceed the given percentage of traffic, even when the server is down.
+ * Requests whose entity cannot be sent twice are never retried; hedging only applies to requests without entity.
+ */
+public class RetryPolicy {
+
+    protected int maxRetries = 2;
+
+    protected long initialBackoff = 50;
+
+    protected long maxBackoff = 2000;
+
+    protected double backoffMultiplier = 2;
+
+    protected double jitter = 0.5;
+
+    protected Set<String> methods = new HashSet<String>(Arrays.asList(
+            HttpMethod.GET, HttpMethod.HEAD, HttpMethod.OPTIONS, HttpMethod.PUT, HttpMethod.DELETE));
+
+    protected Set<Integer> retryStatusCodes = new HashSet<Integer>(Arrays.asList(502, 503, 504));
+
+    protected double budgetPercent = 10;
+
+    protected int budgetReserve = 10;
+
+    protected double hedgePercentile;
+
+    protected int hedgeMinSamples = 100;
+
+    /**
+     * @throws ClientConfigException if any setting is invalid
+     */
+    public void validate() {
+        if (maxRetries < 0) {
+            throw new ClientConfigException("maxRetries must not be negative");
+        }
+        if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+            throw new ClientConfigException("initialBackoff must not be negative, nor exceed maxBackoff");
+        }
+        if (backoffMultiplier < 1) {
+            throw new ClientConfigException("backoffMultiplier must be at least 1");
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new ClientConfigException("jitter must be between 0 and 1");
+        }
+        if (budgetPercent < 0 || budgetReserve < 0) {
+            throw new ClientConfigException("Retry budget must not be negative");
+        }
+        if (hedgePercentile < 0 || hedgePercentile >= 100) {
+            throw new ClientConfigException("hedgePercentile must be between 0 (disabled) and 100 (excluded)");
+        }
+        if (hedgeMinSamples <= 0) {
+            throw new ClientConfigException("hedgeMinSamples must be positive");
+        }
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param maxRetries maximum number of retries for each request, hedged requests excluded
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * @param initialBackoff delay before the first retry, in milliseconds, before jitter
+     */
+    public void setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * @param maxBackoff upper bound of the delay between retries, in milliseconds, before jitter
+     */
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public double getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    /**
+     * @param backoffMultiplier factor applied to the delay after each retry
+     */
+    public void setBackoffMultiplier(double backoffMultiplier) {
+        this.backoffMultiplier = backoffMultiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Sets the random fraction subtracted from each delay, for spreading retries of concurrent requests: 0 means
+     * fixed delays, 1 means delays uniformly distributed between 0 and the computed backoff.
+     *
+     * @param jitter jitter, between 0 and 1
+     */
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+
+    public Set<String> getMethods() {
+        return methods;
+    }
+
+    /**
+     * @param methods methods of requests which can be retried or hedged; defaults to idempotent methods
+     */
+    public void setMethods(Set<String> methods) {
+        this.methods = methods == null ? Collections.<String>emptySet() : methods;
+    }
+
+    public Set<Integer> getRetryStatusCodes() {
+        return retryStatusCodes;
+    }
+
+    /**
+     * @param retryStatusCodes response status codes causing a retry, besides I/O errors; defaults to 502, 503, 504
+     */
+    public void setRetryStatusCodes(Set<Integer> retryStatusCodes) {
+        this.retryStatusCodes = retryStatusCodes == null ? Collections.<Integer>emptySet() : retryStatusCodes;
+    }
+
+    public double getBudgetPercent() {
+        return budgetPercent;
+    }
+
+    /**
+     * @param budgetPercent retries and hedged requests allowed, as percentage of requests
+     */
+    public void setBudgetPercent(double budgetPercent) {
+        this.budgetPercent = budgetPercent;
+    }
+
+    public int getBudgetReserve() {
+        return budgetReserve;
+    }
+
+    /**
+     * @param budgetReserve retries allowed in a burst, also available before any traffic is seen
+     */
+    public void setBudgetReserve(int budgetReserve) {
+        this.budgetReserve = budgetReserve;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * Enables hedging: when no response is received within the given percentile of recent response times, the same
+     * request is sent again, the first response is taken and the other request is cancelled.
+     *
+     * @param hedgePercentile latency percentile triggering a hedged request, e.g. 95; 0 disables hedging
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public int getHedgeMinSamples() {
+        return hedgeMinSamples;
+    }
+
+    /**
+     * @param hedgeMinSamples number of response times to be recorded before hedging starts
+     */
+    public void setHedgeMinSamples(int hedgeMinSamples) {
+        this.hedgeMinSamples = hedgeMinSamples;
+    }
+}
@@ -0,0 +1,400 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.util.EntityUtils;
+import org.apache.wink.client.ClientRequest;
+import org.apache.wink.client.handlers.HandlerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Execution of an idempotent request as a sequence of attempts, each with its own exchange: attempts failed with I/O
+ * errors or retryable status codes are retried after backoff, as long as the retry budget allows; when hedging, a
+ * second attempt is sent if the first one takes longer than the hedging delay, and the first response wins.
+ * The caller's response is completed once, with the outcome of the winning attempt; cancelling it cancels all
+ * attempts. While waiting for a retry, the outcome of the last attempt is kept: if the retry cannot be sent - because
+ * the handler was closed meanwhile - the caller's response is completed with it.
+ */
+class RetryingExecution {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryingExecution.class);
+
+    /**
+     * Sends a single attempt.
+     */
+    interface Sender {
+
+        /**
+         * @param attempt response to be completed by the attempt
+         * @return future of the attempt
+         */
+        Future<HttpResponse> send(FutureClientResponse attempt);
+
+        /**
+         * Invoked with the response of the winning attempt.
+         *
+         * @param httpResponse response
+         */
+        void completed(HttpResponse httpResponse);
+    }
+
+    private final ApacheHttpAsyncClientConnectionHandler handler;
+
+    private final ClientRequest request;
+
+    private final HandlerContext context;
+
+    private final FutureClientResponse response;
+
+    private final RetryController controller;
+
+    private final ScheduledExecutorService timer;
+
+    private final Sender sender;
+
+    private final boolean hedging;
+
+    private final BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(new FutureCallback<HttpResponse>() {
+
+        @Override
+        public void completed(final HttpResponse result) {
+            // nothing to do
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            // nothing to do
+        }
+
+        @Override
+        public void cancelled() {
+            cancelAttempts();
+        }
+    });
+
+    private final List<Attempt> inFlight = new ArrayList<Attempt>(2);
+
+    private ScheduledFuture<?> scheduled;
+
+    /**
+     * Response of the last attempt, kept until the retry is sent; guarded by this.
+     */
+    private HttpResponse lastResponse;
+
+    /**
+     * Failure of the last attempt, kept until the retry is sent; guarded by this.
+     */
+    private Exception lastFailure;
+
+    private int retries;
+
+    private boolean done;
+
+    RetryingExecution(final ApacheHttpAsyncClientConnectionHandler handler, final ClientRequest request,
+            final HandlerContext context, final FutureClientResponse response, final RetryController controller,
+            final ScheduledExecutorService timer, final Sender sender, final boolean hedging) {
+
+        this.handler = handler;
+        this.request = request;
+        this.context = context;
+        this.response = response;
+        this.controller = controller;
+        this.timer = timer;
+        this.sender = sender;
+        this.hedging = hedging;
+    }
+
+    /**
+     * Sends the first attempt, and schedules the hedged one if enabled.
+     *
+     * @return future of the execution, whose cancellation cancels all attempts
+     */
+    Future<HttpResponse> start() {
+        controller.requestStarted();
+        send();
+
+        long hedgeDelay = hedging ? controller.getHedgeDelay() : -1;
+        if (hedgeDelay >= 0) {
+            Runnable hedge = new Runnable() {
+
+                @Override
+                public void run() {
+                    synchronized (RetryingExecution.this) {
+                        if (done || inFlight.size() != 1 || !controller.acquire(true)) {
+                            return;
+                        }
+                    }
+                    LOG.debug("No response within {} ms: sending hedged request", controller.getHedgeDelay());
+                    send();
+                }
+            };
+            synchronized (this) {
+                // the first attempt might have already failed, with retry scheduled
+                if (!done && inFlight.size() == 1 && scheduled == null) {
+                    schedule(hedge, hedgeDelay);
+                }
+            }
+        }
+        return future;
+    }
+
+    private void send() {
+        Attempt attempt = new Attempt();
+        HttpResponse discarded;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            inFlight.add(attempt);
+            discarded = lastResponse;
+            lastResponse = null;
+            lastFailure = null;
+        }
+        if (discarded != null) {
+            EntityUtils.consumeQuietly(discarded.getEntity());
+        }
+        try {
+            attempt.setFutureResponse(sender.send(attempt));
+        } catch (RuntimeException e) {
+            attemptFailed(attempt, e);
+        }
+    }
+
+    /**
+     * @return whether the given task was scheduled: it is not if the handler was closed meanwhile
+     */
+    private synchronized boolean schedule(final Runnable task, final long delay) {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        try {
+            scheduled = timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            scheduled = null;
+            return false;
+        }
+    }
+
+    /**
+     * Schedules a retry, if allowed by the policy and by the retry budget; invoked with lock held, when no other
+     * attempt is in flight.
+     *
+     * @return whether a retry was scheduled
+     */
+    private boolean retry() {
+        if (retries >= controller.getPolicy().getMaxRetries() || !controller.acquire(false)) {
+            return false;
+        }
+        long backoff = controller.backoff(retries + 1);
+        // tracked before scheduling, for being given up if the timer is shut down right after
+        handler.retryPending(this, true);
+        boolean retrying = schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                send();
+            }
+        }, backoff);
+        if (!retrying) {
+            LOG.debug("Not retrying request: connection handler was closed");
+            handler.retryPending(this, false);
+            return false;
+        }
+        retries++;
+        LOG.debug("Retrying request in {} ms, retry #{}", backoff, retries);
+        return true;
+    }
+
+    /**
+     * Marks this execution as done; invoked with lock held.
+     *
+     * @return attempts still in flight, to be cancelled
+     */
+    private List<Attempt> finish() {
+        done = true;
+        handler.retryPending(this, false);
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        List<Attempt> losers = new ArrayList<Attempt>(inFlight);
+        inFlight.clear();
+        return losers;
+    }
+
+    private void cancelAttempts() {
+        List<Attempt> losers;
+        HttpResponse discarded;
+        synchronized (this) {
+            losers = finish();
+            discarded = lastResponse;
+            lastResponse = null;
+        }
+        if (discarded != null) {
+            EntityUtils.consumeQuietly(discarded.getEntity());
+        }
+        for (Attempt attempt : losers) {
+            attempt.cancel(true);
+        }
+    }
+
+    private void attemptCompleted(final Attempt attempt, final HttpResponse httpResponse) {
+        controller.recordLatency(attempt.elapsed());
+
+        List<Attempt> losers;
+        synchronized (this) {
+            inFlight.remove(attempt);
+            if (done) {
+                EntityUtils.consumeQuietly(httpResponse.getEntity());
+                return;
+            }
+            if (controller.isRetryable(httpResponse)) {
+                if (!inFlight.isEmpty()) {
+                    LOG.debug("Discarding response with status {}", httpResponse.getStatusLine());
+                    EntityUtils.consumeQuietly(httpResponse.getEntity());
+                    return;
+                }
+                if (retry()) {
+                    lastResponse = httpResponse;
+                    return;
+                }
+            }
+            losers = finish();
+        }
+
+        for (Attempt loser : losers) {
+            loser.cancel(true);
+        }
+        future.completed(httpResponse);
+        sender.completed(httpResponse);
+    }
+
+    private void attemptFailed(final Attempt attempt, final Exception exception) {
+        synchronized (this) {
+            inFlight.remove(attempt);
+            // when hedging, the other attempt in flight decides
+            if (done || !inFlight.isEmpty()) {
+                return;
+            }
+            if (controller.isRetryable(exception) && retry()) {
+                lastFailure = exception;
+                return;
+            }
+            finish();
+        }
+
+        future.failed(exception);
+        response.failed(exception);
+    }
+
+    /**
+     * Invoked once the timer is shut down, along with the handler: unless an attempt is still in flight - which will
+     * fail on its own, as the client is closed - the retry waiting for being sent never will, hence the caller's
+     * response is completed with the outcome of the last attempt.
+     */
+    void timerShutdown() {
+        HttpResponse httpResponse;
+        Exception failure;
+        synchronized (this) {
+            if (done || !inFlight.isEmpty()) {
+                return;
+            }
+            httpResponse = lastResponse;
+            failure = lastFailure;
+            lastResponse = null;
+            lastFailure = null;
+            finish();
+        }
+
+        LOG.debug("Retry given up: connection handler was closed");
+        if (httpResponse != null) {
+            future.completed(httpResponse);
+            sender.completed(httpResponse);
+        } else {
+            if (failure == null) {
+                failure = new RequestRejectedException("Connection handler was closed");
+            }
+            future.failed(failure);
+            response.failed(failure);
+        }
+    }
+
+    private void attemptCancelled(final Attempt attempt) {
+        synchronized (this) {
+            inFlight.remove(attempt);
+            if (done || !inFlight.isEmpty()) {
+                return;
+            }
+            finish();
+        }
+
+        future.cancel(true);
+        response.cancelled();
+    }
+
+    /**
+     * Response of a single attempt, reporting to the enclosing execution instead of completing.
+     */
+    private final class Attempt extends FutureClientResponse {
+
+        private final long start = System.nanoTime();
+
+        private Attempt() {
+            super(handler, request, context);
+        }
+
+        private long elapsed() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+
+        @Override
+        void setMetrics(final RequestMetrics metrics) {
+            super.setMetrics(metrics);
+            response.setMetrics(metrics);
+        }
+
+        @Override
+        void completed(final HttpResponse httpResponse) {
+            attemptCompleted(this, httpResponse);
+        }
+
+        @Override
+        void failed(final Exception exception) {
+            attemptFailed(this, exception);
+        }
+
+        @Override
+        void cancelled() {
+            attemptCancelled(this);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.wink.client.EntityType;
+import org.apache.wink.client.Resource;
+
+/**
+ * Sends a set of requests in parallel and gathers their response entities, as soon as the outcome is decided: when
+ * all, any or a quorum of the calls succeeded, when the required results can no longer be obtained, or when the
+ * overall deadline expires. Calls still running at that point are cancelled, releasing their connections.
+ * <p>
+ * The whole process is driven by completion callbacks and timer tasks: no thread waits for responses, and entities
+ * are deserialized on the executor configured via
+ * {@link ApacheHttpAsyncClientConfig#setEntityExecutor(java.util.concurrent.Executor)}.
+ * Calls fail with ClientWebException for error status codes, as <tt>Resource</tt> methods would throw.
+ * As with {@link RequestBatch}, calls towards the same host proceed in parallel over up to
+ * <tt>maxConnectionsPerRoute</tt> connections.
+ * <p>
+ * Example:
+ * <pre>
+ * GatherResponse&lt;Product&gt; products = new ScatterGather&lt;Product&gt;().
+ *         get(client.resource(uri1), Product.class).
+ *         get(client.resource(uri2), Product.class).
+ *         get(client.resource(uri3), Product.class).
+ *         quorum(2).
+ *         callTimeout(300).
+ *         deadline(500).
+ *         submit();
+ * products.addListener(...);
+ * </pre>
+ *
+ * @param <T> result type
+ */
+public class ScatterGather<T> {
+
+    private final List<Invocation<? extends T>> invocations = new ArrayList<Invocation<? extends T>>();
+
+    /**
+     * Number of successful calls required, or -1 for all.
+     */
+    private int required = -1;
+
+    private long callTimeout;
+
+    private long deadline;
+
+    private boolean partialResults;
+
+    /**
+     * Adds a GET request on the given resource.
+     *
+     * @param resource resource, with any header already set
+     * @param responseEntity response entity class
+     * @return this scatter-gather
+     */
+    public ScatterGather<T> get(final Resource resource, final Class<? extends T> responseEntity) {
+        return invoke(resource, "GET", responseEntity, null);
+    }
+
+    /**
+     * Same as {@link #get(Resource, Class)}, for generic entity types.
+     *
+     * @param resource resource, with any header already set
+     * @param responseEntity response entity type
+     * @return this scatter-gather
+     */
+    public ScatterGather<T> get(final Resource resource, final EntityType<? extends T> responseEntity) {
+        return invoke(resource, "GET", responseEntity, null);
+    }
+
+    /**
+     * Adds a request with given method and entity on the given resource.
+     *
+     * @param resource resource, with any header already set
+     * @param method HTTP method
+     * @param responseEntity response entity class
+     * @param requestEntity request entity, can be null
+     * @return this scatter-gather
+     */
+    public ScatterGather<T> invoke(final Resource resource, final String method,
+            final Class<? extends T> responseEntity, final Object requestEntity) {
+
+        invocations.add(Invocation.of(resource, method, responseEntity, null, requestEntity));
+        return this;
+    }
+
+    /**
+     * Same as {@link #invoke(Resource, String, Class, Object)}, for generic entity types.
+     *
+     * @param resource resource, with any header already set
+     * @param method HTTP method
+     * @param responseEntity response entity type
+     * @param requestEntity request entity, can be null
+     * @return this scatter-gather
+     */
+    public ScatterGather<T> invoke(final Resource resource, final String method,
+            final EntityType<? extends T> responseEntity, final Object requestEntity) {
+
+        invocations.add(Invocation.of(resource, method, null, responseEntity, requestEntity));
+        return this;
+    }
+
+    /**
+     * Requires all calls to succeed; this is the default.
+     *
+     * @return this scatter-gather
+     */
+    public ScatterGather<T> allOf() {
+        required = -1;
+        return this;
+    }
+
+    /**
+     * Requires any call to succeed: the first result decides.
+     *
+     * @return this scatter-gather
+     */
+    public ScatterGather<T> anyOf() {
+        return quorum(1);
+    }
+
+    /**
+     * Requires the given number of calls to succeed.
+     *
+     * @param quorum number of successful calls required
+     * @return this scatter-gather
+     */
+    public ScatterGather<T> quorum(final int quorum) {
+        if (quorum < 1) {
+            throw new IllegalArgumentException("Quorum must be positive");
+        }
+        required = quorum;
+        return this;
+    }
+
+    /**
+     * Sets the timeout of each call, in milliseconds, including entity deserialization: calls not done by then fail
+     * with RequestTimeoutException, and are aborted. Not set by default.
+     *
+     * @param callTimeout timeout of each call, in milliseconds
+     * @return this scatter-gather
+     */
+    public ScatterGather<T> callTimeout(final long callTimeout) {
+        this.callTimeout = callTimeout;
+        return this;
+    }
+
+    /**
+     * Sets the overall deadline, in milliseconds since submission: if the required results are not available by then,
+     * the outcome is decided with the results available. Not set by default.
+     *
+     * @param deadline overall deadline, in milliseconds
+     * @return this scatter-gather
+     */
+    public ScatterGather<T> deadline(final long deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Whether results shall be gathered even if fewer than required: if so, failed calls do not fail the outcome,
+     * which completes with the successful results as soon as no call is running, or at the deadline; otherwise
+     * the outcome fails as soon as the required results cannot be obtained. Disabled by default.
+     *
+     * @param partialResults whether partial results are acceptable
+     * @return this scatter-gather
+     */
+    public ScatterGather<T> partialResults(final boolean partialResults) {
+        this.partialResults = partialResults;
+        return this;
+    }
+
+    /**
+     * @return number of calls added so far
+     */
+    public int size() {
+        return invocations.size();
+    }
+
+    /**
+     * Sends all requests, without waiting for any response.
+     * Resources must belong to a RestClient configured with {@link ApacheHttpAsyncClientConfig}.
+     *
+     * @return future of the gathered results
+     * @throws IllegalArgumentException if the quorum exceeds the number of calls, or if any resource does not belong
+     * to a RestClient configured with ApacheHttpAsyncClientConfig
+     */
+    public GatherResponse<T> submit() {
+        if (required > invocations.size()) {
+            throw new IllegalArgumentException(
+                    "Quorum " + required + " exceeds number of calls " + invocations.size());
+        }
+
+        List<GatherResponse.Call<? extends T>> calls =
+                new ArrayList<GatherResponse.Call<? extends T>>(invocations.size());
+        try {
+            for (Invocation<? extends T> invocation : invocations) {
+                calls.add(invocation.send());
+            }
+        } catch (RuntimeException e) {
+            for (GatherResponse.Call<? extends T> call : calls) {
+                call.cancel();
+            }
+            throw e;
+        }
+
+        return new GatherResponse<T>(calls, required == -1 ? calls.size() : required, partialResults).
+                start(callTimeout, deadline);
+    }
+
+    private static final class Invocation<X> {
+
+        private final Resource resource;
+
+        private final String method;
+
+        private final Class<X> cls;
+
+        private final EntityType<X> entityType;
+
+        private final Object requestEntity;
+
+        static <X> Invocation<X> of(final Resource resource, final String method, final Class<X> cls,
+                final EntityType<X> entityType, final Object requestEntity) {
+
+            return new Invocation<X>(resource, method, cls, entityType, requestEntity);
+        }
+
+        private Invocation(final Resource resource, final String method, final Class<X> cls,
+                final EntityType<X> entityType, final Object requestEntity) {
+
+            this.resource = resource;
+            this.method = method;
+            this.cls = cls;
+            this.entityType = entityType;
+            this.requestEntity = requestEntity;
+        }
+
+        GatherResponse.Call<X> send() {
+            FutureClientResponse response = AsyncResources.send(resource, method, requestEntity);
+            return new GatherResponse.Call<X>(response,
+                    cls == null ? response.getEntityAsync(entityType) : response.getEntityAsync(cls));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client built by a connection handler, with its connection pool and I/O reactor; when sharing is enabled, the same
+ * instance is handed - by reference count - to all connection handlers whose configurations build identical
+ * clients, so that I/O dispatcher threads and pooled connections do not multiply with RestClient instances.
+ *
+ * @see ApacheHttpAsyncClientConfig#setSharedClient(boolean)
+ */
+class SharedClient implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedClient.class);
+
+    /**
+     * Builds a client, upon first acquisition.
+     */
+    interface Builder {
+
+        SharedClient build() throws NoSuchAlgorithmException, KeyManagementException, IOException;
+    }
+
+    /**
+     * Clients being shared, by settings they were built with; also guards reference counts.
+     */
+    private static final Map<List<Object>, SharedClient> SHARED = new HashMap<List<Object>, SharedClient>();
+
+    private final CloseableHttpAsyncClient client;
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+
+    private final IdleConnectionEvictor idleConnectionEvictor;
+
+    private final TlsSessionFactory tlsSessionFactory;
+
+    private final AtomicLong openedConnections;
+
+    private List<Object> key;
+
+    private int references;
+
+    SharedClient(final CloseableHttpAsyncClient client, final PoolingNHttpClientConnectionManager connectionManager,
+            final IdleConnectionEvictor idleConnectionEvictor, final TlsSessionFactory tlsSessionFactory,
+            final AtomicLong openedConnections) {
+
+        this.client = client;
+        this.connectionManager = connectionManager;
+        this.idleConnectionEvictor = idleConnectionEvictor;
+        this.tlsSessionFactory = tlsSessionFactory;
+        this.openedConnections = openedConnections;
+    }
+
+    /**
+     * Returns the client built with the given settings, building it if not shared yet; each acquisition must be
+     * followed by {@link #close()}.
+     *
+     * @param key settings the client is built with
+     * @param builder builder of the client
+     * @return shared client
+     */
+    static SharedClient acquire(final List<Object> key, final Builder builder)
+            throws NoSuchAlgorithmException, KeyManagementException, IOException {
+
+        synchronized (SHARED) {
+            SharedClient shared = SHARED.get(key);
+            if (shared == null) {
+                shared = builder.build();
+                shared.key = key;
+                SHARED.put(key, shared);
+            }
+            shared.references++;
+            LOG.debug("Client {} now shared by {} connection handlers", shared.client, shared.references);
+            return shared;
+        }
+    }
+
+    CloseableHttpAsyncClient getClient() {
+        return client;
+    }
+
+    PoolingNHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    /**
+     * @return TLS session factory, or null if the https scheme is not handled by this client
+     */
+    TlsSessionFactory getTlsSessionFactory() {
+        return tlsSessionFactory;
+    }
+
+    long getOpenedConnections() {
+        return openedConnections.get();
+    }
+
+    /**
+     * @return number of connection handlers this client was acquired by, and not yet closed
+     */
+    int getReferences() {
+        synchronized (SHARED) {
+            return references;
+        }
+    }
+
+    /**
+     * Closes the client, unless it is shared and still referenced by other connection handlers.
+     */
+    @Override
+    public void close() throws IOException {
+        if (key != null) {
+            synchronized (SHARED) {
+                if (--references > 0) {
+                    return;
+                }
+                SHARED.remove(key);
+            }
+        }
+
+        if (idleConnectionEvictor != null) {
+            idleConnectionEvictor.shutdown();
+        }
+        client.close();
+    }
+}
@@ -0,0 +1,225 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Response consumer handing the response over to FutureClientResponse as soon as headers are received, while the
+ * body flows through a bounded buffer: the I/O reactor suspends reading from the connection whenever the buffer is
+ * full, and resumes as soon as the entity stream gets read.
+ * Memory usage then depends on buffer size rather than on payload size; on the other hand, the connection is not
+ * released to the pool until the entity stream is fully read (or closed).
+ * FutureClientResponse is completed on the given executor rather than on the I/O dispatcher thread, as listeners
+ * reading the entity stream there would wait forever for the very thread that is to fill the buffer.
+ * If the exchange fails or is cancelled before the body is fully received, any further read from the entity stream
+ * throws IOException, rather than returning end of stream on truncated content.
+ */
+class StreamingResponseConsumer implements HttpAsyncResponseConsumer<HttpResponse> {
+
+    private final int bufferSize;
+
+    private final FutureClientResponse futureResponse;
+
+    private final Executor executor;
+
+    private volatile HttpResponse response;
+
+    private volatile SharedInputBuffer buffer;
+
+    private volatile Exception exception;
+
+    /**
+     * Why the body was cut off, if so; null while the body is being - or was fully - received.
+     */
+    private volatile IOException truncation;
+
+    private volatile boolean completed;
+
+    private volatile boolean done;
+
+    public StreamingResponseConsumer(final int bufferSize, final FutureClientResponse futureResponse,
+            final Executor executor) {
+
+        this.bufferSize = bufferSize;
+        this.futureResponse = futureResponse;
+        this.executor = executor;
+    }
+
+    @Override
+    public void responseReceived(final HttpResponse response) throws IOException, HttpException {
+        this.response = response;
+
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            this.buffer = new SharedInputBuffer(this.bufferSize, HeapByteBufferAllocator.INSTANCE);
+
+            BasicHttpEntity streamed = new BasicHttpEntity();
+            streamed.setContent(new BodyInputStream(new ContentInputStream(this.buffer)));
+            streamed.setContentLength(entity.getContentLength());
+            streamed.setContentType(entity.getContentType());
+            streamed.setContentEncoding(entity.getContentEncoding());
+            streamed.setChunked(entity.isChunked());
+            response.setEntity(streamed);
+
+            // headers are available: no need to wait for the body
+            try {
+                this.executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        futureResponse.completed(response);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                throw new IOException("Response cannot be handed over: connection handler was closed", e);
+            }
+        }
+    }
+
+    @Override
+    public void consumeContent(final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+        this.buffer.consumeContent(decoder, ioctrl);
+        if (decoder.isCompleted()) {
+            // input might have been suspended by the buffer being full: resume it before the connection goes back
+            // to the pool, otherwise the next request on the same connection would never receive its response
+            ioctrl.requestInput();
+        }
+    }
+
+    @Override
+    public void responseCompleted(final HttpContext context) {
+        this.completed = true;
+        this.done = true;
+    }
+
+    @Override
+    public void failed(final Exception ex) {
+        this.exception = ex;
+        this.done = true;
+        shutdownBuffer(ex instanceof IOException
+                ? (IOException) ex
+                : new IOException("Response body not fully received", ex));
+    }
+
+    @Override
+    public boolean cancel() {
+        this.done = true;
+        shutdownBuffer(new IOException("Response body not fully received: request was cancelled"));
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!this.completed) {
+            shutdownBuffer(new IOException("Response body not fully received: connection was released"));
+        }
+    }
+
+    private void shutdownBuffer(final IOException cause) {
+        if (this.truncation == null) {
+            this.truncation = cause;
+        }
+        // makes any reader blocked on the entity stream fail, rather than wait forever
+        SharedInputBuffer current = this.buffer;
+        if (current != null) {
+            current.shutdown();
+        }
+    }
+
+    @Override
+    public Exception getException() {
+        return this.exception;
+    }
+
+    @Override
+    public HttpResponse getResult() {
+        return this.response;
+    }
+
+    @Override
+    public boolean isDone() {
+        return this.done;
+    }
+
+    /**
+     * Entity stream failing with the truncation cause instead of returning end of stream - once the buffer is shut
+     * down, it returns -1 just like at the end of a complete body.
+     */
+    private class BodyInputStream extends InputStream {
+
+        private final ContentInputStream content;
+
+        BodyInputStream(final ContentInputStream content) {
+            this.content = content;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkTruncation();
+            int b = this.content.read();
+            if (b == -1) {
+                checkTruncation();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            checkTruncation();
+            int read = this.content.read(b, off, len);
+            if (read == -1) {
+                checkTruncation();
+            }
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return this.content.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.content.close();
+        }
+
+        private void checkTruncation() throws IOException {
+            IOException cause = truncation;
+            if (cause != null) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+/**
+ * Receiver of the elements published by a {@link Publisher}: after {@link #onSubscribe(Subscription)}, no element is
+ * received until requested via {@link Subscription#request(long)}, then at most as many as requested, followed by
+ * either {@link #onComplete()} or {@link #onError(Throwable)}; all methods are invoked serially.
+ * Mirrors <tt>org.reactivestreams.Subscriber</tt>.
+ *
+ * @param <T> element type
+ */
+public interface Subscriber<T> {
+
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T element);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+}
@@ -0,0 +1,41 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+/**
+ * One-to-one lifecycle of a {@link Subscriber} subscribing to a {@link Publisher}, signalling demand or cancellation;
+ * mirrors <tt>org.reactivestreams.Subscription</tt>.
+ */
+public interface Subscription {
+
+    /**
+     * Adds the given number of elements to the demand; non-positive values fail the subscription with
+     * IllegalArgumentException.
+     *
+     * @param n number of elements
+     */
+    void request(long n);
+
+    /**
+     * Requests the publisher to stop sending elements and to release resources; elements already in flight might
+     * still be received.
+     */
+    void cancel();
+}
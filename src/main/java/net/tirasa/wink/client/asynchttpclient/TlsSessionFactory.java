@@ -0,0 +1,127 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.nio.conn.ssl.SSLIOSessionFactory;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.nio.reactor.ssl.SSLIOSession;
+
+/**
+ * SSLIOSessionFactory applying the configured protocols and cipher suites, and counting TLS handshakes - telling
+ * full handshakes from resumed sessions.
+ * Sessions are resumed from the client session cache of the SSLContext, keyed by peer host and port: the same
+ * SSLContext must hence be used across connections, as it is for all connections of a handler.
+ */
+class TlsSessionFactory extends SSLIOSessionFactory {
+
+    /**
+     * IOSession attribute holding the TLS handshake start time.
+     */
+    private static final String HANDSHAKE_STARTED = TlsSessionFactory.class.getName() + ".handshakeStarted";
+
+    private final String[] protocols;
+
+    private final String[] cipherSuites;
+
+    private final AtomicLong handshakes = new AtomicLong();
+
+    private final AtomicLong resumedSessions = new AtomicLong();
+
+    /**
+     * @param sslContext SSL context
+     * @param hostnameVerifier hostname verifier
+     * @param protocols enabled protocols, or null for the SSL context defaults
+     * @param cipherSuites enabled cipher suites, or null for the SSL context defaults
+     */
+    TlsSessionFactory(final SSLContext sslContext, final X509HostnameVerifier hostnameVerifier,
+            final String[] protocols, final String[] cipherSuites) {
+
+        super(sslContext, hostnameVerifier);
+        this.protocols = protocols;
+        this.cipherSuites = cipherSuites;
+    }
+
+    @Override
+    public SSLIOSession create(final HttpHost host, final IOSession session) {
+        session.setAttribute(HANDSHAKE_STARTED, System.nanoTime());
+        return super.create(host, session);
+    }
+
+    @Override
+    protected void initializeEngine(final SSLEngine engine) {
+        if (protocols != null) {
+            engine.setEnabledProtocols(protocols);
+        }
+        if (cipherSuites != null) {
+            engine.setEnabledCipherSuites(cipherSuites);
+        }
+    }
+
+    @Override
+    protected void verifySession(final HttpHost host, final IOSession session, final SSLSession sslsession)
+            throws SSLException {
+
+        super.verifySession(host, session, sslsession);
+
+        handshakes.incrementAndGet();
+        Long started = (Long) session.getAttribute(HANDSHAKE_STARTED);
+        if (started != null) {
+            long nanos = System.nanoTime() - started;
+            // a resumed session was created by an earlier handshake
+            if (sslsession.getCreationTime() < System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(nanos)) {
+                resumedSessions.incrementAndGet();
+            }
+            handshakeCompleted(host, session, nanos);
+        }
+    }
+
+    /**
+     * Invoked on the I/O dispatcher thread once a handshake completed and the session was verified.
+     *
+     * @param host target host
+     * @param session I/O session
+     * @param nanos handshake duration
+     */
+    protected void handshakeCompleted(final HttpHost host, final IOSession session, final long nanos) {
+        // nothing to do by default
+    }
+
+    /**
+     * @return number of completed TLS handshakes, resumed sessions included
+     */
+    long getHandshakes() {
+        return handshakes.get();
+    }
+
+    /**
+     * @return number of TLS handshakes which resumed a cached session, rather than negotiating a new one
+     */
+    long getResumedSessions() {
+        return resumedSessions.get();
+    }
+}
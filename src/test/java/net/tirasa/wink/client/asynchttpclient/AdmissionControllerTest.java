@@ -0,0 +1,245 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.junit.After;
+import org.junit.Test;
+
+public class AdmissionControllerTest {
+
+    private static final HttpHost ROUTE = new HttpHost("127.0.0.1", 8080);
+
+    private static final HttpHost OTHER_ROUTE = new HttpHost("127.0.0.1", 8081);
+
+    private AdmissionController admission;
+
+    /**
+     * Records how the request was handled.
+     */
+    private static class RecordingRequest implements AdmissionController.Request {
+
+        private final BasicFuture<HttpResponse> response = new BasicFuture<HttpResponse>(null);
+
+        private volatile boolean executed;
+
+        private volatile RequestRejectedException rejection;
+
+        private volatile boolean cancelled;
+
+        @Override
+        public Future<HttpResponse> execute() {
+            executed = true;
+            return response;
+        }
+
+        @Override
+        public void rejected(final RequestRejectedException exception) {
+            rejection = exception;
+        }
+
+        @Override
+        public void cancelled() {
+            cancelled = true;
+        }
+    }
+
+    @After
+    public void shutdown() {
+        if (admission != null) {
+            admission.shutdown();
+        }
+    }
+
+    private RecordingRequest submit(final HttpHost route) {
+        RecordingRequest request = new RecordingRequest();
+        admission.submit(route, request);
+        return request;
+    }
+
+    @Test
+    public void globalCap() {
+        admission = new AdmissionController(2, 0, 10, 0);
+
+        RecordingRequest first = submit(ROUTE);
+        RecordingRequest second = submit(OTHER_ROUTE);
+        RecordingRequest third = submit(ROUTE);
+
+        assertTrue(first.executed);
+        assertTrue(second.executed);
+        assertFalse(third.executed);
+        assertEquals(2, admission.getInFlight());
+        assertEquals(1, admission.getQueued());
+
+        admission.release(OTHER_ROUTE);
+        assertTrue(third.executed);
+        assertEquals(2, admission.getInFlight());
+        assertEquals(0, admission.getQueued());
+    }
+
+    @Test
+    public void perRouteCap() {
+        admission = new AdmissionController(0, 1, 10, 0);
+
+        RecordingRequest first = submit(ROUTE);
+        RecordingRequest queued = submit(ROUTE);
+        RecordingRequest other = submit(OTHER_ROUTE);
+
+        assertTrue(first.executed);
+        assertFalse(queued.executed);
+        // a request towards another route is not held back by the queue
+        assertTrue(other.executed);
+
+        admission.release(OTHER_ROUTE);
+        assertFalse(queued.executed);
+        admission.release(ROUTE);
+        assertTrue(queued.executed);
+    }
+
+    @Test
+    public void queuedInOrder() {
+        admission = new AdmissionController(1, 0, 10, 0);
+
+        submit(ROUTE);
+        RecordingRequest second = submit(ROUTE);
+        RecordingRequest third = submit(ROUTE);
+
+        admission.release(ROUTE);
+        assertTrue(second.executed);
+        assertFalse(third.executed);
+        admission.release(ROUTE);
+        assertTrue(third.executed);
+    }
+
+    @Test
+    public void rejectedWhenQueueIsFull() throws InterruptedException {
+        admission = new AdmissionController(1, 0, 1, 0);
+
+        submit(ROUTE);
+        RecordingRequest queued = submit(ROUTE);
+        RecordingRequest rejected = new RecordingRequest();
+        Future<HttpResponse> future = admission.submit(ROUTE, rejected);
+
+        assertNull(queued.rejection);
+        assertFalse(rejected.executed);
+        assertTrue(rejected.rejection != null);
+        assertEquals(1, admission.getRejected());
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("Rejected request completed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestRejectedException);
+        }
+    }
+
+    @Test
+    public void rejectedAfterQueueTimeout() throws Exception {
+        admission = new AdmissionController(1, 0, 10, 100);
+
+        submit(ROUTE);
+        RecordingRequest queued = new RecordingRequest();
+        Future<HttpResponse> future = admission.submit(ROUTE, queued);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Queued request completed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestRejectedException);
+        }
+
+        assertFalse(queued.executed);
+        assertTrue(queued.rejection != null);
+        assertEquals(0, admission.getQueued());
+        assertEquals(1, admission.getRejected());
+
+        // the expired request does not take the slot once released
+        admission.release(ROUTE);
+        assertEquals(0, admission.getInFlight());
+        assertFalse(queued.executed);
+    }
+
+    @Test
+    public void cancelledWhileQueued() throws Exception {
+        admission = new AdmissionController(1, 0, 10, 0);
+
+        submit(ROUTE);
+        RecordingRequest queued = new RecordingRequest();
+        Future<HttpResponse> future = admission.submit(ROUTE, queued);
+
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertTrue(queued.cancelled);
+        assertEquals(0, admission.getQueued());
+        try {
+            future.get();
+            fail("Cancelled request completed");
+        } catch (CancellationException e) {
+            // expected
+        }
+
+        admission.release(ROUTE);
+        assertFalse(queued.executed);
+    }
+
+    @Test
+    public void queuedRequestsRejectedOnShutdown() {
+        admission = new AdmissionController(1, 0, 10, 0);
+
+        submit(ROUTE);
+        RecordingRequest queued = submit(ROUTE);
+        admission.shutdown();
+
+        assertTrue(queued.rejection != null);
+        assertTrue(submit(ROUTE).rejection != null);
+    }
+
+    @Test
+    public void slotReleasedWhenExecuteFails() {
+        admission = new AdmissionController(1, 0, 10, 0);
+
+        try {
+            admission.submit(ROUTE, new RecordingRequest() {
+
+                @Override
+                public Future<HttpResponse> execute() {
+                    throw new IllegalStateException();
+                }
+            });
+            fail("Failure was not propagated");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertEquals(0, admission.getInFlight());
+        assertTrue(submit(ROUTE).executed);
+    }
+}
@@ -0,0 +1,253 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import javax.net.ssl.SSLContext;
+import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.wink.client.ClientConfigException;
+import org.junit.Test;
+
+public class ApacheHttpAsyncClientConfigTest {
+
+    private static final HttpHost HOST = new HttpHost("api.example.com", 443, "https");
+
+    private static void assertInvalid(final ApacheHttpAsyncClientConfig config, final String message) {
+        try {
+            config.validate();
+            fail("Expected ClientConfigException with message containing: " + message);
+        } catch (ClientConfigException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void consistentSettingsAreValid() {
+        new ApacheHttpAsyncClientConfig().validate();
+
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setMaxPooledConnections(10);
+        config.setMaxConnectionsPerRoute(5);
+        config.setMaxConnectionsPerHost(HOST, 10);
+        config.setMaxInFlight(10);
+        config.setMaxInFlightPerRoute(5);
+        config.setMaxQueuedRequests(5);
+        config.setQueueTimeout(100);
+        config.setTlsProtocols("TLSv1.2");
+        config.setRetryPolicy(new RetryPolicy());
+        config.setCircuitBreakerPolicy(new CircuitBreakerPolicy());
+        config.addEndpointGroup(new EndpointGroup("api", HOST));
+        config.validate();
+    }
+
+    @Test
+    public void poolLimits() {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setMaxPooledConnections(-1);
+        assertInvalid(config, "maxPooledConnections");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setMaxConnectionsPerRoute(-1);
+        assertInvalid(config, "maxConnectionsPerRoute");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setMaxPooledConnections(10);
+        config.setMaxConnectionsPerRoute(11);
+        assertInvalid(config, "exceeds maxPooledConnections");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setMaxConnectionsPerHost(HOST, 0);
+        assertInvalid(config, "must be positive");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setMaxPooledConnections(10);
+        config.setMaxConnectionsPerHost(HOST, 11);
+        assertInvalid(config, "exceeds maxPooledConnections");
+    }
+
+    @Test
+    public void negativeTimeoutsAndSizes() {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setConnectionTimeToLive(-1);
+        assertInvalid(config, "connectionTimeToLive");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setIdleConnectionTimeout(-1);
+        assertInvalid(config, "idleConnectionTimeout");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setConnectionRequestTimeout(-1);
+        assertInvalid(config, "connectionRequestTimeout");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setIoThreadCount(-1);
+        assertInvalid(config, "ioThreadCount");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setSelectInterval(-1);
+        assertInvalid(config, "selectInterval");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setRcvBufSize(-1);
+        assertInvalid(config, "Socket buffer sizes");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setRequestTimeout(-1);
+        assertInvalid(config, "requestTimeout");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setMaxPooledBufferBytes(-1);
+        assertInvalid(config, "maxPooledBufferBytes");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setRequestCompressionThreshold(-1);
+        assertInvalid(config, "requestCompressionThreshold");
+    }
+
+    @Test
+    public void admissionSettings() {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setMaxInFlight(-1);
+        assertInvalid(config, "must not be negative");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setMaxInFlight(10);
+        config.setMaxInFlightPerRoute(11);
+        assertInvalid(config, "exceeds maxInFlight");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setMaxQueuedRequests(10);
+        assertInvalid(config, "require maxInFlight");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setMaxInFlight(10);
+        config.setQueueTimeout(100);
+        assertInvalid(config, "requires maxQueuedRequests");
+    }
+
+    @Test
+    public void tlsSettings() throws NoSuchAlgorithmException, KeyStoreException {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setSslContext(SSLContext.getDefault());
+        config.setTrustStore(KeyStore.getInstance(KeyStore.getDefaultType()));
+        assertInvalid(config, "provided SSL context");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setTlsProtocols();
+        assertInvalid(config, "must not be empty");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setCipherSuites();
+        assertInvalid(config, "must not be empty");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setSslSessionTimeout(-1);
+        assertInvalid(config, "sslSessionTimeout");
+    }
+
+    @Test
+    public void streamingIncompatibilities() {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setStreaming(true);
+        config.setResponseCache(new HttpResponseCache(1024));
+        assertInvalid(config, "Response cache");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setStreaming(true);
+        config.setCoalescing(true);
+        assertInvalid(config, "Request coalescing");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setStreaming(true);
+        config.setRetryPolicy(new RetryPolicy());
+        assertInvalid(config, "Retry policy");
+    }
+
+    @Test
+    public void nestedSettings() {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setJitter(2);
+        config.setRetryPolicy(retryPolicy);
+        assertInvalid(config, "jitter");
+
+        config = new ApacheHttpAsyncClientConfig();
+        CircuitBreakerPolicy circuitBreakerPolicy = new CircuitBreakerPolicy();
+        circuitBreakerPolicy.setWindowSize(0);
+        config.setCircuitBreakerPolicy(circuitBreakerPolicy);
+        assertInvalid(config, "windowSize");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.addEndpointGroup(new EndpointGroup("api", Collections.<HttpHost>emptyList()));
+        assertInvalid(config, "no endpoints");
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setMaxBlockingCallThreads(0);
+        assertInvalid(config, "maxBlockingCallThreads");
+    }
+
+    @Test
+    public void providedClientSettings() throws IOException {
+        CloseableHttpAsyncClient client = HttpAsyncClients.createDefault();
+        try {
+            new ApacheHttpAsyncClientConfig(client).validate();
+
+            ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig(client);
+            config.setMaxConnectionsPerHost(HOST, 10);
+            assertInvalid(config, "provided client");
+
+            config = new ApacheHttpAsyncClientConfig(client);
+            config.setIoThreadCount(2);
+            assertInvalid(config, "provided client");
+
+            config = new ApacheHttpAsyncClientConfig(client);
+            config.setSharedClient(true);
+            assertInvalid(config, "cannot be shared");
+
+            config = new ApacheHttpAsyncClientConfig(client);
+            config.setTlsProtocols("TLSv1.2");
+            assertInvalid(config, "TLS settings");
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void invalidSettingsPreventHandlerCreation() {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setMaxPooledConnections(10);
+        config.setMaxConnectionsPerRoute(11);
+        try {
+            config.getConnectionHandler();
+            fail();
+        } catch (ClientConfigException e) {
+            assertTrue(config.connectionHandlers.isEmpty());
+        }
+    }
+}
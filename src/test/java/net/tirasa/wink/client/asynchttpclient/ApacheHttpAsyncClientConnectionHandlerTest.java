@@ -0,0 +1,402 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.wink.client.ClientWebException;
+import org.apache.wink.client.RestClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ApacheHttpAsyncClientConnectionHandlerTest {
+
+    private static final int THREADS = 32;
+
+    private static final int REQUESTS_PER_THREAD = 10;
+
+    private HttpServer server;
+
+    private String baseURL;
+
+    private ExecutorService callers;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                byte[] body = exchange.getRequestURI().getPath().getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+        callers = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void stopServer() {
+        callers.shutdownNow();
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    @Test
+    public void concurrentFirstRequestsBuildOneClient() throws Exception {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        try {
+            ApacheHttpAsyncClientConnectionHandler handler = sendConcurrently(config);
+
+            assertNotNull(handler.getBuiltClient());
+            assertEquals(THREADS * REQUESTS_PER_THREAD, handler.getExecutedRequests());
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void concurrentFirstRequestsAcquireSharedClientOnce() throws Exception {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        config.setSharedClient(true);
+        // settings no other test uses, for not sharing the client with them
+        config.setMaxPooledConnections(97);
+        try {
+            ApacheHttpAsyncClientConnectionHandler handler = sendConcurrently(config);
+
+            SharedClient client = handler.getBuiltClient();
+            assertNotNull(client);
+            assertEquals(1, client.getReferences());
+            assertEquals(THREADS * REQUESTS_PER_THREAD, handler.getExecutedRequests());
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void reusedConnectionsAreCountedPerHandlerWithSharedClient() throws Exception {
+        ApacheHttpAsyncClientConfig first = new ApacheHttpAsyncClientConfig();
+        ApacheHttpAsyncClientConfig second = new ApacheHttpAsyncClientConfig();
+        for (ApacheHttpAsyncClientConfig config : new ApacheHttpAsyncClientConfig[] { first, second }) {
+            config.setCloseOnShutdown(false);
+            config.setSharedClient(true);
+            // settings no other test uses, for not sharing the client with them
+            config.setMaxPooledConnections(89);
+        }
+        try {
+            RestClient firstClient = new RestClient(first);
+            for (int i = 0; i < 3; i++) {
+                assertEquals("/first", firstClient.resource(baseURL + "/first").get(String.class));
+            }
+            RestClient secondClient = new RestClient(second);
+            for (int i = 0; i < 3; i++) {
+                assertEquals("/second", secondClient.resource(baseURL + "/second").get(String.class));
+            }
+
+            ApacheHttpAsyncClientConnectionHandler firstHandler = first.connectionHandlers.get(0);
+            ApacheHttpAsyncClientConnectionHandler secondHandler = second.connectionHandlers.get(0);
+            assertTrue(firstHandler.isSharedClient());
+            assertTrue(firstHandler.getBuiltClient() == secondHandler.getBuiltClient());
+            assertEquals(1, secondHandler.getOpenedConnections());
+
+            // the connection opened for the first handler's first request serves all the others
+            assertEquals(2, firstHandler.getReusedConnections());
+            assertEquals(3, secondHandler.getReusedConnections());
+        } finally {
+            second.close();
+            first.close();
+        }
+    }
+
+    @Test
+    public void serializedEntityIsSentAgainOnRetry() throws Exception {
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        server.createContext("/flaky", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+                received.add(body.toString("UTF-8"));
+
+                byte[] response = received.size() < 3 ? new byte[] { '-' } : body.toByteArray();
+                exchange.sendResponseHeaders(received.size() < 3 ? 503 : 200, response.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(response);
+                exchange.close();
+            }
+        });
+
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialBackoff(10);
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        config.setRetryPolicy(policy);
+        config.setChunked(false);
+        try {
+            StringBuilder entity = new StringBuilder();
+            for (int i = 0; i < 10000; i++) {
+                entity.append(i).append(' ');
+            }
+
+            // not chunked, a String entity is serialized by its provider into buffers, then sent
+            String response = new RestClient(config).resource(baseURL + "/flaky").
+                    contentType("text/plain").put(String.class, entity.toString());
+
+            assertEquals(entity.toString(), response);
+            assertEquals(3, received.size());
+            for (String body : received) {
+                assertEquals(entity.toString(), body);
+            }
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void byteArrayAndFileEntitiesKeepContentType() throws Exception {
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        server.createContext("/echo", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+                received.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+
+                byte[] response = body.toByteArray();
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(response);
+                exchange.close();
+            }
+        });
+
+        File file = File.createTempFile("entity", ".txt");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write("from file".getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        try {
+            RestClient client = new RestClient(config);
+
+            // explicit content type: sent as they are
+            assertEquals("from bytes", client.resource(baseURL + "/echo").contentType("text/plain; charset=UTF-8").
+                    post(String.class, "from bytes".getBytes("UTF-8")));
+            assertEquals("text/plain; charset=UTF-8", received.get(0));
+            assertEquals("from file", client.resource(baseURL + "/echo").contentType("text/csv").
+                    post(String.class, file));
+            assertEquals("text/csv", received.get(1));
+
+            // no content type: written by the entity provider, which sets it
+            assertEquals("from file", client.resource(baseURL + "/echo").post(String.class, file));
+            assertNotNull(received.get(2));
+        } finally {
+            config.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void deadlineAbortsStalledExchangeAndFreesConnection() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        server.createContext("/stalled", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    if (exchange.getRequestURI().getPath().endsWith("/body")) {
+                        // headers and part of the body, then nothing
+                        exchange.sendResponseHeaders(200, 10);
+                        exchange.getResponseBody().write('-');
+                        exchange.getResponseBody().flush();
+                    }
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        config.setSharedClient(false);
+        config.setMaxConnectionsPerRoute(1);
+        config.setRequestTimeout(500);
+        try {
+            RestClient client = new RestClient(config);
+            // with a single connection per route, each request can only be sent once the previous one freed it
+            for (String path : new String[] { "/stalled/headers", "/stalled/body" }) {
+                long start = System.currentTimeMillis();
+                try {
+                    AsyncResources.get(client.resource(baseURL + path), String.class).get(10, TimeUnit.SECONDS);
+                    fail();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof RequestTimeoutException);
+                }
+                assertTrue(System.currentTimeMillis() - start < 5000);
+            }
+
+            assertEquals("/available", AsyncResources.get(client.resource(baseURL + "/available"), String.class).
+                    get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            config.close();
+        }
+    }
+
+    @Test
+    public void closingDuringBackoffCompletesWithLastResponse() throws Exception {
+        final CountDownLatch hit = new CountDownLatch(1);
+        server.createContext("/unavailable", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                hit.countDown();
+                exchange.sendResponseHeaders(503, 1);
+                OutputStream os = exchange.getResponseBody();
+                os.write('-');
+                exchange.close();
+            }
+        });
+
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialBackoff(60000);
+        policy.setMaxBackoff(60000);
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        config.setRetryPolicy(policy);
+        ListenableFuture<String> response;
+        try {
+            response = AsyncResources.get(new RestClient(config).resource(baseURL + "/unavailable"), String.class);
+            assertTrue(hit.await(10, TimeUnit.SECONDS));
+            // let the first response be received, then the retry be scheduled
+            Thread.sleep(500);
+            assertTrue(!response.isDone());
+        } finally {
+            config.close();
+        }
+
+        // the retry will never be sent: the request fails with the last response instead of hanging
+        try {
+            response.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClientWebException);
+            assertEquals(503, ((ClientWebException) e.getCause()).getResponse().getStatusCode());
+        }
+    }
+
+    /**
+     * Sends requests from many threads released at once, so that the first requests race for building the client;
+     * checks that every request completes.
+     */
+    private ApacheHttpAsyncClientConnectionHandler sendConcurrently(final ApacheHttpAsyncClientConfig config)
+            throws Exception {
+
+        final RestClient client = new RestClient(config);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            results.add(callers.submit(new Callable<List<String>>() {
+
+                @Override
+                public List<String> call() throws Exception {
+                    start.await();
+                    List<ListenableFuture<String>> responses = new ArrayList<ListenableFuture<String>>();
+                    for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+                        responses.add(AsyncResources.get(
+                                client.resource(baseURL + "/" + thread + "/" + j), String.class));
+                    }
+                    List<String> bodies = new ArrayList<String>();
+                    for (ListenableFuture<String> response : responses) {
+                        bodies.add(response.get(30, TimeUnit.SECONDS));
+                    }
+                    return bodies;
+                }
+            }));
+        }
+        start.countDown();
+
+        for (int i = 0; i < THREADS; i++) {
+            List<String> bodies = results.get(i).get(60, TimeUnit.SECONDS);
+            assertEquals(REQUESTS_PER_THREAD, bodies.size());
+            for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+                assertEquals("/" + i + "/" + j, bodies.get(j));
+            }
+        }
+
+        assertEquals(1, config.connectionHandlers.size());
+        ApacheHttpAsyncClientConnectionHandler handler = config.connectionHandlers.get(0);
+        assertTrue(!handler.isClosed());
+        return handler;
+    }
+}
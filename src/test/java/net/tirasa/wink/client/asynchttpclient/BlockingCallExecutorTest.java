@@ -0,0 +1,266 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.wink.client.ClientConfigException;
+import org.apache.wink.client.RestClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockingCallExecutorTest {
+
+    private static final int CALLS = 200;
+
+    private HttpServer server;
+
+    private String baseURL;
+
+    private ApacheHttpAsyncClientConfig config;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                byte[] body = exchange.getRequestURI().getPath().getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+    }
+
+    @After
+    public void stop() throws IOException {
+        config.close();
+        server.stop(0);
+    }
+
+    private static boolean isVirtual(final Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (NoSuchMethodException e) {
+            return false;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sends blocking calls at once from the given executor, checking that all complete; returns the threads which
+     * ran them.
+     */
+    private Set<Thread> call(final BlockingCallExecutor calls) throws Exception {
+        final RestClient client = new RestClient(config);
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        List<ListenableFuture<String>> bodies = new ArrayList<ListenableFuture<String>>();
+        for (int i = 0; i < CALLS; i++) {
+            final String path = "/" + i;
+            bodies.add(calls.submit(new Callable<String>() {
+
+                @Override
+                public String call() {
+                    threads.add(Thread.currentThread());
+                    return client.resource(baseURL + path).get(String.class);
+                }
+            }));
+        }
+        for (int i = 0; i < CALLS; i++) {
+            assertEquals("/" + i, bodies.get(i).get(30, TimeUnit.SECONDS));
+        }
+        return threads;
+    }
+
+    @Test
+    public void virtualThreads() throws Exception {
+        assumeTrue(BlockingCallExecutor.isVirtualThreadsAvailable());
+
+        BlockingCallExecutor calls = config.getBlockingCallExecutor();
+        assertTrue(calls.isVirtual());
+        assertSame(calls, config.getBlockingCallExecutor());
+
+        for (Thread thread : call(calls)) {
+            assertTrue(isVirtual(thread));
+        }
+    }
+
+    @Test
+    public void platformThreadsWhenVirtualDisabled() throws Exception {
+        config.setVirtualThreads(false);
+        config.setMaxBlockingCallThreads(4);
+
+        BlockingCallExecutor calls = config.getBlockingCallExecutor();
+        assertFalse(calls.isVirtual());
+
+        Set<Thread> threads = call(calls);
+        assertTrue(threads.size() <= 4);
+        for (Thread thread : threads) {
+            assertFalse(isVirtual(thread));
+            assertTrue(thread.getName().startsWith("ApacheHttpAsyncClient-call-"));
+            assertTrue(thread.isDaemon());
+        }
+    }
+
+    @Test
+    public void platformThreadsBoundConcurrency() throws Exception {
+        BlockingCallExecutor calls = new BlockingCallExecutor(false, 2, 0);
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger maxRunning = new AtomicInteger();
+            List<ListenableFuture<Integer>> results = new ArrayList<ListenableFuture<Integer>>();
+            for (int i = 0; i < 6; i++) {
+                results.add(calls.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws InterruptedException {
+                        int now = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), now));
+                        }
+                        release.await();
+                        running.decrementAndGet();
+                        return now;
+                    }
+                }));
+            }
+            Thread.sleep(200);
+            assertEquals(2, running.get());
+
+            release.countDown();
+            for (ListenableFuture<Integer> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(2, maxRunning.get());
+        } finally {
+            calls.close();
+        }
+    }
+
+    @Test
+    public void cancellingInterruptsCall() throws Exception {
+        BlockingCallExecutor calls = new BlockingCallExecutor(false, 1, 0);
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch interrupted = new CountDownLatch(1);
+            ListenableFuture<Void> call = calls.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    started.countDown();
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                    return null;
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertTrue(call.cancel(true));
+            assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        } finally {
+            calls.close();
+        }
+    }
+
+    @Test
+    public void builtExecutorIsClosedWithConfiguration() throws Exception {
+        BlockingCallExecutor calls = config.getBlockingCallExecutor();
+        config.close();
+
+        try {
+            calls.submit(new Callable<String>() {
+
+                @Override
+                public String call() {
+                    return "";
+                }
+            }).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void providedExecutorIsLeftOpen() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            BlockingCallExecutor calls = new BlockingCallExecutor(pool);
+            config.setBlockingCallExecutor(calls);
+            assertSame(calls, config.getBlockingCallExecutor());
+            config.close();
+
+            assertFalse(pool.isShutdown());
+            assertEquals("/provided", calls.submit(new Callable<String>() {
+
+                @Override
+                public String call() {
+                    return "/provided";
+                }
+            }).get(10, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = ClientConfigException.class)
+    public void invalidMaxBlockingCallThreads() {
+        config.setMaxBlockingCallThreads(0);
+        config.getBlockingCallExecutor();
+    }
+}
@@ -0,0 +1,241 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.wink.client.ClientWebException;
+import org.apache.wink.client.RestClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BodyPublisherTest {
+
+    private static final int ITEMS = 10000;
+
+    private HttpServer server;
+
+    private String baseURL;
+
+    private ApacheHttpAsyncClientConfig config;
+
+    @Before
+    public void start() throws IOException {
+        StringBuilder items = new StringBuilder("{\"value\":[");
+        for (int i = 0; i < ITEMS; i++) {
+            items.append(i == 0 ? "" : ",").append('"').append(i).append('"');
+        }
+        final byte[] body = items.append("]}").toString().getBytes("UTF-8");
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                boolean error = exchange.getRequestURI().getPath().startsWith("/error");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(error ? 500 : 200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                try {
+                    os.write(body);
+                } catch (IOException e) {
+                    // client aborted
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        config.setStreaming(true);
+        config.setStreamingBufferSize(4096);
+        config.setSharedClient(false);
+        config.setMaxConnectionsPerRoute(1);
+    }
+
+    @After
+    public void stop() throws IOException {
+        config.close();
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    private Publisher<String> publisher(final RestClient client, final String path) {
+        return ((FutureClientResponse) client.resource(baseURL + path).get()).
+                getEntityPublisher(ElementDecoders.json("value", String.class));
+    }
+
+    @Test
+    public void elementsArePublishedOnDemand() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher(new RestClient(config), "/items").subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.received(1));
+        Thread.sleep(100);
+        assertEquals(1, subscriber.elements().size());
+
+        subscriber.subscription.request(ITEMS / 2);
+        assertTrue(subscriber.received(ITEMS / 2 + 1));
+        Thread.sleep(100);
+        assertEquals(ITEMS / 2 + 1, subscriber.elements().size());
+        assertEquals(1, subscriber.done.getCount());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.done.await(30, TimeUnit.SECONDS));
+        assertNull(subscriber.error.get());
+        List<String> elements = subscriber.elements();
+        assertEquals(ITEMS, elements.size());
+        for (int i = 0; i < ITEMS; i++) {
+            assertEquals(String.valueOf(i), elements.get(i));
+        }
+    }
+
+    @Test
+    public void cancellingReleasesConnection() throws Exception {
+        RestClient client = new RestClient(config);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher(client, "/items").subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.received(1));
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(1);
+        Thread.sleep(100);
+        assertEquals(1, subscriber.elements().size());
+        assertEquals(1, subscriber.done.getCount());
+
+        // the exchange is aborted rather than left waiting for the rest of the entity to be read
+        ApacheHttpAsyncClientConnectionHandler handler = config.connectionHandlers.get(0);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (handler.getPoolStats().getLeased() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, handler.getPoolStats().getLeased());
+
+        RecordingSubscriber next = new RecordingSubscriber();
+        publisher(client, "/next").subscribe(next);
+        next.subscription.request(Long.MAX_VALUE);
+        assertTrue(next.done.await(30, TimeUnit.SECONDS));
+        assertEquals(ITEMS, next.elements().size());
+    }
+
+    @Test
+    public void errorStatusFailsSubscription() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher(new RestClient(config), "/error").subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        assertTrue(subscriber.done.await(30, TimeUnit.SECONDS));
+        assertTrue(subscriber.error.get() instanceof ClientWebException);
+        assertEquals(500, ((ClientWebException) subscriber.error.get()).getResponse().getStatusCode());
+        assertTrue(subscriber.elements().isEmpty());
+    }
+
+    @Test
+    public void nonPositiveRequestFailsSubscription() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher(new RestClient(config), "/items").subscribe(subscriber);
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.done.await(30, TimeUnit.SECONDS));
+        assertTrue(subscriber.error.get() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void singleSubscriberIsAccepted() throws Exception {
+        Publisher<String> publisher = publisher(new RestClient(config), "/items");
+        RecordingSubscriber first = new RecordingSubscriber();
+        publisher.subscribe(first);
+
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(second);
+        assertEquals(0, second.done.getCount());
+        assertTrue(second.error.get() instanceof IllegalStateException);
+
+        first.subscription.request(Long.MAX_VALUE);
+        assertTrue(first.done.await(30, TimeUnit.SECONDS));
+        assertEquals(ITEMS, first.elements().size());
+    }
+
+    private static class RecordingSubscriber implements Subscriber<String> {
+
+        private final List<String> elements = new ArrayList<String>();
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        volatile Subscription subscription;
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public synchronized void onNext(final String element) {
+            elements.add(element);
+            notifyAll();
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error.set(throwable);
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        synchronized List<String> elements() {
+            return new ArrayList<String>(elements);
+        }
+
+        synchronized boolean received(final int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 30000;
+            while (elements.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            return elements.size() >= count;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import org.apache.http.nio.ContentEncoder;
+import org.junit.Test;
+
+public class BufferedEntityProducerTest {
+
+    private static final byte[] CONTENT = content();
+
+    private static byte[] content() {
+        byte[] content = new byte[10000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    private static BufferedEntityProducer producer(final ByteBufferPool pool) throws IOException {
+        BufferedEntityProducer producer = new BufferedEntityProducer(pool);
+        OutputStream out = producer.getOutputStream();
+        out.write(CONTENT, 0, 100);
+        out.write(CONTENT[100]);
+        out.write(CONTENT, 101, CONTENT.length - 101);
+        producer.seal();
+        return producer;
+    }
+
+    private static ByteBufferPool pool() {
+        return new ByteBufferPool(1024, 1024, 1024, true, 64 * 1024);
+    }
+
+    /**
+     * Takes at most 1500 bytes per write, as a congested channel would.
+     */
+    private static class RecordingEncoder implements ContentEncoder {
+
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        private boolean completed;
+
+        @Override
+        public int write(final ByteBuffer src) {
+            int size = Math.min(1500, src.remaining());
+            byte[] chunk = new byte[size];
+            src.get(chunk);
+            content.write(chunk, 0, size);
+            return size;
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return completed;
+        }
+    }
+
+    private static byte[] produce(final BufferedEntityProducer producer) throws IOException {
+        RecordingEncoder encoder = new RecordingEncoder();
+        for (int i = 0; i < 100 && !encoder.isCompleted(); i++) {
+            producer.produceContent(encoder, null);
+        }
+        assertTrue(encoder.isCompleted());
+        return encoder.content.toByteArray();
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[700];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void produce() throws IOException {
+        BufferedEntityProducer producer = producer(pool());
+        assertEquals(CONTENT.length, producer.getContentLength());
+        assertArrayEquals(CONTENT, produce(producer));
+    }
+
+    @Test
+    public void produceAgainAfterClose() throws IOException {
+        BufferedEntityProducer producer = producer(pool());
+        RecordingEncoder encoder = new RecordingEncoder();
+        producer.produceContent(encoder, null);
+        // exchange reset halfway, as for redirects or retries
+        producer.close();
+
+        assertTrue(producer.isRepeatable());
+        assertArrayEquals(CONTENT, produce(producer));
+        producer.close();
+        assertArrayEquals(CONTENT, produce(producer));
+    }
+
+    @Test
+    public void contentAndWriteTo() throws IOException {
+        BufferedEntityProducer producer = producer(pool());
+        producer.produceContent(new RecordingEncoder(), null);
+
+        assertArrayEquals(CONTENT, readFully(producer.getContent()));
+        assertArrayEquals(CONTENT, readFully(producer.getContent()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        producer.writeTo(out);
+        assertArrayEquals(CONTENT, out.toByteArray());
+    }
+
+    @Test
+    public void releaseReturnsBuffers() throws IOException {
+        ByteBufferPool pool = pool();
+        BufferedEntityProducer producer = producer(pool);
+        assertEquals(10, pool.getOutstanding());
+
+        producer.close();
+        assertEquals(10, pool.getOutstanding());
+
+        producer.release();
+        assertEquals(0, pool.getOutstanding());
+        try {
+            producer.produceContent(new RecordingEncoder(), null);
+            fail("Released entity was produced");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            producer.getContent();
+            fail("Released entity was read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void noWritesAfterSeal() throws IOException {
+        producer(pool()).getOutputStream().write(0);
+    }
+}
@@ -0,0 +1,98 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void sizeClasses() {
+        ByteBufferPool pool = new ByteBufferPool(3000, 1000, 10000, true, 1024 * 1024);
+
+        assertEquals(4096, pool.getBufferSize());
+        assertEquals(16384, pool.getMaxBufferSize());
+        assertEquals(1024, pool.acquire(1).capacity());
+        assertEquals(4096, pool.acquire().capacity());
+        assertEquals(16384, pool.acquire(16384).capacity());
+        // larger than the maximum size: not pooled
+        assertEquals(20000, pool.acquire(20000).capacity());
+    }
+
+    @Test
+    public void reuse() {
+        ByteBufferPool pool = new ByteBufferPool(1024, 1024, 4096, true, 1024 * 1024);
+
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        assertEquals(1, pool.getPooled());
+        assertEquals(0, pool.getOutstanding());
+
+        ByteBuffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(0, pool.getPooled());
+        assertEquals(1, pool.getOutstanding());
+    }
+
+    @Test
+    public void poolIsBounded() {
+        // 2 size classes, each keeping up to 2 buffers
+        ByteBufferPool pool = new ByteBufferPool(1024, 1024, 2048, true, 2 * 2 * 2048);
+
+        ByteBuffer[] buffers = new ByteBuffer[3];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(2048);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        assertEquals(2, pool.getPooled());
+        assertEquals(0, pool.getOutstanding());
+
+        // foreign buffers are not pooled
+        pool.release(ByteBuffer.allocate(1024));
+        pool.release(ByteBuffer.allocateDirect(1000));
+        assertEquals(2, pool.getPooled());
+    }
+
+    @Test
+    public void heapBuffersWhenPoolingIsDisabled() {
+        ByteBufferPool pool = new ByteBufferPool(1024, 1024, 4096, true, 0);
+
+        ByteBuffer buffer = pool.acquire();
+        assertFalse(buffer.isDirect());
+        pool.release(buffer);
+        assertEquals(0, pool.getPooled());
+        assertNotSame(buffer, pool.acquire());
+        assertEquals(2, pool.getMisses());
+    }
+}
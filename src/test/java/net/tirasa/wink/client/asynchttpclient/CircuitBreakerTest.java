@@ -0,0 +1,212 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.http.HttpHost;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private static final HttpHost ROUTE = new HttpHost("127.0.0.1", 8080);
+
+    private static final HttpHost OTHER_ROUTE = new HttpHost("127.0.0.1", 8081);
+
+    private final List<String> transitions = Collections.synchronizedList(new ArrayList<String>());
+
+    private CircuitBreakerPolicy policy;
+
+    @Before
+    public void policy() {
+        policy = new CircuitBreakerPolicy();
+        policy.setWindowSize(10);
+        policy.setMinimumRequests(4);
+        policy.setFailureRateThreshold(50);
+        policy.setOpenDuration(100);
+        policy.setHalfOpenProbes(2);
+    }
+
+    private CircuitBreaker breaker() {
+        return new CircuitBreaker(policy, Collections.<CircuitBreakerListener>singletonList(
+                new CircuitBreakerListener() {
+
+                    @Override
+                    public void stateChanged(final HttpHost route, final CircuitBreakerPolicy.State from,
+                            final CircuitBreakerPolicy.State to) {
+
+                        transitions.add(from + ">" + to);
+                    }
+                }));
+    }
+
+    private static void assertRejected(final CircuitBreaker breaker, final HttpHost route) {
+        try {
+            breaker.acquire(route);
+            fail("Request was let through");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+    }
+
+    private static void open(final CircuitBreaker breaker) throws CircuitOpenException {
+        for (int i = 0; i < 4; i++) {
+            breaker.acquire(ROUTE).completed(503, 1);
+        }
+        assertEquals(CircuitBreakerPolicy.State.OPEN, breaker.getState(ROUTE));
+    }
+
+    private void awaitOpenDuration() throws InterruptedException {
+        Thread.sleep(policy.getOpenDuration() + 20);
+    }
+
+    @Test
+    public void opensAtFailureRateThreshold() throws CircuitOpenException {
+        CircuitBreaker breaker = breaker();
+
+        breaker.acquire(ROUTE).completed(200, 1);
+        breaker.acquire(ROUTE).failed(1);
+        breaker.acquire(ROUTE).completed(500, 1);
+        // below minimum requests
+        assertEquals(CircuitBreakerPolicy.State.CLOSED, breaker.getState(ROUTE));
+
+        breaker.acquire(ROUTE).completed(404, 1);
+        // 2 of 4 failed
+        assertEquals(CircuitBreakerPolicy.State.OPEN, breaker.getState(ROUTE));
+        assertEquals(Collections.singletonList("CLOSED>OPEN"), transitions);
+
+        assertRejected(breaker, ROUTE);
+        assertEquals(1, breaker.getRejected());
+        assertEquals(1, breaker.getOpen());
+
+        // other routes are not affected
+        breaker.acquire(OTHER_ROUTE).completed(200, 1);
+        assertEquals(CircuitBreakerPolicy.State.CLOSED, breaker.getState(OTHER_ROUTE));
+    }
+
+    @Test
+    public void slidingWindowForgetsOldOutcomes() throws CircuitOpenException {
+        CircuitBreaker breaker = breaker();
+
+        for (int i = 0; i < 8; i++) {
+            breaker.acquire(ROUTE).completed(200, 1);
+        }
+        for (int i = 0; i < 4; i++) {
+            breaker.acquire(ROUTE).failed(1);
+        }
+        // 4 failed of 12, or of the last 10
+        assertEquals(CircuitBreakerPolicy.State.CLOSED, breaker.getState(ROUTE));
+
+        // 5 failed of 13, but of the last 10 as well
+        breaker.acquire(ROUTE).failed(1);
+        assertEquals(CircuitBreakerPolicy.State.OPEN, breaker.getState(ROUTE));
+    }
+
+    @Test
+    public void opensAtSlowCallRateThreshold() throws CircuitOpenException {
+        policy.setSlowCallDuration(100);
+        policy.setSlowCallRateThreshold(50);
+        CircuitBreaker breaker = breaker();
+
+        breaker.acquire(ROUTE).completed(200, 10);
+        breaker.acquire(ROUTE).completed(200, 150);
+        breaker.acquire(ROUTE).completed(200, 10);
+        // aborted after a long time: slow, not failed
+        breaker.acquire(ROUTE).aborted(150);
+
+        assertEquals(CircuitBreakerPolicy.State.OPEN, breaker.getState(ROUTE));
+    }
+
+    @Test
+    public void closesAfterSuccessfulProbes() throws Exception {
+        CircuitBreaker breaker = breaker();
+        open(breaker);
+        assertRejected(breaker, ROUTE);
+
+        awaitOpenDuration();
+        CircuitBreaker.Permit first = breaker.acquire(ROUTE);
+        assertEquals(CircuitBreakerPolicy.State.HALF_OPEN, breaker.getState(ROUTE));
+        CircuitBreaker.Permit second = breaker.acquire(ROUTE);
+        // no more probes than configured
+        assertRejected(breaker, ROUTE);
+
+        first.completed(200, 1);
+        assertEquals(CircuitBreakerPolicy.State.HALF_OPEN, breaker.getState(ROUTE));
+        second.completed(200, 1);
+        assertEquals(CircuitBreakerPolicy.State.CLOSED, breaker.getState(ROUTE));
+        assertEquals(0, breaker.getOpen());
+
+        assertEquals(3, transitions.size());
+        assertEquals("CLOSED>OPEN", transitions.get(0));
+        assertEquals("OPEN>HALF_OPEN", transitions.get(1));
+        assertEquals("HALF_OPEN>CLOSED", transitions.get(2));
+    }
+
+    @Test
+    public void failedProbeOpensAgain() throws Exception {
+        CircuitBreaker breaker = breaker();
+        open(breaker);
+
+        awaitOpenDuration();
+        breaker.acquire(ROUTE).failed(1);
+
+        assertEquals(CircuitBreakerPolicy.State.OPEN, breaker.getState(ROUTE));
+        assertEquals("HALF_OPEN>OPEN", transitions.get(transitions.size() - 1));
+        assertRejected(breaker, ROUTE);
+    }
+
+    @Test
+    public void releasedProbeLetsAnotherThrough() throws Exception {
+        policy.setHalfOpenProbes(1);
+        CircuitBreaker breaker = breaker();
+        open(breaker);
+
+        awaitOpenDuration();
+        CircuitBreaker.Permit probe = breaker.acquire(ROUTE);
+        assertRejected(breaker, ROUTE);
+
+        // aborted quickly: tells nothing about the route
+        probe.aborted(1);
+        breaker.acquire(ROUTE).completed(200, 1);
+        assertEquals(CircuitBreakerPolicy.State.CLOSED, breaker.getState(ROUTE));
+    }
+
+    @Test
+    public void outcomesOfPreviousStatesAreIgnored() throws Exception {
+        CircuitBreaker breaker = breaker();
+        CircuitBreaker.Permit late = breaker.acquire(ROUTE);
+        open(breaker);
+
+        awaitOpenDuration();
+        CircuitBreaker.Permit probe = breaker.acquire(ROUTE);
+        // sent while closed, failing while half-open
+        late.failed(1);
+        assertEquals(CircuitBreakerPolicy.State.HALF_OPEN, breaker.getState(ROUTE));
+
+        probe.completed(200, 1);
+        breaker.acquire(ROUTE).completed(200, 1);
+        assertEquals(CircuitBreakerPolicy.State.CLOSED, breaker.getState(ROUTE));
+    }
+}
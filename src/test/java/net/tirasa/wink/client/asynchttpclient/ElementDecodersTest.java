@@ -0,0 +1,201 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.namespace.QName;
+import org.apache.wink.common.model.atom.AtomEntry;
+import org.junit.Test;
+
+public class ElementDecodersTest {
+
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class Item {
+
+        public String name;
+
+        public int size;
+    }
+
+    private static final class TrackingStream extends ByteArrayInputStream {
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        public TrackingStream(final String content) throws IOException {
+            super(content.getBytes("UTF-8"));
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed.set(true);
+            super.close();
+        }
+    }
+
+    private static <T> List<T> decode(final ElementDecoder<T> decoder, final InputStream entity) throws IOException {
+        List<T> elements = new ArrayList<T>();
+        ElementDecoder.Reader<T> reader = decoder.open(entity);
+        try {
+            T element;
+            while ((element = reader.read()) != null) {
+                elements.add(element);
+            }
+        } finally {
+            reader.close();
+        }
+        return elements;
+    }
+
+    @Test
+    public void chunks() throws IOException {
+        TrackingStream entity = new TrackingStream("0123456789");
+        List<ByteBuffer> chunks = decode(ElementDecoders.chunks(4), entity);
+
+        assertTrue(entity.closed.get());
+        StringBuilder read = new StringBuilder();
+        for (ByteBuffer chunk : chunks) {
+            assertTrue(chunk.remaining() <= 4);
+            while (chunk.hasRemaining()) {
+                read.append((char) chunk.get());
+            }
+        }
+        assertEquals("0123456789", read.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidChunkSize() {
+        ElementDecoders.chunks(0);
+    }
+
+    @Test
+    public void xmlElementsAtAnyDepth() throws IOException {
+        TrackingStream entity = new TrackingStream("<?xml version=\"1.0\"?>"
+                + "<catalog><item><name>first</name><size>1</size></item>"
+                + "<section><s:item xmlns:s=\"urn:section\"><name>second</name><size>2</size></s:item></section>"
+                + "<other><name>ignored</name></other>"
+                + "<item><name>third</name><size>3</size></item></catalog>");
+        List<Item> items = decode(ElementDecoders.xml(new QName("item"), Item.class), entity);
+
+        assertTrue(entity.closed.get());
+        assertEquals(3, items.size());
+        assertEquals("first", items.get(0).name);
+        assertEquals(2, items.get(1).size);
+        assertEquals("third", items.get(2).name);
+    }
+
+    @Test
+    public void xmlElementsInNamespace() throws IOException {
+        List<Item> items = decode(ElementDecoders.xml(new QName("urn:section", "item"), Item.class),
+                new TrackingStream("<catalog><item><name>first</name></item>"
+                        + "<s:item xmlns:s=\"urn:section\"><name>second</name></s:item></catalog>"));
+
+        assertEquals(1, items.size());
+        assertEquals("second", items.get(0).name);
+    }
+
+    @Test
+    public void malformedXmlFailsReading() throws IOException {
+        ElementDecoder.Reader<Item> reader = ElementDecoders.xml(new QName("item"), Item.class).
+                open(new TrackingStream("<catalog><item><name>first</name></item><item>"));
+        try {
+            assertEquals("first", reader.read().name);
+            reader.read();
+            fail();
+        } catch (IOException e) {
+            // expected
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void xmlExternalEntitiesAreNotResolved() throws IOException {
+        try {
+            decode(ElementDecoders.xml(new QName("item"), Item.class), new TrackingStream(
+                    "<!DOCTYPE catalog [<!ENTITY secret SYSTEM \"file:///etc/hostname\">]>"
+                    + "<catalog><item><name>&secret;</name></item></catalog>"));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void atomEntries() throws IOException {
+        List<AtomEntry> entries = decode(ElementDecoders.atomEntries(), new TrackingStream(
+                "<feed xmlns=\"http://www.w3.org/2005/Atom\"><title>feed</title>"
+                + "<entry><id>1</id><title>first</title></entry>"
+                + "<entry><id>2</id><title>second</title></entry></feed>"));
+
+        assertEquals(2, entries.size());
+        assertEquals("1", entries.get(0).getId());
+        assertEquals("second", entries.get(1).getTitle().getValue());
+    }
+
+    @Test
+    public void jsonRootArray() throws IOException {
+        TrackingStream entity = new TrackingStream("[{\"name\":\"first\",\"size\":1},{\"name\":\"second\",\"size\":2}]");
+        List<Item> items = decode(ElementDecoders.json(Item.class), entity);
+
+        assertTrue(entity.closed.get());
+        assertEquals(2, items.size());
+        assertEquals("first", items.get(0).name);
+        assertEquals(2, items.get(1).size);
+    }
+
+    @Test
+    public void jsonArrayField() throws IOException {
+        List<Item> items = decode(ElementDecoders.json("value", Item.class), new TrackingStream(
+                "{\"tags\":[\"a\",\"b\"],\"d\":{\"value\":[{\"name\":\"first\"},{\"name\":\"second\"}]}}"));
+
+        assertEquals(2, items.size());
+        assertEquals("second", items.get(1).name);
+
+        List<String> tags = decode(ElementDecoders.json(String.class), new TrackingStream(
+                "{\"tags\":[\"a\",\"b\"],\"value\":[{\"name\":\"first\"}]}"));
+        assertEquals(2, tags.size());
+        assertEquals("a", tags.get(0));
+    }
+
+    @Test
+    public void jsonWithoutArray() throws IOException {
+        ElementDecoder.Reader<Item> reader = ElementDecoders.json("value", Item.class).
+                open(new TrackingStream("{\"other\":[{\"name\":\"first\"}]}"));
+        try {
+            assertNull(reader.read());
+            assertNull(reader.read());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.junit.Test;
+
+public class GatherResponseTest {
+
+    private final List<ListenableFuture<String>> entities = new ArrayList<ListenableFuture<String>>();
+
+    private final List<FutureClientResponse> responses = new ArrayList<FutureClientResponse>();
+
+    /**
+     * Gathers the given number of calls, whose outcomes are then set by each test.
+     */
+    private GatherResponse<String> gather(final int calls, final int required, final boolean partialResults) {
+        List<GatherResponse.Call<? extends String>> gathered = new ArrayList<GatherResponse.Call<? extends String>>();
+        for (int i = 0; i < calls; i++) {
+            ListenableFuture<String> entity = new ListenableFuture<String>();
+            FutureClientResponse response = new FutureClientResponse(null, null, null);
+            entities.add(entity);
+            responses.add(response);
+            gathered.add(new GatherResponse.Call<String>(response, entity));
+        }
+        return new GatherResponse<String>(gathered, required, partialResults).start(0, 0);
+    }
+
+    private static Throwable failure(final GatherResponse<String> gather) throws InterruptedException {
+        try {
+            gather.get();
+            fail("Gathering completed");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    @Test
+    public void allOfKeepsCallOrder() throws Exception {
+        GatherResponse<String> gather = gather(3, 3, false);
+
+        entities.get(2).completed("c");
+        entities.get(0).completed("a");
+        assertFalse(gather.isDone());
+        entities.get(1).completed("b");
+
+        assertEquals(Arrays.asList("a", "b", "c"), gather.get());
+        assertEquals(3, gather.getSucceeded());
+        assertEquals(0, gather.getFailed());
+    }
+
+    @Test
+    public void allOfFailsFast() throws Exception {
+        GatherResponse<String> gather = gather(3, 3, false);
+
+        entities.get(0).completed("a");
+        IOException exception = new IOException("refused");
+        entities.get(1).failed(exception);
+
+        assertSame(exception, failure(gather));
+        // the call still running is cancelled
+        assertTrue(entities.get(2).isCancelled());
+        assertTrue(responses.get(2).isCancelled());
+    }
+
+    @Test
+    public void anyOfCompletesWithFirstSuccess() throws Exception {
+        GatherResponse<String> gather = gather(3, 1, false);
+
+        entities.get(1).failed(new IOException("refused"));
+        assertFalse(gather.isDone());
+        entities.get(2).completed("c");
+
+        assertEquals(Collections.singletonList("c"), gather.get());
+        assertTrue(entities.get(0).isCancelled());
+        assertEquals(1, gather.getFailed());
+    }
+
+    @Test
+    public void anyOfFailsWhenAllFail() throws Exception {
+        GatherResponse<String> gather = gather(2, 1, false);
+
+        entities.get(0).failed(new IOException("first"));
+        assertFalse(gather.isDone());
+        IOException last = new IOException("last");
+        entities.get(1).failed(last);
+
+        assertSame(last, failure(gather));
+    }
+
+    @Test
+    public void quorum() throws Exception {
+        GatherResponse<String> gather = gather(3, 2, false);
+
+        entities.get(0).failed(new IOException("refused"));
+        entities.get(2).completed("c");
+        assertFalse(gather.isDone());
+        entities.get(1).completed("b");
+
+        assertEquals(Arrays.asList("b", "c"), gather.get());
+    }
+
+    @Test
+    public void quorumUnreachable() throws Exception {
+        GatherResponse<String> gather = gather(3, 2, false);
+
+        entities.get(0).completed("a");
+        entities.get(1).failed(new IOException("first"));
+        assertFalse(gather.isDone());
+        IOException second = new IOException("second");
+        entities.get(2).failed(second);
+
+        assertSame(second, failure(gather));
+    }
+
+    @Test
+    public void partialResultsOnceAllCallsAreDone() throws Exception {
+        GatherResponse<String> gather = gather(3, 3, true);
+
+        entities.get(0).completed("a");
+        entities.get(1).failed(new IOException("refused"));
+        assertFalse(gather.isDone());
+        entities.get(2).completed("c");
+
+        assertEquals(Arrays.asList("a", "c"), gather.get());
+        assertEquals(2, gather.getSucceeded());
+        assertEquals(1, gather.getFailed());
+    }
+
+    @Test
+    public void cancelledCallsCountAsFailed() throws Exception {
+        GatherResponse<String> gather = gather(2, 2, true);
+
+        entities.get(0).cancel(true);
+        entities.get(1).completed("b");
+
+        assertEquals(Collections.singletonList("b"), gather.get());
+        assertEquals(1, gather.getFailed());
+    }
+
+    @Test
+    public void cancellingCancelsCalls() {
+        GatherResponse<String> gather = gather(2, 2, false);
+        entities.get(0).completed("a");
+
+        assertTrue(gather.cancel(true));
+        assertFalse(entities.get(0).isCancelled());
+        assertTrue(entities.get(1).isCancelled());
+        assertTrue(responses.get(1).isCancelled());
+
+        // late outcomes are ignored
+        entities.get(1).completed("b");
+        assertEquals(1, gather.getSucceeded());
+    }
+
+    @Test
+    public void noCalls() throws Exception {
+        assertEquals(Collections.<String>emptyList(), gather(0, 0, false).get());
+    }
+}
@@ -0,0 +1,138 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import javax.ws.rs.core.HttpHeaders;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.CharArrayBuffer;
+import org.junit.Test;
+
+public class HeaderMapTest {
+
+    private static HeaderMap headers() {
+        return new HeaderMap(new Header[] {
+            new BasicHeader("content-type", "application/json"),
+            new BasicHeader("Set-Cookie", "a=1"),
+            new BasicHeader("set-cookie", "b=2"),
+            new BasicHeader("X-Custom", "custom"),
+            new BasicHeader("X-Empty", null)
+        });
+    }
+
+    @Test
+    public void lookupsIgnoreCase() {
+        HeaderMap headers = headers();
+
+        assertEquals("application/json", headers.getFirst(HttpHeaders.CONTENT_TYPE));
+        assertEquals("application/json", headers.getFirst("CONTENT-TYPE"));
+        assertEquals("a=1", headers.getFirst("set-cookie"));
+        assertEquals("custom", headers.getFirst("x-custom"));
+        assertNull(headers.getFirst("Location"));
+        assertNull(headers.getFirst(null));
+
+        assertTrue(headers.containsKey("X-CUSTOM"));
+        assertTrue(headers.containsKey("x-empty"));
+        assertFalse(headers.containsKey("Location"));
+        assertFalse(headers.containsKey(1));
+        assertFalse(headers.isEmpty());
+    }
+
+    @Test
+    public void lookupsIgnoreCaseUnderAnyLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertEquals("custom", headers().getFirst("x-custom"));
+            assertEquals("custom", headers().getFirst("X-CUSTOM"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void multipleValues() {
+        HeaderMap headers = headers();
+
+        assertEquals(Arrays.asList("a=1", "b=2"), headers.get("SET-COOKIE"));
+        assertNull(headers.get("Location"));
+        assertEquals(4, headers.size());
+        assertEquals(4, headers.keySet().size());
+    }
+
+    @Test
+    public void lookupsAfterCopy() {
+        HeaderMap headers = headers();
+        headers.add("Location", "http://localhost/");
+        headers.putSingle("x-custom", "changed");
+
+        assertEquals("http://localhost/", headers.getFirst("location"));
+        assertEquals("changed", headers.getFirst("X-Custom"));
+        assertEquals(Collections.singletonList("changed"), headers.get("X-CUSTOM"));
+        assertTrue(headers.containsKey("LOCATION"));
+
+        assertEquals(Arrays.asList("a=1", "b=2"), headers.remove("set-cookie"));
+        assertFalse(headers.containsKey("Set-Cookie"));
+        assertNull(headers.remove("Set-Cookie"));
+
+        headers.clear();
+        assertTrue(headers.isEmpty());
+    }
+
+    @Test
+    public void removeBeforeCopy() {
+        HeaderMap headers = headers();
+        assertNull(headers.remove("Location"));
+        assertEquals(Collections.singletonList("custom"), headers.remove("x-custom"));
+        assertNull(headers.getFirst("X-Custom"));
+    }
+
+    @Test
+    public void emptyHeaders() {
+        HeaderMap headers = new HeaderMap(new Header[0]);
+        assertTrue(headers.isEmpty());
+        assertEquals(0, headers.size());
+        assertNull(headers.getFirst(HttpHeaders.CONTENT_TYPE));
+    }
+
+    @Test
+    public void commonNamesAreInterned() {
+        assertSame(HttpHeaders.CONTENT_TYPE, HeaderNames.intern("content-type"));
+        assertSame(HttpHeaders.CONTENT_TYPE, HeaderNames.intern(new String("Content-Type")));
+        assertEquals("X-Custom", HeaderNames.intern("X-Custom"));
+
+        CharArrayBuffer buffer = new CharArrayBuffer(64);
+        buffer.append("ETAG : \"1\"");
+        assertSame(HttpHeaders.ETAG, HeaderNames.intern(buffer, 0, buffer.indexOf(':')));
+
+        buffer.clear();
+        buffer.append(" X-Custom: 1");
+        assertEquals("X-Custom", HeaderNames.intern(buffer, 0, buffer.indexOf(':')));
+    }
+}
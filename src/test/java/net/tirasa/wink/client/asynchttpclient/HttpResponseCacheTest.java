@@ -0,0 +1,158 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Locale;
+import javax.ws.rs.HttpMethod;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.apache.wink.client.ClientRequest;
+import org.apache.wink.client.internal.handlers.ClientRequestImpl;
+import org.junit.Test;
+
+public class HttpResponseCacheTest {
+
+    private static final String URL = "http://localhost/resource";
+
+    private static ClientRequest request(final String cacheControl) {
+        ClientRequest request = new ClientRequestImpl();
+        request.setMethod(HttpMethod.GET);
+        request.setURI(URI.create(URL));
+        if (cacheControl != null) {
+            request.getHeaders().add("Cache-Control", cacheControl);
+        }
+        return request;
+    }
+
+    /**
+     * Stores a response which is already as old as the given age.
+     */
+    private static void store(final HttpResponseCache cache, final String cacheControl, final int age)
+            throws IOException {
+
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.addHeader("Date", DateUtils.formatDate(new java.util.Date()));
+        response.addHeader("Cache-Control", cacheControl);
+        response.addHeader("Age", String.valueOf(age));
+        response.addHeader("ETag", "\"v1\"");
+        response.setEntity(new StringEntity("cached"));
+        cache.exchange(request(null)).completed(response);
+    }
+
+    @Test
+    public void freshEntryIsServed() throws IOException {
+        HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+        store(cache, "max-age=60", 0);
+
+        HttpResponse fresh = cache.exchange(request(null)).getFreshResponse();
+        assertNotNull(fresh);
+        assertEquals("cached", EntityUtils.toString(fresh.getEntity()));
+        assertNull(fresh.getFirstHeader("Warning"));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void staleEntryIsRevalidated() throws IOException {
+        HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+        store(cache, "max-age=5", 10);
+
+        assertNull(cache.exchange(request(null)).getFreshResponse());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void maxStaleServesStaleEntryWithWarning() throws IOException {
+        HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+        store(cache, "max-age=5", 10);
+
+        HttpResponse stale = cache.exchange(request("max-stale")).getFreshResponse();
+        assertNotNull(stale);
+        assertEquals("110 - \"Response is stale\"", stale.getFirstHeader("Warning").getValue());
+
+        assertNotNull(cache.exchange(request("max-stale=60")).getFreshResponse());
+        assertNull(cache.exchange(request("max-stale=2")).getFreshResponse());
+    }
+
+    @Test
+    public void mustRevalidateOverridesMaxStale() throws IOException {
+        HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+        store(cache, "max-age=5, must-revalidate", 10);
+
+        assertNull(cache.exchange(request("max-stale")).getFreshResponse());
+    }
+
+    @Test
+    public void conditionalRequestsBypassCacheUnderAnyLocale() throws IOException {
+        HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+        store(cache, "max-age=60", 0);
+
+        Locale defaultLocale = Locale.getDefault();
+        // "IF-".toLowerCase() is not "if-" in Turkish
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            ClientRequest conditional = request(null);
+            conditional.getHeaders().add("IF-NONE-MATCH", "\"v1\"");
+            assertNull(cache.exchange(conditional));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void entryEvictedToDiskIsPromoted() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "cache-test-" + System.nanoTime());
+        // room for a single entry in memory
+        HttpResponseCache cache = new HttpResponseCache(400, directory, 1024 * 1024);
+        try {
+            store(cache, "max-age=60", 0);
+            BasicHttpResponse other = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+            other.addHeader("Cache-Control", "max-age=60");
+            other.setEntity(new StringEntity("other"));
+            ClientRequest otherRequest = request(null);
+            otherRequest.setURI(URI.create(URL + "/other"));
+            cache.exchange(otherRequest).completed(other);
+            assertEquals(1, cache.getEvictions());
+
+            // entries are written to disk in background
+            HttpResponse fresh = null;
+            for (int i = 0; i < 100 && fresh == null; i++) {
+                Thread.sleep(20);
+                fresh = cache.exchange(request(null)).getFreshResponse();
+            }
+            assertNotNull(fresh);
+            assertEquals("cached", EntityUtils.toString(fresh.getEntity()));
+        } finally {
+            cache.clear();
+            cache.shutdown();
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import org.junit.Test;
+
+public class InflatingInputStreamTest {
+
+    private static final byte[] CONTENT = content();
+
+    private static byte[] content() {
+        // compressible, yet spanning several input buffers once compressed
+        byte[] content = new byte[256 * 1024];
+        Random random = new Random(42);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return content;
+    }
+
+    private static byte[] gzip(final byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(bytes);
+        out.write(content);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(final byte[] content, final boolean nowrap) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+        out.write(content);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    private static InputStream decode(final byte[] encoded, final String contentEncoding) {
+        return InflatingInputStream.decode(new ByteArrayInputStream(encoded), contentEncoding, new InflaterPool(4));
+    }
+
+    @Test
+    public void gzip() throws IOException {
+        assertArrayEquals(CONTENT, readFully(decode(gzip(CONTENT), "gzip")));
+        assertArrayEquals(CONTENT, readFully(decode(gzip(CONTENT), " x-gzip ")));
+    }
+
+    @Test
+    public void zlibWrappedDeflate() throws IOException {
+        assertArrayEquals(CONTENT, readFully(decode(deflate(CONTENT, false), "deflate")));
+    }
+
+    @Test
+    public void rawDeflate() throws IOException {
+        assertArrayEquals(CONTENT, readFully(decode(deflate(CONTENT, true), "deflate")));
+    }
+
+    @Test
+    public void emptyGzip() throws IOException {
+        assertArrayEquals(new byte[0], readFully(decode(gzip(new byte[0]), "gzip")));
+    }
+
+    @Test
+    public void unsupportedCodingIsNotDecoded() {
+        assertNull(decode(new byte[0], "br"));
+        assertNull(decode(new byte[0], "identity"));
+    }
+
+    @Test
+    public void codingIsMatchedUnderAnyLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        // "X-GZIP".toLowerCase() is not "x-gzip" in Turkish
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertNotNull(decode(new byte[0], "X-GZIP"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void corruptTrailerFails() throws IOException {
+        byte[] encoded = gzip(CONTENT);
+        // CRC is the first field of the trailer
+        encoded[encoded.length - 8] ^= 0xFF;
+        readFully(decode(encoded, "gzip"));
+    }
+
+    @Test(expected = ZipException.class)
+    public void notGzipFails() throws IOException {
+        readFully(decode(deflate(CONTENT, false), "gzip"));
+    }
+
+    @Test
+    public void truncatedGzipFails() throws IOException {
+        byte[] encoded = gzip(CONTENT);
+        byte[] truncated = new byte[encoded.length / 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        try {
+            readFully(decode(truncated, "gzip"));
+            fail("Truncated stream was decoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void inflaterIsReleasedOnClose() throws IOException {
+        InflaterPool pool = new InflaterPool(4);
+        Inflater inflater = new Inflater(true);
+        pool.release(inflater, true);
+
+        InputStream in = InflatingInputStream.decode(new ByteArrayInputStream(gzip(CONTENT)), "gzip", pool);
+        readFully(in);
+        // closing twice does not release twice
+        in.close();
+
+        assertSame(inflater, pool.acquire(true));
+        Inflater other = pool.acquire(true);
+        if (other == inflater) {
+            fail("Inflater was released twice");
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readAfterCloseFails() throws IOException {
+        InputStream in = decode(gzip(CONTENT), "gzip");
+        in.close();
+        in.read(new byte[10], 0, 10);
+    }
+}
@@ -0,0 +1,312 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.wink.client.ClientResponse;
+import org.junit.After;
+import org.junit.Test;
+
+public class ListenableFutureTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(runnable, "transformer");
+        }
+    });
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void listenersAreNotifiedOnce() {
+        ListenableFuture<String> future = new ListenableFuture<String>();
+        RecordingListener<String> before = new RecordingListener<String>();
+        future.addListener(before);
+        assertTrue(before.events.isEmpty());
+
+        assertTrue(future.completed("result"));
+        assertFalse(future.completed("again"));
+        assertFalse(future.failed(new IOException()));
+
+        // registered when already done: notified right away
+        RecordingListener<String> after = new RecordingListener<String>();
+        future.addListener(after);
+
+        assertEquals(1, before.events.size());
+        assertEquals("completed:result", before.events.get(0));
+        assertEquals(before.events, after.events);
+    }
+
+    @Test
+    public void listenersAreNotifiedOfFailureAndCancellation() {
+        ListenableFuture<String> failed = new ListenableFuture<String>();
+        RecordingListener<String> failure = new RecordingListener<String>();
+        failed.addListener(failure);
+        failed.failed(new IOException("boom"));
+        assertEquals("failed:boom", failure.events.get(0));
+
+        ListenableFuture<String> cancelled = new ListenableFuture<String>();
+        RecordingListener<String> cancellation = new RecordingListener<String>();
+        cancelled.addListener(cancellation);
+        assertTrue(cancelled.cancel(true));
+        assertEquals("cancelled", cancellation.events.get(0));
+    }
+
+    @Test
+    public void listenerThrowingDoesNotPreventOthers() {
+        ListenableFuture<String> future = new ListenableFuture<String>();
+        future.addListener(new RecordingListener<String>() {
+
+            @Override
+            public void completed(final String result) {
+                throw new IllegalStateException();
+            }
+        });
+        RecordingListener<String> other = new RecordingListener<String>();
+        future.addListener(other);
+
+        future.completed("result");
+        assertEquals("completed:result", other.events.get(0));
+    }
+
+    @Test
+    public void thenTransformsOnCompletingThread() throws Exception {
+        ListenableFuture<String> future = new ListenableFuture<String>();
+        final AtomicReference<Thread> transforming = new AtomicReference<Thread>();
+        ListenableFuture<Integer> length = future.then(new ResultTransformer<String, Integer>() {
+
+            @Override
+            public Integer transform(final String source) {
+                transforming.set(Thread.currentThread());
+                return source.length();
+            }
+        });
+        assertFalse(length.isDone());
+
+        future.completed("result");
+        assertEquals(Integer.valueOf(6), length.get(0, TimeUnit.MILLISECONDS));
+        assertSame(Thread.currentThread(), transforming.get());
+    }
+
+    @Test
+    public void thenTransformsOnExecutor() throws Exception {
+        ListenableFuture<String> future = new ListenableFuture<String>();
+        final AtomicReference<Thread> transforming = new AtomicReference<Thread>();
+        ListenableFuture<Integer> length = future.then(new ResultTransformer<String, Integer>() {
+
+            @Override
+            public Integer transform(final String source) {
+                transforming.set(Thread.currentThread());
+                return source.length();
+            }
+        }, executor);
+
+        future.completed("result");
+        assertEquals(Integer.valueOf(6), length.get(10, TimeUnit.SECONDS));
+        assertEquals("transformer", transforming.get().getName());
+    }
+
+    @Test
+    public void thenPropagatesFailures() throws Exception {
+        ListenableFuture<String> future = new ListenableFuture<String>();
+        ListenableFuture<Integer> failing = future.then(new ResultTransformer<String, Integer>() {
+
+            @Override
+            public Integer transform(final String source) throws Exception {
+                throw new IOException("transformation");
+            }
+        });
+
+        future.completed("result");
+        try {
+            failing.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("transformation", e.getCause().getMessage());
+        }
+
+        ListenableFuture<String> failed = new ListenableFuture<String>();
+        ListenableFuture<Integer> chained = failed.then(new ResultTransformer<String, Integer>() {
+
+            @Override
+            public Integer transform(final String source) {
+                return source.length();
+            }
+        });
+        failed.failed(new IOException("source"));
+        try {
+            chained.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("source", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void thenIsCancelledAlongWithSource() throws Exception {
+        ListenableFuture<String> future = new ListenableFuture<String>();
+        ListenableFuture<Integer> length = future.then(new ResultTransformer<String, Integer>() {
+
+            @Override
+            public Integer transform(final String source) {
+                return source.length();
+            }
+        });
+
+        future.cancel(true);
+        assertTrue(length.isCancelled());
+        try {
+            length.get();
+            fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void thenFailsWhenExecutorRejects() throws Exception {
+        executor.shutdown();
+        ListenableFuture<String> future = new ListenableFuture<String>();
+        ListenableFuture<Integer> length = future.then(new ResultTransformer<String, Integer>() {
+
+            @Override
+            public Integer transform(final String source) {
+                return source.length();
+            }
+        }, executor);
+
+        future.completed("result");
+        assertTrue(length.isDone());
+        try {
+            length.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void getWithTimeout() throws Exception {
+        final ListenableFuture<String> future = new ListenableFuture<String>();
+        try {
+            future.get(50, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                future.completed("result");
+            }
+        });
+        assertEquals("result", future.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void getWithTimeoutOnCancelled() throws Exception {
+        ListenableFuture<String> future = new ListenableFuture<String>();
+        future.cancel(false);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void deprecatedFutureClientResponseAwaitsGivenFuture() throws Exception {
+        BasicFuture<HttpResponse> failing = new BasicFuture<HttpResponse>(null);
+        @SuppressWarnings("deprecation")
+        FutureClientResponse response = new FutureClientResponse(null, null, failing, null);
+        RecordingListener<ClientResponse> listener = new RecordingListener<ClientResponse>();
+        response.addListener(listener);
+        assertFalse(response.isDone());
+
+        failing.failed(new IOException("connection refused"));
+        assertTrue(response.isDone());
+        try {
+            response.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("connection refused", e.getCause().getMessage());
+        }
+        assertEquals("failed:connection refused", listener.events.get(0));
+
+        BasicFuture<HttpResponse> cancelled = new BasicFuture<HttpResponse>(null);
+        @SuppressWarnings("deprecation")
+        FutureClientResponse cancelling = new FutureClientResponse(null, null, cancelled, null);
+        assertTrue(cancelling.cancel(true));
+        assertTrue(cancelled.isCancelled());
+    }
+
+    private static class RecordingListener<T> implements FutureCallback<T> {
+
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void completed(final T result) {
+            events.add("completed:" + result);
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            events.add("failed:" + ex.getMessage());
+        }
+
+        @Override
+        public void cancelled() {
+            events.add("cancelled");
+        }
+    }
+}
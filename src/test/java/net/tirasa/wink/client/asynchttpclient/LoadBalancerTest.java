@@ -0,0 +1,262 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpHost;
+import org.apache.wink.client.RestClient;
+import org.junit.After;
+import org.junit.Test;
+
+public class LoadBalancerTest {
+
+    /**
+     * Local endpoint, answering requests with the configured status and health probes with 200 or 503.
+     */
+    private static class StubServer {
+
+        private final HttpServer server;
+
+        private final AtomicInteger hits = new AtomicInteger();
+
+        private volatile int status = 200;
+
+        private volatile boolean healthy = true;
+
+        /**
+         * Health probes do not get any response until counted down.
+         */
+        private final CountDownLatch stall = new CountDownLatch(1);
+
+        private volatile boolean stalled;
+
+        StubServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newFixedThreadPool(4));
+            server.createContext("/", new HttpHandler() {
+
+                @Override
+                public void handle(final HttpExchange exchange) throws IOException {
+                    int code;
+                    if (exchange.getRequestURI().getPath().equals("/health")) {
+                        if (stalled) {
+                            try {
+                                stall.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        code = healthy ? 200 : 503;
+                    } else {
+                        hits.incrementAndGet();
+                        code = status;
+                    }
+                    // some body, as the JDK server keeps empty error responses open
+                    byte[] body = new byte[] { '-' };
+                    exchange.sendResponseHeaders(code, body.length);
+                    OutputStream os = exchange.getResponseBody();
+                    os.write(body);
+                    exchange.close();
+                }
+            });
+            server.start();
+        }
+
+        HttpHost host() {
+            return new HttpHost("127.0.0.1", server.getAddress().getPort());
+        }
+
+        void stop() {
+            stall.countDown();
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+        }
+    }
+
+    private final List<StubServer> servers = new ArrayList<StubServer>();
+
+    private ApacheHttpAsyncClientConfig config;
+
+    private StubServer start() throws IOException {
+        StubServer server = new StubServer();
+        servers.add(server);
+        return server;
+    }
+
+    @After
+    public void stop() throws IOException {
+        if (config != null) {
+            config.close();
+        }
+        for (StubServer server : servers) {
+            server.stop();
+        }
+    }
+
+    private static void send(final RestClient client, final int requests) {
+        for (int i = 0; i < requests; i++) {
+            client.resource("http://orders/api/" + i).get().consumeContent();
+        }
+    }
+
+    private static String stateOf(final ApacheHttpAsyncClientConnectionHandler handler, final StubServer server) {
+        for (String stats : handler.getEndpointStats()) {
+            if (stats.startsWith("orders " + server.host().toURI() + " ")) {
+                return stats.split(" ")[2];
+            }
+        }
+        throw new IllegalArgumentException("No stats for " + server.host());
+    }
+
+    private static void awaitState(final ApacheHttpAsyncClientConnectionHandler handler, final StubServer server,
+            final String state) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!state.equals(stateOf(handler, server)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(state, stateOf(handler, server));
+    }
+
+    private RestClient client(final EndpointGroup group) {
+        config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        config.addEndpointGroup(group);
+        return new RestClient(config);
+    }
+
+    @Test
+    public void failingEndpointIsEjectedThenReadmitted() throws Exception {
+        StubServer one = start();
+        StubServer two = start();
+        StubServer failing = start();
+        failing.status = 500;
+
+        EndpointGroup group = new EndpointGroup("orders", one.host(), two.host(), failing.host());
+        group.setConsecutiveFailures(3);
+        // long enough for not expiring while sending
+        group.setEjectionTime(5000);
+        RestClient client = client(group);
+
+        send(client, 30);
+        ApacheHttpAsyncClientConnectionHandler handler = config.connectionHandlers.get(0);
+
+        // requests are sent one at a time: the third failure ejects the endpoint before the next request
+        assertEquals(3, failing.hits.get());
+        assertEquals(27, one.hits.get() + two.hits.get());
+        assertTrue(one.hits.get() > 0 && two.hits.get() > 0);
+        assertEquals("EJECTED", stateOf(handler, failing));
+
+        failing.status = 200;
+        awaitState(handler, failing, "UP");
+
+        send(client, 30);
+        assertTrue(failing.hits.get() > 3);
+        assertEquals(60, one.hits.get() + two.hits.get() + failing.hits.get());
+    }
+
+    @Test
+    public void smallGroupEjectsAtLeastOneEndpoint() throws Exception {
+        StubServer one = start();
+        StubServer failing = start();
+        failing.status = 500;
+
+        EndpointGroup group = new EndpointGroup("orders", one.host(), failing.host());
+        group.setConsecutiveFailures(3);
+        group.setEjectionTime(5000);
+        // 10% of 2 endpoints rounds down to none
+        group.setMaxEjectionPercent(10);
+        RestClient client = client(group);
+
+        send(client, 20);
+        ApacheHttpAsyncClientConnectionHandler handler = config.connectionHandlers.get(0);
+
+        assertEquals(3, failing.hits.get());
+        assertEquals("EJECTED", stateOf(handler, failing));
+    }
+
+    @Test
+    public void stalledProbeTimesOutAndFreesConnection() throws Exception {
+        StubServer stalled = start();
+        stalled.stalled = true;
+
+        EndpointGroup group = new EndpointGroup("orders", stalled.host());
+        group.setHealthCheckPath("/health");
+        group.setHealthCheckInterval(2000);
+        group.setHealthCheckTimeout(200);
+        config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        config.addEndpointGroup(group);
+        // the probe and the requests share the only connection towards the endpoint
+        config.setMaxConnectionsPerRoute(1);
+        config.setRequestTimeout(5000);
+        RestClient client = new RestClient(config);
+
+        send(client, 1);
+        ApacheHttpAsyncClientConnectionHandler handler = config.connectionHandlers.get(0);
+        awaitState(handler, stalled, "UNHEALTHY");
+
+        // with no healthy endpoint, requests go to all endpoints: they get through once the probe gave up its
+        // connection, instead of timing out
+        send(client, 3);
+        assertEquals(4, stalled.hits.get());
+    }
+
+    @Test
+    public void unhealthyEndpointIsReadmittedAfterSuccessfulProbe() throws Exception {
+        StubServer one = start();
+        StubServer two = start();
+        two.healthy = false;
+
+        EndpointGroup group = new EndpointGroup("orders", one.host(), two.host());
+        group.setHealthCheckPath("/health");
+        group.setHealthCheckInterval(100);
+        RestClient client = client(group);
+
+        // health checks start along with the client
+        send(client, 1);
+        ApacheHttpAsyncClientConnectionHandler handler = config.connectionHandlers.get(0);
+        awaitState(handler, two, "UNHEALTHY");
+
+        int before = two.hits.get();
+        send(client, 30);
+        assertEquals(before, two.hits.get());
+
+        two.healthy = true;
+        awaitState(handler, two, "UP");
+
+        send(client, 30);
+        assertTrue(two.hits.get() > before);
+    }
+}
@@ -0,0 +1,221 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.http.HttpHost;
+import org.apache.wink.client.ClientRuntimeException;
+import org.apache.wink.client.RestClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsRecorderTest {
+
+    private HttpServer server;
+
+    private String baseURL;
+
+    private ApacheHttpAsyncClientConfig config;
+
+    private final RecordingListener listener = new RecordingListener();
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                byte[] body = exchange.getRequestURI().getPath().getBytes("UTF-8");
+                exchange.sendResponseHeaders(exchange.getRequestURI().getPath().startsWith("/missing") ? 404 : 200,
+                        body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        config.addMetricsListener(listener);
+    }
+
+    @After
+    public void stop() throws IOException {
+        config.close();
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    @Test
+    public void phasesAndOutcomesAreReported() throws Exception {
+        RestClient client = new RestClient(config);
+        assertEquals("/first", client.resource(baseURL + "/first").get(String.class));
+        assertEquals("/second", client.resource(baseURL + "/second").get(String.class));
+        assertEquals(404, client.resource(baseURL + "/missing").get().getStatusCode());
+
+        HttpHost target = new HttpHost("127.0.0.1", server.getAddress().getPort());
+        synchronized (listener) {
+            assertEquals(Collections.singleton(target), listener.targets);
+            assertEquals(3, listener.statusCodes.size());
+            assertTrue(listener.statusCodes.containsAll(Arrays.asList(200, 200, 404)));
+            assertTrue(listener.failures.isEmpty());
+            assertTrue(listener.phases.containsAll(EnumSet.of(
+                    RequestPhase.LEASE, RequestPhase.CONNECT, RequestPhase.TIME_TO_FIRST_BYTE, RequestPhase.BODY)));
+            // plain HTTP
+            assertFalse(listener.phases.contains(RequestPhase.TLS_HANDSHAKE));
+        }
+    }
+
+    @Test
+    public void failuresAreReported() throws Exception {
+        ServerSocket closed = new ServerSocket(0);
+        int port = closed.getLocalPort();
+        closed.close();
+
+        try {
+            new RestClient(config).resource("http://127.0.0.1:" + port + "/refused").get(String.class);
+            fail();
+        } catch (ClientRuntimeException e) {
+            // expected
+        }
+
+        synchronized (listener) {
+            assertEquals(1, listener.failures.size());
+            assertTrue(listener.statusCodes.isEmpty());
+        }
+    }
+
+    @Test
+    public void throwingListenerDoesNotAffectRequests() throws Exception {
+        config.addMetricsListener(new RecordingListener() {
+
+            @Override
+            public void phaseCompleted(final HttpHost target, final RequestPhase phase, final long nanos) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public void requestCompleted(final HttpHost target, final int statusCode, final long nanos) {
+                throw new IllegalStateException();
+            }
+        });
+
+        assertEquals("/ok", new RestClient(config).resource(baseURL + "/ok").get(String.class));
+        synchronized (listener) {
+            assertEquals(1, listener.statusCodes.size());
+        }
+    }
+
+    @Test
+    public void statsAreExposedViaJmx() throws Exception {
+        config.setJmxEnabled(true);
+        RestClient client = new RestClient(config);
+        for (int i = 0; i < 3; i++) {
+            client.resource(baseURL + "/" + i).get(String.class);
+        }
+
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ApacheHttpAsyncClientConnectionHandler handler = config.connectionHandlers.get(0);
+        ObjectName name = new ObjectName(ApacheHttpAsyncClientConnectionHandler.class.getPackage().getName()
+                + ":type=ConnectionHandler,name=" + Integer.toHexString(System.identityHashCode(handler)));
+        assertTrue(mbeanServer.isRegistered(name));
+
+        assertEquals(3L, mbeanServer.getAttribute(name, "ExecutedRequests"));
+        assertEquals(3L, mbeanServer.getAttribute(name, "CompletedRequests"));
+        assertEquals(0L, mbeanServer.getAttribute(name, "FailedRequests"));
+        // requests sent one at a time over the same kept-alive connection
+        assertEquals(1L, mbeanServer.getAttribute(name, "OpenedConnections"));
+        assertEquals(2L, mbeanServer.getAttribute(name, "ReusedConnections"));
+        assertEquals(1L, mbeanServer.getAttribute(name, "ConnectRequests"));
+        assertEquals(0L, mbeanServer.getAttribute(name, "ConnectFailures"));
+        assertEquals(1, mbeanServer.getAttribute(name, "AvailableConnections"));
+        assertEquals(0, mbeanServer.getAttribute(name, "LeasedConnections"));
+
+        String[] phases = (String[]) mbeanServer.getAttribute(name, "PhaseStats");
+        assertNotNull(phases);
+        assertTrue(phases[RequestPhase.CONNECT.ordinal()].startsWith("CONNECT [count: 1;"));
+        assertTrue(phases[RequestPhase.LEASE.ordinal()].startsWith("LEASE [count: 3;"));
+        mbeanServer.invoke(name, "resetPhaseStats", null, null);
+        phases = (String[]) mbeanServer.getAttribute(name, "PhaseStats");
+        assertTrue(phases[RequestPhase.LEASE.ordinal()].startsWith("LEASE [count: 0;"));
+
+        config.close();
+        assertFalse(mbeanServer.isRegistered(name));
+    }
+
+    private static class RecordingListener implements MetricsListener {
+
+        final Set<HttpHost> targets = new HashSet<HttpHost>();
+
+        final Set<RequestPhase> phases = EnumSet.noneOf(RequestPhase.class);
+
+        final List<Integer> statusCodes = new ArrayList<Integer>();
+
+        final List<Exception> failures = new ArrayList<Exception>();
+
+        @Override
+        public synchronized void phaseCompleted(final HttpHost target, final RequestPhase phase, final long nanos) {
+            assertTrue(nanos >= 0);
+            targets.add(target);
+            phases.add(phase);
+        }
+
+        @Override
+        public synchronized void requestCompleted(final HttpHost target, final int statusCode, final long nanos) {
+            assertTrue(nanos >= 0);
+            targets.add(target);
+            statusCodes.add(statusCode);
+        }
+
+        @Override
+        public synchronized void requestFailed(final HttpHost target, final Exception exception, final long nanos) {
+            failures.add(exception);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.wink.client.ClientConfig;
+import org.apache.wink.client.ClientResponse;
+import org.apache.wink.client.RestClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestBatchTest {
+
+    private HttpServer server;
+
+    private String baseURL;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private ApacheHttpAsyncClientConfig config;
+
+    private RestClient client;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (path.startsWith("/slow")) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                byte[] body = path.getBytes("UTF-8");
+                exchange.sendResponseHeaders(path.startsWith("/error") ? 500 : 200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        client = new RestClient(config);
+    }
+
+    @After
+    public void stop() throws IOException {
+        release.countDown();
+        config.close();
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    @Test
+    public void supportedWinkVersion() {
+        assertTrue(ResourceInvoker.isNonBlocking());
+    }
+
+    @Test
+    public void requestsAreSentWithoutWaiting() throws Exception {
+        RequestBatch batch = new RequestBatch();
+        for (int i = 0; i < 3; i++) {
+            batch.get(client.resource(baseURL + "/slow/" + i));
+        }
+        batch.invoke(client.resource(baseURL + "/slow/put").contentType("text/plain"), "PUT", "entity");
+        assertEquals(4, batch.size());
+
+        // no response is sent before all requests are
+        BatchResponse response = batch.submit();
+        assertFalse(response.isDone());
+        assertEquals(4, response.getPending());
+
+        release.countDown();
+        List<FutureClientResponse> responses = response.get(10, TimeUnit.SECONDS);
+        assertEquals(0, response.getPending());
+        assertEquals(4, responses.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("/slow/" + i, responses.get(i).getEntity(String.class));
+        }
+        assertEquals("/slow/put", responses.get(3).getEntity(String.class));
+    }
+
+    @Test
+    public void errorStatusDoesNotThrow() throws Exception {
+        ClientResponse error = ResourceInvoker.invoke(client.resource(baseURL + "/error"), "GET", null);
+        assertEquals(500, error.getStatusCode());
+
+        List<FutureClientResponse> responses = new RequestBatch().
+                get(client.resource(baseURL + "/error")).
+                get(client.resource(baseURL + "/ok")).
+                submit().get(10, TimeUnit.SECONDS);
+        assertEquals(500, responses.get(0).getStatusCode());
+        assertEquals(200, responses.get(1).getStatusCode());
+    }
+
+    @Test
+    public void cancellingBatchCancelsResponses() throws Exception {
+        BatchResponse response = new RequestBatch().
+                get(client.resource(baseURL + "/slow/1")).
+                get(client.resource(baseURL + "/slow/2")).
+                submit();
+
+        assertTrue(response.cancel(true));
+        assertTrue(response.isCancelled());
+        for (FutureClientResponse each : response.getResponses()) {
+            assertTrue(each.isCancelled());
+        }
+    }
+
+    @Test
+    public void emptyBatchIsDone() throws Exception {
+        BatchResponse response = new RequestBatch().submit();
+        assertTrue(response.isDone());
+        assertTrue(response.get().isEmpty());
+    }
+
+    @Test
+    public void foreignResourceIsRejected() throws Exception {
+        RequestBatch batch = new RequestBatch().
+                get(client.resource(baseURL + "/slow/1")).
+                get(new RestClient(new ClientConfig()).resource(baseURL + "/ok"));
+        try {
+            batch.submit();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(ApacheHttpAsyncClientConfig.class.getSimpleName()));
+        }
+    }
+}
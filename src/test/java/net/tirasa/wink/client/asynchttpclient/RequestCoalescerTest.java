@@ -0,0 +1,91 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Locale;
+import javax.ws.rs.HttpMethod;
+import org.apache.wink.client.ClientRequest;
+import org.apache.wink.client.internal.handlers.ClientRequestImpl;
+import org.junit.Test;
+
+public class RequestCoalescerTest {
+
+    private static ClientRequest request(final String method, final String uri, final String... headers) {
+        ClientRequest request = new ClientRequestImpl();
+        request.setMethod(method);
+        request.setURI(URI.create(uri));
+        for (int i = 0; i < headers.length; i += 2) {
+            request.getHeaders().add(headers[i], headers[i + 1]);
+        }
+        return request;
+    }
+
+    @Test
+    public void onlyGetAndHeadWithoutEntityAreCoalesced() {
+        assertNotNull(RequestCoalescer.key(request(HttpMethod.GET, "http://host/a")));
+        assertNotNull(RequestCoalescer.key(request(HttpMethod.HEAD, "http://host/a")));
+        assertNull(RequestCoalescer.key(request(HttpMethod.POST, "http://host/a")));
+        assertNull(RequestCoalescer.key(request(HttpMethod.DELETE, "http://host/a")));
+
+        ClientRequest withEntity = request(HttpMethod.GET, "http://host/a");
+        withEntity.setEntity("body");
+        assertNull(RequestCoalescer.key(withEntity));
+    }
+
+    @Test
+    public void keyIgnoresHeaderNameCaseAndOrder() {
+        assertEquals(
+                RequestCoalescer.key(request(HttpMethod.GET, "http://host/a", "Accept", "text/plain", "X-A", "1")),
+                RequestCoalescer.key(request(HttpMethod.GET, "http://host/a", "x-a", "1", "ACCEPT", "text/plain")));
+    }
+
+    @Test
+    public void keyTellsMethodUriAndHeaderValuesApart() {
+        String key = RequestCoalescer.key(request(HttpMethod.GET, "http://host/a", "Accept", "text/plain"));
+
+        assertFalse(key.equals(
+                RequestCoalescer.key(request(HttpMethod.HEAD, "http://host/a", "Accept", "text/plain"))));
+        assertFalse(key.equals(RequestCoalescer.key(request(HttpMethod.GET, "http://host/b", "Accept", "text/plain"))));
+        assertFalse(key.equals(RequestCoalescer.key(request(HttpMethod.GET, "http://host/a", "Accept", "text/xml"))));
+        assertFalse(key.equals(RequestCoalescer.key(request(HttpMethod.GET, "http://host/a"))));
+    }
+
+    @Test
+    public void keyDoesNotDependOnDefaultLocale() {
+        String expected = RequestCoalescer.key(request(HttpMethod.GET, "http://host/a", "If-None-Match", "\"v1\""));
+
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            String key = RequestCoalescer.key(request(HttpMethod.GET, "http://host/a", "If-None-Match", "\"v1\""));
+            assertEquals(expected, key);
+            assertTrue(key, key.contains("\nif-none-match:"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+public class RetryControllerTest {
+
+    private static RetryPolicy policy(final int budgetReserve, final double budgetPercent) {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setBudgetReserve(budgetReserve);
+        policy.setBudgetPercent(budgetPercent);
+        return policy;
+    }
+
+    @Test
+    public void budgetReserveIsSpent() {
+        RetryController controller = new RetryController(policy(2, 0));
+
+        assertTrue(controller.acquire(false));
+        assertTrue(controller.acquire(true));
+        assertFalse(controller.acquire(false));
+
+        assertEquals(1, controller.getRetried());
+        assertEquals(1, controller.getHedged());
+        assertEquals(1, controller.getBudgetExhausted());
+    }
+
+    @Test
+    public void budgetIsEarnedByRequests() {
+        RetryController controller = new RetryController(policy(1, 25));
+        assertTrue(controller.acquire(false));
+        assertFalse(controller.acquire(false));
+
+        // a quarter of retry for each request
+        for (int i = 0; i < 3; i++) {
+            controller.requestStarted();
+        }
+        assertFalse(controller.acquire(false));
+        controller.requestStarted();
+        assertTrue(controller.acquire(false));
+    }
+
+    @Test
+    public void budgetIsCapped() {
+        RetryController controller = new RetryController(policy(2, 50));
+        for (int i = 0; i < 100; i++) {
+            controller.requestStarted();
+        }
+
+        assertTrue(controller.acquire(false));
+        assertTrue(controller.acquire(false));
+        assertFalse(controller.acquire(false));
+    }
+
+    @Test
+    public void noReserveStillAllowsEarningOneRetry() {
+        RetryController controller = new RetryController(policy(0, 10));
+        assertFalse(controller.acquire(false));
+
+        for (int i = 0; i < 100; i++) {
+            controller.requestStarted();
+        }
+        assertTrue(controller.acquire(false));
+        assertFalse(controller.acquire(false));
+    }
+
+    @Test
+    public void exponentialBackoff() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialBackoff(100);
+        policy.setBackoffMultiplier(2);
+        policy.setMaxBackoff(350);
+        policy.setJitter(0);
+        RetryController controller = new RetryController(policy);
+
+        assertEquals(100, controller.backoff(1));
+        assertEquals(200, controller.backoff(2));
+        assertEquals(350, controller.backoff(3));
+        assertEquals(350, controller.backoff(10));
+    }
+
+    @Test
+    public void jitterShortensBackoff() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialBackoff(100);
+        policy.setJitter(0.5);
+        RetryController controller = new RetryController(policy);
+
+        for (int i = 0; i < 100; i++) {
+            long backoff = controller.backoff(1);
+            assertTrue(String.valueOf(backoff), backoff >= 50 && backoff <= 100);
+        }
+    }
+
+    @Test
+    public void retryableRequests() {
+        RetryController controller = new RetryController(new RetryPolicy());
+
+        assertTrue(controller.isRetryable(new HttpGet("http://localhost/")));
+        assertFalse(controller.isRetryable(new HttpPost("http://localhost/")));
+
+        HttpPut repeatable = new HttpPut("http://localhost/");
+        repeatable.setEntity(new ByteArrayEntity(new byte[] { 1 }));
+        assertTrue(controller.isRetryable(repeatable));
+
+        HttpPut streamed = new HttpPut("http://localhost/");
+        streamed.setEntity(new InputStreamEntity(new ByteArrayInputStream(new byte[] { 1 }), 1));
+        assertFalse(controller.isRetryable(streamed));
+    }
+
+    @Test
+    public void retryableOutcomes() {
+        RetryController controller = new RetryController(new RetryPolicy());
+
+        assertTrue(controller.isRetryable(new IOException()));
+        assertTrue(controller.isRetryable(new SocketTimeoutException()));
+        assertFalse(controller.isRetryable(new RequestRejectedException("overload")));
+        assertFalse(controller.isRetryable(new RequestTimeoutException("deadline")));
+        assertFalse(controller.isRetryable(new IllegalStateException()));
+
+        assertTrue(controller.isRetryable(new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Service Unavailable")));
+        assertFalse(controller.isRetryable(new BasicHttpResponse(HttpVersion.HTTP_1_1, 500, "Server Error")));
+    }
+
+    @Test
+    public void hedgeableRequests() {
+        RetryPolicy policy = new RetryPolicy();
+        assertFalse(new RetryController(policy).isHedgeable(new HttpGet("http://localhost/")));
+
+        policy.setHedgePercentile(90);
+        RetryController controller = new RetryController(policy);
+        assertTrue(controller.isHedgeable(new HttpGet("http://localhost/")));
+
+        HttpPut withEntity = new HttpPut("http://localhost/");
+        withEntity.setEntity(new ByteArrayEntity(new byte[] { 1 }));
+        assertFalse(controller.isHedgeable(withEntity));
+    }
+
+    @Test
+    public void hedgeDelayAtPercentile() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setHedgePercentile(90);
+        policy.setHedgeMinSamples(10);
+        RetryController controller = new RetryController(policy);
+
+        for (int i = 10; i >= 2; i--) {
+            controller.recordLatency(i * 10);
+        }
+        assertEquals(-1, controller.getHedgeDelay());
+
+        controller.recordLatency(10);
+        assertEquals(90, controller.getHedgeDelay());
+    }
+}
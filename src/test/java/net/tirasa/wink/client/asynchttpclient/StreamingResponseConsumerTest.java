@@ -0,0 +1,167 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.wink.client.ClientResponse;
+import org.apache.wink.client.RestClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingResponseConsumerTest {
+
+    private static final int BODY_SIZE = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private HttpServer server;
+
+    private String baseURL;
+
+    private ApacheHttpAsyncClientConfig config;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/large", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                byte[] body = new byte[BODY_SIZE];
+                Arrays.fill(body, (byte) 'x');
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                exchange.close();
+            }
+        });
+        server.createContext("/truncated", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                byte[] body = new byte[BODY_SIZE / 2];
+                Arrays.fill(body, (byte) 'x');
+                // announces more than is sent: closing the exchange then drops the connection
+                exchange.sendResponseHeaders(200, BODY_SIZE);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.flush();
+                exchange.close();
+            }
+        });
+        server.start();
+        baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        config.setStreaming(true);
+        config.setStreamingBufferSize(BUFFER_SIZE);
+    }
+
+    @After
+    public void stop() throws IOException {
+        config.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void listenerReadsEntityLargerThanBuffer() throws Exception {
+        FutureClientResponse response = (FutureClientResponse) new RestClient(config).resource(baseURL + "/large").
+                get();
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> entity = new AtomicReference<String>();
+        final AtomicReference<Thread> notified = new AtomicReference<Thread>();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        response.addListener(new FutureCallback<ClientResponse>() {
+
+            @Override
+            public void completed(final ClientResponse result) {
+                notified.set(Thread.currentThread());
+                try {
+                    // blocking read, from the listener: body does not fit the buffer
+                    entity.set(result.getEntity(String.class));
+                } catch (Exception e) {
+                    failure.set(e);
+                } finally {
+                    done.countDown();
+                }
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                failure.set(ex);
+                done.countDown();
+            }
+
+            @Override
+            public void cancelled() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(null, failure.get());
+        assertNotNull(entity.get());
+        assertEquals(BODY_SIZE, entity.get().length());
+        assertFalse(notified.get().getName().startsWith("I/O dispatcher"));
+    }
+
+    @Test
+    public void truncatedEntityFailsReading() throws Exception {
+        ClientResponse response = new RestClient(config).resource(baseURL + "/truncated").get();
+        assertEquals(200, response.getStatusCode());
+
+        InputStream in = response.getEntity(InputStream.class);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int total = 0;
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+            fail("Truncated entity read as complete: " + total + " bytes");
+        } catch (IOException e) {
+            assertTrue(total < BODY_SIZE);
+        } finally {
+            in.close();
+        }
+    }
+}
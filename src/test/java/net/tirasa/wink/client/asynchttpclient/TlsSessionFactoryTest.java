@@ -0,0 +1,190 @@
+/** *****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ ****************************************************************************** */
+package net.tirasa.wink.client.asynchttpclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsExchange;
+import com.sun.net.httpserver.HttpsServer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import org.apache.wink.client.RestClient;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TlsSessionFactoryTest {
+
+    private static final String PASSWORD = "changeit";
+
+    private static final String PROTOCOL = "TLSv1.2";
+
+    private static final String CIPHER_SUITE = "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256";
+
+    private static File keyStoreFile;
+
+    private static KeyStore keyStore;
+
+    private static HttpsServer server;
+
+    private static String url;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        keyStoreFile = File.createTempFile("tls-test", ".jks");
+        keyStoreFile.delete();
+        generateSelfSigned(keyStoreFile);
+
+        keyStore = KeyStore.getInstance("JKS");
+        InputStream is = new FileInputStream(keyStoreFile);
+        try {
+            keyStore.load(is, PASSWORD.toCharArray());
+        } finally {
+            is.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD.toCharArray());
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+
+        server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(serverContext));
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                SSLSession session = ((HttpsExchange) exchange).getSSLSession();
+                byte[] body = (session.getProtocol() + " " + session.getCipherSuite()).getBytes("UTF-8");
+                // each request on a new connection, hence with a new handshake
+                exchange.getResponseHeaders().add("Connection", "close");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "https://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+        keyStoreFile.delete();
+    }
+
+    /**
+     * Generates a key store holding a self-signed certificate for 127.0.0.1, via the keytool of the running JDK.
+     */
+    private static void generateSelfSigned(final File file) throws Exception {
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server",
+                "-keyalg", "RSA", "-keysize", "2048", "-validity", "2",
+                "-dname", "CN=127.0.0.1", "-ext", "SAN=ip:127.0.0.1",
+                "-storetype", "JKS", "-keystore", file.getAbsolutePath(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD).redirectErrorStream(true).start();
+        InputStream output = process.getInputStream();
+        while (output.read() != -1) {
+            // discard
+        }
+        assertEquals("keytool exit code", 0, process.waitFor());
+    }
+
+    private static ApacheHttpAsyncClientConfig config() {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        config.setTrustStore(keyStore);
+        config.setTlsProtocols(PROTOCOL);
+        config.setCipherSuites(CIPHER_SUITE);
+        return config;
+    }
+
+    @Test
+    public void configuredProtocolAndCipherSuiteAreNegotiated() throws IOException {
+        ApacheHttpAsyncClientConfig config = config();
+        try {
+            RestClient client = new RestClient(config);
+
+            assertEquals(PROTOCOL + " " + CIPHER_SUITE, client.resource(url).get(String.class));
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void secondConnectionResumesSession() throws IOException {
+        ApacheHttpAsyncClientConfig config = config();
+        config.setSslSessionCacheSize(10);
+        config.setSslSessionTimeout(60);
+        try {
+            RestClient client = new RestClient(config);
+            ApacheHttpAsyncClientConnectionHandler handler = config.connectionHandlers.get(0);
+
+            client.resource(url).get(String.class);
+            assertEquals(1, handler.getTlsHandshakes());
+            assertEquals(0, handler.getResumedTlsSessions());
+
+            client.resource(url).get(String.class);
+            assertEquals(2, handler.getOpenedConnections());
+            assertEquals(2, handler.getTlsHandshakes());
+            assertEquals(1, handler.getResumedTlsSessions());
+        } finally {
+            config.close();
+        }
+    }
+
+    @Test
+    public void untrustedServerFailsHandshake() throws IOException {
+        ApacheHttpAsyncClientConfig config = new ApacheHttpAsyncClientConfig();
+        config.setCloseOnShutdown(false);
+        try {
+            RestClient client = new RestClient(config);
+            try {
+                client.resource(url).get(String.class);
+            } catch (RuntimeException e) {
+                Throwable cause = e;
+                while (cause.getCause() != null && !(cause instanceof SSLException)) {
+                    cause = cause.getCause();
+                }
+                assertTrue(String.valueOf(cause), cause instanceof SSLException);
+                assertEquals(0, config.connectionHandlers.get(0).getTlsHandshakes());
+                return;
+            }
+            throw new AssertionError("Request to untrusted server succeeded");
+        } finally {
+            config.close();
+        }
+    }
+}